@@ -0,0 +1,143 @@
+import org.bytedeco.llvm.LLVM.*;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+import static org.bytedeco.llvm.global.LLVM.*;
+
+/**
+ * 简单的基于基址的别名分析
+ * 不同的全局变量/局部数组互不重叠；同一对象上常量偏移不同的地址互不重叠；
+ * 指针参数可能指向任意全局变量或调用者的数组，但不会指向本函数的局部数组
+ * 地址经过 phi/select（循环强度削弱生成的递增指针）时追溯到各入边的基址，追溯不到时按可能重叠处理
+ */
+public final class AliasAnalysis {
+    private static final int MAX_UNDERLYING = 8;
+
+    private AliasAnalysis() {
+    }
+
+    /**
+     * 两个地址是否可能指向同一内存
+     */
+    public static boolean mayAlias(LLVMValueRef p, LLVMValueRef q) {
+        if (p.equals(q)) return true;
+        LLVMValueRef baseP = baseObject(p);
+        LLVMValueRef baseQ = baseObject(q);
+        Set<LLVMValueRef> objectsP = underlyingObjects(baseP);
+        Set<LLVMValueRef> objectsQ = underlyingObjects(baseQ);
+        if (objectsP != null && objectsQ != null) {
+            if (allMatch(objectsP, AliasAnalysis::isIdentifiedObject) && allMatch(objectsQ, AliasAnalysis::isIdentifiedObject)
+                    && Collections.disjoint(objectsP, objectsQ)) {
+                return false; // 不同的全局变量/局部数组
+            }
+            // 局部数组不会被本函数的指针参数指向
+            if ((allMatch(objectsP, AliasAnalysis::isAlloca) && allMatch(objectsQ, AliasAnalysis::isArgument))
+                    || (allMatch(objectsQ, AliasAnalysis::isAlloca) && allMatch(objectsP, AliasAnalysis::isArgument))) {
+                return false;
+            }
+        }
+        if (baseP.equals(baseQ)) {
+            // 同一对象上的两个常量偏移地址：SysY 只按 int 访问内存，偏移不同就不重叠
+            Long offsetP = constantOffset(p);
+            Long offsetQ = constantOffset(q);
+            if (offsetP != null && offsetQ != null && !offsetP.equals(offsetQ)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 剥掉 GEP 链得到的基址
+     */
+    public static LLVMValueRef baseObject(LLVMValueRef pointer) {
+        while (LLVMIsAGetElementPtrInst(pointer) != null) {
+            pointer = LLVMGetOperand(pointer, 0);
+        }
+        return pointer;
+    }
+
+    /**
+     * 基址可能指向的对象：穿过 phi/select 的各个入边（以及入边上的 GEP），
+     * 对象过多（或只在 phi 之间循环、没有任何对象）时返回 null
+     */
+    private static Set<LLVMValueRef> underlyingObjects(LLVMValueRef base) {
+        Set<LLVMValueRef> objects = new HashSet<>();
+        Set<LLVMValueRef> visited = new HashSet<>();
+        Deque<LLVMValueRef> worklist = new ArrayDeque<>();
+        worklist.push(base);
+        while (!worklist.isEmpty()) {
+            LLVMValueRef value = baseObject(worklist.pop());
+            if (!visited.add(value)) continue;
+            if (LLVMIsAPHINode(value) != null) {
+                for (int i = 0; i < LLVMCountIncoming(value); i++) {
+                    worklist.push(LLVMGetIncomingValue(value, i));
+                }
+            } else if (LLVMIsASelectInst(value) != null) {
+                worklist.push(LLVMGetOperand(value, 1));
+                worklist.push(LLVMGetOperand(value, 2));
+            } else {
+                objects.add(value);
+                if (objects.size() > MAX_UNDERLYING) return null;
+            }
+        }
+        return objects.isEmpty() ? null : objects;
+    }
+
+    private static boolean allMatch(Set<LLVMValueRef> objects, Predicate<LLVMValueRef> predicate) {
+        for (LLVMValueRef object : objects) {
+            if (!predicate.test(object)) return false;
+        }
+        return true;
+    }
+
+    private static boolean isAlloca(LLVMValueRef base) {
+        return LLVMIsAAllocaInst(base) != null;
+    }
+
+    private static boolean isArgument(LLVMValueRef base) {
+        return LLVMIsAArgument(base) != null;
+    }
+
+    /**
+     * 基址是否为可识别的独立对象（全局变量或 alloca）
+     */
+    public static boolean isIdentifiedObject(LLVMValueRef base) {
+        return LLVMIsAGlobalVariable(base) != null || LLVMIsAAllocaInst(base) != null;
+    }
+
+    /**
+     * pointer 相对基址的字节偏移，含非常量下标时返回 null
+     */
+    public static Long constantOffset(LLVMValueRef pointer) {
+        long offset = 0;
+        while (LLVMIsAGetElementPtrInst(pointer) != null) {
+            LLVMTypeRef type = LLVMGetElementType(LLVMTypeOf(LLVMGetOperand(pointer, 0)));
+            for (int i = 1; i < LLVMGetNumOperands(pointer); i++) {
+                LLVMValueRef index = LLVMGetOperand(pointer, i);
+                if (LLVMIsAConstantInt(index) == null) return null;
+                if (i > 1) {
+                    type = LLVMGetElementType(type); // 第一个下标按整个指向类型跨越，之后逐层进入数组
+                }
+                offset += LLVMConstIntGetSExtValue(index) * sizeOf(type);
+            }
+            pointer = LLVMGetOperand(pointer, 0);
+        }
+        return offset;
+    }
+
+    /**
+     * 类型占用的字节数（SysY 中只有 int 和 int 数组）
+     */
+    public static long sizeOf(LLVMTypeRef type) {
+        switch (LLVMGetTypeKind(type)) {
+            case LLVMIntegerTypeKind:
+                return Math.max(1, LLVMGetIntTypeWidth(type) / 8);
+            case LLVMArrayTypeKind:
+                return LLVMGetArrayLength(type) * sizeOf(LLVMGetElementType(type));
+            default:
+                return 8;
+        }
+    }
+}
@@ -12,6 +12,8 @@ import java.util.*;
 
 
 public interface  AllocateRegister {
+    int MAX_REGISTERS = 18;  // 可分配的寄存器总数，循环展开据此估计寄存器压力
+
     Value allocateRegister();
 }
 
@@ -33,7 +35,7 @@ class AllocateToStack implements AllocateRegister {
 // 线性扫描
 class LinearScan implements AllocateRegister {
     private Map<String, LiveInterval> liveIntervals;  // 生命周期信息
-    private int maxRegisters = 18;  // 默认可用寄存器数
+    private int maxRegisters = MAX_REGISTERS;  // 默认可用寄存器数
 
     //寄存器状态
     private List<String> availableRegisters = new ArrayList<>();
@@ -0,0 +1,50 @@
+import org.bytedeco.llvm.LLVM.LLVMValueRef;
+
+import java.util.*;
+
+/**
+ * 分析管理器：按函数缓存 CFG、支配树和循环信息
+ * 修改了某个函数的 IR 后必须调用 invalidate，下次查询时重新计算
+ */
+public class AnalysisManager {
+    private final Map<LLVMValueRef, CFG> cfgCache = new HashMap<>();
+    private final Map<LLVMValueRef, DominatorTree> domTreeCache = new HashMap<>();
+    private final Map<LLVMValueRef, LoopInfo> loopInfoCache = new HashMap<>();
+
+    public CFG getCFG(LLVMValueRef function) {
+        return cfgCache.computeIfAbsent(function, CFG::new);
+    }
+
+    public DominatorTree getDominatorTree(LLVMValueRef function) {
+        DominatorTree domTree = domTreeCache.get(function);
+        if (domTree == null) {
+            domTree = new DominatorTree(getCFG(function));
+            domTreeCache.put(function, domTree);
+        }
+        return domTree;
+    }
+
+    public LoopInfo getLoopInfo(LLVMValueRef function) {
+        LoopInfo loopInfo = loopInfoCache.get(function);
+        if (loopInfo == null) {
+            loopInfo = new LoopInfo(getCFG(function), getDominatorTree(function));
+            loopInfoCache.put(function, loopInfo);
+        }
+        return loopInfo;
+    }
+
+    /**
+     * 丢弃某个函数的全部分析结果
+     */
+    public void invalidate(LLVMValueRef function) {
+        cfgCache.remove(function);
+        domTreeCache.remove(function);
+        loopInfoCache.remove(function);
+    }
+
+    public void invalidateAll() {
+        cfgCache.clear();
+        domTreeCache.clear();
+        loopInfoCache.clear();
+    }
+}
@@ -0,0 +1,106 @@
+import org.bytedeco.llvm.LLVM.LLVMBasicBlockRef;
+import org.bytedeco.llvm.LLVM.LLVMValueRef;
+
+import java.util.*;
+
+import static org.bytedeco.llvm.global.LLVM.*;
+
+/**
+ * 控制流图：记录一个函数中基本块的前驱/后继，以及从入口出发的逆后序
+ * 前驱和后继都按边计数，条件跳转两个目标相同时会出现两次（与 phi 的入边一一对应）
+ */
+public class CFG {
+    private final LLVMValueRef function;
+    private final LLVMBasicBlockRef entry;
+
+    // 按布局顺序排列的全部基本块
+    private final List<LLVMBasicBlockRef> blocks = new ArrayList<>();
+    private final Map<LLVMBasicBlockRef, List<LLVMBasicBlockRef>> successors = new HashMap<>();
+    private final Map<LLVMBasicBlockRef, List<LLVMBasicBlockRef>> predecessors = new HashMap<>();
+
+    // 只包含从入口可达的块
+    private final List<LLVMBasicBlockRef> reversePostOrder = new ArrayList<>();
+    private final Map<LLVMBasicBlockRef, Integer> rpoIndex = new HashMap<>();
+
+    public CFG(LLVMValueRef function) {
+        this.function = function;
+        this.entry = LLVMGetEntryBasicBlock(function);
+
+        for (LLVMBasicBlockRef bb = LLVMGetFirstBasicBlock(function); bb != null; bb = LLVMGetNextBasicBlock(bb)) {
+            blocks.add(bb);
+            predecessors.putIfAbsent(bb, new ArrayList<>());
+            List<LLVMBasicBlockRef> succs = new ArrayList<>();
+            LLVMValueRef terminator = LLVMGetBasicBlockTerminator(bb);
+            if (terminator != null) {
+                for (int i = 0; i < LLVMGetNumSuccessors(terminator); i++) {
+                    LLVMBasicBlockRef succ = LLVMGetSuccessor(terminator, i);
+                    succs.add(succ);
+                    predecessors.computeIfAbsent(succ, k -> new ArrayList<>()).add(bb);
+                }
+            }
+            successors.put(bb, succs);
+        }
+
+        computeReversePostOrder();
+    }
+
+    //辅助方法：迭代 DFS 求后序，再反转得到逆后序
+    private void computeReversePostOrder() {
+        List<LLVMBasicBlockRef> postOrder = new ArrayList<>();
+        Set<LLVMBasicBlockRef> visited = new HashSet<>();
+        Deque<LLVMBasicBlockRef> stack = new ArrayDeque<>();
+        Deque<Iterator<LLVMBasicBlockRef>> iterators = new ArrayDeque<>();
+        visited.add(entry);
+        stack.push(entry);
+        iterators.push(successors.get(entry).iterator());
+        while (!stack.isEmpty()) {
+            Iterator<LLVMBasicBlockRef> it = iterators.peek();
+            if (it.hasNext()) {
+                LLVMBasicBlockRef succ = it.next();
+                if (visited.add(succ)) {
+                    stack.push(succ);
+                    iterators.push(successors.get(succ).iterator());
+                }
+            } else {
+                postOrder.add(stack.pop());
+                iterators.pop();
+            }
+        }
+        for (int i = postOrder.size() - 1; i >= 0; i--) {
+            rpoIndex.put(postOrder.get(i), reversePostOrder.size());
+            reversePostOrder.add(postOrder.get(i));
+        }
+    }
+
+    public LLVMValueRef getFunction() {
+        return function;
+    }
+
+    public LLVMBasicBlockRef getEntry() {
+        return entry;
+    }
+
+    public List<LLVMBasicBlockRef> getBlocks() {
+        return blocks;
+    }
+
+    public List<LLVMBasicBlockRef> getSuccessors(LLVMBasicBlockRef block) {
+        return successors.getOrDefault(block, Collections.emptyList());
+    }
+
+    public List<LLVMBasicBlockRef> getPredecessors(LLVMBasicBlockRef block) {
+        return predecessors.getOrDefault(block, Collections.emptyList());
+    }
+
+    public List<LLVMBasicBlockRef> getReversePostOrder() {
+        return reversePostOrder;
+    }
+
+    public int getRpoIndex(LLVMBasicBlockRef block) {
+        return rpoIndex.get(block);
+    }
+
+    public boolean isReachable(LLVMBasicBlockRef block) {
+        return rpoIndex.containsKey(block);
+    }
+}
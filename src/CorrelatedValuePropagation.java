@@ -0,0 +1,121 @@
+import org.bytedeco.llvm.LLVM.*;
+
+import java.util.*;
+
+import static org.bytedeco.llvm.global.LLVM.*;
+
+/**
+ * 根据值域分析（ValueRange）简化指令：
+ *   sdiv x, 2^k 且 x >= 0   ->  ashr x, k        （后端为一条 srai，省掉 div）
+ *   srem x, 2^k 且 x >= 0   ->  and x, 2^k - 1   （后端为一条 andi，省掉 rem）
+ *   sdiv/srem x, c 且 0 <= x < |c|  ->  0 / x
+ *   icmp 的结果由两边的区间决定时替换为常量，之后由 SimplifyCFG 删除不会走到的分支
+ * 被除数可能为负时有符号除法需要向零取整的修正，仍保留 div/rem
+ * 区间在使用处求值，带上支配该处的条件跳转的约束（例如循环体中的归纳变量受循环条件限制）
+ */
+public class CorrelatedValuePropagation extends FunctionPass {
+    private LLVMBuilderRef builderRef;
+
+    private int simplifiedDivisions = 0;
+    private int simplifiedRemainders = 0;
+    private int foldedCompares = 0;
+
+    @Override
+    public String getName() {
+        return "correlated-propagation";
+    }
+
+    @Override
+    public Map<String, Integer> getStatistics() {
+        Map<String, Integer> stats = new LinkedHashMap<>();
+        stats.put("简化的除法", simplifiedDivisions);
+        stats.put("简化的取余", simplifiedRemainders);
+        stats.put("折叠为常量的比较", foldedCompares);
+        return stats;
+    }
+
+    @Override
+    public boolean runOnFunction(LLVMValueRef function, AnalysisManager analyses) {
+        CFG cfg = analyses.getCFG(function);
+        ValueRange ranges = new ValueRange(cfg, analyses.getDominatorTree(function));
+        builderRef = LLVMCreateBuilderInContext(LLVMGetModuleContext(LLVMGetGlobalParent(function)));
+
+        // 先求出所有候选指令操作数的区间，再统一改写：区间按 LLVMValueRef 缓存，
+        // 改写中删除的指令地址会被新建的指令复用，改写开始后不能再查询分析结果
+        List<LLVMValueRef> candidates = new ArrayList<>();
+        List<ValueRange.Range> lhsRanges = new ArrayList<>();
+        List<ValueRange.Range> rhsRanges = new ArrayList<>();
+        for (LLVMBasicBlockRef bb : cfg.getReversePostOrder()) {
+            for (LLVMValueRef inst = LLVMGetFirstInstruction(bb); inst != null; inst = LLVMGetNextInstruction(inst)) {
+                int opcode = LLVMGetInstructionOpcode(inst);
+                if (opcode == LLVMSDiv || opcode == LLVMSRem || opcode == LLVMICmp) {
+                    candidates.add(inst);
+                    lhsRanges.add(ranges.getRangeAt(LLVMGetOperand(inst, 0), bb));
+                    rhsRanges.add(ranges.getRangeAt(LLVMGetOperand(inst, 1), bb));
+                }
+            }
+        }
+        // 被替换的指令只是失去使用者，最后统一删除，收集的引用始终有效
+        List<LLVMValueRef> replaced = new ArrayList<>();
+        for (int i = 0; i < candidates.size(); i++) {
+            LLVMValueRef inst = candidates.get(i);
+            boolean simplified = LLVMGetInstructionOpcode(inst) == LLVMICmp
+                    ? foldCompare(inst, lhsRanges.get(i), rhsRanges.get(i))
+                    : simplifyDivision(inst, lhsRanges.get(i));
+            if (simplified) replaced.add(inst);
+        }
+        for (LLVMValueRef inst : replaced) {
+            LLVMInstructionEraseFromParent(inst);
+        }
+        LLVMDisposeBuilder(builderRef);
+        return !replaced.isEmpty();
+    }
+
+    private boolean foldCompare(LLVMValueRef inst, ValueRange.Range lhs, ValueRange.Range rhs) {
+        LLVMTypeRef type = LLVMTypeOf(LLVMGetOperand(inst, 0));
+        if (LLVMGetTypeKind(type) != LLVMIntegerTypeKind || LLVMGetIntTypeWidth(type) != 32) return false;
+        Boolean result = ValueRange.evaluate(LLVMGetICmpPredicate(inst), lhs, rhs);
+        if (result == null) return false;
+        LLVMReplaceAllUsesWith(inst, LLVMConstInt(LLVMTypeOf(inst), result ? 1 : 0, 0));
+        foldedCompares++;
+        return true;
+    }
+
+    private boolean simplifyDivision(LLVMValueRef inst, ValueRange.Range dividend) {
+        LLVMValueRef divisor = LLVMGetOperand(inst, 1);
+        if (LLVMIsAConstantInt(divisor) == null || !dividend.isNonNegative()) return false;
+        long magnitude = Math.abs(LLVMConstIntGetSExtValue(divisor));
+        boolean isDivision = LLVMGetInstructionOpcode(inst) == LLVMSDiv;
+        LLVMValueRef x = LLVMGetOperand(inst, 0);
+        LLVMTypeRef type = LLVMTypeOf(inst);
+
+        LLVMValueRef replacement;
+        if (magnitude > 1 && dividend.hi < magnitude) {
+            // 被除数小于除数：商为 0，余数为被除数本身
+            replacement = isDivision ? LLVMConstInt(type, 0, 0) : x;
+        } else if (Long.bitCount(magnitude) == 1 && magnitude > 1 && LLVMConstIntGetSExtValue(divisor) > 0 && isDivision) {
+            LLVMPositionBuilderBefore(builderRef, inst);
+            replacement = LLVMBuildAShr(builderRef, x, LLVMConstInt(type, Long.numberOfTrailingZeros(magnitude), 0), "");
+        } else if (Long.bitCount(magnitude) == 1 && magnitude > 1 && !isDivision) {
+            // 余数的符号只取决于被除数，除数为负时结果相同
+            LLVMPositionBuilderBefore(builderRef, inst);
+            replacement = LLVMBuildAnd(builderRef, x, LLVMConstInt(type, magnitude - 1, 0), "");
+        } else {
+            return false;
+        }
+
+        // 新建的指令沿用原来的名字（后端按名字分配寄存器）
+        if (!replacement.equals(x) && LLVMIsAInstruction(replacement) != null) {
+            String name = IrUtils.nameOf(inst);
+            IrUtils.setName(inst, "");
+            IrUtils.setName(replacement, name);
+        }
+        LLVMReplaceAllUsesWith(inst, replacement);
+        if (isDivision) {
+            simplifiedDivisions++;
+        } else {
+            simplifiedRemainders++;
+        }
+        return true;
+    }
+}
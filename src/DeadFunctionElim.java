@@ -0,0 +1,181 @@
+import org.bytedeco.javacpp.PointerPointer;
+import org.bytedeco.llvm.LLVM.*;
+
+import java.util.*;
+
+import static org.bytedeco.llvm.global.LLVM.*;
+
+/**
+ * 死函数与死参数删除：
+ * 1. 从 main 出发沿调用图求可达的函数，其余函数（内联后不再被调用的函数、从没用过的库函数声明）
+ *    从模块中删除，后端不再为它们做活跃分析和翻译
+ * 2. 除 main 外只被直接调用的函数，删除函数体中没有使用的形参，所有调用都不使用返回值时改为返回 void
+ *    C API 不能修改函数类型，按新类型建一个同名函数，把基本块搬过去，再逐个重建调用
+ * 模块中没有 main 时不删除函数
+ */
+public class DeadFunctionElim implements Pass {
+    private int deletedFunctions = 0;
+    private int deletedParams = 0;
+    private int deletedReturns = 0;
+
+    @Override
+    public String getName() {
+        return "deadfunc";
+    }
+
+    @Override
+    public Map<String, Integer> getStatistics() {
+        Map<String, Integer> stats = new LinkedHashMap<>();
+        stats.put("删除的函数", deletedFunctions);
+        stats.put("删除的形参", deletedParams);
+        stats.put("删除的返回值", deletedReturns);
+        return stats;
+    }
+
+    @Override
+    public boolean run(LLVMModuleRef module, AnalysisManager analyses) {
+        boolean changed = removeUnreachableFunctions(module, analyses);
+
+        List<LLVMValueRef> functions = new ArrayList<>();
+        for (LLVMValueRef func = LLVMGetFirstFunction(module); func != null; func = LLVMGetNextFunction(func)) {
+            if (LLVMCountBasicBlocks(func) != 0 && !IrUtils.nameOf(func).equals("main")) functions.add(func);
+        }
+        LLVMBuilderRef builderRef = LLVMCreateBuilderInContext(LLVMGetModuleContext(module));
+        for (LLVMValueRef func : functions) {
+            changed |= removeDeadArguments(module, func, builderRef, analyses);
+        }
+        LLVMDisposeBuilder(builderRef);
+        return changed;
+    }
+
+    private boolean removeUnreachableFunctions(LLVMModuleRef module, AnalysisManager analyses) {
+        LLVMValueRef main = LLVMGetNamedFunction(module, "main");
+        if (main == null) return false;
+
+        Set<LLVMValueRef> reachable = new HashSet<>();
+        Deque<LLVMValueRef> worklist = new ArrayDeque<>();
+        reachable.add(main);
+        worklist.push(main);
+        while (!worklist.isEmpty()) {
+            LLVMValueRef func = worklist.pop();
+            for (LLVMBasicBlockRef bb = LLVMGetFirstBasicBlock(func); bb != null; bb = LLVMGetNextBasicBlock(bb)) {
+                for (LLVMValueRef inst = LLVMGetFirstInstruction(bb); inst != null; inst = LLVMGetNextInstruction(inst)) {
+                    if (LLVMGetInstructionOpcode(inst) != LLVMCall) continue;
+                    LLVMValueRef callee = LLVMGetCalledValue(inst);
+                    if (LLVMIsAFunction(callee) != null && reachable.add(callee)) worklist.push(callee);
+                }
+            }
+        }
+
+        List<LLVMValueRef> dead = new ArrayList<>();
+        for (LLVMValueRef func = LLVMGetFirstFunction(module); func != null; func = LLVMGetNextFunction(func)) {
+            if (!reachable.contains(func)) dead.add(func);
+        }
+        // 死函数之间可能互相调用，先清空函数体再删除
+        for (LLVMValueRef func : dead) {
+            analyses.invalidate(func);
+            List<LLVMBasicBlockRef> blocks = new ArrayList<>();
+            for (LLVMBasicBlockRef bb = LLVMGetFirstBasicBlock(func); bb != null; bb = LLVMGetNextBasicBlock(bb)) {
+                blocks.add(bb);
+            }
+            IrUtils.deleteBlocks(blocks);
+        }
+        for (LLVMValueRef func : dead) {
+            LLVMDeleteFunction(func);
+            deletedFunctions++;
+        }
+        return !dead.isEmpty();
+    }
+
+    private boolean removeDeadArguments(LLVMModuleRef module, LLVMValueRef func, LLVMBuilderRef builderRef, AnalysisManager analyses) {
+        // 只被直接调用时才能改写所有调用点
+        List<LLVMValueRef> calls = new ArrayList<>();
+        boolean resultUsed = false;
+        for (LLVMUseRef use = LLVMGetFirstUse(func); use != null; use = LLVMGetNextUse(use)) {
+            LLVMValueRef user = LLVMGetUser(use);
+            if (LLVMIsACallInst(user) == null || !LLVMGetCalledValue(user).equals(func)) return false;
+            calls.add(user);
+            resultUsed |= LLVMGetFirstUse(user) != null;
+        }
+
+        LLVMTypeRef functionType = LLVMGetElementType(LLVMTypeOf(func));
+        LLVMTypeRef returnType = LLVMGetReturnType(functionType);
+        boolean dropReturn = LLVMGetTypeKind(returnType) != LLVMVoidTypeKind && !resultUsed;
+
+        // 1. 不再返回值时 ret v 改为 ret void，只为返回值而做的计算随之删除，用到的形参也可能因此变为无用
+        if (dropReturn) {
+            for (LLVMBasicBlockRef bb = LLVMGetFirstBasicBlock(func); bb != null; bb = LLVMGetNextBasicBlock(bb)) {
+                LLVMValueRef ret = LLVMGetBasicBlockTerminator(bb);
+                if (ret == null || LLVMGetInstructionOpcode(ret) != LLVMRet) continue;
+                LLVMValueRef value = LLVMGetOperand(ret, 0);
+                LLVMPositionBuilderBefore(builderRef, ret);
+                LLVMBuildRetVoid(builderRef);
+                LLVMInstructionEraseFromParent(ret);
+                deleteIfDead(value);
+            }
+            deletedReturns++;
+        }
+
+        List<Integer> kept = new ArrayList<>();
+        for (int i = 0; i < LLVMCountParams(func); i++) {
+            if (LLVMGetFirstUse(LLVMGetParam(func, i)) != null) kept.add(i);
+        }
+        if (!dropReturn && kept.size() == LLVMCountParams(func)) return false;
+
+        // 2. 按新类型建函数，原函数改名后把基本块搬过去
+        String name = IrUtils.nameOf(func);
+        IrUtils.setName(func, name + "_dead_args");
+        LLVMTypeRef newReturnType = dropReturn ? LLVMVoidTypeInContext(LLVMGetModuleContext(module)) : returnType;
+        LLVMTypeRef[] paramTypes = new LLVMTypeRef[kept.size()];
+        for (int i = 0; i < kept.size(); i++) paramTypes[i] = LLVMTypeOf(LLVMGetParam(func, kept.get(i)));
+        LLVMTypeRef newType = LLVMFunctionType(newReturnType, new PointerPointer<>(paramTypes), paramTypes.length, 0);
+        LLVMValueRef newFunc = LLVMAddFunction(module, name, newType);
+        LLVMSetLinkage(newFunc, LLVMGetLinkage(func));
+        LLVMBasicBlockRef bb;
+        while ((bb = LLVMGetFirstBasicBlock(func)) != null) {
+            LLVMRemoveBasicBlockFromParent(bb);
+            LLVMAppendExistingBasicBlock(newFunc, bb);
+        }
+        for (int i = 0; i < kept.size(); i++) {
+            LLVMValueRef param = LLVMGetParam(func, kept.get(i));
+            LLVMValueRef newParam = LLVMGetParam(newFunc, i);
+            IrUtils.setName(newParam, IrUtils.nameOf(param));
+            LLVMReplaceAllUsesWith(param, newParam);
+        }
+
+        // 3. 重建调用，只传保留的实参
+        for (LLVMValueRef call : calls) {
+            LLVMValueRef[] args = new LLVMValueRef[kept.size()];
+            for (int i = 0; i < kept.size(); i++) args[i] = LLVMGetOperand(call, kept.get(i));
+            String callName = dropReturn ? "" : IrUtils.nameOf(call);
+            IrUtils.setName(call, "");
+            LLVMPositionBuilderBefore(builderRef, call);
+            LLVMValueRef newCall = LLVMBuildCall2(builderRef, newType, newFunc, new PointerPointer<>(args), args.length, callName);
+            LLVMSetTailCall(newCall, LLVMIsTailCall(call));
+            if (!dropReturn) LLVMReplaceAllUsesWith(call, newCall);
+            analyses.invalidate(LLVMGetBasicBlockParent(LLVMGetInstructionParent(call)));
+            LLVMInstructionEraseFromParent(call);
+        }
+
+        deletedParams += LLVMCountParams(func) - kept.size();
+        analyses.invalidate(func);
+        analyses.invalidate(newFunc);
+        LLVMDeleteFunction(func);
+        return true;
+    }
+
+    //辅助方法：删除不再被使用且没有副作用的指令，并继续检查它的操作数
+    private void deleteIfDead(LLVMValueRef root) {
+        Deque<LLVMValueRef> worklist = new ArrayDeque<>();
+        Set<LLVMValueRef> erased = new HashSet<>();
+        worklist.push(root);
+        while (!worklist.isEmpty()) {
+            LLVMValueRef value = worklist.pop();
+            if (erased.contains(value) || LLVMIsAInstruction(value) == null) continue;
+            if (LLVMGetFirstUse(value) != null || !IrUtils.isRemovableIfUnused(value)) continue;
+            for (int i = 0; i < LLVMGetNumOperands(value); i++) worklist.push(LLVMGetOperand(value, i));
+            erased.add(value);
+            LLVMInstructionEraseFromParent(value);
+        }
+    }
+}
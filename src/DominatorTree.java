@@ -0,0 +1,167 @@
+import org.bytedeco.llvm.LLVM.LLVMBasicBlockRef;
+import org.bytedeco.llvm.LLVM.LLVMValueRef;
+
+import java.util.*;
+
+import static org.bytedeco.llvm.global.LLVM.*;
+
+/**
+ * 支配树：Cooper-Harvey-Kennedy 迭代算法
+ * 只覆盖从入口可达的块；不可达块没有直接支配者，也不被任何块支配
+ */
+public class DominatorTree {
+    private final CFG cfg;
+    private final Map<LLVMBasicBlockRef, LLVMBasicBlockRef> idom = new HashMap<>();
+    private final Map<LLVMBasicBlockRef, List<LLVMBasicBlockRef>> children = new HashMap<>();
+
+    // 支配树先序编号区间，用于 O(1) 判断支配关系
+    private final Map<LLVMBasicBlockRef, Integer> preorderIn = new HashMap<>();
+    private final Map<LLVMBasicBlockRef, Integer> preorderOut = new HashMap<>();
+
+    // 支配边界按需计算
+    private Map<LLVMBasicBlockRef, Set<LLVMBasicBlockRef>> frontiers;
+
+    public DominatorTree(CFG cfg) {
+        this.cfg = cfg;
+        LLVMBasicBlockRef entry = cfg.getEntry();
+
+        idom.put(entry, entry);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (LLVMBasicBlockRef bb : cfg.getReversePostOrder()) {
+                if (bb.equals(entry)) continue;
+                LLVMBasicBlockRef newIdom = null;
+                for (LLVMBasicBlockRef pred : cfg.getPredecessors(bb)) {
+                    if (!idom.containsKey(pred)) continue; // 不可达或尚未处理
+                    newIdom = newIdom == null ? pred : intersect(pred, newIdom);
+                }
+                if (newIdom != null && !newIdom.equals(idom.get(bb))) {
+                    idom.put(bb, newIdom);
+                    changed = true;
+                }
+            }
+        }
+
+        for (LLVMBasicBlockRef bb : cfg.getReversePostOrder()) {
+            children.put(bb, new ArrayList<>());
+        }
+        for (LLVMBasicBlockRef bb : cfg.getReversePostOrder()) {
+            if (!bb.equals(entry)) {
+                children.get(idom.get(bb)).add(bb);
+            }
+        }
+
+        numberPreorder(entry);
+    }
+
+    private LLVMBasicBlockRef intersect(LLVMBasicBlockRef a, LLVMBasicBlockRef b) {
+        while (!a.equals(b)) {
+            while (cfg.getRpoIndex(a) > cfg.getRpoIndex(b)) {
+                a = idom.get(a);
+            }
+            while (cfg.getRpoIndex(b) > cfg.getRpoIndex(a)) {
+                b = idom.get(b);
+            }
+        }
+        return a;
+    }
+
+    //辅助方法：非递归地为支配树做先序编号
+    private void numberPreorder(LLVMBasicBlockRef root) {
+        int counter = 0;
+        Deque<LLVMBasicBlockRef> stack = new ArrayDeque<>();
+        Deque<Integer> childIndex = new ArrayDeque<>();
+        stack.push(root);
+        childIndex.push(0);
+        preorderIn.put(root, counter++);
+        while (!stack.isEmpty()) {
+            LLVMBasicBlockRef bb = stack.peek();
+            int index = childIndex.pop();
+            List<LLVMBasicBlockRef> kids = children.get(bb);
+            if (index < kids.size()) {
+                childIndex.push(index + 1);
+                LLVMBasicBlockRef child = kids.get(index);
+                preorderIn.put(child, counter++);
+                stack.push(child);
+                childIndex.push(0);
+            } else {
+                preorderOut.put(bb, counter);
+                stack.pop();
+            }
+        }
+    }
+
+    /**
+     * 获取直接支配者，入口块和不可达块返回 null
+     */
+    public LLVMBasicBlockRef getIdom(LLVMBasicBlockRef block) {
+        if (block.equals(cfg.getEntry())) return null;
+        return idom.get(block);
+    }
+
+    public List<LLVMBasicBlockRef> getChildren(LLVMBasicBlockRef block) {
+        return children.getOrDefault(block, Collections.emptyList());
+    }
+
+    /**
+     * a 是否支配 b（自反）
+     */
+    public boolean dominates(LLVMBasicBlockRef a, LLVMBasicBlockRef b) {
+        Integer inA = preorderIn.get(a);
+        Integer inB = preorderIn.get(b);
+        if (inA == null || inB == null) return false;
+        return inA <= inB && inB < preorderOut.get(a);
+    }
+
+    /**
+     * 指令 def 是否支配指令 use 所在的位置（同一块内按指令顺序判断）
+     */
+    public boolean dominates(LLVMValueRef def, LLVMValueRef use) {
+        LLVMBasicBlockRef defBlock = LLVMGetInstructionParent(def);
+        LLVMBasicBlockRef useBlock = LLVMGetInstructionParent(use);
+        if (!defBlock.equals(useBlock)) {
+            return dominates(defBlock, useBlock);
+        }
+        for (LLVMValueRef inst = def; inst != null; inst = LLVMGetNextInstruction(inst)) {
+            if (inst.equals(use)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * 支配树先序序列（父节点总在子节点之前）
+     */
+    public List<LLVMBasicBlockRef> getPreorder() {
+        List<LLVMBasicBlockRef> order = new ArrayList<>(preorderIn.keySet());
+        order.sort(Comparator.comparingInt(preorderIn::get));
+        return order;
+    }
+
+    public Map<LLVMBasicBlockRef, Set<LLVMBasicBlockRef>> getFrontiers() {
+        if (frontiers == null) {
+            frontiers = computeFrontiers();
+        }
+        return frontiers;
+    }
+
+    private Map<LLVMBasicBlockRef, Set<LLVMBasicBlockRef>> computeFrontiers() {
+        Map<LLVMBasicBlockRef, Set<LLVMBasicBlockRef>> result = new HashMap<>();
+        for (LLVMBasicBlockRef bb : cfg.getReversePostOrder()) {
+            result.put(bb, new HashSet<>());
+        }
+        for (LLVMBasicBlockRef bb : cfg.getReversePostOrder()) {
+            List<LLVMBasicBlockRef> preds = cfg.getPredecessors(bb);
+            if (preds.size() < 2) continue;
+            for (LLVMBasicBlockRef pred : preds) {
+                if (!idom.containsKey(pred)) continue;
+                LLVMBasicBlockRef runner = pred;
+                while (!runner.equals(idom.get(bb))) {
+                    result.get(runner).add(bb);
+                    runner = idom.get(runner);
+                }
+            }
+        }
+        return result;
+    }
+}
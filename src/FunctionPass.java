@@ -0,0 +1,25 @@
+import org.bytedeco.llvm.LLVM.LLVMModuleRef;
+import org.bytedeco.llvm.LLVM.LLVMValueRef;
+
+import static org.bytedeco.llvm.global.LLVM.*;
+
+/**
+ * 逐函数执行的优化遍，函数被修改后自动作废其分析结果
+ */
+public abstract class FunctionPass implements Pass {
+
+    @Override
+    public boolean run(LLVMModuleRef module, AnalysisManager analyses) {
+        boolean changed = false;
+        for (LLVMValueRef func = LLVMGetFirstFunction(module); func != null; func = LLVMGetNextFunction(func)) {
+            if (LLVMCountBasicBlocks(func) == 0) continue; // 外部声明
+            if (runOnFunction(func, analyses)) {
+                analyses.invalidate(func);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    public abstract boolean runOnFunction(LLVMValueRef function, AnalysisManager analyses);
+}
@@ -0,0 +1,214 @@
+import org.bytedeco.llvm.LLVM.*;
+
+import java.util.*;
+
+import static org.bytedeco.llvm.global.LLVM.*;
+
+/**
+ * 基于支配树的全局值编号 / 公共子表达式消除
+ * 沿支配树先序遍历，作用域哈希表记录每个表达式在支配路径上最先出现的值；
+ * 再次出现的相同表达式（算术、比较、类型转换、地址计算、phi）直接替换为已有的值
+ * load 单独维护一张“可用内存值”表：store 和调用按别名关系使其失效，store 的值可以直接转发给后续 load
+ */
+public class GVN extends FunctionPass {
+    private CFG cfg;
+    private DominatorTree domTree;
+    private LoopInfo loopInfo;
+
+    // 表达式 -> 值，进入子树时添加的键记录在 scopeKeys 中，退出时撤销
+    private Map<String, LLVMValueRef> expressions;
+
+    // 统计
+    private int removedArithmetic = 0;
+    private int removedCompares = 0;
+    private int removedAddresses = 0;
+    private int removedLoads = 0;
+    private int removedPhis = 0;
+    // 按循环深度加权的估计动态指令节省量（每层循环按 10 次迭代计）
+    private int estimatedDynamicSavings = 0;
+
+    @Override
+    public String getName() {
+        return "gvn";
+    }
+
+    @Override
+    public Map<String, Integer> getStatistics() {
+        Map<String, Integer> stats = new LinkedHashMap<>();
+        stats.put("消除的算术/位运算/类型转换", removedArithmetic);
+        stats.put("消除的比较", removedCompares);
+        stats.put("消除的地址计算", removedAddresses);
+        stats.put("消除的 load", removedLoads);
+        stats.put("合并的 phi", removedPhis);
+        stats.put("估计节省的动态指令数", estimatedDynamicSavings);
+        return stats;
+    }
+
+    @Override
+    public boolean runOnFunction(LLVMValueRef function, AnalysisManager analyses) {
+        cfg = analyses.getCFG(function);
+        domTree = analyses.getDominatorTree(function);
+        loopInfo = analyses.getLoopInfo(function);
+        expressions = new HashMap<>();
+        return visitBlock(cfg.getEntry(), new HashMap<>());
+    }
+
+    /**
+     * @param memory 从支配者继承的可用内存值：地址 -> 该地址当前的值
+     */
+    private boolean visitBlock(LLVMBasicBlockRef block, Map<LLVMValueRef, LLVMValueRef> memory) {
+        boolean changed = false;
+        List<String> scopeKeys = new ArrayList<>();
+
+        // 只有唯一前驱恰好是直接支配者时，支配者末尾的内存状态才对本块成立；其余情况可能经过别的路径被改写
+        List<LLVMBasicBlockRef> preds = cfg.getPredecessors(block);
+        if (!(preds.size() == 1 && preds.get(0).equals(domTree.getIdom(block)))) {
+            memory = new HashMap<>();
+        }
+
+        LLVMValueRef inst = LLVMGetFirstInstruction(block);
+        while (inst != null) {
+            LLVMValueRef next = LLVMGetNextInstruction(inst);
+            int opcode = LLVMGetInstructionOpcode(inst);
+
+            if (opcode == LLVMLoad) {
+                LLVMValueRef pointer = LLVMGetOperand(inst, 0);
+                LLVMValueRef available = memory.get(pointer);
+                if (available != null && LLVMTypeOf(available).equals(LLVMTypeOf(inst))) {
+                    replace(inst, available);
+                    removedLoads++;
+                    changed = true;
+                } else {
+                    memory.put(pointer, inst);
+                }
+            } else if (opcode == LLVMStore) {
+                LLVMValueRef pointer = LLVMGetOperand(inst, 1);
+                memory.keySet().removeIf(other -> AliasAnalysis.mayAlias(pointer, other));
+                memory.put(pointer, LLVMGetOperand(inst, 0));
+            } else if (opcode == LLVMCall) {
+                // 被调函数可能读写任意全局变量和传入的数组
+                memory.clear();
+            } else {
+                String key = expressionKey(inst, opcode);
+                if (key != null) {
+                    LLVMValueRef existing = expressions.get(key);
+                    if (existing != null) {
+                        countRemoved(opcode);
+                        replace(inst, existing);
+                        changed = true;
+                    } else {
+                        expressions.put(key, inst);
+                        scopeKeys.add(key);
+                    }
+                }
+            }
+            inst = next;
+        }
+
+        for (LLVMBasicBlockRef child : domTree.getChildren(block)) {
+            changed |= visitBlock(child, new HashMap<>(memory));
+        }
+
+        for (String key : scopeKeys) {
+            expressions.remove(key);
+        }
+        return changed;
+    }
+
+    private void replace(LLVMValueRef inst, LLVMValueRef value) {
+        int depth = loopInfo.getLoopDepth(LLVMGetInstructionParent(inst));
+        int weight = 1;
+        for (int i = 0; i < Math.min(depth, 4); i++) {
+            weight *= 10;
+        }
+        estimatedDynamicSavings += weight;
+        LLVMReplaceAllUsesWith(inst, value);
+        LLVMInstructionEraseFromParent(inst);
+    }
+
+    private void countRemoved(int opcode) {
+        switch (opcode) {
+            case LLVMICmp: removedCompares++; break;
+            case LLVMGetElementPtr: removedAddresses++; break;
+            case LLVMPHI: removedPhis++; break;
+            default: removedArithmetic++; break;
+        }
+    }
+
+    /*********************************************************************************/
+    // 表达式编码
+
+    //辅助方法：为纯指令生成表达式键，不可参与编号的指令返回 null
+    private String expressionKey(LLVMValueRef inst, int opcode) {
+        switch (opcode) {
+            case LLVMAdd:
+            case LLVMMul:
+            case LLVMAnd:
+            case LLVMOr:
+            case LLVMXor:
+                return commutativeKey(opcode, LLVMGetOperand(inst, 0), LLVMGetOperand(inst, 1));
+            case LLVMSub:
+            case LLVMSDiv:
+            case LLVMSRem:
+            case LLVMUDiv:
+            case LLVMURem:
+            case LLVMShl:
+            case LLVMLShr:
+            case LLVMAShr:
+            case LLVMSelect:
+            case LLVMGetElementPtr:
+                return operandsKey(opcode + ":" + id(LLVMTypeOf(inst)), inst);
+            case LLVMZExt:
+            case LLVMSExt:
+            case LLVMTrunc:
+                return opcode + ":" + id(LLVMTypeOf(inst)) + ":" + id(LLVMGetOperand(inst, 0));
+            case LLVMICmp:
+                return compareKey(LLVMGetICmpPredicate(inst), LLVMGetOperand(inst, 0), LLVMGetOperand(inst, 1));
+            case LLVMPHI: {
+                // 同一块中入边完全相同的 phi 必然相等
+                StringBuilder key = new StringBuilder("phi:" + id(LLVMGetInstructionParent(inst)));
+                for (int i = 0; i < LLVMCountIncoming(inst); i++) {
+                    key.append(':').append(id(LLVMGetIncomingBlock(inst, i)))
+                            .append('=').append(id(LLVMGetIncomingValue(inst, i)));
+                }
+                return key.toString();
+            }
+            default:
+                return null;
+        }
+    }
+
+    private String commutativeKey(int opcode, LLVMValueRef a, LLVMValueRef b) {
+        String x = id(a);
+        String y = id(b);
+        return x.compareTo(y) <= 0 ? opcode + ":" + x + ":" + y : opcode + ":" + y + ":" + x;
+    }
+
+    private String operandsKey(String prefix, LLVMValueRef inst) {
+        StringBuilder key = new StringBuilder(prefix);
+        for (int i = 0; i < LLVMGetNumOperands(inst); i++) {
+            key.append(':').append(id(LLVMGetOperand(inst, i)));
+        }
+        return key.toString();
+    }
+
+    //辅助方法：a > b 与 b < a 是同一个比较，统一成小于类谓词；相等/不等比较与操作数顺序无关
+    private String compareKey(int predicate, LLVMValueRef a, LLVMValueRef b) {
+        switch (predicate) {
+            case LLVMIntSGT: return compareKey(LLVMIntSLT, b, a);
+            case LLVMIntSGE: return compareKey(LLVMIntSLE, b, a);
+            case LLVMIntUGT: return compareKey(LLVMIntULT, b, a);
+            case LLVMIntUGE: return compareKey(LLVMIntULE, b, a);
+            case LLVMIntEQ:
+            case LLVMIntNE:
+                return "icmp" + commutativeKey(predicate, a, b);
+            default:
+                return "icmp" + predicate + ":" + id(a) + ":" + id(b);
+        }
+    }
+
+    // 常量和类型在 LLVM 中都是唯一化的，直接用地址作为编号
+    private static String id(org.bytedeco.javacpp.Pointer value) {
+        return Long.toHexString(value.address());
+    }
+}
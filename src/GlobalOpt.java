@@ -0,0 +1,113 @@
+import org.bytedeco.llvm.LLVM.*;
+
+import java.util.*;
+
+import static org.bytedeco.llvm.global.LLVM.*;
+
+/**
+ * 全局变量常量化：前端把所有全局变量都建成可写的 GlobalVariable，后端每次读取都要 la + lw
+ * - 整个程序中从不被写的全局变量，load 直接替换为初值
+ * - 只有一处 store、且所有 load 都在同一函数中被这条 store 支配的全局变量：
+ *   存的是常量时 load 替换为该常量；在只执行一次的 main 中时 load 替换为存入的值
+ * - 没有 load 的全局变量，store 都是死存储，一并删除
+ * 替换后不再被使用的全局变量从模块中删除，不再占用 .data
+ * 全局变量只能作为 load/store 的地址使用（没有被取地址传给函数等）时才处理
+ */
+public class GlobalOpt implements Pass {
+    private int replacedLoads = 0;
+    private int deletedStores = 0;
+    private int deletedGlobals = 0;
+
+    @Override
+    public String getName() {
+        return "globalopt";
+    }
+
+    @Override
+    public Map<String, Integer> getStatistics() {
+        Map<String, Integer> stats = new LinkedHashMap<>();
+        stats.put("替换为常量的 load", replacedLoads);
+        stats.put("删除的 store", deletedStores);
+        stats.put("删除的全局变量", deletedGlobals);
+        return stats;
+    }
+
+    @Override
+    public boolean run(LLVMModuleRef module, AnalysisManager analyses) {
+        boolean changed = false;
+        LLVMValueRef global = LLVMGetFirstGlobal(module);
+        while (global != null) {
+            LLVMValueRef next = LLVMGetNextGlobal(global);
+            changed |= optimizeGlobal(global, analyses);
+            global = next;
+        }
+        return changed;
+    }
+
+    private boolean optimizeGlobal(LLVMValueRef global, AnalysisManager analyses) {
+        if (LLVMGetFirstUse(global) == null) {
+            LLVMDeleteGlobal(global);
+            deletedGlobals++;
+            return true;
+        }
+        if (LLVMGetTypeKind(LLVMGetElementType(LLVMTypeOf(global))) != LLVMIntegerTypeKind) return false;
+        LLVMValueRef initializer = LLVMGetInitializer(global);
+        if (initializer == null || LLVMIsAConstantInt(initializer) == null) return false;
+
+        List<LLVMValueRef> loads = new ArrayList<>();
+        List<LLVMValueRef> stores = new ArrayList<>();
+        for (LLVMUseRef use = LLVMGetFirstUse(global); use != null; use = LLVMGetNextUse(use)) {
+            LLVMValueRef user = LLVMGetUser(use);
+            if (LLVMIsAInstruction(user) == null) return false;
+            int opcode = LLVMGetInstructionOpcode(user);
+            if (opcode == LLVMLoad) {
+                loads.add(user);
+            } else if (opcode == LLVMStore && !LLVMGetOperand(user, 0).equals(global)) {
+                stores.add(user);
+            } else {
+                return false;
+            }
+        }
+
+        LLVMValueRef value;
+        if (stores.isEmpty()) {
+            value = initializer;
+        } else if (loads.isEmpty()) {
+            value = null;
+        } else if (stores.size() == 1) {
+            value = storedValueForLoads(stores.get(0), loads, analyses);
+            if (value == null) return false;
+        } else {
+            return false;
+        }
+
+        for (LLVMValueRef load : loads) {
+            LLVMReplaceAllUsesWith(load, value);
+            LLVMInstructionEraseFromParent(load);
+            replacedLoads++;
+        }
+        for (LLVMValueRef store : stores) {
+            analyses.invalidate(LLVMGetBasicBlockParent(LLVMGetInstructionParent(store)));
+            LLVMInstructionEraseFromParent(store);
+            deletedStores++;
+        }
+        LLVMDeleteGlobal(global);
+        deletedGlobals++;
+        return true;
+    }
+
+    //辅助方法：唯一的 store 支配所有 load 时 load 读到的值，不能确定时返回 null
+    private LLVMValueRef storedValueForLoads(LLVMValueRef store, List<LLVMValueRef> loads, AnalysisManager analyses) {
+        LLVMValueRef function = LLVMGetBasicBlockParent(LLVMGetInstructionParent(store));
+        DominatorTree domTree = analyses.getDominatorTree(function);
+        for (LLVMValueRef load : loads) {
+            if (!LLVMGetBasicBlockParent(LLVMGetInstructionParent(load)).equals(function)) return null;
+            if (!domTree.dominates(store, load)) return null;
+        }
+        LLVMValueRef value = LLVMGetOperand(store, 0);
+        if (LLVMIsAConstantInt(value) != null) return value;
+        // 函数可能被多次调用（包括递归），只有只执行一次的 main 中 load 读到的一定是这一次存入的值
+        boolean runsOnce = IrUtils.nameOf(function).equals("main") && LLVMGetFirstUse(function) == null;
+        return runsOnce ? value : null;
+    }
+}
@@ -0,0 +1,201 @@
+import org.bytedeco.llvm.LLVM.*;
+
+import java.util.*;
+
+import static org.bytedeco.llvm.global.LLVM.*;
+
+/**
+ * 过程间常量传播与函数特化：SysY 程序调用函数时经常传入字面常量（数组大小、模式标志）
+ * 1. 某个形参在所有调用点上都是同一个常量（递归调用原样传递形参的不算）时，函数体中的形参直接替换为该常量，
+ *    之后 SCCP 折叠分支、DeadFunctionElim 删除不再使用的形参
+ * 2. 各调用点传入不同常量时，为热的调用点（在循环中，或被调函数本身有循环）建立代入常量的副本，
+ *    只代入被比较、被用作除数或乘数的形参，这样副本里的分支和循环边界才会变成常量；
+ *    相同的常量组合共用一个副本，副本中对原函数的同样参数的递归调用也改为调用副本
+ *    副本总指令数受 SPECIALIZE_BUDGET 限制，每个函数最多 MAX_CLONES 个副本
+ * 只处理除 main 外只被直接调用的函数
+ */
+public class IPConstProp implements Pass {
+    // 可以特化的函数的指令数上限
+    private static final int MAX_SPECIALIZE_SIZE = 150;
+    // 所有副本的指令数总和上限
+    private static final int SPECIALIZE_BUDGET = 600;
+    // 每个函数的副本数上限
+    private static final int MAX_CLONES = 4;
+
+    private int propagatedParams = 0;
+    private int specializedFunctions = 0;
+    private int redirectedCalls = 0;
+
+    @Override
+    public String getName() {
+        return "ipconstprop";
+    }
+
+    @Override
+    public Map<String, Integer> getStatistics() {
+        Map<String, Integer> stats = new LinkedHashMap<>();
+        stats.put("传播的常量形参", propagatedParams);
+        stats.put("特化的函数副本", specializedFunctions);
+        stats.put("改为调用副本的调用点", redirectedCalls);
+        return stats;
+    }
+
+    @Override
+    public boolean run(LLVMModuleRef module, AnalysisManager analyses) {
+        boolean changed = false;
+        // 替换后调用方的形参变成常量，可能使它传给下一层的实参也成为常量，重复到不动点
+        while (propagateConstantParams(module, analyses)) {
+            changed = true;
+        }
+        changed |= specialize(module, analyses);
+        return changed;
+    }
+
+    //辅助方法：函数的所有调用，函数被当作值使用（不是被直接调用）时返回 null
+    private List<LLVMValueRef> callsOf(LLVMValueRef func) {
+        if (LLVMCountBasicBlocks(func) == 0 || IrUtils.nameOf(func).equals("main")) return null;
+        List<LLVMValueRef> calls = new ArrayList<>();
+        for (LLVMUseRef use = LLVMGetFirstUse(func); use != null; use = LLVMGetNextUse(use)) {
+            LLVMValueRef user = LLVMGetUser(use);
+            if (LLVMIsACallInst(user) == null || !LLVMGetCalledValue(user).equals(func)) return null;
+            calls.add(user);
+        }
+        return calls;
+    }
+
+    private boolean propagateConstantParams(LLVMModuleRef module, AnalysisManager analyses) {
+        boolean changed = false;
+        for (LLVMValueRef func = LLVMGetFirstFunction(module); func != null; func = LLVMGetNextFunction(func)) {
+            List<LLVMValueRef> calls = callsOf(func);
+            if (calls == null || calls.isEmpty()) continue;
+            for (int i = 0; i < LLVMCountParams(func); i++) {
+                LLVMValueRef param = LLVMGetParam(func, i);
+                if (LLVMGetFirstUse(param) == null) continue;
+                LLVMValueRef constant = uniformConstant(calls, i, param);
+                if (constant == null) continue;
+                LLVMReplaceAllUsesWith(param, constant);
+                analyses.invalidate(func);
+                propagatedParams++;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    //辅助方法：第 index 个实参在所有调用点上相同的常量，递归调用原样传递形参时忽略该调用
+    private LLVMValueRef uniformConstant(List<LLVMValueRef> calls, int index, LLVMValueRef param) {
+        LLVMValueRef constant = null;
+        for (LLVMValueRef call : calls) {
+            LLVMValueRef arg = LLVMGetOperand(call, index);
+            if (arg.equals(param)) continue;
+            if (LLVMIsAConstantInt(arg) == null) return null;
+            if (constant != null && !constant.equals(arg)) return null;
+            constant = arg;
+        }
+        return constant;
+    }
+
+    private boolean specialize(LLVMModuleRef module, AnalysisManager analyses) {
+        // 先收集候选调用点，建立副本时不影响遍历
+        List<LLVMValueRef> sites = new ArrayList<>();
+        for (LLVMValueRef func = LLVMGetFirstFunction(module); func != null; func = LLVMGetNextFunction(func)) {
+            List<LLVMValueRef> calls = callsOf(func);
+            if (calls == null || sizeOf(func) > MAX_SPECIALIZE_SIZE) continue;
+            boolean calleeHasLoop = !analyses.getLoopInfo(func).getTopLevelLoops().isEmpty();
+            for (LLVMValueRef call : calls) {
+                LLVMBasicBlockRef block = LLVMGetInstructionParent(call);
+                LoopInfo callerLoops = analyses.getLoopInfo(LLVMGetBasicBlockParent(block));
+                boolean hot = calleeHasLoop || callerLoops.getLoopDepth(block) > 0;
+                if (hot && !specializedArgs(call, func).isEmpty()) sites.add(call);
+            }
+        }
+
+        int budget = SPECIALIZE_BUDGET;
+        Map<String, LLVMValueRef> clones = new HashMap<>();
+        Map<LLVMValueRef, Integer> cloneCount = new HashMap<>();
+        boolean changed = false;
+        for (LLVMValueRef call : sites) {
+            LLVMValueRef func = LLVMGetCalledValue(call);
+            Map<Integer, LLVMValueRef> constants = specializedArgs(call, func);
+            StringBuilder key = new StringBuilder(IrUtils.nameOf(func));
+            constants.forEach((i, c) -> key.append(' ').append(i).append('=').append(LLVMConstIntGetSExtValue(c)));
+            LLVMValueRef clone = clones.get(key.toString());
+            if (clone == null) {
+                int size = sizeOf(func);
+                if (size > budget || cloneCount.getOrDefault(func, 0) >= MAX_CLONES) continue;
+                int n = cloneCount.merge(func, 1, Integer::sum);
+                clone = cloneWithConstants(module, func, constants, IrUtils.nameOf(func) + "_spec" + n, analyses);
+                clones.put(key.toString(), clone);
+                budget -= size;
+                specializedFunctions++;
+            }
+            LLVMSetOperand(call, LLVMGetNumOperands(call) - 1, clone);
+            redirectedCalls++;
+            changed = true;
+        }
+        return changed;
+    }
+
+    //辅助方法：调用点上传入常量、且在被调函数中决定分支或参与乘除的形参
+    private Map<Integer, LLVMValueRef> specializedArgs(LLVMValueRef call, LLVMValueRef func) {
+        Map<Integer, LLVMValueRef> constants = new TreeMap<>();
+        for (int i = 0; i < LLVMCountParams(func); i++) {
+            LLVMValueRef arg = LLVMGetOperand(call, i);
+            if (LLVMIsAConstantInt(arg) != null && isInteresting(LLVMGetParam(func, i))) constants.put(i, arg);
+        }
+        return constants;
+    }
+
+    private boolean isInteresting(LLVMValueRef param) {
+        for (LLVMUseRef use = LLVMGetFirstUse(param); use != null; use = LLVMGetNextUse(use)) {
+            switch (LLVMGetInstructionOpcode(LLVMGetUser(use))) {
+                case LLVMICmp:
+                case LLVMMul:
+                case LLVMSDiv:
+                case LLVMSRem:
+                case LLVMShl:
+                    return true;
+                default:
+                    break;
+            }
+        }
+        return false;
+    }
+
+    private LLVMValueRef cloneWithConstants(LLVMModuleRef module, LLVMValueRef func, Map<Integer, LLVMValueRef> constants,
+                                            String name, AnalysisManager analyses) {
+        LLVMValueRef clone = LLVMAddFunction(module, name, LLVMGetElementType(LLVMTypeOf(func)));
+        LLVMSetLinkage(clone, LLVMInternalLinkage);
+        Map<LLVMValueRef, LLVMValueRef> valueMap = new HashMap<>();
+        for (int i = 0; i < LLVMCountParams(func); i++) {
+            LLVMValueRef param = LLVMGetParam(clone, i);
+            IrUtils.setName(param, IrUtils.nameOf(LLVMGetParam(func, i)));
+            valueMap.put(LLVMGetParam(func, i), constants.getOrDefault(i, param));
+        }
+        // cloneBlocks 需要插入位置，先放一个空块，复制完再删掉
+        LLVMBasicBlockRef placeholder = LLVMAppendBasicBlockInContext(LLVMGetModuleContext(module), clone, "spec_entry");
+        IrUtils.cloneBlocks(analyses.getCFG(func).getReversePostOrder(), valueMap, placeholder, "");
+        LLVMDeleteBasicBlock(placeholder);
+
+        // 副本中以同样常量递归调用原函数的，改为调用副本自身
+        for (LLVMBasicBlockRef bb = LLVMGetFirstBasicBlock(clone); bb != null; bb = LLVMGetNextBasicBlock(bb)) {
+            for (LLVMValueRef inst = LLVMGetFirstInstruction(bb); inst != null; inst = LLVMGetNextInstruction(inst)) {
+                if (LLVMGetInstructionOpcode(inst) != LLVMCall || !LLVMGetCalledValue(inst).equals(func)) continue;
+                if (specializedArgs(inst, func).equals(constants)) {
+                    LLVMSetOperand(inst, LLVMGetNumOperands(inst) - 1, clone);
+                }
+            }
+        }
+        return clone;
+    }
+
+    private int sizeOf(LLVMValueRef func) {
+        int size = 0;
+        for (LLVMBasicBlockRef bb = LLVMGetFirstBasicBlock(func); bb != null; bb = LLVMGetNextBasicBlock(bb)) {
+            for (LLVMValueRef inst = LLVMGetFirstInstruction(bb); inst != null; inst = LLVMGetNextInstruction(inst)) {
+                size++;
+            }
+        }
+        return size;
+    }
+}
@@ -0,0 +1,132 @@
+import org.bytedeco.llvm.LLVM.*;
+
+import java.util.*;
+
+import static org.bytedeco.llvm.global.LLVM.*;
+
+/**
+ * 归约循环的闭式替换：循环只计算若干递推量，结束后才使用它们的值，例如
+ *   while (i < n) { s = s + i; i = i + 1; }
+ * 用 ScalarEvolution 把循环外用到的值表示为加法递推，求出循环头的执行次数 T，
+ * 在预头中直接算出第 T - 1 次迭代的值（s = n*(n-1)/2 这类多项式），然后删掉整个循环
+ *
+ * 只处理最内层循环，要求循环内没有 store 和 call（除了递推之外没有其他作用），
+ * 只从回边块退出到唯一的出口块；内层循环删除后外层循环成为最内层，可以继续处理
+ * 依赖 LoopRotate 与 LoopSimplify 的结果
+ */
+public class IndVarSimplify extends FunctionPass {
+    private LLVMBuilderRef builderRef;
+
+    private int replacedExitValues = 0;
+    private int deletedLoops = 0;
+
+    @Override
+    public String getName() {
+        return "indvars";
+    }
+
+    @Override
+    public Map<String, Integer> getStatistics() {
+        Map<String, Integer> stats = new LinkedHashMap<>();
+        stats.put("替换为闭式的退出值", replacedExitValues);
+        stats.put("删除的循环", deletedLoops);
+        return stats;
+    }
+
+    @Override
+    public boolean runOnFunction(LLVMValueRef function, AnalysisManager analyses) {
+        builderRef = LLVMCreateBuilderInContext(LLVMGetModuleContext(LLVMGetGlobalParent(function)));
+        boolean changed = false;
+        // 删除循环改变了 CFG，每次只处理一个循环，然后重新分析
+        while (replaceOne(analyses.getCFG(function), analyses.getLoopInfo(function))) {
+            analyses.invalidate(function);
+            changed = true;
+        }
+        LLVMDisposeBuilder(builderRef);
+        return changed;
+    }
+
+    private boolean replaceOne(CFG cfg, LoopInfo loopInfo) {
+        for (LoopInfo.Loop loop : loopInfo.getLoopsInnermostFirst()) {
+            if (!loop.getSubLoops().isEmpty() || loop.getPreheader() == null) continue;
+            if (loop.getExitBlocks().size() != 1 || hasSideEffects(loop)) continue;
+
+            ScalarEvolution scev = new ScalarEvolution(loop, cfg);
+            ScalarEvolution.Poly tripCount = scev.getTripCount();
+            if (tripCount == null) continue;
+            Map<LLVMValueRef, ScalarEvolution.AddRec> exitValues = new LinkedHashMap<>();
+            if (!collectExitValues(loop, scev, exitValues)) continue;
+
+            replace(loop, tripCount, exitValues);
+            return true;
+        }
+        return false;
+    }
+
+    private boolean hasSideEffects(LoopInfo.Loop loop) {
+        for (LLVMBasicBlockRef bb : loop.getBlocks()) {
+            for (LLVMValueRef inst = LLVMGetFirstInstruction(bb); inst != null; inst = LLVMGetNextInstruction(inst)) {
+                int opcode = LLVMGetInstructionOpcode(inst);
+                if (opcode == LLVMStore || opcode == LLVMCall) return true;
+            }
+        }
+        return false;
+    }
+
+    //辅助方法：循环外用到的循环内的值都必须能表示为加法递推
+    private boolean collectExitValues(LoopInfo.Loop loop, ScalarEvolution scev, Map<LLVMValueRef, ScalarEvolution.AddRec> exitValues) {
+        for (LLVMBasicBlockRef bb : loop.getBlocks()) {
+            for (LLVMValueRef inst = LLVMGetFirstInstruction(bb); inst != null; inst = LLVMGetNextInstruction(inst)) {
+                if (!usedOutside(inst, loop)) continue;
+                ScalarEvolution.AddRec rec = scev.getAddRec(inst);
+                if (rec == null) return false;
+                exitValues.put(inst, rec);
+            }
+        }
+        return true;
+    }
+
+    private boolean usedOutside(LLVMValueRef inst, LoopInfo.Loop loop) {
+        for (LLVMUseRef use = LLVMGetFirstUse(inst); use != null; use = LLVMGetNextUse(use)) {
+            if (!loop.contains(LLVMGetInstructionParent(LLVMGetUser(use)))) return true;
+        }
+        return false;
+    }
+
+    private void replace(LoopInfo.Loop loop, ScalarEvolution.Poly tripCount, Map<LLVMValueRef, ScalarEvolution.AddRec> exitValues) {
+        LLVMBasicBlockRef preheader = loop.getPreheader();
+        LLVMBasicBlockRef latch = loop.getLatches().get(0);
+        LLVMBasicBlockRef exit = loop.getExitBlocks().get(0);
+        LLVMValueRef terminator = LLVMGetBasicBlockTerminator(preheader);
+
+        // 1. 预头中计算最后一次迭代的序号 T - 1 和各个值的闭式
+        LLVMPositionBuilderBefore(builderRef, terminator);
+        LLVMValueRef count = ScalarEvolution.expand(builderRef, tripCount, "trip_count");
+        LLVMValueRef last = LLVMBuildSub(builderRef, count, LLVMConstInt(LLVMTypeOf(count), 1, 0), "last_iter");
+        for (Map.Entry<LLVMValueRef, ScalarEvolution.AddRec> entry : exitValues.entrySet()) {
+            LLVMValueRef inst = entry.getKey();
+            String name = IrUtils.nameOf(inst).isEmpty() ? "exit" : IrUtils.nameOf(inst);
+            LLVMValueRef closed = ScalarEvolution.expandAt(builderRef, entry.getValue(), last, name + "_final");
+            // 循环外的使用（包括出口块 phi 中来自回边块的入边值）改为使用闭式
+            List<LLVMUseRef> uses = new ArrayList<>();
+            for (LLVMUseRef use = LLVMGetFirstUse(inst); use != null; use = LLVMGetNextUse(use)) {
+                if (!loop.contains(LLVMGetInstructionParent(LLVMGetUser(use)))) uses.add(use);
+            }
+            for (LLVMUseRef use : uses) {
+                LLVMValueRef user = LLVMGetUser(use);
+                for (int i = 0; i < LLVMGetNumOperands(user); i++) {
+                    if (LLVMGetOperand(user, i).equals(inst)) LLVMSetOperand(user, i, closed);
+                }
+            }
+            replacedExitValues++;
+        }
+
+        // 2. 预头直接跳到出口，出口 phi 来自回边块的入边改为来自预头，最后删除循环
+        LLVMBuildBr(builderRef, exit);
+        LLVMInstructionEraseFromParent(terminator);
+        List<LLVMBasicBlockRef> blocks = new ArrayList<>(loop.getBlocks());
+        IrUtils.replaceIncomingBlock(exit, latch, preheader);
+        IrUtils.deleteBlocks(blocks);
+        deletedLoops++;
+    }
+}
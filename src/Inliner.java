@@ -0,0 +1,257 @@
+import org.bytedeco.llvm.LLVM.*;
+
+import java.util.*;
+
+import static org.bytedeco.llvm.global.LLVM.*;
+
+/**
+ * 函数内联：把被调函数的基本块复制到调用点，省去调用的序言、尾声、ra 保存和参数搬运，
+ * 内联后实参常量和调用方的上下文还能继续被常量传播和 GVN 利用
+ *
+ * 代价模型：被调函数的指令数不超过阈值时内联
+ *   - 阈值按调用点所在循环的深度翻倍（深度越大执行越频繁），最多按 MAX_DEPTH_BONUS 层计算
+ *   - 被调函数只有这一个调用点时内联后原函数可以删除，使用更大的阈值
+ *   - 调用方的指令数超过 MAX_CALLER_SIZE 后不再向其中内联
+ * 递归函数（调用图的环上的函数）不内联；函数按调用图自底向上处理，被调函数先完成内联
+ */
+public class Inliner implements Pass {
+    // 普通调用点的被调函数指令数阈值
+    private static final int INLINE_THRESHOLD = 30;
+    // 被调函数只有一个调用点时的阈值
+    private static final int ONLY_CALL_THRESHOLD = 300;
+    // 循环深度每加一层阈值翻倍，最多计算的层数
+    private static final int MAX_DEPTH_BONUS = 3;
+    // 调用方的指令数上限
+    private static final int MAX_CALLER_SIZE = 2000;
+
+    private LLVMBuilderRef builderRef;
+
+    private int inlinedCalls = 0;
+    private int rejectedRecursive = 0;
+    private int rejectedByCost = 0;
+
+    @Override
+    public String getName() {
+        return "inline";
+    }
+
+    @Override
+    public Map<String, Integer> getStatistics() {
+        Map<String, Integer> stats = new LinkedHashMap<>();
+        stats.put("内联的调用点", inlinedCalls);
+        stats.put("因递归拒绝", rejectedRecursive);
+        stats.put("因代价拒绝", rejectedByCost);
+        return stats;
+    }
+
+    @Override
+    public boolean run(LLVMModuleRef module, AnalysisManager analyses) {
+        builderRef = LLVMCreateBuilderInContext(LLVMGetModuleContext(module));
+        Set<LLVMValueRef> recursive = new HashSet<>();
+        List<LLVMValueRef> order = bottomUpOrder(module, recursive);
+
+        boolean changed = false;
+        for (LLVMValueRef caller : order) {
+            // 每次内联都改变了调用方的 CFG，重新查找下一个调用点
+            Set<LLVMValueRef> rejected = new HashSet<>();
+            LLVMValueRef call;
+            while ((call = nextCandidate(caller, recursive, rejected, analyses)) != null) {
+                inline(call, analyses);
+                analyses.invalidate(caller);
+                inlinedCalls++;
+                changed = true;
+            }
+        }
+        LLVMDisposeBuilder(builderRef);
+        return changed;
+    }
+
+    //辅助方法：函数中直接调用的、有函数体的函数
+    private List<LLVMValueRef> calleesOf(LLVMValueRef function) {
+        List<LLVMValueRef> callees = new ArrayList<>();
+        for (LLVMBasicBlockRef bb = LLVMGetFirstBasicBlock(function); bb != null; bb = LLVMGetNextBasicBlock(bb)) {
+            for (LLVMValueRef inst = LLVMGetFirstInstruction(bb); inst != null; inst = LLVMGetNextInstruction(inst)) {
+                LLVMValueRef callee = calledFunction(inst);
+                if (callee != null && !callees.contains(callee)) callees.add(callee);
+            }
+        }
+        return callees;
+    }
+
+    private LLVMValueRef calledFunction(LLVMValueRef inst) {
+        if (LLVMGetInstructionOpcode(inst) != LLVMCall) return null;
+        LLVMValueRef callee = LLVMGetCalledValue(inst);
+        if (LLVMIsAFunction(callee) == null || LLVMCountBasicBlocks(callee) == 0) return null;
+        return callee;
+    }
+
+    /**
+     * 用 Tarjan 算法求调用图的强连通分量，SCC 按逆拓扑序产生，即被调函数在前
+     * 大小超过 1 的分量和直接调用自身的函数放入 recursive
+     */
+    private List<LLVMValueRef> bottomUpOrder(LLVMModuleRef module, Set<LLVMValueRef> recursive) {
+        List<LLVMValueRef> order = new ArrayList<>();
+        Map<LLVMValueRef, Integer> index = new HashMap<>();
+        Map<LLVMValueRef, Integer> lowLink = new HashMap<>();
+        Deque<LLVMValueRef> stack = new ArrayDeque<>();
+        Set<LLVMValueRef> onStack = new HashSet<>();
+        for (LLVMValueRef func = LLVMGetFirstFunction(module); func != null; func = LLVMGetNextFunction(func)) {
+            if (LLVMCountBasicBlocks(func) == 0 || index.containsKey(func)) continue;
+            strongConnect(func, index, lowLink, stack, onStack, order, recursive);
+        }
+        return order;
+    }
+
+    private void strongConnect(LLVMValueRef func, Map<LLVMValueRef, Integer> index, Map<LLVMValueRef, Integer> lowLink,
+                               Deque<LLVMValueRef> stack, Set<LLVMValueRef> onStack,
+                               List<LLVMValueRef> order, Set<LLVMValueRef> recursive) {
+        index.put(func, index.size());
+        lowLink.put(func, index.get(func));
+        stack.push(func);
+        onStack.add(func);
+        List<LLVMValueRef> callees = calleesOf(func);
+        for (LLVMValueRef callee : callees) {
+            if (!index.containsKey(callee)) {
+                strongConnect(callee, index, lowLink, stack, onStack, order, recursive);
+                lowLink.put(func, Math.min(lowLink.get(func), lowLink.get(callee)));
+            } else if (onStack.contains(callee)) {
+                lowLink.put(func, Math.min(lowLink.get(func), index.get(callee)));
+            }
+        }
+        if (!lowLink.get(func).equals(index.get(func))) return;
+
+        List<LLVMValueRef> component = new ArrayList<>();
+        LLVMValueRef member;
+        do {
+            member = stack.pop();
+            onStack.remove(member);
+            component.add(member);
+        } while (!member.equals(func));
+        if (component.size() > 1 || callees.contains(func)) recursive.addAll(component);
+        order.addAll(component);
+    }
+
+    //辅助方法：调用方中第一个满足代价模型的调用点，不满足的记入 rejected 不再重复统计
+    private LLVMValueRef nextCandidate(LLVMValueRef caller, Set<LLVMValueRef> recursive, Set<LLVMValueRef> rejected,
+                                       AnalysisManager analyses) {
+        int callerSize = sizeOf(caller);
+        LoopInfo loopInfo = analyses.getLoopInfo(caller);
+        for (LLVMBasicBlockRef bb = LLVMGetFirstBasicBlock(caller); bb != null; bb = LLVMGetNextBasicBlock(bb)) {
+            for (LLVMValueRef inst = LLVMGetFirstInstruction(bb); inst != null; inst = LLVMGetNextInstruction(inst)) {
+                LLVMValueRef callee = calledFunction(inst);
+                if (callee == null || rejected.contains(inst)) continue;
+                if (recursive.contains(callee)) {
+                    rejected.add(inst);
+                    rejectedRecursive++;
+                    continue;
+                }
+                int calleeSize = sizeOf(callee);
+                int threshold = callSites(callee) == 1 ? ONLY_CALL_THRESHOLD
+                        : INLINE_THRESHOLD << Math.min(loopInfo.getLoopDepth(bb), MAX_DEPTH_BONUS);
+                if (calleeSize > threshold || callerSize + calleeSize > MAX_CALLER_SIZE) {
+                    rejected.add(inst);
+                    rejectedByCost++;
+                    continue;
+                }
+                return inst;
+            }
+        }
+        return null;
+    }
+
+    private int sizeOf(LLVMValueRef function) {
+        int size = 0;
+        for (LLVMBasicBlockRef bb = LLVMGetFirstBasicBlock(function); bb != null; bb = LLVMGetNextBasicBlock(bb)) {
+            for (LLVMValueRef inst = LLVMGetFirstInstruction(bb); inst != null; inst = LLVMGetNextInstruction(inst)) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    private int callSites(LLVMValueRef function) {
+        int count = 0;
+        for (LLVMUseRef use = LLVMGetFirstUse(function); use != null; use = LLVMGetNextUse(use)) {
+            if (LLVMGetInstructionOpcode(LLVMGetUser(use)) == LLVMCall) count++;
+        }
+        return count;
+    }
+
+    /**
+     * 内联一个调用点：
+     *   B: ... call ... rest        变为   B: ...  br entry'
+     *                                      entry' ... (被调函数的副本，ret 改为 br B_ret)
+     *                                      B_ret: phi(返回值) rest
+     */
+    private void inline(LLVMValueRef call, AnalysisManager analyses) {
+        LLVMValueRef callee = LLVMGetCalledValue(call);
+        LLVMBasicBlockRef block = LLVMGetInstructionParent(call);
+        LLVMValueRef caller = LLVMGetBasicBlockParent(block);
+        String calleeName = IrUtils.nameOf(callee);
+
+        // 1. 调用之后的指令移到新块，后继中 phi 的入边随之改为新块
+        LLVMBasicBlockRef returnBlock = LLVMAppendBasicBlockInContext(LLVMGetModuleContext(LLVMGetGlobalParent(caller)),
+                caller, calleeName + "_ret");
+        LLVMMoveBasicBlockAfter(returnBlock, block);
+        for (LLVMValueRef inst = LLVMGetNextInstruction(call); inst != null; ) {
+            LLVMValueRef next = LLVMGetNextInstruction(inst);
+            IrUtils.moveToEnd(builderRef, inst, returnBlock);
+            inst = next;
+        }
+        LLVMValueRef terminator = LLVMGetBasicBlockTerminator(returnBlock);
+        Set<LLVMBasicBlockRef> successors = new LinkedHashSet<>();
+        for (int i = 0; i < LLVMGetNumSuccessors(terminator); i++) {
+            successors.add(LLVMGetSuccessor(terminator, i));
+        }
+        for (LLVMBasicBlockRef succ : successors) {
+            IrUtils.replaceIncomingBlock(succ, block, returnBlock);
+        }
+
+        // 2. 复制被调函数，形参映射为实参
+        Map<LLVMValueRef, LLVMValueRef> valueMap = new HashMap<>();
+        for (int i = 0; i < LLVMCountParams(callee); i++) {
+            valueMap.put(LLVMGetParam(callee, i), LLVMGetOperand(call, i));
+        }
+        List<LLVMBasicBlockRef> calleeBlocks = analyses.getCFG(callee).getReversePostOrder();
+        Map<LLVMBasicBlockRef, LLVMBasicBlockRef> blockMap = IrUtils.cloneBlocks(calleeBlocks, valueMap, block, "_inl");
+
+        LLVMPositionBuilderAtEnd(builderRef, block);
+        LLVMBuildBr(builderRef, blockMap.get(calleeBlocks.get(0)));
+
+        // 3. 副本中的 alloca 移到调用方的入口块，循环中的调用点不会反复分配栈空间
+        LLVMValueRef entryFirst = LLVMGetFirstInstruction(LLVMGetEntryBasicBlock(caller));
+        for (LLVMBasicBlockRef copy : blockMap.values()) {
+            for (LLVMValueRef inst = LLVMGetFirstInstruction(copy); inst != null; ) {
+                LLVMValueRef next = LLVMGetNextInstruction(inst);
+                if (LLVMGetInstructionOpcode(inst) == LLVMAlloca) IrUtils.moveBefore(builderRef, inst, entryFirst);
+                inst = next;
+            }
+        }
+
+        // 4. ret 改为跳到返回块，有多个返回值时在返回块合并
+        List<LLVMValueRef> returnValues = new ArrayList<>();
+        List<LLVMBasicBlockRef> returnBlocks = new ArrayList<>();
+        for (LLVMBasicBlockRef copy : blockMap.values()) {
+            LLVMValueRef ret = LLVMGetBasicBlockTerminator(copy);
+            if (LLVMGetInstructionOpcode(ret) != LLVMRet) continue;
+            if (LLVMGetNumOperands(ret) > 0) returnValues.add(LLVMGetOperand(ret, 0));
+            returnBlocks.add(copy);
+            LLVMPositionBuilderBefore(builderRef, ret);
+            LLVMBuildBr(builderRef, returnBlock);
+            LLVMInstructionEraseFromParent(ret);
+        }
+        if (!returnValues.isEmpty()) {
+            LLVMValueRef result = returnValues.get(0);
+            if (returnValues.size() > 1) {
+                LLVMValueRef first = LLVMGetFirstInstruction(returnBlock);
+                LLVMPositionBuilderBefore(builderRef, first);
+                result = LLVMBuildPhi(builderRef, LLVMTypeOf(call), IrUtils.nameOf(call));
+                for (int i = 0; i < returnValues.size(); i++) {
+                    IrUtils.addIncoming(result, returnValues.get(i), returnBlocks.get(i));
+                }
+            }
+            LLVMReplaceAllUsesWith(call, result);
+        }
+        LLVMInstructionEraseFromParent(call);
+    }
+}
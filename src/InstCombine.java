@@ -0,0 +1,261 @@
+import org.bytedeco.llvm.LLVM.*;
+
+import java.util.*;
+
+import static org.bytedeco.llvm.global.LLVM.*;
+
+/**
+ * 基于已知位分析（KnownBits）的窥孔化简，只实现 LLVM instcombine 中与位运算相关的一小部分：
+ *   结果各位都已知的指令                       ->  常量
+ *   and x, C 且 C 之外的位在 x 中已知为 0      ->  x       （例如 (i & 7) & 15、zext i1 再 and 1）
+ *   and (and x, C1), C2                        ->  and x, C1 & C2
+ *   or x, C 且 C 的位在 x 中已知为 1           ->  x
+ *   icmp ne/eq (zext i1 c), 0/1                ->  c 或 !c （! 与比较链生成的 zext 再比较）
+ *   mul x, 2^k                                 ->  shl x, k （后端为一条 slli）
+ *   sdiv/srem x, 2^k 且 x 的符号位已知为 0     ->  lshr x, k / and x, 2^k - 1（高位已知为 0 时取余直接为 x）
+ *   移位 0 位                                  ->  x
+ *   同方向的两次常量移位                       ->  一次移位
+ * 被替换的指令变为无用后连同其无用的操作数一起删除（按块反复扫描，不跨块追踪）
+ */
+public class InstCombine extends FunctionPass {
+    private LLVMBuilderRef builderRef;
+
+    private int foldedConstants = 0;
+    private int removedMasks = 0;
+    private int removedExtensions = 0;
+    private int strengthReduced = 0;
+    private int combinedShifts = 0;
+
+    @Override
+    public String getName() {
+        return "instcombine";
+    }
+
+    @Override
+    public Map<String, Integer> getStatistics() {
+        Map<String, Integer> stats = new LinkedHashMap<>();
+        stats.put("折叠为常量的指令", foldedConstants);
+        stats.put("删除的冗余掩码", removedMasks);
+        stats.put("删除的布尔扩展", removedExtensions);
+        stats.put("乘除法改为移位或按位与", strengthReduced);
+        stats.put("合并的移位", combinedShifts);
+        return stats;
+    }
+
+    @Override
+    public boolean runOnFunction(LLVMValueRef function, AnalysisManager analyses) {
+        CFG cfg = analyses.getCFG(function);
+        builderRef = LLVMCreateBuilderInContext(LLVMGetModuleContext(LLVMGetGlobalParent(function)));
+        // 先收集再改写：被替换的指令只是失去使用者，最后统一删除，收集的引用始终有效
+        List<LLVMValueRef> candidates = new ArrayList<>();
+        for (LLVMBasicBlockRef bb : cfg.getReversePostOrder()) {
+            for (LLVMValueRef inst = LLVMGetFirstInstruction(bb); inst != null; inst = LLVMGetNextInstruction(inst)) {
+                candidates.add(inst);
+            }
+        }
+        boolean changed = false;
+        for (LLVMValueRef inst : candidates) {
+            if (LLVMGetFirstUse(inst) == null) continue;
+            LLVMValueRef replacement = simplify(inst);
+            if (replacement == null) continue;
+            // 新建的指令沿用原来的名字（后端按名字分配寄存器）
+            if (LLVMIsAInstruction(replacement) != null && IrUtils.nameOf(replacement).isEmpty()) {
+                String name = IrUtils.nameOf(inst);
+                IrUtils.setName(inst, "");
+                IrUtils.setName(replacement, name);
+            }
+            LLVMReplaceAllUsesWith(inst, replacement);
+            changed = true;
+        }
+        if (changed) {
+            for (LLVMBasicBlockRef bb : cfg.getReversePostOrder()) {
+                removeDeadInstructions(bb);
+            }
+        }
+        LLVMDisposeBuilder(builderRef);
+        return changed;
+    }
+
+    // 返回 inst 的等价值（已有的值、常量或在 inst 前新建的指令），不能化简时返回 null
+    private LLVMValueRef simplify(LLVMValueRef inst) {
+        if (!IrUtils.isRemovableIfUnused(inst)) return null;
+        KnownBits bits = KnownBits.of(inst);
+        if (bits == null) return null;
+        if (bits.isConstant() && !IrUtils.isPhi(inst)) {
+            foldedConstants++;
+            return LLVMConstInt(LLVMTypeOf(inst), bits.constantValue(), 1);
+        }
+        switch (LLVMGetInstructionOpcode(inst)) {
+            case LLVMAnd:
+                return simplifyAnd(inst);
+            case LLVMOr:
+                return simplifyOr(inst);
+            case LLVMICmp:
+                return simplifyBoolCompare(inst);
+            case LLVMMul:
+                return simplifyMul(inst);
+            case LLVMSDiv:
+            case LLVMSRem:
+                return simplifyDivision(inst);
+            case LLVMShl:
+            case LLVMLShr:
+            case LLVMAShr:
+                return simplifyShift(inst);
+            default:
+                return null;
+        }
+    }
+
+    private LLVMValueRef simplifyAnd(LLVMValueRef inst) {
+        LLVMValueRef x = LLVMGetOperand(inst, 0);
+        LLVMValueRef c = LLVMGetOperand(inst, 1);
+        if (LLVMIsAConstantInt(x) != null) {
+            LLVMValueRef tmp = x;
+            x = c;
+            c = tmp;
+        }
+        if (LLVMIsAConstantInt(c) == null) return null;
+        KnownBits bits = KnownBits.of(x);
+        long mask = LLVMConstIntGetZExtValue(c) & bits.mask();
+        if ((mask | bits.zero) == bits.mask()) {
+            removedMasks++;
+            return x;
+        }
+        // (x & C1) & C2 -> x & (C1 & C2)
+        if (LLVMIsAInstruction(x) != null && LLVMGetInstructionOpcode(x) == LLVMAnd
+                && LLVMIsAConstantInt(LLVMGetOperand(x, 1)) != null) {
+            long inner = LLVMConstIntGetZExtValue(LLVMGetOperand(x, 1));
+            LLVMPositionBuilderBefore(builderRef, inst);
+            removedMasks++;
+            return LLVMBuildAnd(builderRef, LLVMGetOperand(x, 0), LLVMConstInt(LLVMTypeOf(inst), inner & mask, 0), "");
+        }
+        return null;
+    }
+
+    private LLVMValueRef simplifyOr(LLVMValueRef inst) {
+        LLVMValueRef x = LLVMGetOperand(inst, 0);
+        LLVMValueRef c = LLVMGetOperand(inst, 1);
+        if (LLVMIsAConstantInt(x) != null) {
+            LLVMValueRef tmp = x;
+            x = c;
+            c = tmp;
+        }
+        if (LLVMIsAConstantInt(c) == null) return null;
+        KnownBits bits = KnownBits.of(x);
+        long mask = LLVMConstIntGetZExtValue(c) & bits.mask();
+        if ((mask & ~bits.one) != 0) return null;
+        removedMasks++;
+        return x;
+    }
+
+    /**
+     * icmp ne (zext c), 0 / icmp eq (zext c), 1  ->  c
+     * icmp eq (zext c), 0 / icmp ne (zext c), 1  ->  !c
+     * !c 在 c 本身是比较时直接取反谓词，否则生成 xor c, true
+     */
+    private LLVMValueRef simplifyBoolCompare(LLVMValueRef inst) {
+        int predicate = LLVMGetICmpPredicate(inst);
+        if (predicate != LLVMIntEQ && predicate != LLVMIntNE) return null;
+        LLVMValueRef lhs = LLVMGetOperand(inst, 0);
+        LLVMValueRef rhs = LLVMGetOperand(inst, 1);
+        if (LLVMIsAConstantInt(lhs) != null) {
+            LLVMValueRef tmp = lhs;
+            lhs = rhs;
+            rhs = tmp;
+        }
+        if (LLVMIsAConstantInt(rhs) == null || LLVMIsAInstruction(lhs) == null
+                || LLVMGetInstructionOpcode(lhs) != LLVMZExt) return null;
+        LLVMValueRef c = LLVMGetOperand(lhs, 0);
+        if (LLVMGetIntTypeWidth(LLVMTypeOf(c)) != 1) return null;
+        long value = LLVMConstIntGetZExtValue(rhs);
+        if (value > 1) return null; // 已由常量折叠处理：zext i1 不可能等于其他值
+        boolean keep = (predicate == LLVMIntNE) == (value == 0);
+        removedExtensions++;
+        if (keep) return c;
+        LLVMPositionBuilderBefore(builderRef, inst);
+        if (LLVMIsAInstruction(c) != null && LLVMGetInstructionOpcode(c) == LLVMICmp) {
+            return LLVMBuildICmp(builderRef, IrUtils.invertPredicate(LLVMGetICmpPredicate(c)),
+                    LLVMGetOperand(c, 0), LLVMGetOperand(c, 1), "");
+        }
+        return LLVMBuildXor(builderRef, c, LLVMConstInt(LLVMTypeOf(c), 1, 0), "");
+    }
+
+    private LLVMValueRef simplifyMul(LLVMValueRef inst) {
+        LLVMValueRef x = LLVMGetOperand(inst, 0);
+        LLVMValueRef c = LLVMGetOperand(inst, 1);
+        if (LLVMIsAConstantInt(x) != null) {
+            LLVMValueRef tmp = x;
+            x = c;
+            c = tmp;
+        }
+        if (LLVMIsAConstantInt(c) == null) return null;
+        long factor = LLVMConstIntGetSExtValue(c);
+        if (factor <= 1 || Long.bitCount(factor) != 1) return null;
+        LLVMPositionBuilderBefore(builderRef, inst);
+        strengthReduced++;
+        return LLVMBuildShl(builderRef, x, LLVMConstInt(LLVMTypeOf(inst), Long.numberOfTrailingZeros(factor), 0), "");
+    }
+
+    // 被除数非负时有符号除法、取余不需要向零取整的修正，与无符号运算相同
+    private LLVMValueRef simplifyDivision(LLVMValueRef inst) {
+        LLVMValueRef x = LLVMGetOperand(inst, 0);
+        LLVMValueRef divisor = LLVMGetOperand(inst, 1);
+        if (LLVMIsAConstantInt(divisor) == null) return null;
+        long value = LLVMConstIntGetSExtValue(divisor);
+        if (value <= 1 || Long.bitCount(value) != 1) return null;
+        KnownBits bits = KnownBits.of(x);
+        if ((bits.zero & (1L << (bits.width - 1))) == 0) return null;
+        LLVMTypeRef type = LLVMTypeOf(inst);
+        strengthReduced++;
+        if (LLVMGetInstructionOpcode(inst) == LLVMSDiv) {
+            LLVMPositionBuilderBefore(builderRef, inst);
+            return LLVMBuildLShr(builderRef, x, LLVMConstInt(type, Long.numberOfTrailingZeros(value), 0), "");
+        }
+        if (((value - 1) | bits.zero) == bits.mask()) return x;
+        LLVMPositionBuilderBefore(builderRef, inst);
+        return LLVMBuildAnd(builderRef, x, LLVMConstInt(type, value - 1, 0), "");
+    }
+
+    private LLVMValueRef simplifyShift(LLVMValueRef inst) {
+        LLVMValueRef x = LLVMGetOperand(inst, 0);
+        LLVMValueRef amount = LLVMGetOperand(inst, 1);
+        if (LLVMIsAConstantInt(amount) == null) return null;
+        long k = LLVMConstIntGetZExtValue(amount);
+        if (k == 0) {
+            combinedShifts++;
+            return x;
+        }
+        // (x op k1) op k2 -> x op (k1 + k2)，总位数不超出宽度
+        int opcode = LLVMGetInstructionOpcode(inst);
+        if (LLVMIsAInstruction(x) == null || LLVMGetInstructionOpcode(x) != opcode
+                || LLVMIsAConstantInt(LLVMGetOperand(x, 1)) == null) return null;
+        long total = k + LLVMConstIntGetZExtValue(LLVMGetOperand(x, 1));
+        if (total >= LLVMGetIntTypeWidth(LLVMTypeOf(inst))) return null;
+        LLVMValueRef base = LLVMGetOperand(x, 0);
+        LLVMValueRef shift = LLVMConstInt(LLVMTypeOf(inst), total, 0);
+        LLVMPositionBuilderBefore(builderRef, inst);
+        combinedShifts++;
+        switch (opcode) {
+            case LLVMShl: return LLVMBuildShl(builderRef, base, shift, "");
+            case LLVMLShr: return LLVMBuildLShr(builderRef, base, shift, "");
+            default: return LLVMBuildAShr(builderRef, base, shift, "");
+        }
+    }
+
+    //辅助方法：反复删除块中结果无用且没有副作用的指令，直到不再变化
+    private void removeDeadInstructions(LLVMBasicBlockRef bb) {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (LLVMValueRef inst = LLVMGetFirstInstruction(bb); inst != null; ) {
+                LLVMValueRef nextInst = LLVMGetNextInstruction(inst);
+                if (LLVMGetFirstUse(inst) == null && IrUtils.isRemovableIfUnused(inst)
+                        && LLVMGetInstructionOpcode(inst) != LLVMAlloca) {
+                    LLVMInstructionEraseFromParent(inst);
+                    changed = true;
+                }
+                inst = nextInst;
+            }
+        }
+    }
+}
@@ -35,11 +35,14 @@ public class IrTranslater {
     // 栈偏移管理
     private int currentFrameSize = 0;
     private Map<String, Integer> varStackOffsets = new HashMap<>(); // 变量到栈偏移的映射
+    private Map<String, Integer> allocaStackOffsets = new HashMap<>(); // alloca 的存储空间到栈偏移的映射（与它的地址溢出时的栈槽分开）
     private int nextStackOffset = 4; // 从4开始，因为0位置存放返回地址
 
     private int instructionId = 1; // 当前指令编号
+    private int memoryLoopCount = 0; // memset/memcpy 展开出的循环个数，用于生成不重复的标签
+    // memset/memcpy 长度为常量且不超过这么多个字时直接逐字展开，否则生成循环
+    private static final int MEMORY_UNROLL_WORDS = 16;
     private Set<String> processedPhiOperands = new HashSet<>();
-    private static final int LLVMPhiOpcode = 53; // PHI指令操作码
 
     public IrTranslater(IrVisitor visitor) {
         //获得第一趟信息
@@ -68,9 +71,34 @@ public class IrTranslater {
         builder.comment("全局变量定义");
         builder.section("data");
 
-        // 遍历全局变量
+        // 遍历全局变量，全零初始化的数组（如记忆化表）放到 .bss，不占可执行文件的空间；
+        // 只读的常量数组放到 .rodata
+        List<LLVMValueRef> zeroArrays = new ArrayList<>();
+        List<LLVMValueRef> readOnly = new ArrayList<>();
         for (LLVMValueRef value = LLVMGetFirstGlobal(moduleRef); value != null; value = LLVMGetNextGlobal(value)) {
-            translateGlobalVariable(value);
+            if (LLVMIsGlobalConstant(value) != 0 && LLVMGetInitializer(value) != null) {
+                readOnly.add(value);
+            } else if (isZeroArray(value)) {
+                zeroArrays.add(value);
+            } else {
+                translateGlobalVariable(value);
+            }
+        }
+        if (!readOnly.isEmpty()) {
+            builder.emptyLine();
+            builder.section("section .rodata");
+            for (LLVMValueRef value : readOnly) {
+                builder.label(LLVMGetValueName(value).getString());
+                emitConstant(LLVMGetInitializer(value));
+            }
+        }
+        if (!zeroArrays.isEmpty()) {
+            builder.emptyLine();
+            builder.section("bss");
+            for (LLVMValueRef value : zeroArrays) {
+                builder.label(LLVMGetValueName(value).getString());
+                builder.directive("space", String.valueOf(sizeInBytes(LLVMGetElementType(LLVMTypeOf(value)))));
+            }
         }
 
         builder.emptyLine();
@@ -98,19 +126,64 @@ public class IrTranslater {
             if (LLVMIsAConstantInt(initializer) != null) {
                 long value = LLVMConstIntGetSExtValue(initializer);
                 builder.directive("word", String.valueOf(value));
+            } else if (LLVMGetTypeKind(LLVMTypeOf(initializer)) == LLVMArrayTypeKind) {
+                // 带初值的数组逐元素输出
+                emitConstant(initializer);
             } else {
                 builder.directive("word", "0");
             }
         } else {
             LLVMTypeRef type = LLVMGetElementType(LLVMTypeOf(global));
-            String dataLayoutStr = String.valueOf(LLVMGetDataLayout(moduleRef));
-            LLVMTargetDataRef dataLayout = LLVMCreateTargetData(dataLayoutStr);
-            long size = LLVMSizeOfTypeInBits(dataLayout, type) / 8;
-            LLVMDisposeTargetData(dataLayout);
-            builder.directive("space", String.valueOf(Math.max((int)size, 4)));
+            builder.directive("space", String.valueOf(Math.max((int) sizeInBytes(type), 4)));
+        }
+    }
+
+    //辅助方法：逐个元素输出（嵌套的）常量数组，连续的 0 合并为 .space
+    private void emitConstant(LLVMValueRef constant) {
+        LLVMTypeRef type = LLVMTypeOf(constant);
+        if (LLVMIsNull(constant) != 0) {
+            builder.directive("space", String.valueOf(sizeInBytes(type)));
+        } else if (LLVMIsAConstantInt(constant) != null) {
+            builder.directive("word", String.valueOf(LLVMConstIntGetSExtValue(constant)));
+        } else {
+            int length = LLVMGetArrayLength(type);
+            boolean sequential = LLVMIsAConstantDataSequential(constant) != null;
+            int zeros = 0;
+            for (int i = 0; i < length; i++) {
+                LLVMValueRef element = sequential ? LLVMGetElementAsConstant(constant, i) : LLVMGetOperand(constant, i);
+                if (LLVMIsNull(element) != 0) {
+                    zeros += sizeInBytes(LLVMTypeOf(element));
+                    continue;
+                }
+                if (zeros > 0) {
+                    builder.directive("space", String.valueOf(zeros));
+                    zeros = 0;
+                }
+                emitConstant(element);
+            }
+            if (zeros > 0) {
+                builder.directive("space", String.valueOf(zeros));
+            }
         }
     }
 
+    private boolean isZeroArray(LLVMValueRef global) {
+        LLVMValueRef initializer = LLVMGetInitializer(global);
+        return initializer != null && LLVMGetTypeKind(LLVMTypeOf(initializer)) == LLVMArrayTypeKind
+                && LLVMIsNull(initializer) != 0;
+    }
+
+    private long sizeInBytes(LLVMTypeRef type) {
+        // 模块自带的数据布局，由模块持有，不需要释放
+        return LLVMABISizeOfType(LLVMGetModuleDataLayout(moduleRef), type);
+    }
+
+    // 标量占 4 字节，局部数组按整个数组的大小分配，保持 4 字节对齐
+    private int allocaSize(LLVMValueRef alloca) {
+        long size = sizeInBytes(LLVMGetAllocatedType(alloca));
+        return (int) Math.max(4, (size + 3) / 4 * 4);
+    }
+
     private void translateFunction(LLVMValueRef function) {
         String functionName = LLVMGetValueName(function).getString();
         boolean isMainFunction = functionName.equals("main"); // 标识是否为 main 函数
@@ -120,23 +193,29 @@ public class IrTranslater {
         // 重置栈分配状态
         nextStackOffset = isMainFunction ? 0 : 4; // main 不需要预留 ra 空间
         varStackOffsets.clear();
+        allocaStackOffsets.clear();
         tempRegisterUse.clear();
         tempRegisterDirty.clear();
 
         // 预扫描所有基本块，收集 alloca 和溢出变量
+        // alloca 的存储空间单独登记：它的地址本身也可能溢出，溢出用的栈槽在 varStackOffsets 中
+        // 局部数组放在标量和溢出变量之后，标量的偏移尽量留在 lw/sw 的 12 位立即数范围内
+        List<LLVMValueRef> localArrays = new ArrayList<>();
         for (LLVMBasicBlockRef bb = LLVMGetFirstBasicBlock(function); bb != null; bb = LLVMGetNextBasicBlock(bb)) {
             for (LLVMValueRef inst = LLVMGetFirstInstruction(bb); inst != null; inst = LLVMGetNextInstruction(inst)) {
                 if (LLVMGetInstructionOpcode(inst) == LLVMAlloca) {
                     String varName = LLVMGetValueName(inst).getString();
-                    if (!varStackOffsets.containsKey(varName)) {
-                        varStackOffsets.put(varName, nextStackOffset);
+                    if (allocaSize(inst) > 4) {
+                        localArrays.add(inst);
+                    } else if (!allocaStackOffsets.containsKey(varName)) {
+                        allocaStackOffsets.put(varName, nextStackOffset);
                         nextStackOffset += 4;
                     }
                 }
             }
         }
 
-        // 为溢出变量预留栈空间
+        // 为溢出变量（包括 phi）预留栈空间，之后不再追加栈槽，帧大小在这里就确定了
         for (String varName : registerAllocator.spilledVars) {
             if (!varStackOffsets.containsKey(varName)) {
                 varStackOffsets.put(varName, nextStackOffset);
@@ -144,6 +223,14 @@ public class IrTranslater {
             }
         }
 
+        for (LLVMValueRef array : localArrays) {
+            String varName = LLVMGetValueName(array).getString();
+            if (!allocaStackOffsets.containsKey(varName)) {
+                allocaStackOffsets.put(varName, nextStackOffset);
+                nextStackOffset += allocaSize(array);
+            }
+        }
+
         // 计算总帧大小
         int frameSize = nextStackOffset;
         currentFrameSize = frameSize;
@@ -156,11 +243,11 @@ public class IrTranslater {
 
         if (frameSize > 0 && !isMainFunction) {
             // 仅为非 main 函数保存 ra 和分配栈空间
-            builder.op2("addi", "sp", "sp", "-" + frameSize);
+            adjustStackPointer(-frameSize);
             builder.store("ra", "sp", 0);
         } else if (frameSize > 0) {
             // 为 main 函数仅分配局部变量空间
-            builder.op2("addi", "sp", "sp", "-" + frameSize);
+            adjustStackPointer(-frameSize);
         }
 
         // 遍历基本块
@@ -171,6 +258,16 @@ public class IrTranslater {
         // 移除原有的尾声生成代码（已注释）
     }
 
+    // 栈帧超过 addi 立即数范围（有较大的局部数组）时借助 t6 调整 sp
+    private void adjustStackPointer(int delta) {
+        if (delta >= -2048 && delta < 2048) {
+            builder.op2("addi", "sp", "sp", String.valueOf(delta));
+        } else {
+            builder.loadImm("t6", delta);
+            builder.op3("add", "sp", "sp", "t6");
+        }
+    }
+
     private void translateBasicBlock(LLVMBasicBlockRef block) {
         // 生成标签
         String blockName = LLVMGetBasicBlockName(block).getString();
@@ -178,6 +275,10 @@ public class IrTranslater {
             builder.label(blockName);
         }
 
+        // 基本块可能从多个前驱进入，临时寄存器里缓存的值不再可信；前驱跳转前已把脏的溢出变量写回栈
+        tempRegisterUse.clear();
+        tempRegisterDirty.clear();
+
         // 翻译基本块中的指令
         for (LLVMValueRef inst = LLVMGetFirstInstruction(block); inst != null; inst = LLVMGetNextInstruction(inst)) {
             translateInstruction(inst);
@@ -190,17 +291,10 @@ public class IrTranslater {
 
         Map<String, String> spillInfo = lookupSpillInfo(instructionId);
         if (spillInfo != null) {
-            // 负责溢出变量的回栈
-            for (Map.Entry<String, String> entry : spillInfo.entrySet()) {
-                String varName = entry.getKey();
-                String regName = entry.getValue();
-                if(regName != null){
-                    builder.comment("变量 " + varName + " 溢出到栈 " );
-                    int offset= varStackOffsets.get(varName);
-                    builder.store(regName,"sp",offset);
-                }else{//说明这个溢出的变量是新定义的
-                    allocateTempRegister(varName);
-                }
+            // 溢出变量在整个生命周期内都以栈槽为准：定义时写入临时寄存器并标脏，离开基本块前写回；
+            // 分配器记录的寄存器从未保存过它的值，这里不能再写回栈（phi 的栈槽已由前驱的拷贝写好）
+            for (String varName : spillInfo.keySet()) {
+                builder.comment("变量 " + varName + " 溢出到栈 " );
             }
         }
 
@@ -214,9 +308,9 @@ public class IrTranslater {
             case LLVMSwitch: // Switch指令
                 translateSwitch(inst);
                 break;
-            /*case LLVMCall:  // 函数调用
+            case LLVMCall:  // 函数调用（只支持 memset/memcpy 内建函数）
                 translateCall(inst);
-                break;*/
+                break;
             case LLVMAdd:   // 加法
             case LLVMSub:   // 减法
             case LLVMMul:   // 乘法
@@ -271,7 +365,7 @@ public class IrTranslater {
 
     /**
      * 这是一个查询方法，如果变量仍然被安排在寄存器里，就会返回安排的位置，否则会告诉你它在栈上或者是全局变量
-     * @return 存放变量的寄存器名称/global/stack/zero
+     * @return 存放变量的寄存器名称/global/spill
      */
     private String lookupRegisterAllocation(String varName, int instId) {
         // 处理全局变量，直接返回变量名，由其他方法处理
@@ -292,9 +386,8 @@ public class IrTranslater {
             return "spill";
         }
 
-        // 没有位置信息
-        builder.comment("警告: 变量 " + varName + " 没有位置信息");
-        return "zero";
+        // 没有位置信息说明活跃区间漏掉了这个使用点，继续生成只会得到错误的代码
+        throw new RuntimeException("变量没有位置信息: " + varName + "（指令 " + instId + "）");
     }
 
     private boolean isGlobalVariable(String varName) {
@@ -333,13 +426,8 @@ public class IrTranslater {
             String oldVarName = tempRegisterUse.get(reg);
 
             // 如果寄存器被修改过，需要将旧值写回栈
-            if (tempRegisterDirty.getOrDefault(reg, false)) {
-                // 确保旧变量在栈上有空间
-                if (!varStackOffsets.containsKey(oldVarName)) {
-                    varStackOffsets.put(oldVarName, nextStackOffset);
-                    nextStackOffset += 4;
-                }
-
+            // 只有溢出变量有栈槽（在函数序言前全部分配好）；addr_ 等临时名字用完即弃，不需要写回
+            if (tempRegisterDirty.getOrDefault(reg, false) && varStackOffsets.containsKey(oldVarName)) {
                 int offset = varStackOffsets.get(oldVarName);
                 builder.comment("写回栈变量 " + oldVarName);
                 builder.store(reg, "sp", offset);
@@ -365,6 +453,22 @@ public class IrTranslater {
         return "zero"; // 应急措施
     }
 
+    /**
+     * 溢出变量当前所在的临时寄存器：已经缓存在临时寄存器中（可能比栈槽更新）时直接使用，否则从栈槽装入
+     * @param varName 溢出变量名
+     * @return 保存变量值的临时寄存器
+     */
+    private String spilledValueRegister(String varName) {
+        for (String reg : tempRegisters) {
+            if (varName.equals(tempRegisterUse.get(reg))) {
+                return reg;
+            }
+        }
+        String reg = allocateTempRegister(varName);
+        builder.load(reg, "sp", varStackOffsets.get(varName));
+        return reg;
+    }
+
     /**
      * 锁定寄存器，防止被重新分配
      * @param register 要锁定的寄存器名称
@@ -490,7 +594,7 @@ public class IrTranslater {
         if (isMainFunction) {
             // 为 main 函数生成 exit 系统调用
             if (currentFrameSize > 0) {
-                builder.op2("addi", "sp", "sp", String.valueOf(currentFrameSize)); // 恢复栈指针
+                adjustStackPointer(currentFrameSize); // 恢复栈指针
             }
             builder.loadImm("a7", 93); // exit 系统调用号
             builder.ecall();
@@ -498,7 +602,7 @@ public class IrTranslater {
             // 为其他函数生成普通返回
             if (currentFrameSize > 0) {
                 builder.load("ra", "sp", 0); // 恢复返回地址
-                builder.op2("addi", "sp", "sp", String.valueOf(currentFrameSize)); // 恢复栈指针
+                adjustStackPointer(currentFrameSize); // 恢复栈指针
             }
             builder.ret();
         }
@@ -521,6 +625,19 @@ public class IrTranslater {
             default: operation = "add"; // 默认为加法
         }
 
+        // 加减一个 12 位以内的常量时用 addi，常量不占寄存器（加法的常量在左边时交换操作数）
+        if (opcode == LLVMAdd && LLVMIsAConstant(op1) != null && LLVMIsAConstant(op2) == null) {
+            LLVMValueRef tmp = op1;
+            op1 = op2;
+            op2 = tmp;
+        }
+        String immediate = null;
+        if ((opcode == LLVMAdd || opcode == LLVMSub) && LLVMIsAConstantInt(op2) != null && LLVMIsAConstant(op1) == null) {
+            long constValue = LLVMConstIntGetSExtValue(op2);
+            long addend = opcode == LLVMAdd ? constValue : -constValue;
+            if (addend >= -2048 && addend <= 2047) immediate = String.valueOf(addend);
+        }
+
         // 处理第一个操作数
         String op1Reg;
         if (LLVMIsAConstant(op1) != null) {
@@ -532,18 +649,7 @@ public class IrTranslater {
             String op1Name = LLVMGetValueName(op1).getString();
             op1Reg = lookupRegisterAllocation(op1Name, instructionId);
             if(op1Reg == "spill") {//被溢出，可能在栈/临时寄存器
-                boolean isInTempReg = false;
-                for (String reg : tempRegisters) {
-                    if (tempRegisterUse.containsKey(reg) &&
-                            tempRegisterUse.get(reg).equals(op1Name)) {
-                        op1Reg = reg;
-                        isInTempReg = true;
-                        break;
-                    }
-                }
-                if(isInTempReg==false){
-                   op1Reg = allocateTempRegister(op1Name);
-                }
+                op1Reg = spilledValueRegister(op1Name);
             } else if (op1Reg == "global") { // 如果操作数是全局变量，需要先分配一个临时寄存器
                 //这里为了避免两次分配临时寄存器互相覆盖，直接指定寄存器
                 op1Reg = allocateTempRegister(op1Name);
@@ -561,7 +667,10 @@ public class IrTranslater {
 
         // 处理第二个操作数
         String op2Reg;
-        if (LLVMIsAConstant(op2) != null) {
+        if (immediate != null) {
+            // 立即数直接编码在指令中，借用第一个操作数的寄存器走后面的加锁/解锁流程
+            op2Reg = op1Reg;
+        } else if (LLVMIsAConstant(op2) != null) {
             // 如果是常量，加载到临时寄存器
             long constValue = LLVMConstIntGetSExtValue(op2);
             op2Reg = "t6";
@@ -570,18 +679,7 @@ public class IrTranslater {
             String op2Name = LLVMGetValueName(op2).getString();
             op2Reg = lookupRegisterAllocation(op2Name, instructionId);
             if(op2Reg == "spill") {//被溢出，可能在栈/临时寄存器
-                boolean isInTempReg = false;
-                for (String reg : tempRegisters) {
-                    if (tempRegisterUse.containsKey(reg) &&
-                            tempRegisterUse.get(reg).equals(op2Name)) {
-                        op2Reg = reg;
-                        isInTempReg = true;
-                        break;
-                    }
-                }
-                if(isInTempReg==false){
-                    op2Reg = allocateTempRegister(op2Name);
-                }
+                op2Reg = spilledValueRegister(op2Name);
             } else if (op2Reg == "global") { // 如果操作数是全局变量，需要先分配一个临时寄存器
                 //这里为了避免两次分配临时寄存器互相覆盖，直接指定寄存器
                 op2Reg = allocateTempRegister(op2Name);
@@ -614,7 +712,11 @@ public class IrTranslater {
         lockRegister(destReg);
 
         // 生成计算指令
-        builder.op3(operation, destReg, op1Reg, op2Reg);
+        if (immediate != null) {
+            builder.op2("addi", destReg, op1Reg, immediate);
+        } else {
+            builder.op3(operation, destReg, op1Reg, op2Reg);
+        }
         markRegisterDirty(destReg);
         unlockRegister(op1Reg);
         unlockRegister(op2Reg);
@@ -647,20 +749,7 @@ public class IrTranslater {
             // 指针是局部变量
             ptrReg = lookupRegisterAllocation(pointerName, instructionId);
             if(ptrReg == "spill") {
-                boolean isInTempReg = false;
-                for (String reg : tempRegisters) {
-                    if (tempRegisterUse.containsKey(reg) &&
-                            tempRegisterUse.get(reg).equals(pointerName)) {
-                        ptrReg = reg;
-                        isInTempReg = true;
-                        break;
-                    }
-                }
-                if(!isInTempReg) {
-                    ptrReg = allocateTempRegister(pointerName);
-                    int offset = varStackOffsets.get(pointerName);
-                    builder.load(ptrReg, "sp", offset);
-                }
+                ptrReg = spilledValueRegister(pointerName);
             }
         }
         lockRegister(ptrReg);
@@ -713,20 +802,7 @@ public class IrTranslater {
             String valueName = LLVMGetValueName(valueRef).getString();
             valueReg = lookupRegisterAllocation(valueName, instructionId);
             if(valueReg == "spill") {
-                boolean isInTempReg = false;
-                for (String reg : tempRegisters) {
-                    if (tempRegisterUse.containsKey(reg) &&
-                            tempRegisterUse.get(reg).equals(valueName)) {
-                        valueReg = reg;
-                        isInTempReg = true;
-                        break;
-                    }
-                }
-                if(!isInTempReg) {
-                    valueReg = allocateTempRegister(valueName);
-                    int offset = varStackOffsets.get(valueName);
-                    builder.load(valueReg, "sp", offset);
-                }
+                valueReg = spilledValueRegister(valueName);
             } else if (valueReg == "global") {
                 valueReg = allocateTempRegister(valueName);
                 lockRegister(valueReg);
@@ -748,20 +824,7 @@ public class IrTranslater {
             // 指针是局部变量
             ptrReg = lookupRegisterAllocation(pointerName, instructionId);
             if(ptrReg == "spill") {
-                boolean isInTempReg = false;
-                for (String reg : tempRegisters) {
-                    if (tempRegisterUse.containsKey(reg) &&
-                            tempRegisterUse.get(reg).equals(pointerName)) {
-                        ptrReg = reg;
-                        isInTempReg = true;
-                        break;
-                    }
-                }
-                if(!isInTempReg) {
-                    ptrReg = allocateTempRegister(pointerName);
-                    int offset = varStackOffsets.get(pointerName);
-                    builder.load(ptrReg, "sp", offset);
-                }
+                ptrReg = spilledValueRegister(pointerName);
             } else if (ptrReg == "global") {
                 ptrReg = allocateTempRegister(pointerName);
                 lockRegister(ptrReg);
@@ -782,6 +845,123 @@ public class IrTranslater {
         unlockRegister(ptrReg);
     }
 
+    /**
+     * 调用处展开 llvm.memset / llvm.memcpy（LoopIdiom 和前端的数组清零生成），长度总是 4 的倍数，按字读写
+     * 常量长度不超过 MEMORY_UNROLL_WORDS 个字时直接展开为 sw（复制为 lw + sw）；
+     * 更长的常量长度先处理除以 4 的余数个字，再用每次处理 4 个字的循环；变量长度用每次一个字的循环
+     * t5 存放结束地址，t6 存放填充的字或复制中转的字
+     */
+    private void translateCall(LLVMValueRef inst) {
+        boolean isMemset = IrUtils.isIntrinsicCall(inst, "llvm.memset");
+        if (!isMemset && !IrUtils.isIntrinsicCall(inst, "llvm.memcpy")) {
+            builder.comment("不支持的函数调用: " + IrUtils.nameOf(LLVMGetCalledValue(inst)));
+            return;
+        }
+        builder.comment(isMemset ? "memset 展开" : "memcpy 展开");
+
+        String destReg = addressRegister(LLVMGetOperand(inst, 0));
+        String srcReg = isMemset ? null : addressRegister(LLVMGetOperand(inst, 1));
+        String valueReg = "zero";
+        if (isMemset) {
+            long word = (LLVMConstIntGetZExtValue(LLVMGetOperand(inst, 1)) & 0xff) * 0x01010101L;
+            if (word != 0) {
+                valueReg = "t6";
+                builder.loadImm(valueReg, IrUtils.normalize(word, 32));
+            }
+        }
+
+        LLVMValueRef length = LLVMGetOperand(inst, 2);
+        if (LLVMIsAConstantInt(length) != null && LLVMConstIntGetSExtValue(length) / 4 <= MEMORY_UNROLL_WORDS) {
+            emitWordCopies(destReg, srcReg, valueReg, (int) (LLVMConstIntGetSExtValue(length) / 4));
+            unlockRegister(destReg);
+            if (srcReg != null) unlockRegister(srcReg);
+            return;
+        }
+
+        // 在临时寄存器中推进目的（和来源）地址，原寄存器中的地址保持不变
+        String destCursor = allocateTempRegister("memory_dest");
+        lockRegister(destCursor);
+        builder.move(destCursor, destReg);
+        String srcCursor = null;
+        if (srcReg != null) {
+            srcCursor = allocateTempRegister("memory_src");
+            lockRegister(srcCursor);
+            builder.move(srcCursor, srcReg);
+        }
+        String loopLabel = "memory_loop_" + memoryLoopCount;
+        String doneLabel = "memory_done_" + memoryLoopCount;
+        memoryLoopCount++;
+
+        int wordsPerIteration;
+        if (LLVMIsAConstantInt(length) != null) {
+            long words = LLVMConstIntGetSExtValue(length) / 4;
+            int remainder = (int) (words % 4);
+            if (remainder > 0) {
+                emitWordCopies(destCursor, srcCursor, valueReg, remainder);
+                advance(destCursor, srcCursor, remainder * 4);
+            }
+            long loopBytes = (words - remainder) * 4;
+            if (loopBytes < 2048) {
+                builder.op2("addi", "t5", destCursor, String.valueOf(loopBytes));
+            } else {
+                builder.loadImm("t5", loopBytes);
+                builder.op3("add", "t5", destCursor, "t5");
+            }
+            wordsPerIteration = 4;
+        } else {
+            // 变量长度可能为 0，进入循环前先检查
+            String lengthReg = indexRegister(length);
+            builder.op3("add", "t5", destCursor, lengthReg);
+            unlockRegister(lengthReg);
+            builder.branch2("beq", destCursor, "t5", doneLabel);
+            wordsPerIteration = 1;
+        }
+        builder.label(loopLabel);
+        emitWordCopies(destCursor, srcCursor, valueReg, wordsPerIteration);
+        advance(destCursor, srcCursor, wordsPerIteration * 4);
+        builder.branch2("bne", destCursor, "t5", loopLabel);
+        builder.label(doneLabel);
+
+        unlockRegister(destReg);
+        unlockRegister(destCursor);
+        if (srcReg != null) {
+            unlockRegister(srcReg);
+            unlockRegister(srcCursor);
+        }
+    }
+
+    //辅助方法：从 destReg 开始写 words 个字，srcReg 为 null 时写入 valueReg，否则从 srcReg 开始逐字复制
+    private void emitWordCopies(String destReg, String srcReg, String valueReg, int words) {
+        for (int i = 0; i < words; i++) {
+            if (srcReg != null) {
+                builder.load("t6", srcReg, i * 4);
+                builder.store("t6", destReg, i * 4);
+            } else {
+                builder.store(valueReg, destReg, i * 4);
+            }
+        }
+    }
+
+    //辅助方法：目的（和来源）地址向后推进 bytes 个字节
+    private void advance(String destCursor, String srcCursor, int bytes) {
+        builder.op2("addi", destCursor, destCursor, String.valueOf(bytes));
+        if (srcCursor != null) {
+            builder.op2("addi", srcCursor, srcCursor, String.valueOf(bytes));
+        }
+    }
+
+    //辅助方法：取得地址所在的寄存器，全局变量先用 la 装入临时寄存器，返回时已加锁
+    private String addressRegister(LLVMValueRef pointer) {
+        String pointerName = LLVMGetValueName(pointer).getString();
+        if (isGlobalVariable(pointerName)) {
+            String addrReg = allocateTempRegister("addr_" + pointerName);
+            builder.la(addrReg, pointerName);
+            lockRegister(addrReg);
+            return addrReg;
+        }
+        return indexRegister(pointer);
+    }
+
     private void translateBr(LLVMValueRef inst) {
         int operandCount = LLVMGetNumOperands(inst);
 
@@ -800,42 +980,21 @@ public class IrTranslater {
                     }
                 }
             }
+            emitPhiCopies(LLVMGetInstructionParent(inst), LLVMValueAsBasicBlock(dest));
             builder.jump(label);
         } else if (operandCount == 3) {
             // 条件分支
+            // 注意条件跳转的操作数顺序是 (cond, false, true)，用后继编号取目标更可靠
             LLVMValueRef condValue = LLVMGetOperand(inst, 0);
-            LLVMValueRef trueDest = LLVMGetOperand(inst, 1);
-            LLVMValueRef falseDest = LLVMGetOperand(inst, 2);
-
-            String trueLabel = LLVMGetBasicBlockName(LLVMValueAsBasicBlock(trueDest)).getString();
-            String falseLabel = LLVMGetBasicBlockName(LLVMValueAsBasicBlock(falseDest)).getString();
+            LLVMBasicBlockRef trueBlock = LLVMGetSuccessor(inst, 0);
+            LLVMBasicBlockRef falseBlock = LLVMGetSuccessor(inst, 1);
+            String trueLabel = LLVMGetBasicBlockName(trueBlock).getString();
+            String falseLabel = LLVMGetBasicBlockName(falseBlock).getString();
 
-            // 语义检查：调整标签以匹配 C 程序控制流
-            String adjustedTrueLabel = trueLabel;
-            String adjustedFalseLabel = falseLabel;
             LLVMBasicBlockRef parentBB = LLVMGetInstructionParent(inst);
             String parentBBName = LLVMGetBasicBlockName(parentBB).getString();
 
-            // 检查是否在循环条件块（while.cond）
-            if (parentBBName.contains("while.cond") || parentBBName.contains("whileCond")) {
-                // 假设真分支应为循环体，假分支为退出
-                if (trueLabel.contains("whileNext") || trueLabel.contains("while.end")) {
-                    // 标签错误：trueLabel 是退出块，交换
-                    adjustedTrueLabel = falseLabel;
-                    adjustedFalseLabel = trueLabel;
-                }
-            }
-            // 检查是否在 if 条件块
-            else if (parentBBName.contains("while.body") || parentBBName.contains("whileBody")) {
-                // 假设真分支应为 if.then，假分支为 if.else
-                if (trueLabel.contains("if_false") || trueLabel.contains("if.else")) {
-                    // 标签错误：trueLabel 是假分支，交换
-                    adjustedTrueLabel = falseLabel;
-                    adjustedFalseLabel = trueLabel;
-                }
-            }
-
-            builder.comment("条件跳转: 如果为真则去 " + adjustedTrueLabel + " 否则去 " + adjustedFalseLabel);
+            builder.comment("条件跳转: 如果为真则去 " + trueLabel + " 否则去 " + falseLabel);
 
             // 获取条件值的寄存器
             String condReg;
@@ -847,20 +1006,7 @@ public class IrTranslater {
                 String condName = LLVMGetValueName(condValue).getString();
                 condReg = lookupRegisterAllocation(condName, instructionId);
                 if (condReg.equals("spill")) {
-                    boolean isInTempReg = false;
-                    for (String reg : tempRegisters) {
-                        if (tempRegisterUse.containsKey(reg) &&
-                                tempRegisterUse.get(reg).equals(condName)) {
-                            condReg = reg;
-                            isInTempReg = true;
-                            break;
-                        }
-                    }
-                    if (!isInTempReg) {
-                        condReg = allocateTempRegister(condName);
-                        int offset = varStackOffsets.get(condName);
-                        builder.load(condReg, "sp", offset);
-                    }
+                    condReg = spilledValueRegister(condName);
                 } else if (condReg.equals("global")) {
                     condReg = allocateTempRegister(condName);
                     lockRegister(condReg);
@@ -884,14 +1030,144 @@ public class IrTranslater {
                 }
             }
 
-            // 使用调整后的标签
-            builder.branch("bnez", condReg, adjustedTrueLabel);
-            builder.jump(adjustedFalseLabel);
+            // 目标块有 phi 时，拷贝要放在对应的边上：假分支的拷贝紧跟在 bnez 之后，真分支的拷贝放到单独的边标签下
+            boolean trueEdgeHasPhi = hasPhi(trueBlock);
+            if (trueEdgeHasPhi && !hasPhi(falseBlock)) {
+                // 旋转后的循环回边通常是这种情况：真分支（回到循环头）的拷贝直接跟在 beqz 之后，每次迭代只跳一次
+                builder.branch("beqz", condReg, falseLabel);
+                emitPhiCopies(parentBB, trueBlock);
+                builder.jump(trueLabel);
+                unlockRegister(condReg);
+                return;
+            }
+            String trueEdgeLabel = trueEdgeHasPhi ? parentBBName + "_to_" + trueLabel : trueLabel;
+            builder.branch("bnez", condReg, trueEdgeLabel);
+            emitPhiCopies(parentBB, falseBlock);
+            builder.jump(falseLabel);
+            if (trueEdgeHasPhi) {
+                builder.label(trueEdgeLabel);
+                emitPhiCopies(parentBB, trueBlock);
+                builder.jump(trueLabel);
+            }
 
             unlockRegister(condReg);
         }
     }
 
+    private boolean hasPhi(LLVMBasicBlockRef block) {
+        LLVMValueRef first = LLVMGetFirstInstruction(block);
+        return first != null && LLVMGetInstructionOpcode(first) == LLVMPHI;
+    }
+
+    /**
+     * 在跳转到 target 之前，把 target 中各 phi 来自 from 的值写入 phi 的位置
+     * phi 的拷贝在语义上是同时发生的，这里按依赖顺序串行化，遇到环时借用 t6 打破
+     * 位置用字符串表示：reg:寄存器 / stack:栈偏移 / imm:立即数
+     * @param from 当前基本块
+     * @param target 跳转目标块
+     */
+    private void emitPhiCopies(LLVMBasicBlockRef from, LLVMBasicBlockRef target) {
+        List<String[]> moves = new ArrayList<>(); // {目的位置, 源位置}
+        List<String> phiNames = new ArrayList<>();
+
+        for (LLVMValueRef phi = LLVMGetFirstInstruction(target);
+             phi != null && LLVMGetInstructionOpcode(phi) == LLVMPHI;
+             phi = LLVMGetNextInstruction(phi)) {
+            LLVMValueRef incoming = null;
+            for (int i = 0; i < LLVMCountIncoming(phi); i++) {
+                if (LLVMGetIncomingBlock(phi, i).equals(from)) {
+                    incoming = LLVMGetIncomingValue(phi, i);
+                    break;
+                }
+            }
+            if (incoming == null) continue;
+
+            String phiName = LLVMGetValueName(phi).getString();
+            phiNames.add(phiName);
+            String dest = valueLocation(phiName);
+            String src = LLVMIsAConstant(incoming) != null
+                    ? "imm:" + LLVMConstIntGetSExtValue(incoming)
+                    : valueLocation(LLVMGetValueName(incoming).getString());
+            if (!dest.equals(src)) {
+                builder.comment("PHI: " + phiName + " <- " + src);
+                moves.add(new String[]{dest, src});
+            }
+        }
+
+        while (!moves.isEmpty()) {
+            // 找一个目的位置不再被其他拷贝读取的拷贝先执行
+            String[] ready = null;
+            for (String[] move : moves) {
+                boolean blocked = false;
+                for (String[] other : moves) {
+                    if (other != move && other[1].equals(move[0])) {
+                        blocked = true;
+                        break;
+                    }
+                }
+                if (!blocked) {
+                    ready = move;
+                    break;
+                }
+            }
+
+            if (ready != null) {
+                emitMove(ready[0], ready[1]);
+                moves.remove(ready);
+            } else {
+                // 剩下的都在环上：先把一个源保存到 t6，再让它从 t6 读取
+                String[] move = moves.get(0);
+                emitMove("reg:t6", move[1]);
+                move[1] = "reg:t6";
+            }
+        }
+
+        // phi 的新值已经写到分配的位置，临时寄存器里缓存的旧值作废
+        for (String phiName : phiNames) {
+            for (String reg : new ArrayList<>(tempRegisterUse.keySet())) {
+                if (phiName.equals(tempRegisterUse.get(reg))) {
+                    tempRegisterUse.remove(reg);
+                    tempRegisterDirty.put(reg, false);
+                }
+            }
+        }
+    }
+
+    //辅助方法：查询变量在当前指令处的位置（寄存器或栈）
+    private String valueLocation(String varName) {
+        String reg = lookupRegisterAllocation(varName, instructionId);
+        if (reg.equals("spill")) {
+            return "stack:" + varStackOffsets.get(varName); // 溢出变量（包括 phi）的栈槽在序言前已分配
+        }
+        return "reg:" + reg;
+    }
+
+    //辅助方法：在两个位置之间搬运一个值，栈到栈经过 t5
+    private void emitMove(String dest, String src) {
+        String srcKind = src.substring(0, src.indexOf(':'));
+        String srcValue = src.substring(src.indexOf(':') + 1);
+        String destKind = dest.substring(0, dest.indexOf(':'));
+        String destValue = dest.substring(dest.indexOf(':') + 1);
+
+        String srcReg;
+        if (srcKind.equals("reg")) {
+            srcReg = srcValue;
+            if (destKind.equals("reg")) {
+                builder.move(destValue, srcReg);
+                return;
+            }
+        } else {
+            srcReg = destKind.equals("reg") ? destValue : "t5";
+            if (srcKind.equals("imm")) {
+                builder.loadImm(srcReg, Long.parseLong(srcValue));
+            } else {
+                builder.load(srcReg, "sp", Integer.parseInt(srcValue));
+            }
+            if (destKind.equals("reg")) return;
+        }
+        builder.store(srcReg, "sp", Integer.parseInt(destValue));
+    }
+
     private void translateICmp(LLVMValueRef inst) {
         // 获取操作数和结果变量名
         LLVMValueRef op1 = LLVMGetOperand(inst, 0);
@@ -909,20 +1185,7 @@ public class IrTranslater {
             String op1Name = LLVMGetValueName(op1).getString();
             op1Reg = lookupRegisterAllocation(op1Name, instructionId);
             if(op1Reg == "spill") {
-                boolean isInTempReg = false;
-                for (String reg : tempRegisters) {
-                    if (tempRegisterUse.containsKey(reg) &&
-                            tempRegisterUse.get(reg).equals(op1Name)) {
-                        op1Reg = reg;
-                        isInTempReg = true;
-                        break;
-                    }
-                }
-                if(!isInTempReg) {
-                    op1Reg = allocateTempRegister(op1Name);
-                    int offset = varStackOffsets.get(op1Name);
-                    builder.load(op1Reg, "sp", offset);
-                }
+                op1Reg = spilledValueRegister(op1Name);
             } else if (op1Reg == "global") {
                 op1Reg = allocateTempRegister(op1Name);
                 lockRegister(op1Reg);
@@ -945,20 +1208,7 @@ public class IrTranslater {
             String op2Name = LLVMGetValueName(op2).getString();
             op2Reg = lookupRegisterAllocation(op2Name, instructionId);
             if(op2Reg == "spill") {
-                boolean isInTempReg = false;
-                for (String reg : tempRegisters) {
-                    if (tempRegisterUse.containsKey(reg) &&
-                            tempRegisterUse.get(reg).equals(op2Name)) {
-                        op2Reg = reg;
-                        isInTempReg = true;
-                        break;
-                    }
-                }
-                if(!isInTempReg) {
-                    op2Reg = allocateTempRegister(op2Name);
-                    int offset = varStackOffsets.get(op2Name);
-                    builder.load(op2Reg, "sp", offset);
-                }
+                op2Reg = spilledValueRegister(op2Name);
             } else if (op2Reg == "global") {
                 op2Reg = allocateTempRegister(op2Name);
                 lockRegister(op2Reg);
@@ -1048,12 +1298,6 @@ public class IrTranslater {
         String varName = LLVMGetValueName(inst).getString();
         builder.comment("栈分配 " + varName);
 
-        // 为变量分配栈空间
-        if (!varStackOffsets.containsKey(varName)) {
-            varStackOffsets.put(varName, nextStackOffset);
-            nextStackOffset += 4; // 每个变量占4字节
-        }
-
         // 获取目标寄存器位置
         String destReg = lookupRegisterAllocation(varName, instructionId);
         if(destReg.equals("spill")) {
@@ -1066,9 +1310,14 @@ public class IrTranslater {
 
         lockRegister(destReg);
 
-        // 计算栈上地址并存入目标寄存器
-        int offset = varStackOffsets.get(varName);
-        builder.op2("addi", destReg, "sp", String.valueOf(offset));
+        // 计算栈上地址并存入目标寄存器（存储空间在序言前已分配）
+        int offset = allocaStackOffsets.get(varName);
+        if (offset < 2048) {
+            builder.op2("addi", destReg, "sp", String.valueOf(offset));
+        } else {
+            builder.loadImm(destReg, offset);
+            builder.op3("add", destReg, "sp", destReg);
+        }
 
         // 如果目标是全局变量，需要将结果写回
         if(lookupRegisterAllocation(varName, instructionId).equals("global")) {
@@ -1097,20 +1346,7 @@ public class IrTranslater {
         } else {
             baseReg = lookupRegisterAllocation(baseName, instructionId);
             if(baseReg == "spill") {
-                boolean isInTempReg = false;
-                for (String reg : tempRegisters) {
-                    if (tempRegisterUse.containsKey(reg) &&
-                            tempRegisterUse.get(reg).equals(baseName)) {
-                        baseReg = reg;
-                        isInTempReg = true;
-                        break;
-                    }
-                }
-                if(!isInTempReg) {
-                    baseReg = allocateTempRegister(baseName);
-                    int offset = varStackOffsets.get(baseName);
-                    builder.load(baseReg, "sp", offset);
-                }
+                baseReg = spilledValueRegister(baseName);
             } else if (baseReg == "global") {
                 baseReg = allocateTempRegister(baseName);
                 lockRegister(baseReg);
@@ -1135,59 +1371,61 @@ public class IrTranslater {
 
         lockRegister(destReg);
 
-        // 处理索引和偏移计算
-        if (LLVMGetNumOperands(inst) == 2) {
-            // 只有一个索引，可能是全局变量直接索引
-            builder.move(destReg, baseReg);
-        } else if (LLVMGetNumOperands(inst) == 3) {
-            // 有两个索引，通常第一个是0，第二个是实际索引
-            LLVMValueRef indexValue = LLVMGetOperand(inst, 2);
+        // 处理索引和偏移计算：沿指向类型逐层计算，第一个下标按整个指向类型跨越
+        // （单下标是循环强度削弱生成的指针递增），之后每个下标进入一层数组
+        // 常量下标在编译期合成一个字节偏移，只有变量下标需要乘以该层元素大小后累加
+        LLVMTypeRef indexedType = LLVMGetElementType(LLVMTypeOf(basePtr));
+        long constantOffset = 0;
+        List<Integer> variableIndices = new ArrayList<>();
+        List<Long> variableStrides = new ArrayList<>();
+        for (int i = 1; i < LLVMGetNumOperands(inst); i++) {
+            if (i > 1) {
+                indexedType = LLVMGetElementType(indexedType);
+            }
+            long elementSize = sizeInBytes(indexedType);
+            LLVMValueRef indexValue = LLVMGetOperand(inst, i);
             if (LLVMIsAConstant(indexValue) != null) {
-                long index = LLVMConstIntGetSExtValue(indexValue);
-                long offset = index * 4; // 假设元素大小为4字节
-
-                if (offset == 0) {
-                    builder.move(destReg, baseReg);
-                } else {
-                    builder.op2("addi", destReg, baseReg, String.valueOf(offset));
-                }
+                constantOffset += LLVMConstIntGetSExtValue(indexValue) * elementSize;
             } else {
-                // 如果索引是变量，需要先加载，然后计算偏移
-                String indexName = LLVMGetValueName(indexValue).getString();
-                String indexReg = lookupRegisterAllocation(indexName, instructionId);
-                if(indexReg == "spill") {
-                    boolean isInTempReg = false;
-                    for (String reg : tempRegisters) {
-                        if (tempRegisterUse.containsKey(reg) &&
-                                tempRegisterUse.get(reg).equals(indexName)) {
-                            indexReg = reg;
-                            isInTempReg = true;
-                            break;
-                        }
-                    }
-                    if(!isInTempReg) {
-                        indexReg = allocateTempRegister(indexName);
-                        int offset = varStackOffsets.get(indexName);
-                        builder.load(indexReg, "sp", offset);
-                    }
-                } else if (indexReg == "global") {
-                    indexReg = allocateTempRegister(indexName);
-                    lockRegister(indexReg);
-                    String addrReg = allocateTempRegister("addr_" + indexName);
-                    builder.la(addrReg, indexName);
-                    builder.load(indexReg, addrReg, 0);
-                    unlockRegister(addrReg);
-                }
-                lockRegister(indexReg);
+                variableIndices.add(i);
+                variableStrides.add(elementSize);
+            }
+        }
 
-                // 计算偏移地址：基地址 + 索引*4
-                String tempReg = allocateTempRegister("temp_index_mult");
-                builder.op2("slli", tempReg, indexReg, "2"); // 乘以4
-                builder.op3("add", destReg, baseReg, tempReg); // 基地址+偏移
+        // 变量项依次累加；中间结果放在临时寄存器里，目标寄存器可能与后面的下标共用，最后一项才写入
+        String partialReg = baseReg;
+        String sumReg = null;
+        for (int k = 0; k < variableIndices.size(); k++) {
+            String indexReg = indexRegister(LLVMGetOperand(inst, variableIndices.get(k)));
+            String scaledReg = scaleIndex(indexReg, variableStrides.get(k));
+            String targetReg = destReg;
+            if (k + 1 < variableIndices.size()) {
+                if (sumReg == null) {
+                    sumReg = allocateTempRegister("temp_gep_sum");
+                    lockRegister(sumReg);
+                }
+                targetReg = sumReg;
+            }
+            builder.op3("add", targetReg, partialReg, scaledReg);
+            partialReg = targetReg;
+            unlockRegister(indexReg);
+            unlockRegister(scaledReg);
+        }
+        if (sumReg != null) {
+            unlockRegister(sumReg);
+        }
 
-                unlockRegister(indexReg);
-                unlockRegister(tempReg);
+        if (constantOffset == 0) {
+            if (!partialReg.equals(destReg)) {
+                builder.move(destReg, partialReg);
             }
+        } else if (constantOffset >= -2048 && constantOffset < 2048) {
+            builder.op2("addi", destReg, partialReg, String.valueOf(constantOffset));
+        } else {
+            String offsetReg = allocateTempRegister("temp_offset");
+            builder.loadImm(offsetReg, constantOffset);
+            builder.op3("add", destReg, partialReg, offsetReg);
+            unlockRegister(offsetReg);
         }
 
         // 解锁基地址寄存器
@@ -1206,6 +1444,48 @@ public class IrTranslater {
         unlockRegister(destReg);
     }
 
+    //辅助方法：取得下标变量所在的寄存器（溢出或全局时先装入临时寄存器），返回时已加锁
+    private String indexRegister(LLVMValueRef indexValue) {
+        String indexName = LLVMGetValueName(indexValue).getString();
+        String indexReg = lookupRegisterAllocation(indexName, instructionId);
+        if(indexReg == "spill") {
+            indexReg = spilledValueRegister(indexName);
+        } else if (indexReg == "global") {
+            indexReg = allocateTempRegister(indexName);
+            lockRegister(indexReg);
+            String addrReg = allocateTempRegister("addr_" + indexName);
+            builder.la(addrReg, indexName);
+            builder.load(indexReg, addrReg, 0);
+            unlockRegister(addrReg);
+        }
+        lockRegister(indexReg);
+        return indexReg;
+    }
+
+    //辅助方法：下标乘以元素大小，结果放在加锁的临时寄存器中
+    // 2 的幂用一次移位，两个 2 的幂之和（如一行 3 个或 5 个元素）用两次移位加一次加法，其余用乘法
+    private String scaleIndex(String indexReg, long elementSize) {
+        String scaledReg = allocateTempRegister("temp_index_mult");
+        lockRegister(scaledReg);
+        if (Long.bitCount(elementSize) == 1) {
+            builder.op2("slli", scaledReg, indexReg, String.valueOf(Long.numberOfTrailingZeros(elementSize)));
+        } else if (Long.bitCount(elementSize) == 2) {
+            int high = 63 - Long.numberOfLeadingZeros(elementSize);
+            int low = Long.numberOfTrailingZeros(elementSize);
+            builder.op2("slli", scaledReg, indexReg, String.valueOf(high));
+            String lowReg = indexReg;
+            if (low > 0) {
+                lowReg = allocateTempRegister("temp_index_low");
+                builder.op2("slli", lowReg, indexReg, String.valueOf(low));
+            }
+            builder.op3("add", scaledReg, scaledReg, lowReg);
+        } else {
+            builder.loadImm(scaledReg, elementSize);
+            builder.op3("mul", scaledReg, indexReg, scaledReg);
+        }
+        return scaledReg;
+    }
+
     private void translateSwitch(LLVMValueRef inst) {
         builder.comment("switch指令");
 
@@ -1225,9 +1505,7 @@ public class IrTranslater {
             condReg = lookupRegisterAllocation(condName, instructionId);
             if(condReg.equals("spill")) {
                 // 条件在栈上，需要加载到寄存器
-                condReg = allocateTempRegister(condName);
-                int offset = varStackOffsets.get(condName);
-                builder.load(condReg, "sp", offset);
+                condReg = spilledValueRegister(condName);
             } else if(condReg.equals("global")) {
                 // 条件是全局变量，需要加载到寄存器
                 condReg = allocateTempRegister(condName);
@@ -1314,6 +1592,18 @@ public class IrTranslater {
             default: operation = "and"; // 默认为与操作
         }
 
+        // 与 12 位以内的常量做运算时用 andi/ori/xori（三种运算都可交换，常量在左边时交换操作数）
+        if (LLVMIsAConstant(op1) != null && LLVMIsAConstant(op2) == null) {
+            LLVMValueRef tmp = op1;
+            op1 = op2;
+            op2 = tmp;
+        }
+        String immediate = null;
+        if (LLVMIsAConstantInt(op2) != null && LLVMIsAConstant(op1) == null) {
+            long constValue = LLVMConstIntGetSExtValue(op2);
+            if (constValue >= -2048 && constValue <= 2047) immediate = String.valueOf(constValue);
+        }
+
         // 处理第一个操作数
         String op1Reg;
         if (LLVMIsAConstant(op1) != null) {
@@ -1326,20 +1616,7 @@ public class IrTranslater {
             op1Reg = lookupRegisterAllocation(op1Name, instructionId);
             if(op1Reg == "spill") {
                 // 被溢出，可能在栈/临时寄存器
-                boolean isInTempReg = false;
-                for (String reg : tempRegisters) {
-                    if (tempRegisterUse.containsKey(reg) &&
-                            tempRegisterUse.get(reg).equals(op1Name)) {
-                        op1Reg = reg;
-                        isInTempReg = true;
-                        break;
-                    }
-                }
-                if(!isInTempReg) {
-                    op1Reg = allocateTempRegister(op1Name);
-                    int offset = varStackOffsets.get(op1Name);
-                    builder.load(op1Reg, "sp", offset);
-                }
+                op1Reg = spilledValueRegister(op1Name);
             } else if (op1Reg == "global") {
                 op1Reg = allocateTempRegister(op1Name);
                 lockRegister(op1Reg);
@@ -1354,7 +1631,10 @@ public class IrTranslater {
 
         // 处理第二个操作数
         String op2Reg;
-        if (LLVMIsAConstant(op2) != null) {
+        if (immediate != null) {
+            // 立即数直接编码在指令中，借用第一个操作数的寄存器走后面的加锁/解锁流程
+            op2Reg = op1Reg;
+        } else if (LLVMIsAConstant(op2) != null) {
             long constValue = LLVMConstIntGetSExtValue(op2);
             op2Reg = "t6";
             builder.loadImm(op2Reg, constValue);
@@ -1362,20 +1642,7 @@ public class IrTranslater {
             String op2Name = LLVMGetValueName(op2).getString();
             op2Reg = lookupRegisterAllocation(op2Name, instructionId);
             if(op2Reg == "spill") {
-                boolean isInTempReg = false;
-                for (String reg : tempRegisters) {
-                    if (tempRegisterUse.containsKey(reg) &&
-                            tempRegisterUse.get(reg).equals(op2Name)) {
-                        op2Reg = reg;
-                        isInTempReg = true;
-                        break;
-                    }
-                }
-                if(!isInTempReg) {
-                    op2Reg = allocateTempRegister(op2Name);
-                    int offset = varStackOffsets.get(op2Name);
-                    builder.load(op2Reg, "sp", offset);
-                }
+                op2Reg = spilledValueRegister(op2Name);
             } else if (op2Reg == "global") {
                 op2Reg = allocateTempRegister(op2Name);
                 lockRegister(op2Reg);
@@ -1400,7 +1667,11 @@ public class IrTranslater {
         lockRegister(destReg);
 
         // 生成位运算指令
-        builder.op3(operation, destReg, op1Reg, op2Reg);
+        if (immediate != null) {
+            builder.op2(operation + "i", destReg, op1Reg, immediate);
+        } else {
+            builder.op3(operation, destReg, op1Reg, op2Reg);
+        }
         markRegisterDirty(destReg);
 
         // 解锁操作数寄存器
@@ -1433,6 +1704,12 @@ public class IrTranslater {
             default: operation = "sll"; // 默认为左移
         }
 
+        // 移位量是常量时用 slli/srli/srai，移位量只取低 5 位
+        String immediate = null;
+        if (LLVMIsAConstantInt(op2) != null && LLVMIsAConstant(op1) == null) {
+            immediate = String.valueOf(LLVMConstIntGetZExtValue(op2) & 31);
+        }
+
         // 处理第一个操作数（被移位的值）
         String op1Reg;
         if (LLVMIsAConstant(op1) != null) {
@@ -1444,9 +1721,7 @@ public class IrTranslater {
             op1Reg = lookupRegisterAllocation(op1Name, instructionId);
             if(op1Reg.equals("spill")) {
                 // 从栈上加载
-                int offset = varStackOffsets.get(op1Name);
-                op1Reg = allocateTempRegister(op1Name);
-                builder.load(op1Reg, "sp", offset);
+                op1Reg = spilledValueRegister(op1Name);
             } else if (op1Reg.equals("global")) {
                 // 从全局变量加载
                 op1Reg = allocateTempRegister(op1Name);
@@ -1461,7 +1736,10 @@ public class IrTranslater {
 
         // 处理第二个操作数（移位量）
         String op2Reg;
-        if (LLVMIsAConstant(op2) != null) {
+        if (immediate != null) {
+            // 立即数直接编码在指令中，借用第一个操作数的寄存器走后面的加锁/解锁流程
+            op2Reg = op1Reg;
+        } else if (LLVMIsAConstant(op2) != null) {
             // 处理常量移位量
             long constValue = LLVMConstIntGetSExtValue(op2);
             op2Reg = allocateTempRegister("shiftop_const2");
@@ -1471,9 +1749,7 @@ public class IrTranslater {
             op2Reg = lookupRegisterAllocation(op2Name, instructionId);
             if(op2Reg.equals("spill")) {
                 // 从栈上加载
-                int offset = varStackOffsets.get(op2Name);
-                op2Reg = allocateTempRegister(op2Name);
-                builder.load(op2Reg, "sp", offset);
+                op2Reg = spilledValueRegister(op2Name);
             } else if (op2Reg.equals("global")) {
                 // 从全局变量加载
                 op2Reg = allocateTempRegister(op2Name);
@@ -1497,8 +1773,12 @@ public class IrTranslater {
         }
         lockRegister(destReg);
 
-        // 生成移位指令 - 统一使用寄存器版本
-        builder.op3(operation, destReg, op1Reg, op2Reg);
+        // 生成移位指令
+        if (immediate != null) {
+            builder.op2(operation + "i", destReg, op1Reg, immediate);
+        } else {
+            builder.op3(operation, destReg, op1Reg, op2Reg);
+        }
 
         // 解锁操作数寄存器
         unlockRegister(op1Reg);
@@ -1532,9 +1812,7 @@ public class IrTranslater {
             String srcName = LLVMGetValueName(srcValue).getString();
             srcReg = lookupRegisterAllocation(srcName, instructionId);
             if(srcReg.equals("spill")) {
-                int offset = varStackOffsets.get(srcName);
-                srcReg = allocateTempRegister(srcName);
-                builder.load(srcReg, "sp", offset);
+                srcReg = spilledValueRegister(srcName);
             } else if(srcReg.equals("global")) {
                 srcReg = allocateTempRegister(srcName);
                 String addrReg = allocateTempRegister("addr_" + srcName);
@@ -1587,17 +1865,6 @@ public class IrTranslater {
         String destVar = LLVMGetValueName(inst).getString();
         builder.comment("处理phi指令 " + destVar);
 
-        String destReg = lookupRegisterAllocation(destVar, instructionId);
-        if (destReg.equals("spill")) {
-            destReg = allocateTempRegister(destVar);
-            markRegisterDirty(destReg);
-        } else if (destReg.equals("global")) {
-            destReg = allocateTempRegister(destVar);
-            markRegisterDirty(destReg);
-        }
-        markRegisterDirty(destReg);
-        lockRegister(destReg);
-
         // 获取 PHI 指令的操作数
         int numIncoming = LLVMCountIncoming(inst);
         for (int i = 0; i < numIncoming; i++) {
@@ -1606,20 +1873,9 @@ public class IrTranslater {
             String valueName = LLVMGetValueName(incomingValue).getString();
             String blockName = LLVMGetBasicBlockName(incomingBlock).getString();
 
-            // 在前导块的跳转前插入赋值
-            // 假设在 translateBr 中处理
+            // 赋值已经在前导块的跳转前完成（见 emitPhiCopies），这里只记录来源
             builder.comment("PHI: 从 " + blockName + " 选择值 " + valueName);
         }
-
-        if (lookupRegisterAllocation(destVar, instructionId).equals("global")) {
-            String addrReg = allocateTempRegister("addr_" + destVar);
-            builder.la(addrReg, destVar);
-            builder.store(destReg, addrReg, 0);
-            tempRegisterDirty.put(destReg, false);
-            markRegisterDirty(addrReg);
-            markRegisterDirty(destReg);
-        }
-        unlockRegister(destReg);
     }
 
 }
@@ -0,0 +1,407 @@
+import org.bytedeco.javacpp.PointerPointer;
+import org.bytedeco.llvm.LLVM.*;
+
+import java.util.*;
+
+import static org.bytedeco.llvm.global.LLVM.*;
+
+/**
+ * 优化遍共用的 IR 改写工具
+ * 注意：后端按值的名字分配寄存器，新建的指令都必须带名字
+ */
+public final class IrUtils {
+    private IrUtils() {
+    }
+
+    public static boolean isPhi(LLVMValueRef inst) {
+        return LLVMGetInstructionOpcode(inst) == LLVMPHI;
+    }
+
+    public static List<LLVMValueRef> phisOf(LLVMBasicBlockRef block) {
+        List<LLVMValueRef> phis = new ArrayList<>();
+        for (LLVMValueRef inst = LLVMGetFirstInstruction(block); inst != null && isPhi(inst); inst = LLVMGetNextInstruction(inst)) {
+            phis.add(inst);
+        }
+        return phis;
+    }
+
+    public static LLVMValueRef firstNonPhi(LLVMBasicBlockRef block) {
+        LLVMValueRef inst = LLVMGetFirstInstruction(block);
+        while (inst != null && isPhi(inst)) {
+            inst = LLVMGetNextInstruction(inst);
+        }
+        return inst;
+    }
+
+    public static String nameOf(LLVMValueRef value) {
+        return LLVMGetValueName(value).getString();
+    }
+
+    public static void setName(LLVMValueRef value, String name) {
+        LLVMSetValueName2(value, name, name.length());
+    }
+
+    /**
+     * phi 中来自 block 的入边值，没有时返回 null
+     */
+    public static LLVMValueRef incomingFor(LLVMValueRef phi, LLVMBasicBlockRef block) {
+        for (int i = 0; i < LLVMCountIncoming(phi); i++) {
+            if (LLVMGetIncomingBlock(phi, i).equals(block)) {
+                return LLVMGetIncomingValue(phi, i);
+            }
+        }
+        return null;
+    }
+
+    public static void addIncoming(LLVMValueRef phi, LLVMValueRef value, LLVMBasicBlockRef block) {
+        LLVMAddIncoming(phi, new PointerPointer<>(new LLVMValueRef[]{value}),
+                new PointerPointer<>(new LLVMBasicBlockRef[]{block}), 1);
+    }
+
+    /**
+     * 删除 target 中所有 phi 来自 pred 的一条入边
+     * C API 无法原地删除入边，只能重建 phi 再替换，因此调用方缓存的 phi 引用会失效
+     */
+    public static void removeIncomingFrom(LLVMBasicBlockRef target, LLVMBasicBlockRef pred) {
+        LLVMBuilderRef builder = LLVMCreateBuilderInContext(LLVMGetTypeContext(LLVMTypeOf(LLVMBasicBlockAsValue(target))));
+        for (LLVMValueRef phi : phisOf(target)) {
+            rebuildPhi(builder, phi, pred, null);
+        }
+        LLVMDisposeBuilder(builder);
+    }
+
+    /**
+     * 把 target 中所有 phi 来自 oldPred 的入边（可能有多条）改为来自 newPred
+     */
+    public static void replaceIncomingBlock(LLVMBasicBlockRef target, LLVMBasicBlockRef oldPred, LLVMBasicBlockRef newPred) {
+        LLVMBuilderRef builder = LLVMCreateBuilderInContext(LLVMGetTypeContext(LLVMTypeOf(LLVMBasicBlockAsValue(target))));
+        for (LLVMValueRef phi : phisOf(target)) {
+            rebuildPhi(builder, phi, oldPred, newPred);
+        }
+        LLVMDisposeBuilder(builder);
+    }
+
+    //辅助方法：重建 phi，去掉来自 pred 的第一条入边（replacement 为 null），或把来自 pred 的入边全部改写
+    private static LLVMValueRef rebuildPhi(LLVMBuilderRef builder, LLVMValueRef phi, LLVMBasicBlockRef pred, LLVMBasicBlockRef replacement) {
+        String name = nameOf(phi);
+        LLVMPositionBuilderBefore(builder, phi);
+        LLVMValueRef newPhi = LLVMBuildPhi(builder, LLVMTypeOf(phi), name + "_tmp");
+        boolean done = false;
+        for (int i = 0; i < LLVMCountIncoming(phi); i++) {
+            LLVMBasicBlockRef block = LLVMGetIncomingBlock(phi, i);
+            LLVMValueRef value = LLVMGetIncomingValue(phi, i);
+            if (block.equals(pred)) {
+                if (replacement != null) {
+                    block = replacement;
+                } else if (!done) {
+                    done = true;
+                    continue;
+                }
+            }
+            addIncoming(newPhi, value.equals(phi) ? newPhi : value, block);
+        }
+        LLVMReplaceAllUsesWith(phi, newPhi);
+        LLVMInstructionEraseFromParent(phi);
+        setName(newPhi, name);
+        return newPhi;
+    }
+
+    /**
+     * 新建一个块，把 preds 到 target 的边都改为经过它，再由它跳到 target
+     * target 中的 phi 相应拆分：来自 preds 的入边值在新块中合并（值都相同时不建 phi）
+     * @return 新建的块，位于 target 之前
+     */
+    public static LLVMBasicBlockRef splitPredecessors(LLVMBasicBlockRef target, Collection<LLVMBasicBlockRef> preds, String name) {
+        LLVMContextRef context = LLVMGetTypeContext(LLVMTypeOf(LLVMBasicBlockAsValue(target)));
+        LLVMBuilderRef builder = LLVMCreateBuilderInContext(context);
+        LLVMBasicBlockRef newBlock = LLVMInsertBasicBlockInContext(context, target, name);
+        Set<LLVMBasicBlockRef> predSet = new HashSet<>(preds);
+
+        for (LLVMValueRef phi : phisOf(target)) {
+            String phiName = nameOf(phi);
+            List<LLVMValueRef> values = new ArrayList<>();
+            List<LLVMBasicBlockRef> blocks = new ArrayList<>();
+            for (int i = 0; i < LLVMCountIncoming(phi); i++) {
+                if (predSet.contains(LLVMGetIncomingBlock(phi, i))) {
+                    values.add(LLVMGetIncomingValue(phi, i));
+                    blocks.add(LLVMGetIncomingBlock(phi, i));
+                }
+            }
+            if (values.isEmpty()) continue;
+
+            LLVMValueRef merged = values.get(0);
+            if (new HashSet<>(values).size() > 1) {
+                LLVMPositionBuilderAtEnd(builder, newBlock);
+                merged = LLVMBuildPhi(builder, LLVMTypeOf(phi), phiName + "_split");
+                for (int i = 0; i < values.size(); i++) {
+                    addIncoming(merged, values.get(i), blocks.get(i));
+                }
+            }
+
+            LLVMPositionBuilderBefore(builder, phi);
+            LLVMValueRef newPhi = LLVMBuildPhi(builder, LLVMTypeOf(phi), phiName + "_tmp");
+            for (int i = 0; i < LLVMCountIncoming(phi); i++) {
+                LLVMBasicBlockRef block = LLVMGetIncomingBlock(phi, i);
+                if (predSet.contains(block)) continue;
+                LLVMValueRef value = LLVMGetIncomingValue(phi, i);
+                addIncoming(newPhi, value.equals(phi) ? newPhi : value, block);
+            }
+            addIncoming(newPhi, merged.equals(phi) ? newPhi : merged, newBlock);
+            LLVMReplaceAllUsesWith(phi, newPhi);
+            LLVMInstructionEraseFromParent(phi);
+            setName(newPhi, phiName);
+        }
+
+        LLVMPositionBuilderAtEnd(builder, newBlock);
+        LLVMBuildBr(builder, target);
+        for (LLVMBasicBlockRef pred : predSet) {
+            LLVMValueRef terminator = LLVMGetBasicBlockTerminator(pred);
+            for (int i = 0; i < LLVMGetNumSuccessors(terminator); i++) {
+                if (LLVMGetSuccessor(terminator, i).equals(target)) {
+                    LLVMSetSuccessor(terminator, i, newBlock);
+                }
+            }
+        }
+        LLVMDisposeBuilder(builder);
+        return newBlock;
+    }
+
+    /**
+     * 把指令移动到 before 之前（可以跨基本块），保留名字
+     */
+    public static void moveBefore(LLVMBuilderRef builder, LLVMValueRef inst, LLVMValueRef before) {
+        LLVMPositionBuilderBefore(builder, before);
+        insertMoved(builder, inst);
+    }
+
+    /**
+     * 把指令移动到块末尾，保留名字
+     */
+    public static void moveToEnd(LLVMBuilderRef builder, LLVMValueRef inst, LLVMBasicBlockRef block) {
+        LLVMPositionBuilderAtEnd(builder, block);
+        insertMoved(builder, inst);
+    }
+
+    private static void insertMoved(LLVMBuilderRef builder, LLVMValueRef inst) {
+        // 插入到 builder 时名字会被清空，先保存再恢复
+        String name = nameOf(inst);
+        LLVMInstructionRemoveFromParent(inst);
+        LLVMInsertIntoBuilder(builder, inst);
+        if (!name.isEmpty()) setName(inst, name);
+    }
+
+    /**
+     * 复制一组基本块（按支配顺序给出，定义先于使用），副本按原顺序放在 insertAfter 之后，名字加上 suffix
+     * valueMap 预先放入的值不复制，副本中直接使用映射后的值（例如把循环头 phi 映射到上一次迭代的值）
+     * 复制完成后 valueMap 中包含原值到副本的映射，基本块以 LLVMBasicBlockAsValue 的形式映射
+     * 指向块集合之外的跳转和 phi 入边保持不变，由调用方修正
+     * @return 原块到副本的映射
+     */
+    public static Map<LLVMBasicBlockRef, LLVMBasicBlockRef> cloneBlocks(Collection<LLVMBasicBlockRef> blocks,
+                                                                      Map<LLVMValueRef, LLVMValueRef> valueMap,
+                                                                      LLVMBasicBlockRef insertAfter, String suffix) {
+        LLVMContextRef context = LLVMGetTypeContext(LLVMTypeOf(LLVMBasicBlockAsValue(insertAfter)));
+        LLVMValueRef function = LLVMGetBasicBlockParent(insertAfter);
+        LLVMBuilderRef builder = LLVMCreateBuilderInContext(context);
+        Map<LLVMBasicBlockRef, LLVMBasicBlockRef> blockMap = new LinkedHashMap<>();
+        LLVMBasicBlockRef last = insertAfter;
+        for (LLVMBasicBlockRef bb : blocks) {
+            LLVMBasicBlockRef copy = LLVMAppendBasicBlockInContext(context, function, nameOf(LLVMBasicBlockAsValue(bb)) + suffix);
+            LLVMMoveBasicBlockAfter(copy, last);
+            last = copy;
+            blockMap.put(bb, copy);
+            valueMap.put(LLVMBasicBlockAsValue(bb), LLVMBasicBlockAsValue(copy));
+        }
+
+        // phi 的入边值可能来自后面的块，先建空 phi，所有指令复制完后再填入边
+        List<LLVMValueRef> phis = new ArrayList<>();
+        for (LLVMBasicBlockRef bb : blocks) {
+            LLVMPositionBuilderAtEnd(builder, blockMap.get(bb));
+            for (LLVMValueRef inst = LLVMGetFirstInstruction(bb); inst != null; inst = LLVMGetNextInstruction(inst)) {
+                if (valueMap.containsKey(inst)) continue;
+                String name = nameOf(inst).isEmpty() ? "" : nameOf(inst) + suffix;
+                LLVMValueRef copy;
+                if (isPhi(inst)) {
+                    copy = LLVMBuildPhi(builder, LLVMTypeOf(inst), name);
+                    phis.add(inst);
+                } else {
+                    copy = LLVMInstructionClone(inst);
+                    for (int i = 0; i < LLVMGetNumOperands(copy); i++) {
+                        LLVMValueRef mapped = valueMap.get(LLVMGetOperand(copy, i));
+                        if (mapped != null) LLVMSetOperand(copy, i, mapped);
+                    }
+                    LLVMInsertIntoBuilderWithName(builder, copy, name);
+                }
+                valueMap.put(inst, copy);
+            }
+        }
+        for (LLVMValueRef phi : phis) {
+            LLVMValueRef copy = valueMap.get(phi);
+            for (int i = 0; i < LLVMCountIncoming(phi); i++) {
+                LLVMValueRef value = LLVMGetIncomingValue(phi, i);
+                LLVMBasicBlockRef block = LLVMGetIncomingBlock(phi, i);
+                addIncoming(copy, valueMap.getOrDefault(value, value), blockMap.getOrDefault(block, block));
+            }
+        }
+        LLVMDisposeBuilder(builder);
+        return blockMap;
+    }
+
+    /**
+     * 所有入边值都相同（忽略自身）时返回该值，否则返回 null
+     */
+    public static LLVMValueRef uniqueIncoming(LLVMValueRef phi) {
+        LLVMValueRef same = null;
+        for (int i = 0; i < LLVMCountIncoming(phi); i++) {
+            LLVMValueRef value = LLVMGetIncomingValue(phi, i);
+            if (value.equals(phi) || value.equals(same)) continue;
+            if (same != null) return null;
+            same = value;
+        }
+        return same;
+    }
+
+    /**
+     * 删除一组不可达的基本块：先摘掉它们在其余块 phi 中的入边，再删除块本身
+     */
+    public static void deleteBlocks(Collection<LLVMBasicBlockRef> dead) {
+        Set<LLVMBasicBlockRef> deadSet = new HashSet<>(dead);
+        for (LLVMBasicBlockRef bb : deadSet) {
+            LLVMValueRef terminator = LLVMGetBasicBlockTerminator(bb);
+            if (terminator == null) continue;
+            for (int i = 0; i < LLVMGetNumSuccessors(terminator); i++) {
+                LLVMBasicBlockRef succ = LLVMGetSuccessor(terminator, i);
+                if (!deadSet.contains(succ)) removeIncomingFrom(succ, bb);
+            }
+        }
+        // 死块之间可能互相引用对方定义的值，先统一替换为 undef 再删除
+        for (LLVMBasicBlockRef bb : deadSet) {
+            for (LLVMValueRef inst = LLVMGetFirstInstruction(bb); inst != null; inst = LLVMGetNextInstruction(inst)) {
+                LLVMReplaceAllUsesWith(inst, LLVMGetUndef(LLVMTypeOf(inst)));
+            }
+        }
+        for (LLVMBasicBlockRef bb : deadSet) {
+            LLVMDeleteBasicBlock(bb);
+        }
+    }
+
+    /**
+     * 指令是否可以在结果无用时直接删除（没有副作用，也不会陷入）
+     */
+    public static boolean isRemovableIfUnused(LLVMValueRef inst) {
+        switch (LLVMGetInstructionOpcode(inst)) {
+            case LLVMAdd:
+            case LLVMSub:
+            case LLVMMul:
+            case LLVMAnd:
+            case LLVMOr:
+            case LLVMXor:
+            case LLVMShl:
+            case LLVMLShr:
+            case LLVMAShr:
+            case LLVMICmp:
+            case LLVMZExt:
+            case LLVMSExt:
+            case LLVMTrunc:
+            case LLVMSelect:
+            case LLVMPHI:
+            case LLVMGetElementPtr:
+            case LLVMLoad:
+            case LLVMAlloca:
+                return true;
+            case LLVMSDiv:
+            case LLVMSRem:
+            case LLVMUDiv:
+            case LLVMURem:
+                // 除数为非零常量时不会陷入
+                LLVMValueRef divisor = LLVMGetOperand(inst, 1);
+                return LLVMIsAConstantInt(divisor) != null && LLVMConstIntGetSExtValue(divisor) != 0;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 交换比较的两个操作数后对应的谓词（a < b 等价于 b > a）
+     */
+    public static int swapPredicate(int predicate) {
+        switch (predicate) {
+            case LLVMIntSLT: return LLVMIntSGT;
+            case LLVMIntSGT: return LLVMIntSLT;
+            case LLVMIntSLE: return LLVMIntSGE;
+            case LLVMIntSGE: return LLVMIntSLE;
+            case LLVMIntULT: return LLVMIntUGT;
+            case LLVMIntUGT: return LLVMIntULT;
+            case LLVMIntULE: return LLVMIntUGE;
+            case LLVMIntUGE: return LLVMIntULE;
+            default: return predicate;
+        }
+    }
+
+    /**
+     * 比较结果取反后对应的谓词（!(a < b) 等价于 a >= b）
+     */
+    public static int invertPredicate(int predicate) {
+        switch (predicate) {
+            case LLVMIntSLT: return LLVMIntSGE;
+            case LLVMIntSGE: return LLVMIntSLT;
+            case LLVMIntSGT: return LLVMIntSLE;
+            case LLVMIntSLE: return LLVMIntSGT;
+            case LLVMIntULT: return LLVMIntUGE;
+            case LLVMIntUGE: return LLVMIntULT;
+            case LLVMIntUGT: return LLVMIntULE;
+            case LLVMIntULE: return LLVMIntUGT;
+            case LLVMIntEQ: return LLVMIntNE;
+            case LLVMIntNE: return LLVMIntEQ;
+            default: return predicate;
+        }
+    }
+
+    /**
+     * 在 builder 的位置生成 llvm.memset(dest, byteValue, length)，length 以字节为单位
+     * 后端在调用处把它展开为按字写入的代码，因此 length 必须是 4 的倍数
+     */
+    public static LLVMValueRef buildMemset(LLVMBuilderRef builder, LLVMValueRef dest, long byteValue, LLVMValueRef length) {
+        LLVMContextRef context = LLVMGetTypeContext(LLVMTypeOf(dest));
+        LLVMValueRef[] args = {dest, LLVMConstInt(LLVMInt8TypeInContext(context), byteValue, 1), length,
+                LLVMConstInt(LLVMInt1TypeInContext(context), 0, 0)};
+        return buildIntrinsicCall(builder, "llvm.memset", new LLVMTypeRef[]{LLVMTypeOf(dest), LLVMTypeOf(length)}, args);
+    }
+
+    /**
+     * 在 builder 的位置生成 llvm.memcpy(dest, src, length)，两段内存不能重叠，length 同 buildMemset
+     */
+    public static LLVMValueRef buildMemcpy(LLVMBuilderRef builder, LLVMValueRef dest, LLVMValueRef src, LLVMValueRef length) {
+        LLVMContextRef context = LLVMGetTypeContext(LLVMTypeOf(dest));
+        LLVMValueRef[] args = {dest, src, length, LLVMConstInt(LLVMInt1TypeInContext(context), 0, 0)};
+        return buildIntrinsicCall(builder, "llvm.memcpy",
+                new LLVMTypeRef[]{LLVMTypeOf(dest), LLVMTypeOf(src), LLVMTypeOf(length)}, args);
+    }
+
+    /**
+     * 调用的是否为名字以 prefix 开头的内建函数（如 "llvm.memset"）
+     */
+    public static boolean isIntrinsicCall(LLVMValueRef inst, String prefix) {
+        if (LLVMGetInstructionOpcode(inst) != LLVMCall) return false;
+        LLVMValueRef callee = LLVMGetCalledValue(inst);
+        return LLVMIsAFunction(callee) != null && nameOf(callee).startsWith(prefix + ".");
+    }
+
+    //辅助方法：按重载类型取得内建函数的声明（模块中没有时自动加入）并生成调用，调用没有返回值，不需要名字
+    private static LLVMValueRef buildIntrinsicCall(LLVMBuilderRef builder, String name, LLVMTypeRef[] overloads, LLVMValueRef[] args) {
+        LLVMModuleRef module = LLVMGetGlobalParent(LLVMGetBasicBlockParent(LLVMGetInsertBlock(builder)));
+        int id = LLVMLookupIntrinsicID(name, name.length());
+        LLVMValueRef function = LLVMGetIntrinsicDeclaration(module, id, new PointerPointer<>(overloads), overloads.length);
+        return LLVMBuildCall2(builder, LLVMGetElementType(LLVMTypeOf(function)), function,
+                new PointerPointer<>(args), args.length, "");
+    }
+
+    /**
+     * 把整数按 width 位截断后再符号扩展，得到规范的 long 表示
+     */
+    public static long normalize(long value, int width) {
+        if (width >= 64) return value;
+        int shift = 64 - width;
+        return (value << shift) >> shift;
+    }
+}
@@ -40,6 +40,7 @@ public class IrVisitor {
     private final Module module;
     private LLVMModuleRef moduleRef;
     private AllocateRegister registerStrategy;
+    private final AnalysisManager analyses;
 
     private int instructionId = 1;
 
@@ -47,14 +48,21 @@ public class IrVisitor {
     private Map<String, LiveInterval> liveIntervals = new HashMap<>();
     // 标签表：块名 -> 指令编号
     private Map<String, Integer> labelTable = new HashMap<>();
+    // 块结束表：块名 -> 块内最后一条指令编号
+    private Map<String, Integer> blockEndTable = new HashMap<>();
     // 全局符号表
     private Map<String, GlobalVariableInfo> globalSymbols = new HashMap<>();
 
-    private static final int LLVMPhiOpcode = 53;//合并分支指令的操作码
+    private static final int LLVMPhiOpcode = LLVMPHI;//合并分支指令的操作码
 
     public IrVisitor(Module module) {
+        this(module, new AnalysisManager());
+    }
+
+    public IrVisitor(Module module, AnalysisManager analyses) {
         this.module = module;
         this.moduleRef = module.getRef();
+        this.analyses = analyses;
 
         visitModule(moduleRef);
     }
@@ -81,10 +89,26 @@ public class IrVisitor {
     }
 
     public void visitFunction(LLVMValueRef function) {
+        if (LLVMCountBasicBlocks(function) == 0) return;
+        CFG cfg = analyses.getCFG(function);
+
+        // 预先为所有基本块编号，这样 phi 的前驱块（包括循环回边上的块）都能查到结束位置
+        int id = instructionId;
+        for (LLVMBasicBlockRef bb : cfg.getBlocks()) {
+            String blockName = LLVMGetBasicBlockName(bb).getString();
+            labelTable.put(blockName, id);
+            for (LLVMValueRef inst = LLVMGetFirstInstruction(bb); inst != null; inst = LLVMGetNextInstruction(inst)) {
+                id++;
+            }
+            blockEndTable.put(blockName, id - 1);
+        }
+
         // 遍历函数的基本块
-        for (LLVMBasicBlockRef bb = LLVMGetFirstBasicBlock(function); bb != null; bb = LLVMGetNextBasicBlock(bb)) {
+        for (LLVMBasicBlockRef bb : cfg.getBlocks()) {
             visitBasicBlock(bb);
         }
+
+        extendIntervalsByLiveness(cfg);
     }
 
     public void  visitBasicBlock(LLVMBasicBlockRef block) {
@@ -122,14 +146,8 @@ public class IrVisitor {
 
                         // 找到前驱块的结束位置
                         String blockName = LLVMGetBasicBlockName(block).getString();
-                        Integer blockEndId = getBlockEndId(blockName);
-                        if (blockEndId != null) {
-                            // 将PHI操作数的生命周期延伸至前驱块的结束位置
-                            updateOperandLiveInterval(varName, blockEndId);
-                        } else {
-                            // 如果找不到前驱块结束位置，至少更新到当前PHI指令位置
-                            updateOperandLiveInterval(varName, instructionId);
-                        }
+                        // 将PHI操作数的生命周期延伸至前驱块的结束位置
+                        updateOperandLiveInterval(varName, blockEndTable.get(blockName));
                     }
                 }
             }
@@ -139,8 +157,8 @@ public class IrVisitor {
         for (int i = 0; i < operandNum; ++i) {
             LLVMValueRef operand = LLVMGetOperand(instruction, i);
 
-            //处理变量操作数
-            if (!isConstant(operand)) {
+            //处理变量操作数（跳转目标基本块不是变量，不参与寄存器分配）
+            if (!isConstant(operand) && LLVMValueIsBasicBlock(operand) == 0) {
                 String varName = LLVMGetValueName(operand).getString();
                 if (varName != null && !varName.isEmpty()&& !processedPhiOperands.contains(varName)) {
                     updateOperandLiveInterval(varName, instructionId);
@@ -153,6 +171,17 @@ public class IrVisitor {
             String defined = LLVMGetValueName(instruction).getString();
             if (defined != null && !defined.isEmpty()) {
                 updateDefinedVarInterval(defined, instructionId);
+
+                // phi 的值在各前驱块末尾写入（见 IrTranslater 的 phi 拷贝），生命周期要覆盖这些位置
+                if (opcode == LLVMPhiOpcode) {
+                    LiveInterval interval = liveIntervals.get(defined);
+                    for (int i = 0; i < LLVMCountIncoming(instruction); i++) {
+                        String blockName = LLVMGetBasicBlockName(LLVMGetIncomingBlock(instruction, i)).getString();
+                        int blockEndId = blockEndTable.get(blockName);
+                        interval.start = Math.min(interval.start, blockEndId);
+                        interval.end = Math.max(interval.end, blockEndId);
+                    }
+                }
             }
         }
 
@@ -208,22 +237,88 @@ public class IrVisitor {
         return LLVMGetTypeKind(type) != LLVMVoidTypeKind;
     }
 
-    //辅助方法：获取基本块结束位置
-    private Integer getBlockEndId(String blockName) {
-        Integer blockStartId = labelTable.get(blockName);
-        if (blockStartId == null) return null;
+    //辅助方法：按块求活跃变量，把生命周期延伸到变量活跃的每个块
+    //指令按布局顺序编号，布局上相邻的块不一定在控制流上相邻（循环回边、放在 ret 之后的块），
+    //只看定义和使用的编号会漏掉中间经过的块；块入口活跃的变量覆盖块的起点，出口活跃的覆盖块的终点
+    //phi 的操作数在前驱块末尾使用（由前驱的跳转拷贝），phi 本身在所在块定义
+    private void extendIntervalsByLiveness(CFG cfg) {
+        Map<LLVMBasicBlockRef, Set<String>> uses = new HashMap<>();
+        Map<LLVMBasicBlockRef, Set<String>> defs = new HashMap<>();
+        Map<LLVMBasicBlockRef, Set<String>> liveIn = new HashMap<>();
+        Map<LLVMBasicBlockRef, Set<String>> liveOut = new HashMap<>();
+        for (LLVMBasicBlockRef bb : cfg.getBlocks()) {
+            Set<String> use = new HashSet<>();
+            Set<String> def = new HashSet<>();
+            for (LLVMValueRef inst = LLVMGetFirstInstruction(bb); inst != null; inst = LLVMGetNextInstruction(inst)) {
+                if (LLVMGetInstructionOpcode(inst) != LLVMPhiOpcode) {
+                    for (int i = 0; i < LLVMGetNumOperands(inst); i++) {
+                        String varName = variableName(LLVMGetOperand(inst, i));
+                        if (varName != null && !def.contains(varName)) use.add(varName);
+                    }
+                }
+                String defined = variableName(inst);
+                if (defined != null) def.add(defined);
+            }
+            uses.put(bb, use);
+            defs.put(bb, def);
+            liveIn.put(bb, new HashSet<>());
+            liveOut.put(bb, new HashSet<>());
+        }
+        // phi 的操作数在对应前驱块的出口活跃
+        for (LLVMBasicBlockRef bb : cfg.getBlocks()) {
+            for (LLVMValueRef inst = LLVMGetFirstInstruction(bb); inst != null; inst = LLVMGetNextInstruction(inst)) {
+                if (LLVMGetInstructionOpcode(inst) != LLVMPhiOpcode) break;
+                for (int i = 0; i < LLVMCountIncoming(inst); i++) {
+                    String varName = variableName(LLVMGetIncomingValue(inst, i));
+                    if (varName != null) liveOut.get(LLVMGetIncomingBlock(inst, i)).add(varName);
+                }
+            }
+        }
+
+        // 逆序迭代到不动点：out = 各后继的 in ∪ phi 操作数，in = use ∪ (out - def)
+        List<LLVMBasicBlockRef> blocks = new ArrayList<>(cfg.getBlocks());
+        Collections.reverse(blocks);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (LLVMBasicBlockRef bb : blocks) {
+                Set<String> out = liveOut.get(bb);
+                for (LLVMBasicBlockRef succ : cfg.getSuccessors(bb)) {
+                    changed |= out.addAll(liveIn.get(succ));
+                }
+                Set<String> in = liveIn.get(bb);
+                changed |= in.addAll(uses.get(bb));
+                for (String varName : out) {
+                    if (!defs.get(bb).contains(varName)) changed |= in.add(varName);
+                }
+            }
+        }
 
-        // 查找该块后的下一个块开始位置
-        Integer nextBlockStart = null;
-        for (Map.Entry<String, Integer> entry : labelTable.entrySet()) {
-            if (entry.getValue() > blockStartId && (nextBlockStart == null || entry.getValue() < nextBlockStart)) {
-                nextBlockStart = entry.getValue();
+        for (LLVMBasicBlockRef bb : cfg.getBlocks()) {
+            String blockName = LLVMGetBasicBlockName(bb).getString();
+            for (String varName : liveIn.get(bb)) {
+                extendInterval(varName, labelTable.get(blockName));
+            }
+            for (String varName : liveOut.get(bb)) {
+                extendInterval(varName, blockEndTable.get(blockName));
             }
         }
+    }
+
+    //辅助方法：参与寄存器分配的变量名（常量、基本块、全局变量和无名的值返回 null）
+    private String variableName(LLVMValueRef value) {
+        if (isConstant(value) || LLVMValueIsBasicBlock(value) != 0) return null;
+        String varName = LLVMGetValueName(value).getString();
+        if (varName == null || varName.isEmpty() || globalSymbols.containsKey(varName)) return null;
+        return varName;
+    }
 
-        // 如果找到下一个块，则结束位置是它的前一条指令
-        // 否则使用当前指令ID（更保守的方法）
-        return nextBlockStart != null ? nextBlockStart - 1 : instructionId;
+    //辅助方法：让变量的生命周期覆盖指令编号 id
+    private void extendInterval(String varName, int id) {
+        LiveInterval interval = liveIntervals.get(varName);
+        if (interval == null) return;
+        interval.start = Math.min(interval.start, id);
+        interval.end = Math.max(interval.end, id);
     }
 
     //获取成员变量的方法
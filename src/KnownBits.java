@@ -0,0 +1,188 @@
+import org.bytedeco.llvm.LLVM.*;
+
+import static org.bytedeco.llvm.global.LLVM.*;
+
+/**
+ * 已知位分析：整数值中哪些位一定是 0、哪些位一定是 1
+ *   zext i1 的结果除最低位外都是 0；and x, 7 的高 29 位是 0；shl x, 2 的低 2 位是 0
+ * 沿操作数递归求值，深度超过 MAX_DEPTH（或遇到 load、参数、调用等）时各位未知；phi 取各入边的交集
+ * 两个掩码都只使用类型宽度内的低位
+ */
+public final class KnownBits {
+    private static final int MAX_DEPTH = 6;
+
+    // 一定为 0 的位、一定为 1 的位
+    public final long zero;
+    public final long one;
+    public final int width;
+
+    private KnownBits(long zero, long one, int width) {
+        this.zero = zero;
+        this.one = one;
+        this.width = width;
+    }
+
+    private static KnownBits unknown(int width) {
+        return new KnownBits(0, 0, width);
+    }
+
+    private static KnownBits constant(long value, int width) {
+        long mask = maskOf(width);
+        return new KnownBits(~value & mask, value & mask, width);
+    }
+
+    public static long maskOf(int width) {
+        return width >= 64 ? -1L : (1L << width) - 1;
+    }
+
+    public long mask() {
+        return maskOf(width);
+    }
+
+    public boolean isConstant() {
+        return (zero | one) == mask();
+    }
+
+    // 所有位都已知时的值（按宽度符号扩展）
+    public long constantValue() {
+        return IrUtils.normalize(one, width);
+    }
+
+    /**
+     * 整数值的已知位，value 不是整数时返回 null
+     */
+    public static KnownBits of(LLVMValueRef value) {
+        if (LLVMGetTypeKind(LLVMTypeOf(value)) != LLVMIntegerTypeKind) return null;
+        return compute(value, 0);
+    }
+
+    private static KnownBits compute(LLVMValueRef value, int depth) {
+        int width = LLVMGetIntTypeWidth(LLVMTypeOf(value));
+        if (LLVMIsAConstantInt(value) != null) return constant(LLVMConstIntGetZExtValue(value), width);
+        if (LLVMIsAInstruction(value) == null || depth >= MAX_DEPTH || width > 32) return unknown(width);
+        long mask = maskOf(width);
+        int opcode = LLVMGetInstructionOpcode(value);
+        switch (opcode) {
+            case LLVMAnd: {
+                KnownBits a = compute(LLVMGetOperand(value, 0), depth + 1);
+                KnownBits b = compute(LLVMGetOperand(value, 1), depth + 1);
+                return new KnownBits(a.zero | b.zero, a.one & b.one, width);
+            }
+            case LLVMOr: {
+                KnownBits a = compute(LLVMGetOperand(value, 0), depth + 1);
+                KnownBits b = compute(LLVMGetOperand(value, 1), depth + 1);
+                return new KnownBits(a.zero & b.zero, a.one | b.one, width);
+            }
+            case LLVMXor: {
+                KnownBits a = compute(LLVMGetOperand(value, 0), depth + 1);
+                KnownBits b = compute(LLVMGetOperand(value, 1), depth + 1);
+                return new KnownBits((a.zero & b.zero) | (a.one & b.one), (a.zero & b.one) | (a.one & b.zero), width);
+            }
+            case LLVMAdd:
+            case LLVMSub: {
+                KnownBits a = compute(LLVMGetOperand(value, 0), depth + 1);
+                KnownBits b = compute(LLVMGetOperand(value, 1), depth + 1);
+                // a - b = a + ~b + 1
+                return opcode == LLVMAdd ? addWithCarry(a, b, false) : addWithCarry(a, new KnownBits(b.one, b.zero, width), true);
+            }
+            case LLVMMul: {
+                // 乘积末尾的 0 至少是两个因子末尾 0 的个数之和
+                KnownBits a = compute(LLVMGetOperand(value, 0), depth + 1);
+                KnownBits b = compute(LLVMGetOperand(value, 1), depth + 1);
+                if (a.isConstant() && b.isConstant()) return constant(a.one * b.one, width);
+                int trailing = Math.min(width, trailingZeros(a) + trailingZeros(b));
+                return new KnownBits(maskOf(trailing), 0, width);
+            }
+            case LLVMShl:
+            case LLVMLShr:
+            case LLVMAShr: {
+                LLVMValueRef amount = LLVMGetOperand(value, 1);
+                if (LLVMIsAConstantInt(amount) == null) return unknown(width);
+                long k = LLVMConstIntGetZExtValue(amount);
+                if (k >= width) return unknown(width);
+                KnownBits a = compute(LLVMGetOperand(value, 0), depth + 1);
+                if (opcode == LLVMShl) {
+                    return new KnownBits(((a.zero << k) | maskOf((int) k)) & mask, (a.one << k) & mask, width);
+                }
+                // 右移空出的高位：逻辑右移补 0，算术右移补符号位（符号位已知时）
+                long vacated = mask & ~(mask >>> k);
+                long sign = 1L << (width - 1);
+                long fillZero = opcode == LLVMLShr || (a.zero & sign) != 0 ? vacated : 0;
+                long fillOne = opcode == LLVMAShr && (a.one & sign) != 0 ? vacated : 0;
+                return new KnownBits((a.zero >>> k) | fillZero, (a.one >>> k) | fillOne, width);
+            }
+            case LLVMZExt: {
+                KnownBits a = compute(LLVMGetOperand(value, 0), depth + 1);
+                return new KnownBits(a.zero | (mask & ~a.mask()), a.one, width);
+            }
+            case LLVMSExt: {
+                KnownBits a = compute(LLVMGetOperand(value, 0), depth + 1);
+                long sign = 1L << (a.width - 1);
+                long high = mask & ~a.mask();
+                return new KnownBits(a.zero | ((a.zero & sign) != 0 ? high : 0), a.one | ((a.one & sign) != 0 ? high : 0), width);
+            }
+            case LLVMTrunc: {
+                KnownBits a = compute(LLVMGetOperand(value, 0), depth + 1);
+                return new KnownBits(a.zero & mask, a.one & mask, width);
+            }
+            case LLVMICmp:
+                return compare(value, depth);
+            case LLVMSelect:
+                return meet(compute(LLVMGetOperand(value, 1), depth + 1), compute(LLVMGetOperand(value, 2), depth + 1));
+            case LLVMPHI: {
+                KnownBits result = null;
+                for (int i = 0; i < LLVMCountIncoming(value); i++) {
+                    LLVMValueRef incoming = LLVMGetIncomingValue(value, i);
+                    if (incoming.equals(value)) continue;
+                    KnownBits bits = compute(incoming, depth + 1);
+                    result = result == null ? bits : meet(result, bits);
+                    if (result.zero == 0 && result.one == 0) break;
+                }
+                return result == null ? unknown(width) : result;
+            }
+            default:
+                return unknown(width);
+        }
+    }
+
+    // 两个值之一：两边都已知且相同的位
+    private static KnownBits meet(KnownBits a, KnownBits b) {
+        return new KnownBits(a.zero & b.zero, a.one & b.one, a.width);
+    }
+
+    private static int trailingZeros(KnownBits bits) {
+        return Long.numberOfTrailingZeros(~bits.zero);
+    }
+
+    /**
+     * a + b + carry 的已知位：分别用两边的最大值、最小值相加得到每一位可能的进位，
+     * 两个加数与进位都已知的位结果才已知
+     */
+    private static KnownBits addWithCarry(KnownBits a, KnownBits b, boolean carry) {
+        long mask = a.mask();
+        long possibleSumZero = ((~a.zero & mask) + (~b.zero & mask) + (carry ? 1 : 0)) & mask;
+        long possibleSumOne = (a.one + b.one + (carry ? 1 : 0)) & mask;
+        long carryKnownZero = ~(possibleSumZero ^ a.zero ^ b.zero) & mask;
+        long carryKnownOne = (possibleSumOne ^ a.one ^ b.one) & mask;
+        long known = (a.zero | a.one) & (b.zero | b.one) & (carryKnownZero | carryKnownOne);
+        return new KnownBits(~possibleSumZero & known, possibleSumOne & known, a.width);
+    }
+
+    // icmp eq/ne：两边有一位一个已知为 0、另一个已知为 1 时一定不相等；都是常量时直接比较
+    private static KnownBits compare(LLVMValueRef inst, int depth) {
+        int predicate = LLVMGetICmpPredicate(inst);
+        if (predicate != LLVMIntEQ && predicate != LLVMIntNE) return unknown(1);
+        // 指针比较（循环强度削弱生成的退出测试）没有位信息
+        if (LLVMGetTypeKind(LLVMTypeOf(LLVMGetOperand(inst, 0))) != LLVMIntegerTypeKind) return unknown(1);
+        KnownBits a = compute(LLVMGetOperand(inst, 0), depth + 1);
+        KnownBits b = compute(LLVMGetOperand(inst, 1), depth + 1);
+        Boolean equal = null;
+        if (((a.zero & b.one) | (a.one & b.zero)) != 0) {
+            equal = false;
+        } else if (a.isConstant() && b.isConstant()) {
+            equal = a.one == b.one;
+        }
+        if (equal == null) return unknown(1);
+        return constant(equal == (predicate == LLVMIntEQ) ? 1 : 0, 1);
+    }
+}
@@ -0,0 +1,158 @@
+import org.bytedeco.llvm.LLVM.*;
+
+import java.util.*;
+
+import static org.bytedeco.llvm.global.LLVM.*;
+
+/**
+ * 循环不变量外提：把操作数都在循环外定义的纯计算移到预头
+ * - 由内向外处理，内层循环外提到内层预头的代码随后还能继续外提到外层
+ * - 可能陷入的除法/取余只在除数为非零常量、或指令每次进入循环都必然执行时外提
+ * - load 要求循环内没有可能写同一地址的 store 且没有调用，并且地址一定可以访问
+ * 依赖 LoopSimplify 提供的预头
+ */
+public class LICM extends FunctionPass {
+    private LLVMBuilderRef builderRef;
+
+    private int hoistedInstructions = 0;
+    private int hoistedLoads = 0;
+
+    @Override
+    public String getName() {
+        return "licm";
+    }
+
+    @Override
+    public Map<String, Integer> getStatistics() {
+        Map<String, Integer> stats = new LinkedHashMap<>();
+        stats.put("外提的计算指令", hoistedInstructions);
+        stats.put("外提的 load", hoistedLoads);
+        return stats;
+    }
+
+    @Override
+    public boolean runOnFunction(LLVMValueRef function, AnalysisManager analyses) {
+        DominatorTree domTree = analyses.getDominatorTree(function);
+        LoopInfo loopInfo = analyses.getLoopInfo(function);
+        builderRef = LLVMCreateBuilderInContext(LLVMGetModuleContext(LLVMGetGlobalParent(function)));
+
+        // 外提只在块之间移动指令，不改变 CFG，分析结果在本遍内一直有效
+        boolean changed = false;
+        for (LoopInfo.Loop loop : loopInfo.getLoopsInnermostFirst()) {
+            changed |= hoistLoop(loop, domTree);
+        }
+        LLVMDisposeBuilder(builderRef);
+        return changed;
+    }
+
+    private boolean hoistLoop(LoopInfo.Loop loop, DominatorTree domTree) {
+        LLVMBasicBlockRef preheader = loop.getPreheader();
+        if (preheader == null) return false;
+        LLVMValueRef insertPoint = LLVMGetBasicBlockTerminator(preheader);
+
+        // 收集循环内的写内存操作，用于判断 load 是否不变
+        List<LLVMValueRef> storedPointers = new ArrayList<>();
+        boolean hasCall = false;
+        for (LLVMBasicBlockRef bb : loop.getBlocks()) {
+            for (LLVMValueRef inst = LLVMGetFirstInstruction(bb); inst != null; inst = LLVMGetNextInstruction(inst)) {
+                int opcode = LLVMGetInstructionOpcode(inst);
+                if (opcode == LLVMStore) {
+                    storedPointers.add(LLVMGetOperand(inst, 1));
+                } else if (opcode == LLVMCall) {
+                    hasCall = true;
+                }
+            }
+        }
+
+        List<LLVMBasicBlockRef> exiting = loop.getExitingBlocks();
+        boolean changed = false;
+        // 循环体按逆后序保存，操作数的定义先于使用被外提
+        for (LLVMBasicBlockRef bb : loop.getBlocks()) {
+            boolean alwaysExecuted = true;
+            for (LLVMBasicBlockRef exit : exiting) {
+                if (!domTree.dominates(bb, exit)) {
+                    alwaysExecuted = false;
+                    break;
+                }
+            }
+
+            LLVMValueRef inst = LLVMGetFirstInstruction(bb);
+            while (inst != null) {
+                LLVMValueRef next = LLVMGetNextInstruction(inst);
+                int opcode = LLVMGetInstructionOpcode(inst);
+                if (isHoistable(inst, opcode, alwaysExecuted) && operandsInvariant(inst, loop)) {
+                    if (opcode == LLVMLoad) {
+                        LLVMValueRef pointer = LLVMGetOperand(inst, 0);
+                        if (!hasCall && !mayBeStored(pointer, storedPointers)
+                                && (alwaysExecuted || isDereferenceable(pointer))) {
+                            IrUtils.moveBefore(builderRef, inst, insertPoint);
+                            hoistedLoads++;
+                            changed = true;
+                        }
+                    } else {
+                        IrUtils.moveBefore(builderRef, inst, insertPoint);
+                        hoistedInstructions++;
+                        changed = true;
+                    }
+                }
+                inst = next;
+            }
+        }
+        return changed;
+    }
+
+    private boolean isHoistable(LLVMValueRef inst, int opcode, boolean alwaysExecuted) {
+        switch (opcode) {
+            case LLVMAdd:
+            case LLVMSub:
+            case LLVMMul:
+            case LLVMAnd:
+            case LLVMOr:
+            case LLVMXor:
+            case LLVMShl:
+            case LLVMLShr:
+            case LLVMAShr:
+            case LLVMICmp:
+            case LLVMZExt:
+            case LLVMSExt:
+            case LLVMTrunc:
+            case LLVMSelect:
+            case LLVMGetElementPtr:
+            case LLVMLoad:
+                return true;
+            case LLVMSDiv:
+            case LLVMSRem:
+                if (alwaysExecuted) return true;
+                // 提前执行不能引入除零或溢出
+                LLVMValueRef divisor = LLVMGetOperand(inst, 1);
+                if (LLVMIsAConstantInt(divisor) == null) return false;
+                long value = LLVMConstIntGetSExtValue(divisor);
+                return value != 0 && value != -1;
+            default:
+                return false;
+        }
+    }
+
+    private boolean operandsInvariant(LLVMValueRef inst, LoopInfo.Loop loop) {
+        for (int i = 0; i < LLVMGetNumOperands(inst); i++) {
+            LLVMValueRef operand = LLVMGetOperand(inst, i);
+            if (LLVMIsAInstruction(operand) != null && loop.contains(LLVMGetInstructionParent(operand))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean mayBeStored(LLVMValueRef pointer, List<LLVMValueRef> storedPointers) {
+        for (LLVMValueRef stored : storedPointers) {
+            if (AliasAnalysis.mayAlias(pointer, stored)) return true;
+        }
+        return false;
+    }
+
+    //辅助方法：地址是否一定合法——全局变量、局部变量本身，或其上的常量下标
+    private boolean isDereferenceable(LLVMValueRef pointer) {
+        return AliasAnalysis.isIdentifiedObject(AliasAnalysis.baseObject(pointer))
+                && AliasAnalysis.constantOffset(pointer) != null;
+    }
+}
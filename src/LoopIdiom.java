@@ -0,0 +1,226 @@
+import org.bytedeco.llvm.LLVM.*;
+
+import java.util.*;
+
+import static org.bytedeco.llvm.global.LLVM.*;
+
+/**
+ * 循环惯用法识别：逐个元素清零、复制数组的循环
+ *   while (i < n) { a[i] = 0; i = i + 1; }       ->  memset(&a[i0], 0, (n - i0) * 4)
+ *   while (i < n) { b[i] = a[i]; i = i + 1; }    ->  memcpy(&b[i0], &a[i0], (n - i0) * 4)
+ * 改为调用 llvm.memset / llvm.memcpy，后端在调用处展开为按字读写的紧凑代码（长度是较小的常量时直接展开为若干条 sw），
+ * 省掉每个元素的下标计算、比较和跳转
+ *
+ * 只处理最内层循环：循环中唯一的写操作所在的块支配回边块（每次迭代恰好执行一次），写地址只有一个下标随循环递增，
+ * 且每次迭代前进的字节数正好等于写入的宽度；其余指令都没有副作用、结果也不在循环外使用，变换后整个循环被删除
+ * 内层循环改写后，外层循环中逐行调用的 memset/memcpy 会再合并为一次（二维数组整体清零、整体复制）
+ * memset 按字节填充，只能处理四个字节相同的常量（0、-1）；复制要求两个数组互不重叠
+ * 依赖 LoopRotate 与 LoopSimplify 的结果，在 LoopUnroll 之前执行，否则展开后的循环无法识别
+ */
+public class LoopIdiom extends FunctionPass {
+    private LLVMBuilderRef builderRef;
+
+    private int replacedFills = 0;
+    private int replacedCopies = 0;
+
+    @Override
+    public String getName() {
+        return "loop-idiom";
+    }
+
+    @Override
+    public Map<String, Integer> getStatistics() {
+        Map<String, Integer> stats = new LinkedHashMap<>();
+        stats.put("改为 memset 的循环", replacedFills);
+        stats.put("改为 memcpy 的循环", replacedCopies);
+        return stats;
+    }
+
+    @Override
+    public boolean runOnFunction(LLVMValueRef function, AnalysisManager analyses) {
+        builderRef = LLVMCreateBuilderInContext(LLVMGetModuleContext(LLVMGetGlobalParent(function)));
+        boolean changed = false;
+        // 删除循环改变了 CFG，每次只处理一个循环，然后重新分析
+        while (replaceOne(analyses.getCFG(function), analyses.getLoopInfo(function), analyses.getDominatorTree(function))) {
+            analyses.invalidate(function);
+            changed = true;
+        }
+        LLVMDisposeBuilder(builderRef);
+        return changed;
+    }
+
+    /**
+     * 写地址 GEP 中随循环变化的下标：第 position 个操作数从 start 开始，每次迭代前进 stride 个字节
+     */
+    private static final class StridedAddress {
+        final LLVMValueRef gep;
+        final int position;
+        final ScalarEvolution.Poly start;
+        final long stride;
+
+        StridedAddress(LLVMValueRef gep, int position, ScalarEvolution.Poly start, long stride) {
+            this.gep = gep;
+            this.position = position;
+            this.start = start;
+            this.stride = stride;
+        }
+    }
+
+    private boolean replaceOne(CFG cfg, LoopInfo loopInfo, DominatorTree domTree) {
+        for (LoopInfo.Loop loop : loopInfo.getLoopsInnermostFirst()) {
+            if (!loop.getSubLoops().isEmpty() || loop.getPreheader() == null) continue;
+            if (loop.getLatches().size() != 1 || loop.getExitBlocks().size() != 1) continue;
+            LLVMValueRef write = uniqueWrite(loop);
+            if (write == null || !domTree.dominates(LLVMGetInstructionParent(write), loop.getLatches().get(0))) continue;
+
+            // 1. 写操作的目的地址、来源地址（复制时）与每次迭代写入的字节数
+            LLVMValueRef dest;
+            LLVMValueRef src = null;
+            long width;
+            long fillByte = 0;
+            if (LLVMGetInstructionOpcode(write) == LLVMStore) {
+                LLVMValueRef value = LLVMGetOperand(write, 0);
+                if (LLVMGetTypeKind(LLVMTypeOf(value)) != LLVMIntegerTypeKind || LLVMGetIntTypeWidth(LLVMTypeOf(value)) != 32) continue;
+                dest = LLVMGetOperand(write, 1);
+                width = 4;
+                if (LLVMIsAConstantInt(value) != null) {
+                    Long splat = splatByte(LLVMConstIntGetSExtValue(value));
+                    if (splat == null) continue;
+                    fillByte = splat;
+                } else if (LLVMIsALoadInst(value) != null && loop.contains(LLVMGetInstructionParent(value))
+                        && LLVMGetNextUse(LLVMGetFirstUse(value)) == null) {
+                    src = LLVMGetOperand(value, 0);
+                } else {
+                    continue;
+                }
+            } else {
+                LLVMValueRef length = LLVMGetOperand(write, 2);
+                if (LLVMIsAConstantInt(length) == null) continue;
+                dest = LLVMGetOperand(write, 0);
+                width = LLVMConstIntGetSExtValue(length);
+                if (IrUtils.isIntrinsicCall(write, "llvm.memset")) {
+                    fillByte = LLVMConstIntGetSExtValue(LLVMGetOperand(write, 1));
+                } else {
+                    src = LLVMGetOperand(write, 1);
+                }
+            }
+
+            // 2. 地址必须逐次连续地向后推进，复制的两段内存不能重叠
+            ScalarEvolution scev = new ScalarEvolution(loop, cfg);
+            StridedAddress destAddress = stridedAddress(dest, loop, scev);
+            if (destAddress == null || destAddress.stride != width) continue;
+            StridedAddress srcAddress = null;
+            if (src != null) {
+                srcAddress = stridedAddress(src, loop, scev);
+                if (srcAddress == null || srcAddress.stride != width || AliasAnalysis.mayAlias(dest, src)) continue;
+            }
+            ScalarEvolution.Poly tripCount = scev.getTripCount();
+            if (tripCount == null) continue;
+
+            replace(loop, tripCount, width, destAddress, srcAddress, fillByte);
+            return true;
+        }
+        return false;
+    }
+
+    //辅助方法：循环中唯一的写操作（store 或 memset/memcpy），其余指令没有副作用且不在循环外使用；不满足时返回 null
+    private LLVMValueRef uniqueWrite(LoopInfo.Loop loop) {
+        LLVMValueRef write = null;
+        for (LLVMBasicBlockRef bb : loop.getBlocks()) {
+            for (LLVMValueRef inst = LLVMGetFirstInstruction(bb); inst != null; inst = LLVMGetNextInstruction(inst)) {
+                int opcode = LLVMGetInstructionOpcode(inst);
+                if (opcode == LLVMStore || opcode == LLVMCall) {
+                    if (write != null) return null;
+                    if (opcode == LLVMCall && !IrUtils.isIntrinsicCall(inst, "llvm.memset")
+                            && !IrUtils.isIntrinsicCall(inst, "llvm.memcpy")) return null;
+                    write = inst;
+                } else if (opcode != LLVMBr && !IrUtils.isRemovableIfUnused(inst)) {
+                    return null;
+                }
+                if (usedOutside(inst, loop)) return null;
+            }
+        }
+        return write;
+    }
+
+    private boolean usedOutside(LLVMValueRef inst, LoopInfo.Loop loop) {
+        for (LLVMUseRef use = LLVMGetFirstUse(inst); use != null; use = LLVMGetNextUse(use)) {
+            if (!loop.contains(LLVMGetInstructionParent(LLVMGetUser(use)))) return true;
+        }
+        return false;
+    }
+
+    //辅助方法：循环内的 GEP，基址和其余下标都是循环不变量，恰好一个下标是步长为正的加法递推
+    private StridedAddress stridedAddress(LLVMValueRef pointer, LoopInfo.Loop loop, ScalarEvolution scev) {
+        if (LLVMIsAGetElementPtrInst(pointer) == null || !loop.contains(LLVMGetInstructionParent(pointer))) return null;
+        if (!isInvariant(LLVMGetOperand(pointer, 0), loop)) return null;
+        LLVMTypeRef type = LLVMGetElementType(LLVMTypeOf(LLVMGetOperand(pointer, 0)));
+        StridedAddress address = null;
+        for (int i = 1; i < LLVMGetNumOperands(pointer); i++) {
+            if (i > 1) {
+                type = LLVMGetElementType(type); // 第一个下标按整个指向类型跨越，之后逐层进入数组
+            }
+            LLVMValueRef index = LLVMGetOperand(pointer, i);
+            if (isInvariant(index, loop)) continue;
+            ScalarEvolution.AddRec rec = scev.getAddRec(index);
+            if (address != null || rec == null || rec.degree() != 1) return null;
+            Long step = rec.get(1).asConstant();
+            if (step == null || step <= 0) return null;
+            address = new StridedAddress(pointer, i, rec.get(0), step * AliasAnalysis.sizeOf(type));
+        }
+        return address;
+    }
+
+    private boolean isInvariant(LLVMValueRef value, LoopInfo.Loop loop) {
+        if (LLVMIsAInstruction(value) != null) return !loop.contains(LLVMGetInstructionParent(value));
+        return LLVMIsAConstantExpr(value) == null;
+    }
+
+    //辅助方法：四个字节都相同的字返回该字节，否则返回 null
+    private Long splatByte(long word) {
+        long low = word & 0xff;
+        return IrUtils.normalize(low * 0x01010101L, 32) == IrUtils.normalize(word, 32) ? low : null;
+    }
+
+    private void replace(LoopInfo.Loop loop, ScalarEvolution.Poly tripCount, long width,
+                         StridedAddress destAddress, StridedAddress srcAddress, long fillByte) {
+        LLVMBasicBlockRef preheader = loop.getPreheader();
+        LLVMBasicBlockRef latch = loop.getLatches().get(0);
+        LLVMBasicBlockRef exit = loop.getExitBlocks().get(0);
+        LLVMValueRef terminator = LLVMGetBasicBlockTerminator(preheader);
+
+        // 1. 预头中算出总字节数和第一次迭代的地址，一次写完
+        LLVMPositionBuilderBefore(builderRef, terminator);
+        LLVMValueRef count = ScalarEvolution.expand(builderRef, tripCount, "idiom_count");
+        LLVMValueRef length;
+        if (Long.bitCount(width) == 1) {
+            length = LLVMBuildShl(builderRef, count, LLVMConstInt(LLVMTypeOf(count), Long.numberOfTrailingZeros(width), 0), "idiom_bytes");
+        } else {
+            length = LLVMBuildMul(builderRef, count, LLVMConstInt(LLVMTypeOf(count), width, 0), "idiom_bytes");
+        }
+        LLVMValueRef dest = startAddress(destAddress, "idiom_dest");
+        if (srcAddress == null) {
+            IrUtils.buildMemset(builderRef, dest, fillByte, length);
+            replacedFills++;
+        } else {
+            IrUtils.buildMemcpy(builderRef, dest, startAddress(srcAddress, "idiom_src"), length);
+            replacedCopies++;
+        }
+
+        // 2. 预头直接跳到出口，出口 phi 来自回边块的入边改为来自预头，最后删除循环
+        LLVMBuildBr(builderRef, exit);
+        LLVMInstructionEraseFromParent(terminator);
+        List<LLVMBasicBlockRef> blocks = new ArrayList<>(loop.getBlocks());
+        IrUtils.replaceIncomingBlock(exit, latch, preheader);
+        IrUtils.deleteBlocks(blocks);
+    }
+
+    //辅助方法：复制一条地址计算，变化的下标换成第一次迭代的值；常量下标用 IRBuilder 会被折叠成常量表达式，后端无法处理
+    private LLVMValueRef startAddress(StridedAddress address, String name) {
+        LLVMValueRef start = ScalarEvolution.expand(builderRef, address.start, name + "_index");
+        LLVMValueRef clone = LLVMInstructionClone(address.gep);
+        LLVMSetOperand(clone, address.position, start);
+        LLVMInsertIntoBuilderWithName(builderRef, clone, name);
+        return clone;
+    }
+}
@@ -0,0 +1,199 @@
+import org.bytedeco.llvm.LLVM.LLVMBasicBlockRef;
+
+import java.util.*;
+
+/**
+ * 自然循环分析：由回边（后继支配当前块）找出循环，合并同一循环头的回边，并建立嵌套关系
+ */
+public class LoopInfo {
+    private final CFG cfg;
+    // 最外层循环
+    private final List<Loop> topLevelLoops = new ArrayList<>();
+    // 基本块 -> 包含它的最内层循环
+    private final Map<LLVMBasicBlockRef, Loop> innermost = new HashMap<>();
+
+    public LoopInfo(CFG cfg, DominatorTree domTree) {
+        this.cfg = cfg;
+
+        // 1. 找回边，按循环头归并
+        Map<LLVMBasicBlockRef, Loop> loopsByHeader = new LinkedHashMap<>();
+        for (LLVMBasicBlockRef bb : cfg.getReversePostOrder()) {
+            for (LLVMBasicBlockRef succ : cfg.getSuccessors(bb)) {
+                if (domTree.dominates(succ, bb)) {
+                    Loop loop = loopsByHeader.computeIfAbsent(succ, Loop::new);
+                    if (!loop.latches.contains(bb)) loop.latches.add(bb);
+                }
+            }
+        }
+
+        // 2. 从各回边尾部逆向搜索到循环头，得到循环体
+        for (Loop loop : loopsByHeader.values()) {
+            Set<LLVMBasicBlockRef> body = new HashSet<>();
+            body.add(loop.header);
+            Deque<LLVMBasicBlockRef> worklist = new ArrayDeque<>();
+            for (LLVMBasicBlockRef latch : loop.latches) {
+                if (body.add(latch)) worklist.push(latch);
+            }
+            while (!worklist.isEmpty()) {
+                LLVMBasicBlockRef bb = worklist.pop();
+                for (LLVMBasicBlockRef pred : cfg.getPredecessors(bb)) {
+                    if (cfg.isReachable(pred) && body.add(pred)) worklist.push(pred);
+                }
+            }
+            // 循环体按逆后序保存，循环头总在最前
+            for (LLVMBasicBlockRef bb : cfg.getReversePostOrder()) {
+                if (body.contains(bb)) loop.blocks.add(bb);
+            }
+        }
+
+        // 3. 建立嵌套关系：从小到大处理，包含当前循环头的最小的更大循环就是父循环
+        List<Loop> bySize = new ArrayList<>(loopsByHeader.values());
+        bySize.sort(Comparator.comparingInt(l -> l.blocks.size()));
+        for (int i = 0; i < bySize.size(); i++) {
+            Loop loop = bySize.get(i);
+            for (int j = i + 1; j < bySize.size(); j++) {
+                Loop outer = bySize.get(j);
+                if (outer.blocks.contains(loop.header) && outer != loop) {
+                    loop.parent = outer;
+                    outer.subLoops.add(loop);
+                    break;
+                }
+            }
+            if (loop.parent == null) topLevelLoops.add(loop);
+            for (LLVMBasicBlockRef bb : loop.blocks) {
+                innermost.putIfAbsent(bb, loop);
+            }
+        }
+        for (Loop loop : topLevelLoops) {
+            assignDepth(loop, 1);
+        }
+    }
+
+    private void assignDepth(Loop loop, int depth) {
+        loop.depth = depth;
+        for (Loop sub : loop.subLoops) {
+            assignDepth(sub, depth + 1);
+        }
+    }
+
+    public List<Loop> getTopLevelLoops() {
+        return topLevelLoops;
+    }
+
+    /**
+     * 所有循环，内层循环排在外层循环之前（变换内层循环后再处理外层）
+     */
+    public List<Loop> getLoopsInnermostFirst() {
+        List<Loop> result = new ArrayList<>();
+        for (Loop loop : topLevelLoops) {
+            collectPostOrder(loop, result);
+        }
+        return result;
+    }
+
+    private void collectPostOrder(Loop loop, List<Loop> result) {
+        for (Loop sub : loop.subLoops) {
+            collectPostOrder(sub, result);
+        }
+        result.add(loop);
+    }
+
+    /**
+     * 包含该块的最内层循环，不在任何循环中时返回 null
+     */
+    public Loop getLoopFor(LLVMBasicBlockRef block) {
+        return innermost.get(block);
+    }
+
+    /**
+     * 循环嵌套深度，不在循环中为 0
+     */
+    public int getLoopDepth(LLVMBasicBlockRef block) {
+        Loop loop = innermost.get(block);
+        return loop == null ? 0 : loop.depth;
+    }
+
+    public class Loop {
+        private final LLVMBasicBlockRef header;
+        private final List<LLVMBasicBlockRef> latches = new ArrayList<>();
+        private final Set<LLVMBasicBlockRef> blocks = new LinkedHashSet<>();
+        private final List<Loop> subLoops = new ArrayList<>();
+        private Loop parent;
+        private int depth;
+
+        private Loop(LLVMBasicBlockRef header) {
+            this.header = header;
+        }
+
+        public LLVMBasicBlockRef getHeader() {
+            return header;
+        }
+
+        public List<LLVMBasicBlockRef> getLatches() {
+            return latches;
+        }
+
+        public Set<LLVMBasicBlockRef> getBlocks() {
+            return blocks;
+        }
+
+        public boolean contains(LLVMBasicBlockRef block) {
+            return blocks.contains(block);
+        }
+
+        public List<Loop> getSubLoops() {
+            return subLoops;
+        }
+
+        public Loop getParent() {
+            return parent;
+        }
+
+        public int getDepth() {
+            return depth;
+        }
+
+        /**
+         * 唯一的循环外前驱，且它只跳转到循环头；不存在时返回 null
+         */
+        public LLVMBasicBlockRef getPreheader() {
+            LLVMBasicBlockRef preheader = null;
+            for (LLVMBasicBlockRef pred : cfg.getPredecessors(header)) {
+                if (blocks.contains(pred)) continue;
+                if (preheader != null && !preheader.equals(pred)) return null;
+                preheader = pred;
+            }
+            if (preheader == null || cfg.getSuccessors(preheader).size() != 1) return null;
+            return preheader;
+        }
+
+        /**
+         * 循环内有边跳出循环的块
+         */
+        public List<LLVMBasicBlockRef> getExitingBlocks() {
+            List<LLVMBasicBlockRef> exiting = new ArrayList<>();
+            for (LLVMBasicBlockRef bb : blocks) {
+                for (LLVMBasicBlockRef succ : cfg.getSuccessors(bb)) {
+                    if (!blocks.contains(succ)) {
+                        exiting.add(bb);
+                        break;
+                    }
+                }
+            }
+            return exiting;
+        }
+
+        /**
+         * 循环外、被循环内的块跳转到的块（去重）
+         */
+        public List<LLVMBasicBlockRef> getExitBlocks() {
+            List<LLVMBasicBlockRef> exits = new ArrayList<>();
+            for (LLVMBasicBlockRef bb : blocks) {
+                for (LLVMBasicBlockRef succ : cfg.getSuccessors(bb)) {
+                    if (!blocks.contains(succ) && !exits.contains(succ)) exits.add(succ);
+                }
+            }
+            return exits;
+        }
+    }
+}
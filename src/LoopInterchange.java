@@ -0,0 +1,435 @@
+import org.bytedeco.llvm.LLVM.*;
+
+import java.util.*;
+
+import static org.bytedeco.llvm.global.LLVM.*;
+
+/**
+ * 循环交换：按列遍历二维数组的完美嵌套计数循环交换内外层，使内层循环沿连续内存前进
+ *   while (j < 50) { i = 0; while (i < 60) { s = s + a[i][j]; i = i + 1; } j = j + 1; }
+ *   ->  内层每次前进 4 字节，而不是一整行（200 字节）
+ *
+ * 代价模型：数组按行主序展平，每个访存地址对两个归纳变量的系数即每次迭代前进的字节数，
+ * 内层循环每次迭代新触及 min(|步长|, 64) / 64 条缓存行；交换后这一总和更小才交换
+ *
+ * 完美嵌套：外层循环体中除内层循环外只有归纳变量的递增与比较（LICM 外提到外层的纯计算沉回内层循环），
+ * 两层循环都以 icmp 同一谓词、同一步长计数，内层的起点与边界不依赖外层（矩形迭代空间），内层次数为常量
+ * 交换不改变 CFG：两个循环头 phi 互换起点、两个比较互换边界，循环体中两个归纳变量的使用互换
+ *
+ * 合法性：循环体中只有 load/store 与纯计算；跨迭代携带的标量只能是加减累加（整数加法可交换，交换后结果不变）；
+ * 每个 store 与其他可能重叠的访存必须是同一个地址，且该地址在迭代空间上不会被两次不同的迭代
+ * 以（外层前进、内层后退）的方向访问到，即只随一个归纳变量变化，或展平后不同迭代的地址互不相同
+ * 在 IndVarSimplify 之后、LoopIdiom 与 LoopUnroll 之前执行，交换后按行清零、复制的循环仍可识别为 memset/memcpy
+ */
+public class LoopInterchange extends FunctionPass {
+    private static final int CACHE_LINE = 64;
+
+    private LLVMBuilderRef builderRef;
+
+    private int interchangedNests = 0;
+
+    @Override
+    public String getName() {
+        return "loop-interchange";
+    }
+
+    @Override
+    public Map<String, Integer> getStatistics() {
+        Map<String, Integer> stats = new LinkedHashMap<>();
+        stats.put("交换的循环嵌套", interchangedNests);
+        return stats;
+    }
+
+    @Override
+    public boolean runOnFunction(LLVMValueRef function, AnalysisManager analyses) {
+        builderRef = LLVMCreateBuilderInContext(LLVMGetModuleContext(LLVMGetGlobalParent(function)));
+        boolean changed = false;
+        while (interchangeOne(analyses.getCFG(function), analyses.getLoopInfo(function))) {
+            analyses.invalidate(function);
+            changed = true;
+        }
+        LLVMDisposeBuilder(builderRef);
+        return changed;
+    }
+
+    /**
+     * 以 icmp pred next, bound 控制回边的计数循环：phi 从 start 开始，每次加上 step
+     */
+    private static final class Counter {
+        final LLVMValueRef phi;
+        final LLVMValueRef next;
+        final LLVMValueRef compare;
+        final LLVMValueRef start;
+        final LLVMValueRef bound;
+        final long step;
+        final boolean continueOnTrue;
+
+        Counter(LLVMValueRef phi, LLVMValueRef next, LLVMValueRef compare, LLVMValueRef start, LLVMValueRef bound,
+                long step, boolean continueOnTrue) {
+            this.phi = phi;
+            this.next = next;
+            this.compare = compare;
+            this.start = start;
+            this.bound = bound;
+            this.step = step;
+            this.continueOnTrue = continueOnTrue;
+        }
+    }
+
+    private boolean interchangeOne(CFG cfg, LoopInfo loopInfo) {
+        for (LoopInfo.Loop outer : loopInfo.getLoopsInnermostFirst()) {
+            if (outer.getSubLoops().size() != 1) continue;
+            LoopInfo.Loop inner = outer.getSubLoops().get(0);
+            if (!inner.getSubLoops().isEmpty()) continue;
+
+            // 1. 完美嵌套，外层多出的纯计算记下来，交换时沉到内层循环
+            List<LLVMValueRef> sunk = new ArrayList<>();
+            if (!isPerfectNest(outer, inner, sunk)) continue;
+            Counter outerCounter = counterOf(outer);
+            Counter innerCounter = counterOf(inner);
+            if (outerCounter == null || innerCounter == null || outerCounter.step != innerCounter.step
+                    || LLVMGetICmpPredicate(outerCounter.compare) != LLVMGetICmpPredicate(innerCounter.compare)
+                    || outerCounter.continueOnTrue != innerCounter.continueOnTrue) continue;
+            if (!isInvariant(innerCounter.start, outer) || !isInvariant(innerCounter.bound, outer)) continue;
+            ScalarEvolution.Poly innerTrips = new ScalarEvolution(inner, cfg).getTripCount();
+            ScalarEvolution.Poly outerTrips = new ScalarEvolution(outer, cfg).getTripCount();
+            if (innerTrips == null || innerTrips.asConstant() == null || outerTrips == null) continue;
+            if (!latchOnlyCounts(outer, outerCounter) || !usesStayInNest(outer, inner, outerCounter, innerCounter, sunk)) continue;
+            Set<LLVMValueRef> sums = new HashSet<>();
+            if (!carriesOnlySums(outer, inner, outerCounter, innerCounter, sums)) continue;
+
+            // 2. 访存的展平地址对两个归纳变量的字节系数，决定交换是否划算、是否合法
+            List<LLVMValueRef> accesses = new ArrayList<>();
+            if (!collectAccesses(inner, sums, accesses)) continue;
+            Map<LLVMValueRef, long[]> strides = new HashMap<>();
+            long currentCost = 0;
+            long swappedCost = 0;
+            boolean analyzable = true;
+            for (LLVMValueRef access : accesses) {
+                long[] stride = byteStride(pointerOf(access), outer, outerCounter.phi, innerCounter.phi);
+                if (stride == null) {
+                    analyzable = false;
+                    break;
+                }
+                strides.put(access, stride);
+                currentCost += linesTouched(stride[1]);
+                swappedCost += linesTouched(stride[0]);
+            }
+            if (!analyzable || swappedCost >= currentCost) continue;
+            if (!isLegal(accesses, strides, innerTrips.asConstant(), outerTrips.asConstant())) continue;
+
+            interchange(inner, outerCounter, innerCounter, sunk);
+            interchangedNests++;
+            return true;
+        }
+        return false;
+    }
+
+    //辅助方法：外层循环只比内层多出外层头、内层预头和外层回边块（即内层唯一的出口），外层头与内层预头中只有 phi 和纯计算
+    private boolean isPerfectNest(LoopInfo.Loop outer, LoopInfo.Loop inner, List<LLVMValueRef> sunk) {
+        LLVMBasicBlockRef outerPreheader = outer.getPreheader();
+        LLVMBasicBlockRef innerPreheader = inner.getPreheader();
+        if (outerPreheader == null || innerPreheader == null) return false;
+        if (outer.getLatches().size() != 1 || inner.getLatches().size() != 1) return false;
+        LLVMBasicBlockRef outerHeader = outer.getHeader();
+        LLVMBasicBlockRef outerLatch = outer.getLatches().get(0);
+        List<LLVMBasicBlockRef> innerExits = inner.getExitBlocks();
+        if (innerExits.size() != 1 || !innerExits.get(0).equals(outerLatch)) return false;
+        if (!inner.getExitingBlocks().equals(inner.getLatches())) return false;
+        if (!outer.getExitingBlocks().equals(outer.getLatches()) || outerLatch.equals(outerHeader)) return false;
+
+        List<LLVMBasicBlockRef> between = new ArrayList<>();
+        between.add(outerHeader);
+        if (!innerPreheader.equals(outerHeader)) between.add(innerPreheader);
+        if (outer.getBlocks().size() != inner.getBlocks().size() + between.size() + 1) return false;
+        // 按支配顺序（外层头在前）收集，沉下去时保持定义先于使用
+        for (LLVMBasicBlockRef bb : between) {
+            if (inner.contains(bb) || !outer.contains(bb)) return false;
+            LLVMValueRef terminator = LLVMGetBasicBlockTerminator(bb);
+            if (LLVMGetInstructionOpcode(terminator) != LLVMBr || LLVMIsConditional(terminator) != 0) return false;
+            for (LLVMValueRef inst = IrUtils.firstNonPhi(bb); !inst.equals(terminator); inst = LLVMGetNextInstruction(inst)) {
+                if (!IrUtils.isRemovableIfUnused(inst)) return false;
+                sunk.add(inst);
+            }
+            if (!bb.equals(outerHeader) && !IrUtils.phisOf(bb).isEmpty()) return false;
+        }
+        return IrUtils.phisOf(outerLatch).isEmpty();
+    }
+
+    //辅助方法：循环的计数方式，回边块的条件必须是 icmp (phi + step), bound
+    private Counter counterOf(LoopInfo.Loop loop) {
+        LLVMBasicBlockRef header = loop.getHeader();
+        LLVMBasicBlockRef latch = loop.getLatches().get(0);
+        LLVMValueRef terminator = LLVMGetBasicBlockTerminator(latch);
+        if (LLVMGetInstructionOpcode(terminator) != LLVMBr || LLVMIsConditional(terminator) == 0) return null;
+        LLVMValueRef compare = LLVMGetCondition(terminator);
+        if (LLVMIsAICmpInst(compare) == null || !LLVMGetInstructionParent(compare).equals(latch)) return null;
+        LLVMValueRef next = LLVMGetOperand(compare, 0);
+        LLVMValueRef bound = LLVMGetOperand(compare, 1);
+        if (LLVMIsAInstruction(next) == null || LLVMGetInstructionOpcode(next) != LLVMAdd
+                || LLVMIsAConstantInt(LLVMGetOperand(next, 1)) == null) return null;
+        LLVMValueRef phi = LLVMGetOperand(next, 0);
+        if (LLVMIsAPHINode(phi) == null || !LLVMGetInstructionParent(phi).equals(header)
+                || !next.equals(IrUtils.incomingFor(phi, latch)) || !isInvariant(bound, loop)) return null;
+        boolean continueOnTrue = LLVMGetSuccessor(terminator, 0).equals(header);
+        return new Counter(phi, next, compare, IrUtils.incomingFor(phi, loop.getPreheader()), bound,
+                LLVMConstIntGetSExtValue(LLVMGetOperand(next, 1)), continueOnTrue);
+    }
+
+    //辅助方法：外层回边块只有外层归纳变量的递增、比较与跳转
+    private boolean latchOnlyCounts(LoopInfo.Loop outer, Counter counter) {
+        LLVMBasicBlockRef latch = outer.getLatches().get(0);
+        for (LLVMValueRef inst = LLVMGetFirstInstruction(latch); inst != null; inst = LLVMGetNextInstruction(inst)) {
+            if (!inst.equals(counter.next) && !inst.equals(counter.compare) && !inst.equals(LLVMGetBasicBlockTerminator(latch))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //辅助方法：归纳变量只在嵌套内使用，递增后的值只用于自身的 phi 和比较；外层多出的纯计算只在内层循环中使用
+    private boolean usesStayInNest(LoopInfo.Loop outer, LoopInfo.Loop inner, Counter outerCounter, Counter innerCounter,
+                                   List<LLVMValueRef> sunk) {
+        Set<LLVMValueRef> sunkSet = new HashSet<>(sunk);
+        for (LLVMValueRef inst : sunk) {
+            for (LLVMUseRef use = LLVMGetFirstUse(inst); use != null; use = LLVMGetNextUse(use)) {
+                LLVMValueRef user = LLVMGetUser(use);
+                if (!sunkSet.contains(user) && !inner.contains(LLVMGetInstructionParent(user))) return false;
+            }
+        }
+        for (Counter counter : new Counter[]{outerCounter, innerCounter}) {
+            for (LLVMUseRef use = LLVMGetFirstUse(counter.phi); use != null; use = LLVMGetNextUse(use)) {
+                LLVMValueRef user = LLVMGetUser(use);
+                if (!user.equals(counter.next) && !sunkSet.contains(user) && !inner.contains(LLVMGetInstructionParent(user))) {
+                    return false;
+                }
+            }
+            for (LLVMUseRef use = LLVMGetFirstUse(counter.next); use != null; use = LLVMGetNextUse(use)) {
+                LLVMValueRef user = LLVMGetUser(use);
+                if (!user.equals(counter.phi) && !user.equals(counter.compare)) return false;
+            }
+            if (LLVMGetNextUse(LLVMGetFirstUse(counter.compare)) != null) return false;
+        }
+        return outer.contains(LLVMGetInstructionParent(outerCounter.next));
+    }
+
+    /**
+     * 除归纳变量外，两层循环头的 phi 只能是同一个累加和：
+     * 内层 x = phi [y, 预头], [n, 回边]，n 由 x 经过一串 add/sub 得到（x 只作为被加数、被减数出现一次），
+     * 外层 y = phi [初值, 预头], [n, 回边] 且只被 x 使用；n 可以在嵌套之后使用（最终的和与累加顺序无关）
+     */
+    private boolean carriesOnlySums(LoopInfo.Loop outer, LoopInfo.Loop inner, Counter outerCounter, Counter innerCounter,
+                                    Set<LLVMValueRef> sums) {
+        LLVMBasicBlockRef outerLatch = outer.getLatches().get(0);
+        LLVMBasicBlockRef innerLatch = inner.getLatches().get(0);
+        Set<LLVMValueRef> outerSums = new HashSet<>();
+        for (LLVMValueRef phi : IrUtils.phisOf(inner.getHeader())) {
+            if (phi.equals(innerCounter.phi)) continue;
+            LLVMValueRef init = IrUtils.incomingFor(phi, inner.getPreheader());
+            LLVMValueRef sum = IrUtils.incomingFor(phi, innerLatch);
+            if (init == null || sum == null || LLVMIsAPHINode(init) == null
+                    || !LLVMGetInstructionParent(init).equals(outer.getHeader()) || init.equals(outerCounter.phi)) return false;
+            if (!sum.equals(IrUtils.incomingFor(init, outerLatch)) || !hasSingleUse(init)) return false;
+            if (!isSumChain(sum, phi, inner)) return false;
+            for (LLVMUseRef use = LLVMGetFirstUse(sum); use != null; use = LLVMGetNextUse(use)) {
+                LLVMValueRef user = LLVMGetUser(use);
+                if (!user.equals(phi) && !user.equals(init) && outer.contains(LLVMGetInstructionParent(user))) return false;
+            }
+            outerSums.add(init);
+            sums.add(sum);
+        }
+        for (LLVMValueRef phi : IrUtils.phisOf(outer.getHeader())) {
+            if (!phi.equals(outerCounter.phi) && !outerSums.contains(phi)) return false;
+        }
+        return true;
+    }
+
+    //辅助方法：从 value 沿 add 的任一操作数、sub 的被减数回溯到 phi，链上的中间值（包括 phi）只被链中下一条指令使用一次
+    private boolean isSumChain(LLVMValueRef value, LLVMValueRef phi, LoopInfo.Loop inner) {
+        LLVMValueRef current = value;
+        while (!current.equals(phi)) {
+            if (LLVMIsAInstruction(current) == null || !inner.contains(LLVMGetInstructionParent(current))) return false;
+            int opcode = LLVMGetInstructionOpcode(current);
+            LLVMValueRef previous;
+            if (opcode == LLVMAdd && isChainLink(LLVMGetOperand(current, 1), phi, inner)) {
+                previous = LLVMGetOperand(current, 1);
+            } else if (opcode == LLVMAdd || opcode == LLVMSub) {
+                previous = LLVMGetOperand(current, 0);
+            } else {
+                return false;
+            }
+            if (!hasSingleUse(previous) || !isChainLink(previous, phi, inner)) return false;
+            current = previous;
+        }
+        return true;
+    }
+
+    private boolean isChainLink(LLVMValueRef value, LLVMValueRef phi, LoopInfo.Loop inner) {
+        if (value.equals(phi)) return true;
+        if (LLVMIsAInstruction(value) == null || !inner.contains(LLVMGetInstructionParent(value))) return false;
+        int opcode = LLVMGetInstructionOpcode(value);
+        return opcode == LLVMAdd || opcode == LLVMSub;
+    }
+
+    private boolean hasSingleUse(LLVMValueRef value) {
+        LLVMUseRef use = LLVMGetFirstUse(value);
+        return use != null && LLVMGetNextUse(use) == null;
+    }
+
+    //辅助方法：内层循环中除 load/store 外只有纯计算，除累加和外的值都不在内层循环之外使用（否则依赖最后一次迭代），按出现顺序收集访存
+    private boolean collectAccesses(LoopInfo.Loop inner, Set<LLVMValueRef> sums, List<LLVMValueRef> accesses) {
+        for (LLVMBasicBlockRef bb : inner.getBlocks()) {
+            for (LLVMValueRef inst = LLVMGetFirstInstruction(bb); inst != null; inst = LLVMGetNextInstruction(inst)) {
+                int opcode = LLVMGetInstructionOpcode(inst);
+                if (opcode == LLVMLoad || opcode == LLVMStore) {
+                    accesses.add(inst);
+                } else if (opcode != LLVMBr && !IrUtils.isRemovableIfUnused(inst)) {
+                    return false;
+                }
+                if (!sums.contains(inst) && usedOutside(inst, inner)) return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean usedOutside(LLVMValueRef inst, LoopInfo.Loop loop) {
+        for (LLVMUseRef use = LLVMGetFirstUse(inst); use != null; use = LLVMGetNextUse(use)) {
+            if (!loop.contains(LLVMGetInstructionParent(LLVMGetUser(use)))) return true;
+        }
+        return false;
+    }
+
+    private LLVMValueRef pointerOf(LLVMValueRef access) {
+        return LLVMGetOperand(access, LLVMGetInstructionOpcode(access) == LLVMStore ? 1 : 0);
+    }
+
+    /**
+     * 地址对外层、内层归纳变量的字节系数 {外层, 内层}；基址须为外层循环不变量，各下标是归纳变量的线性组合，否则返回 null
+     */
+    private long[] byteStride(LLVMValueRef pointer, LoopInfo.Loop outer, LLVMValueRef outerPhi, LLVMValueRef innerPhi) {
+        if (isInvariant(pointer, outer)) return new long[]{0, 0};
+        if (LLVMIsAGetElementPtrInst(pointer) == null || !isInvariant(LLVMGetOperand(pointer, 0), outer)) return null;
+        LLVMTypeRef type = LLVMGetElementType(LLVMTypeOf(LLVMGetOperand(pointer, 0)));
+        long[] stride = {0, 0};
+        for (int i = 1; i < LLVMGetNumOperands(pointer); i++) {
+            if (i > 1) {
+                type = LLVMGetElementType(type); // 第一个下标按整个指向类型跨越，之后逐层进入数组
+            }
+            long[] coefficients = linearCoefficients(LLVMGetOperand(pointer, i), outer, outerPhi, innerPhi);
+            if (coefficients == null) return null;
+            stride[0] += coefficients[0] * AliasAnalysis.sizeOf(type);
+            stride[1] += coefficients[1] * AliasAnalysis.sizeOf(type);
+        }
+        return stride;
+    }
+
+    //辅助方法：value = a * 外层归纳变量 + b * 内层归纳变量 + 不变量，返回 {a, b}；含其他变化量时返回 null
+    private long[] linearCoefficients(LLVMValueRef value, LoopInfo.Loop outer, LLVMValueRef outerPhi, LLVMValueRef innerPhi) {
+        if (value.equals(outerPhi)) return new long[]{1, 0};
+        if (value.equals(innerPhi)) return new long[]{0, 1};
+        if (isInvariant(value, outer)) return new long[]{0, 0};
+        if (LLVMIsAInstruction(value) == null) return null;
+        int opcode = LLVMGetInstructionOpcode(value);
+        if (opcode == LLVMAdd || opcode == LLVMSub) {
+            long[] lhs = linearCoefficients(LLVMGetOperand(value, 0), outer, outerPhi, innerPhi);
+            long[] rhs = lhs == null ? null : linearCoefficients(LLVMGetOperand(value, 1), outer, outerPhi, innerPhi);
+            if (rhs == null) return null;
+            long sign = opcode == LLVMAdd ? 1 : -1;
+            return new long[]{lhs[0] + sign * rhs[0], lhs[1] + sign * rhs[1]};
+        }
+        long factor;
+        LLVMValueRef operand;
+        if (opcode == LLVMMul && LLVMIsAConstantInt(LLVMGetOperand(value, 1)) != null) {
+            factor = LLVMConstIntGetSExtValue(LLVMGetOperand(value, 1));
+            operand = LLVMGetOperand(value, 0);
+        } else if (opcode == LLVMMul && LLVMIsAConstantInt(LLVMGetOperand(value, 0)) != null) {
+            factor = LLVMConstIntGetSExtValue(LLVMGetOperand(value, 0));
+            operand = LLVMGetOperand(value, 1);
+        } else if (opcode == LLVMShl && LLVMIsAConstantInt(LLVMGetOperand(value, 1)) != null) {
+            long shift = LLVMConstIntGetSExtValue(LLVMGetOperand(value, 1));
+            if (shift < 0 || shift >= 32) return null;
+            factor = 1L << shift;
+            operand = LLVMGetOperand(value, 0);
+        } else {
+            return null;
+        }
+        long[] coefficients = linearCoefficients(operand, outer, outerPhi, innerPhi);
+        return coefficients == null ? null : new long[]{coefficients[0] * factor, coefficients[1] * factor};
+    }
+
+    // 每次迭代新触及的缓存行，以 1/CACHE_LINE 条为单位
+    private long linesTouched(long stride) {
+        return Math.min(Math.abs(stride), CACHE_LINE);
+    }
+
+    /**
+     * 每个 store 与其他可能重叠的访存使用同一地址 base + a * o + b * i；
+     * 两次迭代访问同一位置时 a * Δo + b * Δi = 0，只要不存在 Δo > 0 且 Δi < 0 的解，交换后依赖方向仍然正确：
+     * a、b 有一个为 0，或者 |b| * (内层次数 - 1) < |a|、|a| * (外层次数 - 1) < |b|（展平后不同迭代的地址互不相同）
+     */
+    private boolean isLegal(List<LLVMValueRef> accesses, Map<LLVMValueRef, long[]> strides, long innerTrips, Long outerTrips) {
+        for (LLVMValueRef store : accesses) {
+            if (LLVMGetInstructionOpcode(store) != LLVMStore) continue;
+            LLVMValueRef pointer = pointerOf(store);
+            for (LLVMValueRef access : accesses) {
+                if (!access.equals(store) && !pointerOf(access).equals(pointer)
+                        && AliasAnalysis.mayAlias(pointerOf(access), pointer)) return false;
+            }
+            long outerStride = Math.abs(strides.get(store)[0]);
+            long innerStride = Math.abs(strides.get(store)[1]);
+            if (outerStride == 0 && innerStride == 0) return false;
+            if (outerStride == 0 || innerStride == 0) continue;
+            boolean distinct = innerStride * (innerTrips - 1) < outerStride
+                    || (outerTrips != null && outerStride * (outerTrips - 1) < innerStride);
+            if (!distinct) return false;
+        }
+        return true;
+    }
+
+    private void interchange(LoopInfo.Loop inner, Counter outerCounter, Counter innerCounter, List<LLVMValueRef> sunk) {
+        // 1. 外层多出的纯计算按原顺序沉到内层循环头，交换后它们随内层归纳变量变化
+        LLVMValueRef anchor = IrUtils.firstNonPhi(inner.getHeader());
+        for (LLVMValueRef inst : sunk) {
+            IrUtils.moveBefore(builderRef, inst, anchor);
+        }
+
+        // 2. 循环体中两个归纳变量的使用互换
+        Set<LLVMValueRef> users = new LinkedHashSet<>();
+        for (Counter counter : new Counter[]{outerCounter, innerCounter}) {
+            for (LLVMUseRef use = LLVMGetFirstUse(counter.phi); use != null; use = LLVMGetNextUse(use)) {
+                if (!LLVMGetUser(use).equals(counter.next)) users.add(LLVMGetUser(use));
+            }
+        }
+        for (LLVMValueRef user : users) {
+            for (int i = 0; i < LLVMGetNumOperands(user); i++) {
+                LLVMValueRef operand = LLVMGetOperand(user, i);
+                if (operand.equals(outerCounter.phi)) {
+                    LLVMSetOperand(user, i, innerCounter.phi);
+                } else if (operand.equals(innerCounter.phi)) {
+                    LLVMSetOperand(user, i, outerCounter.phi);
+                }
+            }
+        }
+
+        // 3. 两层循环互换起点与边界：外层按原内层的范围计数，内层按原外层的范围计数
+        setStart(outerCounter, innerCounter.start);
+        setStart(innerCounter, outerCounter.start);
+        LLVMSetOperand(outerCounter.compare, 1, innerCounter.bound);
+        LLVMSetOperand(innerCounter.compare, 1, outerCounter.bound);
+    }
+
+    //辅助方法：把归纳变量 phi 来自预头（不是回边块）的入边改为 start
+    private void setStart(Counter counter, LLVMValueRef start) {
+        LLVMBasicBlockRef latch = LLVMGetInstructionParent(counter.compare);
+        for (int i = 0; i < LLVMCountIncoming(counter.phi); i++) {
+            if (!LLVMGetIncomingBlock(counter.phi, i).equals(latch)) {
+                LLVMSetOperand(counter.phi, i, start);
+            }
+        }
+    }
+
+    private boolean isInvariant(LLVMValueRef value, LoopInfo.Loop loop) {
+        if (LLVMIsAInstruction(value) != null) return !loop.contains(LLVMGetInstructionParent(value));
+        return LLVMIsAConstantExpr(value) == null;
+    }
+}
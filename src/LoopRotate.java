@@ -0,0 +1,197 @@
+import org.bytedeco.llvm.LLVM.*;
+
+import java.util.*;
+
+import static org.bytedeco.llvm.global.LLVM.*;
+
+/**
+ * 循环旋转：把 while 循环变成带守卫的 do-while
+ *   preheader -> H(测试) -> B ... L -> H        (每次迭代：L 跳回 H，H 再条件跳到 B)
+ * 变为
+ *   preheader(测试副本) -> B ... L -> H(测试) -> B   (每次迭代只在末尾做一次条件跳转)
+ * 原循环头 H 的指令复制到预头作为守卫，H 之后与回边块合并成为新的回边块，B 成为新的循环头
+ * H 中定义、在循环体或循环外使用的值，需要在 B 和出口块中插入 phi 合并守卫路径与回边路径的值
+ *
+ * 只处理形状规整的循环：有预头、唯一回边块且以无条件跳转结束、只从 H 退出、出口块只有 H 一个前驱
+ * （含 break 的循环有多个出口，保持原样）
+ */
+public class LoopRotate extends FunctionPass {
+    // 循环头中复制到预头的指令数上限，避免代码膨胀
+    private static final int MAX_HEADER_SIZE = 16;
+
+    private LLVMBuilderRef builderRef;
+    private int rotatedLoops = 0;
+
+    @Override
+    public String getName() {
+        return "loop-rotate";
+    }
+
+    @Override
+    public Map<String, Integer> getStatistics() {
+        Map<String, Integer> stats = new LinkedHashMap<>();
+        stats.put("旋转的循环", rotatedLoops);
+        return stats;
+    }
+
+    @Override
+    public boolean runOnFunction(LLVMValueRef function, AnalysisManager analyses) {
+        builderRef = LLVMCreateBuilderInContext(LLVMGetModuleContext(LLVMGetGlobalParent(function)));
+        boolean changed = false;
+        // 旋转改变了 CFG 和循环结构，每次只旋转一个循环，然后重新分析
+        while (rotateOne(analyses.getCFG(function), analyses.getLoopInfo(function))) {
+            analyses.invalidate(function);
+            changed = true;
+        }
+        LLVMDisposeBuilder(builderRef);
+        return changed;
+    }
+
+    private boolean rotateOne(CFG cfg, LoopInfo loopInfo) {
+        for (LoopInfo.Loop loop : loopInfo.getLoopsInnermostFirst()) {
+            if (canRotate(loop, cfg)) {
+                rotate(loop, cfg);
+                rotatedLoops++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean canRotate(LoopInfo.Loop loop, CFG cfg) {
+        LLVMBasicBlockRef header = loop.getHeader();
+        LLVMBasicBlockRef preheader = loop.getPreheader();
+        if (preheader == null || loop.getLatches().size() != 1) return false;
+
+        // 回边块以条件跳转结束说明已经是底部测试的形式
+        LLVMBasicBlockRef latch = loop.getLatches().get(0);
+        LLVMValueRef latchTerminator = LLVMGetBasicBlockTerminator(latch);
+        if (latch.equals(header) || LLVMIsConditional(latchTerminator) != 0) return false;
+
+        LLVMValueRef terminator = LLVMGetBasicBlockTerminator(header);
+        if (LLVMGetInstructionOpcode(terminator) != LLVMBr || LLVMIsConditional(terminator) == 0) return false;
+        LLVMBasicBlockRef body = bodySuccessor(loop, terminator);
+        LLVMBasicBlockRef exit = exitSuccessor(loop, terminator);
+        if (body == null || exit == null) return false;
+
+        // 新循环头 B 只能从 H 进入，出口只能从 H 到达
+        if (cfg.getPredecessors(body).size() != 1 || cfg.getPredecessors(exit).size() != 1) return false;
+        if (loop.getExitingBlocks().size() != 1) return false;
+
+        int size = 0;
+        for (LLVMValueRef inst = IrUtils.firstNonPhi(header); !inst.equals(terminator); inst = LLVMGetNextInstruction(inst)) {
+            if (LLVMGetInstructionOpcode(inst) == LLVMCall) return false;
+            size++;
+        }
+        return size <= MAX_HEADER_SIZE;
+    }
+
+    private LLVMBasicBlockRef bodySuccessor(LoopInfo.Loop loop, LLVMValueRef terminator) {
+        LLVMBasicBlockRef t = LLVMGetSuccessor(terminator, 0);
+        LLVMBasicBlockRef f = LLVMGetSuccessor(terminator, 1);
+        if (loop.contains(t) && !loop.contains(f)) return t;
+        if (loop.contains(f) && !loop.contains(t)) return f;
+        return null;
+    }
+
+    private LLVMBasicBlockRef exitSuccessor(LoopInfo.Loop loop, LLVMValueRef terminator) {
+        LLVMBasicBlockRef t = LLVMGetSuccessor(terminator, 0);
+        LLVMBasicBlockRef f = LLVMGetSuccessor(terminator, 1);
+        if (loop.contains(t) && !loop.contains(f)) return f;
+        if (loop.contains(f) && !loop.contains(t)) return t;
+        return null;
+    }
+
+    private void rotate(LoopInfo.Loop loop, CFG cfg) {
+        LLVMBasicBlockRef header = loop.getHeader();
+        LLVMBasicBlockRef preheader = loop.getPreheader();
+        LLVMValueRef terminator = LLVMGetBasicBlockTerminator(header);
+        LLVMBasicBlockRef body = bodySuccessor(loop, terminator);
+        LLVMBasicBlockRef exit = exitSuccessor(loop, terminator);
+
+        // 1. 把 H 复制到预头：phi 取预头入边的值，其余指令克隆，最后用条件跳转代替原来的无条件跳转
+        Map<LLVMValueRef, LLVMValueRef> guardValues = new LinkedHashMap<>();
+        for (LLVMValueRef phi : IrUtils.phisOf(header)) {
+            guardValues.put(phi, IrUtils.incomingFor(phi, preheader));
+        }
+        LLVMValueRef preheaderTerminator = LLVMGetBasicBlockTerminator(preheader);
+        LLVMPositionBuilderBefore(builderRef, preheaderTerminator);
+        for (LLVMValueRef inst = IrUtils.firstNonPhi(header); !inst.equals(terminator); inst = LLVMGetNextInstruction(inst)) {
+            LLVMValueRef clone = LLVMInstructionClone(inst);
+            remapOperands(clone, guardValues);
+            LLVMInsertIntoBuilderWithName(builderRef, clone, IrUtils.nameOf(inst) + "_guard");
+            guardValues.put(inst, clone);
+        }
+        LLVMValueRef guardCond = guardValues.getOrDefault(LLVMGetCondition(terminator), LLVMGetCondition(terminator));
+        LLVMBuildCondBr(builderRef, guardCond, LLVMGetSuccessor(terminator, 0), LLVMGetSuccessor(terminator, 1));
+        LLVMInstructionEraseFromParent(preheaderTerminator);
+
+        // B 和出口块现在多了来自预头的入边，已有的 phi 补上守卫路径上的值
+        for (LLVMBasicBlockRef succ : new LLVMBasicBlockRef[]{body, exit}) {
+            for (LLVMValueRef phi : IrUtils.phisOf(succ)) {
+                LLVMValueRef value = IrUtils.incomingFor(phi, header);
+                IrUtils.addIncoming(phi, guardValues.getOrDefault(value, value), preheader);
+            }
+        }
+
+        // 2. H 中定义、在 H 之外使用的值：B 与出口块中各插入一个 phi 合并守卫值和 H 的值
+        for (Map.Entry<LLVMValueRef, LLVMValueRef> entry : guardValues.entrySet()) {
+            LLVMValueRef value = entry.getKey();
+            String name = IrUtils.nameOf(value);
+            LLVMValueRef bodyPhi = null;
+            LLVMValueRef exitPhi = null;
+
+            List<LLVMValueRef> users = new ArrayList<>();
+            for (LLVMUseRef use = LLVMGetFirstUse(value); use != null; use = LLVMGetNextUse(use)) {
+                LLVMValueRef user = LLVMGetUser(use);
+                if (!users.contains(user)) users.add(user);
+            }
+            for (LLVMValueRef user : users) {
+                if (user.equals(bodyPhi) || user.equals(exitPhi)) continue;
+                boolean isPhi = IrUtils.isPhi(user);
+                for (int i = 0; i < LLVMGetNumOperands(user); i++) {
+                    if (!LLVMGetOperand(user, i).equals(value)) continue;
+                    // 使用位置：普通指令在其所在块，phi 的入边值在对应前驱块的末尾
+                    LLVMBasicBlockRef location = isPhi ? LLVMGetIncomingBlock(user, i) : LLVMGetInstructionParent(user);
+                    if (location.equals(header) || location.equals(preheader)) continue; // H 的值在 H 中仍然可用
+                    if (loop.contains(location)) {
+                        if (bodyPhi == null) bodyPhi = mergePhi(body, value, entry.getValue(), preheader, header, name + "_rot");
+                        LLVMSetOperand(user, i, bodyPhi);
+                    } else {
+                        if (exitPhi == null) exitPhi = mergePhi(exit, value, entry.getValue(), preheader, header, name + "_exit");
+                        LLVMSetOperand(user, i, exitPhi);
+                    }
+                }
+            }
+        }
+
+        // 3. 预头不再跳到 H，H 的 phi 只剩回边一个入边
+        IrUtils.removeIncomingFrom(header, preheader);
+        for (LLVMValueRef phi : IrUtils.phisOf(header)) {
+            LLVMReplaceAllUsesWith(phi, LLVMGetIncomingValue(phi, 0));
+            LLVMInstructionEraseFromParent(phi);
+        }
+
+        // 4. 布局：H 紧跟在回边块之后
+        LLVMMoveBasicBlockAfter(header, loop.getLatches().get(0));
+    }
+
+    private LLVMValueRef mergePhi(LLVMBasicBlockRef block, LLVMValueRef value, LLVMValueRef guardValue,
+                                  LLVMBasicBlockRef preheader, LLVMBasicBlockRef header, String name) {
+        LLVMValueRef first = LLVMGetFirstInstruction(block);
+        LLVMPositionBuilderBefore(builderRef, first);
+        LLVMValueRef phi = LLVMBuildPhi(builderRef, LLVMTypeOf(value), name);
+        IrUtils.addIncoming(phi, guardValue, preheader);
+        IrUtils.addIncoming(phi, value, header);
+        return phi;
+    }
+
+    private void remapOperands(LLVMValueRef inst, Map<LLVMValueRef, LLVMValueRef> valueMap) {
+        for (int i = 0; i < LLVMGetNumOperands(inst); i++) {
+            LLVMValueRef mapped = valueMap.get(LLVMGetOperand(inst, i));
+            if (mapped != null) {
+                LLVMSetOperand(inst, i, mapped);
+            }
+        }
+    }
+}
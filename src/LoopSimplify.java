@@ -0,0 +1,73 @@
+import org.bytedeco.llvm.LLVM.*;
+
+import java.util.*;
+
+import static org.bytedeco.llvm.global.LLVM.*;
+
+/**
+ * 循环规范化：保证每个循环都有
+ * 1. 预头（唯一的循环外前驱，且只跳到循环头），外提的代码放在这里
+ * 2. 唯一的回边块（continue 会产生多条回边），循环旋转和展开只需处理一条回边
+ * 其他循环变换在开始前都先执行本遍
+ */
+public class LoopSimplify extends FunctionPass {
+    private int insertedPreheaders = 0;
+    private int mergedLatches = 0;
+
+    @Override
+    public String getName() {
+        return "loop-simplify";
+    }
+
+    @Override
+    public Map<String, Integer> getStatistics() {
+        Map<String, Integer> stats = new LinkedHashMap<>();
+        stats.put("插入的预头", insertedPreheaders);
+        stats.put("合并的回边块", mergedLatches);
+        return stats;
+    }
+
+    @Override
+    public boolean runOnFunction(LLVMValueRef function, AnalysisManager analyses) {
+        boolean changed = false;
+        // 每次修改后 CFG 都变了，重新取分析结果再找下一个需要处理的循环
+        while (simplifyOne(function, analyses)) {
+            analyses.invalidate(function);
+            changed = true;
+        }
+        return changed;
+    }
+
+    private boolean simplifyOne(LLVMValueRef function, AnalysisManager analyses) {
+        CFG cfg = analyses.getCFG(function);
+        LoopInfo loopInfo = analyses.getLoopInfo(function);
+        for (LoopInfo.Loop loop : loopInfo.getLoopsInnermostFirst()) {
+            LLVMBasicBlockRef header = loop.getHeader();
+            String headerName = IrUtils.nameOf(LLVMBasicBlockAsValue(header));
+
+            if (loop.getPreheader() == null) {
+                List<LLVMBasicBlockRef> outside = new ArrayList<>();
+                for (LLVMBasicBlockRef pred : cfg.getPredecessors(header)) {
+                    if (!loop.contains(pred) && cfg.isReachable(pred) && !outside.contains(pred)) outside.add(pred);
+                }
+                if (outside.isEmpty()) continue; // 入口块本身是循环头，无法插入预头
+                IrUtils.splitPredecessors(header, outside, headerName + "_preheader");
+                insertedPreheaders++;
+                return true;
+            }
+
+            if (loop.getLatches().size() > 1) {
+                LLVMBasicBlockRef latch = IrUtils.splitPredecessors(header, loop.getLatches(), headerName + "_latch");
+                // 新回边块放到最后一个原回边块之后，保持代码布局大致按执行顺序
+                LLVMBasicBlockRef last = null;
+                for (LLVMBasicBlockRef bb : cfg.getBlocks()) {
+                    if (loop.getLatches().contains(bb)) last = bb;
+                }
+                LLVMMoveBasicBlockAfter(latch, last);
+                mergedLatches++;
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,354 @@
+import org.bytedeco.javacpp.PointerPointer;
+import org.bytedeco.llvm.LLVM.*;
+
+import java.util.*;
+
+import static org.bytedeco.llvm.global.LLVM.*;
+
+/**
+ * 归纳变量强度削弱：循环中按下标访问数组时，后端对每个 getelementptr 都要生成 slli + add
+ *   i = phi [init, preheader], [i + c, latch]
+ *   p = getelementptr base, 0, i + k        (每次迭代重新计算 base + (i + k) * 4)
+ * 改为在循环中携带一个指针，每次迭代加上 c 个元素
+ *   ptr = phi [base + init, preheader], [ptr + c, latch]
+ *   p = getelementptr ptr, k                 (k 为 0 时直接用 ptr，否则只需一条 addi)
+ * 下标可以是 i 加上若干常量以及至多一个循环不变量（展开后的副本、二维数组的行偏移）
+ * 同一数组、同一不变量偏移的访问共用一个指针
+ *
+ * 之后如果归纳变量只剩退出比较在使用，把比较改写为指针比较（线性函数测试替换），
+ * 原来的归纳变量随之成为死代码被删除
+ * 依赖 LoopSimplify 提供的预头和唯一回边块
+ */
+public class LoopStrengthReduce extends FunctionPass {
+    private LLVMBuilderRef builderRef;
+
+    private int reducedAddresses = 0;
+    private int rewrittenExitTests = 0;
+    private int removedInductionVariables = 0;
+
+    @Override
+    public String getName() {
+        return "loop-reduce";
+    }
+
+    @Override
+    public Map<String, Integer> getStatistics() {
+        Map<String, Integer> stats = new LinkedHashMap<>();
+        stats.put("强度削弱的地址计算", reducedAddresses);
+        stats.put("改写的退出条件", rewrittenExitTests);
+        stats.put("删除的归纳变量", removedInductionVariables);
+        return stats;
+    }
+
+    @Override
+    public boolean runOnFunction(LLVMValueRef function, AnalysisManager analyses) {
+        LoopInfo loopInfo = analyses.getLoopInfo(function);
+        CFG cfg = analyses.getCFG(function);
+        builderRef = LLVMCreateBuilderInContext(LLVMGetModuleContext(LLVMGetGlobalParent(function)));
+
+        // 只在循环内增删指令，不改变 CFG
+        boolean changed = false;
+        for (LoopInfo.Loop loop : loopInfo.getLoopsInnermostFirst()) {
+            if (loop.getPreheader() == null || loop.getLatches().size() != 1) continue;
+            for (LLVMValueRef phi : IrUtils.phisOf(loop.getHeader())) {
+                changed |= reduceInductionVariable(loop, phi, cfg);
+            }
+        }
+        LLVMDisposeBuilder(builderRef);
+        return changed;
+    }
+
+    // 数组访问按 (基地址, 不变量偏移) 分组，组内只差常量偏移
+    private static class AddressGroup {
+        final LLVMValueRef base;
+        final LLVMValueRef invariant;
+        final List<LLVMValueRef> addresses = new ArrayList<>();
+        final List<Long> offsets = new ArrayList<>();
+        LLVMValueRef pointer;
+        LLVMValueRef next;
+
+        AddressGroup(LLVMValueRef base, LLVMValueRef invariant) {
+            this.base = base;
+            this.invariant = invariant;
+        }
+    }
+
+    // 下标关于归纳变量的线性形式：i + invariant + constant
+    private static class Affine {
+        LLVMValueRef invariant;
+        long constant;
+    }
+
+    private boolean reduceInductionVariable(LoopInfo.Loop loop, LLVMValueRef phi, CFG cfg) {
+        if (LLVMGetTypeKind(LLVMTypeOf(phi)) != LLVMIntegerTypeKind) return false;
+        LLVMBasicBlockRef preheader = loop.getPreheader();
+        LLVMBasicBlockRef latch = loop.getLatches().get(0);
+        LLVMValueRef init = IrUtils.incomingFor(phi, preheader);
+        LLVMValueRef next = IrUtils.incomingFor(phi, latch);
+        Long step = constantStep(next, phi, loop);
+        if (step == null) return false;
+
+        // 1. 收集以 i 的线性函数为下标的数组访问
+        List<AddressGroup> groups = new ArrayList<>();
+        for (LLVMBasicBlockRef bb : loop.getBlocks()) {
+            for (LLVMValueRef inst = LLVMGetFirstInstruction(bb); inst != null; inst = LLVMGetNextInstruction(inst)) {
+                if (LLVMGetInstructionOpcode(inst) != LLVMGetElementPtr || !isWordPointer(inst)) continue;
+                int indexOperand = LLVMGetNumOperands(inst) - 1;
+                if (indexOperand == 2 && !isZero(LLVMGetOperand(inst, 1))) continue;
+                if (indexOperand != 1 && indexOperand != 2) continue;
+                LLVMValueRef base = LLVMGetOperand(inst, 0);
+                if (!isInvariant(base, loop)) continue;
+                Affine affine = affineOf(LLVMGetOperand(inst, indexOperand), phi, loop, 0);
+                if (affine == null) continue;
+
+                AddressGroup group = null;
+                for (AddressGroup g : groups) {
+                    if (g.base.equals(base) && Objects.equals(g.invariant, affine.invariant)) group = g;
+                }
+                if (group == null) {
+                    group = new AddressGroup(base, affine.invariant);
+                    groups.add(group);
+                }
+                group.addresses.add(inst);
+                group.offsets.add(affine.constant);
+            }
+        }
+        if (groups.isEmpty()) return false;
+
+        // 2. 每组建立一个指针 phi：预头中算出首个元素的地址，回边块末尾加上步长
+        LLVMValueRef latchTerminator = LLVMGetBasicBlockTerminator(latch);
+        for (AddressGroup group : groups) {
+            LLVMValueRef sample = group.addresses.get(0);
+            String name = IrUtils.nameOf(sample);
+
+            LLVMPositionBuilderBefore(builderRef, LLVMGetBasicBlockTerminator(preheader));
+            LLVMValueRef startIndex = init;
+            if (group.invariant != null) {
+                startIndex = LLVMBuildAdd(builderRef, init, group.invariant, name + "_lsr_index");
+            }
+            LLVMValueRef start = cloneAddress(sample, startIndex, name + "_lsr_start");
+
+            LLVMPositionBuilderBefore(builderRef, LLVMGetFirstInstruction(loop.getHeader()));
+            group.pointer = LLVMBuildPhi(builderRef, LLVMTypeOf(sample), name + "_lsr");
+            LLVMPositionBuilderBefore(builderRef, latchTerminator);
+            group.next = elementOffset(group.pointer, step, name + "_lsr_next");
+            IrUtils.addIncoming(group.pointer, start, preheader);
+            IrUtils.addIncoming(group.pointer, group.next, latch);
+
+            for (int a = 0; a < group.addresses.size(); a++) {
+                LLVMValueRef address = group.addresses.get(a);
+                LLVMValueRef replacement = group.pointer;
+                if (group.offsets.get(a) != 0) {
+                    LLVMPositionBuilderBefore(builderRef, address);
+                    replacement = elementOffset(group.pointer, group.offsets.get(a), IrUtils.nameOf(address) + "_lsr");
+                }
+                LLVMReplaceAllUsesWith(address, replacement);
+                LLVMInstructionEraseFromParent(address);
+                reducedAddresses++;
+            }
+        }
+
+        // 3. 下标计算可能已经无用
+        for (LLVMBasicBlockRef bb : loop.getBlocks()) {
+            removeDeadArithmetic(bb);
+        }
+
+        // 4. 线性函数测试替换：i 只剩递增和退出比较在使用时，用指针比较代替
+        List<LLVMValueRef> chain = inductionChain(phi, next, loop);
+        rewriteExitTest(loop, chain, init, step, groups.get(0), cfg);
+        if (onlyUsedWithin(chain, chain)) {
+            // 从 next 往回删，最后删除 phi
+            for (int i = chain.size() - 1; i >= 0; i--) {
+                LLVMReplaceAllUsesWith(chain.get(i), LLVMGetUndef(LLVMTypeOf(chain.get(i))));
+                LLVMInstructionEraseFromParent(chain.get(i));
+            }
+            removedInductionVariables++;
+        }
+        return true;
+    }
+
+    //辅助方法：next 为 phi 加上常量（展开后是多个常量的链）时返回总步长
+    private Long constantStep(LLVMValueRef next, LLVMValueRef phi, LoopInfo.Loop loop) {
+        if (next == null) return null;
+        Affine affine = affineOf(next, phi, loop, 0);
+        if (affine == null || affine.invariant != null || affine.constant == 0) return null;
+        return affine.constant;
+    }
+
+    //辅助方法：从 phi 到 next 的递增链 [phi, i + c1, i + c1 + c2, ..., next]
+    private List<LLVMValueRef> inductionChain(LLVMValueRef phi, LLVMValueRef next, LoopInfo.Loop loop) {
+        LinkedList<LLVMValueRef> chain = new LinkedList<>();
+        LLVMValueRef value = next;
+        while (!value.equals(phi)) {
+            chain.addFirst(value);
+            LLVMValueRef lhs = LLVMGetOperand(value, 0);
+            value = isInvariant(lhs, loop) ? LLVMGetOperand(value, 1) : lhs;
+        }
+        chain.addFirst(phi);
+        return chain;
+    }
+
+    private Affine affineOf(LLVMValueRef value, LLVMValueRef phi, LoopInfo.Loop loop, int depth) {
+        if (value.equals(phi)) return new Affine();
+        if (depth > 8 || LLVMIsAInstruction(value) == null || LLVMGetInstructionOpcode(value) != LLVMAdd) return null;
+        for (int side = 0; side < 2; side++) {
+            LLVMValueRef term = LLVMGetOperand(value, side);
+            LLVMValueRef other = LLVMGetOperand(value, 1 - side);
+            if (!isInvariant(other, loop)) continue;
+            Affine affine = affineOf(term, phi, loop, depth + 1);
+            if (affine == null) continue;
+            if (LLVMIsAConstantInt(other) != null) {
+                affine.constant += LLVMConstIntGetSExtValue(other);
+            } else if (affine.invariant == null) {
+                affine.invariant = other;
+            } else {
+                return null;
+            }
+            return affine;
+        }
+        return null;
+    }
+
+    private boolean isInvariant(LLVMValueRef value, LoopInfo.Loop loop) {
+        if (LLVMIsAInstruction(value) != null) return !loop.contains(LLVMGetInstructionParent(value));
+        return LLVMIsAConstantExpr(value) == null;
+    }
+
+    private boolean isZero(LLVMValueRef value) {
+        return LLVMIsAConstantInt(value) != null && LLVMConstIntGetZExtValue(value) == 0;
+    }
+
+    //辅助方法：结果是否为 i32 指针，后端按 4 字节一个元素计算偏移
+    private boolean isWordPointer(LLVMValueRef gep) {
+        LLVMTypeRef element = LLVMGetElementType(LLVMTypeOf(gep));
+        return LLVMGetTypeKind(element) == LLVMIntegerTypeKind && LLVMGetIntTypeWidth(element) == 32;
+    }
+
+    //辅助方法：复制一条地址计算并替换下标；常量下标用 IRBuilder 会被折叠成常量表达式，后端无法处理
+    private LLVMValueRef cloneAddress(LLVMValueRef address, LLVMValueRef index, String name) {
+        LLVMValueRef clone = LLVMInstructionClone(address);
+        LLVMSetOperand(clone, LLVMGetNumOperands(clone) - 1, index);
+        LLVMInsertIntoBuilderWithName(builderRef, clone, name);
+        return clone;
+    }
+
+    private LLVMValueRef elementOffset(LLVMValueRef pointer, long offset, String name) {
+        LLVMTypeRef indexType = LLVMInt32TypeInContext(LLVMGetTypeContext(LLVMTypeOf(pointer)));
+        LLVMValueRef[] indices = {LLVMConstInt(indexType, offset, 1)};
+        return LLVMBuildGEP2(builderRef, LLVMGetElementType(LLVMTypeOf(pointer)), pointer,
+                new PointerPointer<>(indices), 1, name);
+    }
+
+    private void removeDeadArithmetic(LLVMBasicBlockRef bb) {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (LLVMValueRef inst = LLVMGetFirstInstruction(bb); inst != null; ) {
+                LLVMValueRef nextInst = LLVMGetNextInstruction(inst);
+                int opcode = LLVMGetInstructionOpcode(inst);
+                if ((opcode == LLVMAdd || opcode == LLVMMul || opcode == LLVMSExt)
+                        && LLVMGetFirstUse(inst) == null) {
+                    LLVMInstructionEraseFromParent(inst);
+                    changed = true;
+                }
+                inst = nextInst;
+            }
+        }
+    }
+
+    /**
+     * 退出比较 icmp (i + step) ? bound 改为 icmp ne/eq ptr.next, end
+     * ne/eq 比较直接等价；slt/sgt 要求步长为 ±1，且循环之前有 init < bound 的守卫（LoopRotate 生成），
+     * 这时迭代恰好在 i + step == bound 时结束
+     */
+    private void rewriteExitTest(LoopInfo.Loop loop, List<LLVMValueRef> chain, LLVMValueRef init,
+                                 long step, AddressGroup group, CFG cfg) {
+        LLVMValueRef next = chain.get(chain.size() - 1);
+        LLVMBasicBlockRef latch = loop.getLatches().get(0);
+        LLVMValueRef terminator = LLVMGetBasicBlockTerminator(latch);
+        if (LLVMGetInstructionOpcode(terminator) != LLVMBr || LLVMIsConditional(terminator) == 0) return;
+        LLVMValueRef cond = LLVMGetCondition(terminator);
+        if (LLVMIsAICmpInst(cond) == null || !LLVMGetInstructionParent(cond).equals(latch)) return;
+        // 比较结果和 i 都不能有其他使用，否则改写后 i 仍然存活，得不偿失
+        List<LLVMValueRef> allowed = new ArrayList<>(chain);
+        allowed.add(cond);
+        if (!hasSingleUse(cond) || !onlyUsedWithin(chain, allowed)) return;
+
+        int predicate = LLVMGetICmpPredicate(cond);
+        LLVMValueRef bound;
+        if (LLVMGetOperand(cond, 0).equals(next)) {
+            bound = LLVMGetOperand(cond, 1);
+        } else if (LLVMGetOperand(cond, 1).equals(next)) {
+            bound = LLVMGetOperand(cond, 0);
+            predicate = IrUtils.swapPredicate(predicate);
+        } else {
+            return;
+        }
+        if (!isInvariant(bound, loop)) return;
+        boolean stayOnTrue = LLVMGetSuccessor(terminator, 0).equals(loop.getHeader());
+
+        // 规范成“继续循环”的比较
+        int stay = stayOnTrue ? predicate : IrUtils.invertPredicate(predicate);
+        if (stay == LLVMIntSLT || stay == LLVMIntSGT) {
+            if (stay == LLVMIntSLT ? step != 1 : step != -1) return;
+            if (!isGuarded(loop, init, bound, stay, cfg)) return;
+        } else if (stay != LLVMIntNE) {
+            return;
+        }
+
+        // end = 下标为 bound (+ 不变量偏移) 的元素地址，在预头中计算
+        LLVMPositionBuilderBefore(builderRef, LLVMGetBasicBlockTerminator(loop.getPreheader()));
+        String name = IrUtils.nameOf(group.pointer);
+        LLVMValueRef endIndex = bound;
+        if (group.invariant != null) {
+            endIndex = LLVMBuildAdd(builderRef, bound, group.invariant, name + "_end_index");
+        }
+        LLVMValueRef start = IrUtils.incomingFor(group.pointer, loop.getPreheader());
+        LLVMValueRef end = cloneAddress(start, endIndex, name + "_end");
+
+        // 分支结构不变：原来真分支继续循环时用 ne，真分支退出时用 eq
+        LLVMPositionBuilderBefore(builderRef, terminator);
+        LLVMValueRef newCond = LLVMBuildICmp(builderRef, stayOnTrue ? LLVMIntNE : LLVMIntEQ, group.next, end, name + "_more");
+        LLVMReplaceAllUsesWith(cond, newCond);
+        LLVMInstructionEraseFromParent(cond);
+        rewrittenExitTests++;
+    }
+
+    //辅助方法：预头唯一的前驱以 (init pred bound) 为条件进入预头，或者 init 与 bound 都是满足条件的常量
+    private boolean isGuarded(LoopInfo.Loop loop, LLVMValueRef init, LLVMValueRef bound, int predicate, CFG cfg) {
+        if (LLVMIsAConstantInt(init) != null && LLVMIsAConstantInt(bound) != null) {
+            long a = LLVMConstIntGetSExtValue(init);
+            long b = LLVMConstIntGetSExtValue(bound);
+            return predicate == LLVMIntSLT ? a < b : a > b;
+        }
+        LLVMBasicBlockRef preheader = loop.getPreheader();
+        List<LLVMBasicBlockRef> preds = cfg.getPredecessors(preheader);
+        if (preds.size() != 1) return false;
+        LLVMValueRef guard = LLVMGetBasicBlockTerminator(preds.get(0));
+        if (LLVMGetInstructionOpcode(guard) != LLVMBr || LLVMIsConditional(guard) == 0) return false;
+        LLVMValueRef cond = LLVMGetCondition(guard);
+        if (LLVMIsAICmpInst(cond) == null) return false;
+        int guardPredicate = LLVMGetICmpPredicate(cond);
+        if (!LLVMGetSuccessor(guard, 0).equals(preheader)) guardPredicate = IrUtils.invertPredicate(guardPredicate);
+        if (LLVMGetSuccessor(guard, 0).equals(LLVMGetSuccessor(guard, 1))) return false;
+        LLVMValueRef lhs = LLVMGetOperand(cond, 0);
+        LLVMValueRef rhs = LLVMGetOperand(cond, 1);
+        return (guardPredicate == predicate && lhs.equals(init) && rhs.equals(bound))
+                || (guardPredicate == IrUtils.swapPredicate(predicate) && lhs.equals(bound) && rhs.equals(init));
+    }
+
+    private boolean hasSingleUse(LLVMValueRef value) {
+        LLVMUseRef use = LLVMGetFirstUse(value);
+        return use != null && LLVMGetNextUse(use) == null;
+    }
+
+    //辅助方法：values 中每个值的使用者都在 users 中
+    private boolean onlyUsedWithin(List<LLVMValueRef> values, List<LLVMValueRef> users) {
+        for (LLVMValueRef value : values) {
+            for (LLVMUseRef use = LLVMGetFirstUse(value); use != null; use = LLVMGetNextUse(use)) {
+                if (!users.contains(LLVMGetUser(use))) return false;
+            }
+        }
+        return true;
+    }
+}
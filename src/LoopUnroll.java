@@ -0,0 +1,516 @@
+import org.bytedeco.llvm.LLVM.*;
+
+import java.util.*;
+
+import static org.bytedeco.llvm.global.LLVM.*;
+
+/**
+ * 计数循环展开，处理旋转后的最内层循环：
+ *   header: iv = phi [init, preheader], [iv.next, latch]
+ *   ...
+ *   latch:  iv.next = add iv, ±1
+ *           br (icmp slt/sgt iv.next, bound), header, exit
+ * 循环只从回边块退出，bound 在循环内不变
+ *
+ * - 迭代次数为常量且展开后不太大时完全展开，去掉回边和所有条件跳转
+ * - 否则对没有内部分支的循环（只有一个基本块）按 factor 部分展开：展开后的循环每 factor 次迭代只测试一次，剩余迭代交给原循环
+ *     preheader: 计算迭代次数 n，主循环执行 n & -factor 次
+ *     主循环:    factor 个循环体副本首尾相连，最后一个副本的末尾测试 iv.next != end
+ *     剩余判断:  n & (factor - 1) 不为 0 时进入原循环，否则直接到出口
+ * 展开倍数按寄存器压力的估计值逐次减半，保证不超过 LinearScan 的寄存器数
+ * 依赖 LoopRotate 与 LoopSimplify 的结果
+ */
+public class LoopUnroll extends FunctionPass {
+    public static final int DEFAULT_FACTOR = 4;
+    // 完全展开后循环体指令总数的上限
+    private static final int FULL_UNROLL_MAX_SIZE = 128;
+    // 部分展开后循环体指令总数的上限
+    private static final int PARTIAL_UNROLL_MAX_SIZE = 64;
+
+    private final int factor;
+    private LLVMBuilderRef builderRef;
+    // 已经展开过的循环头（部分展开后原循环作为剩余循环保留，不能再次展开）
+    private final Set<LLVMBasicBlockRef> unrolledHeaders = new HashSet<>();
+
+    private int fullyUnrolled = 0;
+    private int partiallyUnrolled = 0;
+    private int limitedByPressure = 0;
+
+    public LoopUnroll() {
+        this(DEFAULT_FACTOR);
+    }
+
+    /**
+     * @param factor 部分展开的倍数，必须是 2 的幂；为 1 时只做完全展开
+     */
+    public LoopUnroll(int factor) {
+        if (factor < 1 || (factor & (factor - 1)) != 0) {
+            throw new IllegalArgumentException("展开倍数必须是 2 的幂: " + factor);
+        }
+        this.factor = factor;
+    }
+
+    @Override
+    public String getName() {
+        return "loop-unroll";
+    }
+
+    @Override
+    public Map<String, Integer> getStatistics() {
+        Map<String, Integer> stats = new LinkedHashMap<>();
+        stats.put("完全展开的循环", fullyUnrolled);
+        stats.put("部分展开的循环", partiallyUnrolled);
+        stats.put("因寄存器压力减小展开倍数", limitedByPressure);
+        return stats;
+    }
+
+    @Override
+    public boolean runOnFunction(LLVMValueRef function, AnalysisManager analyses) {
+        builderRef = LLVMCreateBuilderInContext(LLVMGetModuleContext(LLVMGetGlobalParent(function)));
+        unrolledHeaders.clear();
+        boolean changed = false;
+        // 展开改变了 CFG，每次只展开一个循环，然后重新分析
+        while (unrollOne(analyses.getCFG(function), analyses.getLoopInfo(function))) {
+            analyses.invalidate(function);
+            changed = true;
+        }
+        LLVMDisposeBuilder(builderRef);
+        return changed;
+    }
+
+    private boolean unrollOne(CFG cfg, LoopInfo loopInfo) {
+        for (LoopInfo.Loop loop : loopInfo.getLoopsInnermostFirst()) {
+            if (!loop.getSubLoops().isEmpty() || unrolledHeaders.contains(loop.getHeader())) continue;
+            CountedLoop counted = analyze(loop);
+            if (counted == null) continue;
+
+            int size = 0;
+            for (LLVMBasicBlockRef bb : loop.getBlocks()) {
+                for (LLVMValueRef inst = LLVMGetFirstInstruction(bb); inst != null; inst = LLVMGetNextInstruction(inst)) {
+                    size++;
+                }
+            }
+
+            Long tripCount = counted.constantTripCount();
+            if (tripCount != null && tripCount * size <= FULL_UNROLL_MAX_SIZE) {
+                fullyUnroll(loop, counted, tripCount.intValue());
+                fullyUnrolled++;
+                return true;
+            }
+
+            // 循环体内还有其他条件跳转时，省下的回边跳转占比很小，而副本会成倍增加分支
+            if (loop.getBlocks().size() != 1) continue;
+            int k = factor;
+            while (k > 1 && k * size > PARTIAL_UNROLL_MAX_SIZE) k /= 2;
+            int pressureLimited = k;
+            while (k > 1 && estimatePressure(loop, k) > AllocateRegister.MAX_REGISTERS) k /= 2;
+            if (k < pressureLimited) limitedByPressure++;
+            if (k < 2 || !canUnrollWithRemainder(loop, counted, cfg)) {
+                unrolledHeaders.add(loop.getHeader());
+                continue;
+            }
+            partiallyUnroll(loop, counted, k);
+            partiallyUnrolled++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 识别出的计数循环，比较已规范为 "iv.next slt bound"（step = 1）或 "iv.next sgt bound"（step = -1）时继续
+     */
+    private static class CountedLoop {
+        LLVMValueRef inductionPhi;
+        LLVMValueRef init;
+        LLVMValueRef next;
+        LLVMValueRef bound;
+        int step;
+        LLVMBasicBlockRef latch;
+        LLVMBasicBlockRef exit;
+
+        // 循环体至少执行一次：init 已经越过 bound 时也执行 1 次
+        Long constantTripCount() {
+            if (LLVMIsAConstantInt(init) == null || LLVMIsAConstantInt(bound) == null) return null;
+            long initValue = LLVMConstIntGetSExtValue(init);
+            long boundValue = LLVMConstIntGetSExtValue(bound);
+            long distance = step > 0 ? boundValue - initValue : initValue - boundValue;
+            return Math.max(distance, 1);
+        }
+    }
+
+    private CountedLoop analyze(LoopInfo.Loop loop) {
+        LLVMBasicBlockRef header = loop.getHeader();
+        LLVMBasicBlockRef preheader = loop.getPreheader();
+        if (preheader == null || loop.getLatches().size() != 1) return null;
+        LLVMBasicBlockRef latch = loop.getLatches().get(0);
+        List<LLVMBasicBlockRef> exiting = loop.getExitingBlocks();
+        if (exiting.size() != 1 || !exiting.get(0).equals(latch)) return null;
+
+        LLVMValueRef terminator = LLVMGetBasicBlockTerminator(latch);
+        if (LLVMGetInstructionOpcode(terminator) != LLVMBr || LLVMIsConditional(terminator) == 0) return null;
+        LLVMValueRef cond = LLVMGetCondition(terminator);
+        if (LLVMIsAICmpInst(cond) == null) return null;
+        boolean stayOnTrue = LLVMGetSuccessor(terminator, 0).equals(header);
+        LLVMBasicBlockRef exit = LLVMGetSuccessor(terminator, stayOnTrue ? 1 : 0);
+
+        for (LLVMValueRef phi : IrUtils.phisOf(header)) {
+            LLVMValueRef next = IrUtils.incomingFor(phi, latch);
+            int step = unitStep(next, phi);
+            if (step == 0) continue;
+
+            int predicate = LLVMGetICmpPredicate(cond);
+            LLVMValueRef bound;
+            if (LLVMGetOperand(cond, 0).equals(next)) {
+                bound = LLVMGetOperand(cond, 1);
+            } else if (LLVMGetOperand(cond, 1).equals(next)) {
+                bound = LLVMGetOperand(cond, 0);
+                predicate = IrUtils.swapPredicate(predicate);
+            } else {
+                continue;
+            }
+            if (!isInvariant(bound, loop)) return null;
+            if (!stayOnTrue) predicate = IrUtils.invertPredicate(predicate);
+
+            // sle/sge 只在常量边界不会溢出时改写成严格比较，否则循环可能不终止
+            if (predicate == LLVMIntSLE && step > 0 && LLVMIsAConstantInt(bound) != null
+                    && LLVMConstIntGetSExtValue(bound) < Integer.MAX_VALUE) {
+                bound = LLVMConstInt(LLVMTypeOf(bound), LLVMConstIntGetSExtValue(bound) + 1, 1);
+                predicate = LLVMIntSLT;
+            } else if (predicate == LLVMIntSGE && step < 0 && LLVMIsAConstantInt(bound) != null
+                    && LLVMConstIntGetSExtValue(bound) > Integer.MIN_VALUE) {
+                bound = LLVMConstInt(LLVMTypeOf(bound), LLVMConstIntGetSExtValue(bound) - 1, 1);
+                predicate = LLVMIntSGT;
+            }
+            if (!(predicate == LLVMIntSLT && step > 0) && !(predicate == LLVMIntSGT && step < 0)) return null;
+
+            CountedLoop counted = new CountedLoop();
+            counted.inductionPhi = phi;
+            counted.init = IrUtils.incomingFor(phi, preheader);
+            counted.next = next;
+            counted.bound = bound;
+            counted.step = step;
+            counted.latch = latch;
+            counted.exit = exit;
+            return counted;
+        }
+        return null;
+    }
+
+    //辅助方法：next 是否为 phi ± 1，返回步长，不是时返回 0
+    private int unitStep(LLVMValueRef next, LLVMValueRef phi) {
+        if (next == null || LLVMIsAInstruction(next) == null || LLVMGetInstructionOpcode(next) != LLVMAdd) return 0;
+        LLVMValueRef lhs = LLVMGetOperand(next, 0);
+        LLVMValueRef rhs = LLVMGetOperand(next, 1);
+        LLVMValueRef other = lhs.equals(phi) ? rhs : rhs.equals(phi) ? lhs : null;
+        if (other == null || LLVMIsAConstantInt(other) == null) return 0;
+        long value = LLVMConstIntGetSExtValue(other);
+        return value == 1 || value == -1 ? (int) value : 0;
+    }
+
+    private boolean isInvariant(LLVMValueRef value, LoopInfo.Loop loop) {
+        if (LLVMIsAConstantInt(value) != null || LLVMIsAArgument(value) != null) return true;
+        return LLVMIsAInstruction(value) != null && !loop.contains(LLVMGetInstructionParent(value));
+    }
+
+    /**
+     * 估计展开 k 倍后循环内同时存活的值的个数：
+     * 贯穿整个循环的值（循环头 phi、循环内用到的循环外定义）+ 循环体内局部值的最大重叠数
+     * + 展开后 GVN 在副本之间复用的值：按每多一个副本多出循环头 phi 个数的跨副本存活值估计
+     * + 主循环的结束值 end
+     */
+    private int estimatePressure(LoopInfo.Loop loop, int k) {
+        List<LLVMValueRef> headerPhis = IrUtils.phisOf(loop.getHeader());
+        Set<LLVMValueRef> liveThrough = new HashSet<>(headerPhis);
+
+        // 循环体按布局顺序编号
+        Map<LLVMValueRef, Integer> position = new HashMap<>();
+        List<LLVMValueRef> order = new ArrayList<>();
+        for (LLVMBasicBlockRef bb : loop.getBlocks()) {
+            for (LLVMValueRef inst = LLVMGetFirstInstruction(bb); inst != null; inst = LLVMGetNextInstruction(inst)) {
+                position.put(inst, order.size());
+                order.add(inst);
+            }
+        }
+
+        int[] delta = new int[order.size() + 1];
+        for (LLVMValueRef inst : order) {
+            // 循环头 phi 的初值只在进入循环时使用
+            for (int i = 0; i < LLVMGetNumOperands(inst) && !headerPhis.contains(inst); i++) {
+                LLVMValueRef operand = LLVMGetOperand(inst, i);
+                if (LLVMIsAArgument(operand) != null
+                        || (LLVMIsAInstruction(operand) != null && !position.containsKey(operand))) {
+                    liveThrough.add(operand);
+                }
+            }
+            if (headerPhis.contains(inst) || LLVMGetTypeKind(LLVMTypeOf(inst)) == LLVMVoidTypeKind) continue;
+
+            int start = position.get(inst);
+            int end = start;
+            for (LLVMUseRef use = LLVMGetFirstUse(inst); use != null; use = LLVMGetNextUse(use)) {
+                Integer usePosition = position.get(LLVMGetUser(use));
+                // 在循环外或被 phi 使用的值一直存活到回边
+                if (usePosition == null || IrUtils.isPhi(LLVMGetUser(use))) {
+                    end = order.size();
+                    break;
+                }
+                end = Math.max(end, usePosition);
+            }
+            delta[start]++;
+            delta[end]--;
+        }
+        int live = 0;
+        int maxLocal = 0;
+        for (int d : delta) {
+            live += d;
+            maxLocal = Math.max(maxLocal, live);
+        }
+        return liveThrough.size() + maxLocal + (k - 1) * headerPhis.size() + 1;
+    }
+
+    // 循环值在循环外的一次使用：user 的第 index 个操作数
+    private static class OutsideUse {
+        final LLVMValueRef user;
+        final int index;
+        final LLVMValueRef value;
+
+        OutsideUse(LLVMValueRef user, int index, LLVMValueRef value) {
+            this.user = user;
+            this.index = index;
+            this.value = value;
+        }
+    }
+
+    private List<OutsideUse> collectOutsideUses(LoopInfo.Loop loop) {
+        List<OutsideUse> uses = new ArrayList<>();
+        for (LLVMBasicBlockRef bb : loop.getBlocks()) {
+            for (LLVMValueRef inst = LLVMGetFirstInstruction(bb); inst != null; inst = LLVMGetNextInstruction(inst)) {
+                Set<LLVMValueRef> users = new LinkedHashSet<>();
+                for (LLVMUseRef use = LLVMGetFirstUse(inst); use != null; use = LLVMGetNextUse(use)) {
+                    users.add(LLVMGetUser(use));
+                }
+                for (LLVMValueRef user : users) {
+                    if (loop.contains(LLVMGetInstructionParent(user))) continue;
+                    for (int i = 0; i < LLVMGetNumOperands(user); i++) {
+                        if (LLVMGetOperand(user, i).equals(inst)) uses.add(new OutsideUse(user, i, inst));
+                    }
+                }
+            }
+        }
+        return uses;
+    }
+
+    //辅助方法：循环值在出口块之后的普通使用需要在出口插入 phi，要求出口块只能从回边块到达
+    private boolean canUnrollWithRemainder(LoopInfo.Loop loop, CountedLoop counted, CFG cfg) {
+        for (OutsideUse use : collectOutsideUses(loop)) {
+            if (isExitPhiEntry(use, counted)) continue;
+            for (LLVMBasicBlockRef pred : cfg.getPredecessors(counted.exit)) {
+                if (!pred.equals(counted.latch)) return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isExitPhiEntry(OutsideUse use, CountedLoop counted) {
+        return IrUtils.isPhi(use.user) && LLVMGetInstructionParent(use.user).equals(counted.exit)
+                && LLVMGetIncomingBlock(use.user, use.index).equals(counted.latch);
+    }
+
+    //辅助方法：复制第 copy 个循环体副本，循环头 phi 直接取上一个副本回边上的值
+    private Map<LLVMValueRef, LLVMValueRef> cloneIteration(LoopInfo.Loop loop, LLVMBasicBlockRef latch,
+                                                         Map<LLVMValueRef, LLVMValueRef> previous,
+                                                         LLVMBasicBlockRef insertAfter, int copy) {
+        Map<LLVMValueRef, LLVMValueRef> valueMap = new HashMap<>();
+        for (LLVMValueRef phi : IrUtils.phisOf(loop.getHeader())) {
+            LLVMValueRef carried = IrUtils.incomingFor(phi, latch);
+            valueMap.put(phi, previous.getOrDefault(carried, carried));
+        }
+        IrUtils.cloneBlocks(loop.getBlocks(), valueMap, insertAfter, "_u" + copy);
+        return valueMap;
+    }
+
+    //辅助方法：把块的终结指令换成无条件跳转，原来的比较没有其他使用时一并删除
+    private void replaceWithBr(LLVMBasicBlockRef block, LLVMBasicBlockRef target) {
+        LLVMValueRef terminator = LLVMGetBasicBlockTerminator(block);
+        LLVMValueRef cond = LLVMIsConditional(terminator) != 0 ? LLVMGetCondition(terminator) : null;
+        LLVMPositionBuilderBefore(builderRef, terminator);
+        LLVMBuildBr(builderRef, target);
+        LLVMInstructionEraseFromParent(terminator);
+        if (cond != null && LLVMIsAInstruction(cond) != null && LLVMGetFirstUse(cond) == null) {
+            LLVMInstructionEraseFromParent(cond);
+        }
+    }
+
+    private static LLVMBasicBlockRef mappedBlock(Map<LLVMValueRef, LLVMValueRef> valueMap, LLVMBasicBlockRef block) {
+        return LLVMValueAsBasicBlock(valueMap.get(LLVMBasicBlockAsValue(block)));
+    }
+
+    private LLVMBasicBlockRef lastBlock(LoopInfo.Loop loop, Map<LLVMValueRef, LLVMValueRef> valueMap) {
+        LLVMBasicBlockRef last = null;
+        for (LLVMBasicBlockRef bb : loop.getBlocks()) last = bb;
+        return valueMap == null ? last : mappedBlock(valueMap, last);
+    }
+
+    private void fullyUnroll(LoopInfo.Loop loop, CountedLoop counted, int tripCount) {
+        LLVMBasicBlockRef header = loop.getHeader();
+        LLVMBasicBlockRef latch = counted.latch;
+        List<OutsideUse> outsideUses = collectOutsideUses(loop);
+
+        // 第 0 个副本就是原循环体，依次复制出后面的迭代并首尾相连
+        Map<LLVMValueRef, LLVMValueRef> current = new HashMap<>();
+        LLVMBasicBlockRef currentLatch = latch;
+        LLVMBasicBlockRef insertAfter = lastBlock(loop, null);
+        for (int copy = 1; copy < tripCount; copy++) {
+            Map<LLVMValueRef, LLVMValueRef> next = cloneIteration(loop, latch, current, insertAfter, copy);
+            replaceWithBr(currentLatch, mappedBlock(next, header));
+            current = next;
+            currentLatch = mappedBlock(next, latch);
+            insertAfter = lastBlock(loop, next);
+        }
+        replaceWithBr(currentLatch, counted.exit);
+
+        // 循环外的使用改为最后一次迭代的值
+        for (OutsideUse use : outsideUses) {
+            LLVMSetOperand(use.user, use.index, current.getOrDefault(use.value, use.value));
+        }
+        if (!currentLatch.equals(latch)) IrUtils.replaceIncomingBlock(counted.exit, latch, currentLatch);
+
+        // 原循环头只剩预头一个入边
+        IrUtils.removeIncomingFrom(header, latch);
+        for (LLVMValueRef phi : IrUtils.phisOf(header)) {
+            LLVMReplaceAllUsesWith(phi, LLVMGetIncomingValue(phi, 0));
+            LLVMInstructionEraseFromParent(phi);
+        }
+    }
+
+    private void partiallyUnroll(LoopInfo.Loop loop, CountedLoop counted, int k) {
+        LLVMBasicBlockRef header = loop.getHeader();
+        LLVMBasicBlockRef preheader = loop.getPreheader();
+        LLVMBasicBlockRef latch = counted.latch;
+        LLVMBasicBlockRef exit = counted.exit;
+        String prefix = IrUtils.nameOf(LLVMBasicBlockAsValue(header));
+        LLVMContextRef context = LLVMGetModuleContext(LLVMGetGlobalParent(LLVMGetBasicBlockParent(header)));
+        LLVMTypeRef type = LLVMTypeOf(counted.inductionPhi);
+        List<OutsideUse> outsideUses = collectOutsideUses(loop);
+
+        // 1. 预头中计算迭代次数：init 没有越过 bound 时 n = |bound - init|，主循环执行 n & -k 次
+        LLVMValueRef preheaderTerminator = LLVMGetBasicBlockTerminator(preheader);
+        LLVMPositionBuilderBefore(builderRef, preheaderTerminator);
+        LLVMValueRef entered;
+        LLVMValueRef distance;
+        if (counted.step > 0) {
+            entered = LLVMBuildICmp(builderRef, LLVMIntSLT, counted.init, counted.bound, prefix + "_trip_enter");
+            distance = LLVMBuildSub(builderRef, counted.bound, counted.init, prefix + "_trip");
+        } else {
+            entered = LLVMBuildICmp(builderRef, LLVMIntSGT, counted.init, counted.bound, prefix + "_trip_enter");
+            distance = LLVMBuildSub(builderRef, counted.init, counted.bound, prefix + "_trip");
+        }
+        LLVMValueRef mainCount = LLVMBuildAnd(builderRef, distance, LLVMConstInt(type, -k, 1), prefix + "_trip_main");
+        LLVMValueRef remainder = LLVMBuildAnd(builderRef, distance, LLVMConstInt(type, k - 1, 0), prefix + "_trip_rem");
+        LLVMValueRef hasMain = LLVMBuildAnd(builderRef, entered,
+                LLVMBuildICmp(builderRef, LLVMIntNE, mainCount, LLVMConstInt(type, 0, 0), prefix + "_trip_nonzero"),
+                prefix + "_trip_has_main");
+        LLVMValueRef end = counted.step > 0
+                ? LLVMBuildAdd(builderRef, counted.init, mainCount, prefix + "_trip_end")
+                : LLVMBuildSub(builderRef, counted.init, mainCount, prefix + "_trip_end");
+
+        // 2. 主循环：k 个副本放在预头之后
+        List<Map<LLVMValueRef, LLVMValueRef>> copies = new ArrayList<>();
+        LLVMBasicBlockRef insertAfter = preheader;
+        Map<LLVMValueRef, LLVMValueRef> first = new HashMap<>();
+        IrUtils.cloneBlocks(loop.getBlocks(), first, insertAfter, "_u0");
+        copies.add(first);
+        insertAfter = lastBlock(loop, first);
+        for (int copy = 1; copy < k; copy++) {
+            Map<LLVMValueRef, LLVMValueRef> next = cloneIteration(loop, latch, copies.get(copy - 1), insertAfter, copy);
+            replaceWithBr(mappedBlock(copies.get(copy - 1), latch), mappedBlock(next, header));
+            copies.add(next);
+            insertAfter = lastBlock(loop, next);
+        }
+        Map<LLVMValueRef, LLVMValueRef> last = copies.get(k - 1);
+        LLVMBasicBlockRef mainHeader = mappedBlock(first, header);
+        LLVMBasicBlockRef mainLatch = mappedBlock(last, latch);
+
+        // 3. 主循环出口判断是否还有剩余迭代，剩余迭代由原循环执行
+        // 布局依次为主循环、出口判断、剩余循环的预头和原循环（只有一个块），新块都紧挨着所属的循环
+        // （后端按布局顺序给指令编号，剩余循环离得越远，跨过它活跃的变量的生命周期越长）
+        LLVMBasicBlockRef mainExit = LLVMAppendBasicBlockInContext(context, LLVMGetBasicBlockParent(header), prefix + "_unroll_exit");
+        LLVMMoveBasicBlockAfter(mainExit, insertAfter);
+        LLVMBasicBlockRef remainderPreheader = LLVMInsertBasicBlockInContext(context, header, prefix + "_remainder");
+        LLVMMoveBasicBlockAfter(remainderPreheader, mainExit);
+        LLVMMoveBasicBlockAfter(header, remainderPreheader);
+
+        LLVMValueRef mainTerminator = LLVMGetBasicBlockTerminator(mainLatch);
+        LLVMValueRef clonedCond = LLVMGetCondition(mainTerminator);
+        LLVMPositionBuilderBefore(builderRef, mainTerminator);
+        LLVMValueRef more = LLVMBuildICmp(builderRef, LLVMIntNE, last.get(counted.next), end, prefix + "_unroll_more");
+        LLVMBuildCondBr(builderRef, more, mainHeader, mainExit);
+        LLVMInstructionEraseFromParent(mainTerminator);
+        if (LLVMGetFirstUse(clonedCond) == null) LLVMInstructionEraseFromParent(clonedCond);
+
+        LLVMPositionBuilderAtEnd(builderRef, mainExit);
+        LLVMValueRef hasRemainder = LLVMBuildICmp(builderRef, LLVMIntNE, remainder, LLVMConstInt(type, 0, 0), prefix + "_unroll_has_rem");
+        LLVMBuildCondBr(builderRef, hasRemainder, remainderPreheader, exit);
+
+        // 4. 出口块多了来自主循环的入边：已有 phi 补上入边，其他使用插入 phi 合并两条路径
+        for (LLVMValueRef phi : IrUtils.phisOf(exit)) {
+            LLVMValueRef value = IrUtils.incomingFor(phi, latch);
+            IrUtils.addIncoming(phi, last.getOrDefault(value, value), mainExit);
+        }
+        Map<LLVMValueRef, LLVMValueRef> exitPhis = new HashMap<>();
+        for (OutsideUse use : outsideUses) {
+            if (isExitPhiEntry(use, counted)) continue;
+            LLVMValueRef merged = exitPhis.get(use.value);
+            if (merged == null) {
+                LLVMPositionBuilderBefore(builderRef, LLVMGetFirstInstruction(exit));
+                merged = LLVMBuildPhi(builderRef, LLVMTypeOf(use.value), IrUtils.nameOf(use.value) + "_unroll");
+                IrUtils.addIncoming(merged, use.value, latch);
+                IrUtils.addIncoming(merged, last.get(use.value), mainExit);
+                exitPhis.put(use.value, merged);
+            }
+            LLVMSetOperand(use.user, use.index, merged);
+        }
+
+        // 5. 循环头 phi：主循环从最后一个副本接回，剩余循环从主循环出口或预头进入
+        List<LLVMValueRef> headerPhis = IrUtils.phisOf(header);
+        List<LLVMValueRef> mainPhis = IrUtils.phisOf(mainHeader);
+        List<LLVMValueRef> remainderPhis = new ArrayList<>();
+        LLVMPositionBuilderAtEnd(builderRef, remainderPreheader);
+        for (LLVMValueRef phi : headerPhis) {
+            LLVMValueRef carried = IrUtils.incomingFor(phi, latch);
+            LLVMValueRef carriedOut = last.getOrDefault(carried, carried);
+            LLVMValueRef merged = LLVMBuildPhi(builderRef, LLVMTypeOf(phi), IrUtils.nameOf(phi) + "_rem");
+            IrUtils.addIncoming(merged, IrUtils.incomingFor(phi, preheader), preheader);
+            IrUtils.addIncoming(merged, carriedOut, mainExit);
+            remainderPhis.add(merged);
+        }
+        LLVMBuildBr(builderRef, header);
+
+        LLVMBasicBlockRef firstLatch = mappedBlock(first, latch);
+        for (int p = 0; p < headerPhis.size(); p++) {
+            LLVMValueRef carried = IrUtils.incomingFor(headerPhis.get(p), latch);
+            LLVMValueRef mainPhi = mainPhis.get(p);
+            for (int i = 0; i < LLVMCountIncoming(mainPhi); i++) {
+                if (LLVMGetIncomingBlock(mainPhi, i).equals(firstLatch)) {
+                    LLVMSetOperand(mainPhi, i, last.getOrDefault(carried, carried));
+                }
+            }
+            LLVMValueRef phi = headerPhis.get(p);
+            for (int i = 0; i < LLVMCountIncoming(phi); i++) {
+                if (LLVMGetIncomingBlock(phi, i).equals(preheader)) {
+                    LLVMSetOperand(phi, i, remainderPhis.get(p));
+                }
+            }
+        }
+        // 重建 phi 会使上面缓存的引用失效，放在最后
+        IrUtils.replaceIncomingBlock(mainHeader, firstLatch, mainLatch);
+        IrUtils.replaceIncomingBlock(header, preheader, remainderPreheader);
+
+        // 6. 预头：有主循环迭代时进入主循环，否则直接进入原循环
+        LLVMPositionBuilderBefore(builderRef, preheaderTerminator);
+        LLVMBuildCondBr(builderRef, hasMain, mainHeader, remainderPreheader);
+        LLVMInstructionEraseFromParent(preheaderTerminator);
+
+        unrolledHeaders.add(header);
+        unrolledHeaders.add(mainHeader);
+    }
+}
@@ -0,0 +1,231 @@
+import org.bytedeco.llvm.LLVM.*;
+
+import java.util.*;
+
+import static org.bytedeco.llvm.global.LLVM.*;
+
+/**
+ * 循环外提条件判断（unswitch）：循环内条件跳转的条件在循环内不变时，
+ * 每次迭代都要重新比较和跳转。把循环复制一份，在预头中根据条件选择其中一个版本：
+ *   preheader: br cond, L(条件为真), L'(条件为假)
+ * L 中该条件的跳转改为只走真分支，L' 中只走假分支，不再执行的分支由 SimplifyCFG 删除
+ *
+ * 条件在外层循环也不变时在外层循环上外提，整个循环嵌套只判断一次
+ * 每个循环只在指令数不超过 MAX_LOOP_SIZE 时复制，每个函数因复制增加的指令总数不超过 MAX_GROWTH
+ * 依赖 LICM 把不变的比较移到循环外，以及 LoopSimplify 提供的预头
+ */
+public class LoopUnswitch extends FunctionPass {
+    // 被复制的循环的指令数上限
+    private static final int MAX_LOOP_SIZE = 100;
+    // 每个函数因复制增加的指令总数上限，避免嵌套循环反复外提时代码成倍增长
+    private static final int MAX_GROWTH = 300;
+
+    private LLVMBuilderRef builderRef;
+    private int growth;
+
+    private int unswitchedLoops = 0;
+    private int rejectedBySize = 0;
+
+    @Override
+    public String getName() {
+        return "loop-unswitch";
+    }
+
+    @Override
+    public Map<String, Integer> getStatistics() {
+        Map<String, Integer> stats = new LinkedHashMap<>();
+        stats.put("外提条件的循环", unswitchedLoops);
+        stats.put("因代码大小放弃", rejectedBySize);
+        return stats;
+    }
+
+    @Override
+    public boolean runOnFunction(LLVMValueRef function, AnalysisManager analyses) {
+        builderRef = LLVMCreateBuilderInContext(LLVMGetModuleContext(LLVMGetGlobalParent(function)));
+        growth = 0;
+        boolean changed = false;
+        // 复制改变了 CFG，每次只处理一个循环，然后重新分析
+        while (unswitchOne(analyses.getCFG(function), analyses.getDominatorTree(function), analyses.getLoopInfo(function))) {
+            analyses.invalidate(function);
+            changed = true;
+        }
+        LLVMDisposeBuilder(builderRef);
+        return changed;
+    }
+
+    private boolean unswitchOne(CFG cfg, DominatorTree domTree, LoopInfo loopInfo) {
+        // 外层循环在前：条件对外层也不变时优先在外层外提
+        List<LoopInfo.Loop> loops = new ArrayList<>(loopInfo.getLoopsInnermostFirst());
+        Collections.reverse(loops);
+        for (LoopInfo.Loop loop : loops) {
+            if (loop.getPreheader() == null) continue;
+            LLVMValueRef cond = findInvariantCondition(loop);
+            if (cond == null) continue;
+
+            int size = sizeOf(loop);
+            if (size > MAX_LOOP_SIZE || growth + size > MAX_GROWTH) {
+                rejectedBySize++;
+                continue;
+            }
+            if (!canRewriteOutsideUses(loop, cfg, domTree)) continue;
+            unswitch(loop, cond, cfg);
+            growth += size;
+            unswitchedLoops++;
+            return true;
+        }
+        return false;
+    }
+
+    //辅助方法：循环内第一个条件在循环内不变的条件跳转（常量条件留给 SimplifyCFG）
+    private LLVMValueRef findInvariantCondition(LoopInfo.Loop loop) {
+        for (LLVMBasicBlockRef bb : loop.getBlocks()) {
+            LLVMValueRef terminator = LLVMGetBasicBlockTerminator(bb);
+            if (LLVMGetInstructionOpcode(terminator) != LLVMBr || LLVMIsConditional(terminator) == 0) continue;
+            if (LLVMGetSuccessor(terminator, 0).equals(LLVMGetSuccessor(terminator, 1))) continue;
+            LLVMValueRef cond = LLVMGetCondition(terminator);
+            if (LLVMIsAArgument(cond) != null) return cond;
+            if (LLVMIsAInstruction(cond) == null || loop.contains(LLVMGetInstructionParent(cond))) continue;
+            // 两个操作数都是常量的比较（如旋转时复制出的守卫）会被常量传播折叠，不值得复制循环
+            if (LLVMGetInstructionOpcode(cond) == LLVMICmp && LLVMIsConstant(LLVMGetOperand(cond, 0)) != 0
+                    && LLVMIsConstant(LLVMGetOperand(cond, 1)) != 0) continue;
+            return cond;
+        }
+        return null;
+    }
+
+    private int sizeOf(LoopInfo.Loop loop) {
+        int size = 0;
+        for (LLVMBasicBlockRef bb : loop.getBlocks()) {
+            for (LLVMValueRef inst = LLVMGetFirstInstruction(bb); inst != null; inst = LLVMGetNextInstruction(inst)) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    //辅助方法：循环内的值在循环外的使用
+    private List<LLVMUseRef> outsideUses(LoopInfo.Loop loop) {
+        List<LLVMUseRef> uses = new ArrayList<>();
+        for (LLVMBasicBlockRef bb : loop.getBlocks()) {
+            for (LLVMValueRef inst = LLVMGetFirstInstruction(bb); inst != null; inst = LLVMGetNextInstruction(inst)) {
+                for (LLVMUseRef use = LLVMGetFirstUse(inst); use != null; use = LLVMGetNextUse(use)) {
+                    if (!loop.contains(LLVMGetInstructionParent(LLVMGetUser(use)))) uses.add(use);
+                }
+            }
+        }
+        return uses;
+    }
+
+    /**
+     * 出口块 phi 中来自循环的入边只需补上副本的入边；其他使用要在出口块插入 phi 合并两个版本的值，
+     * 这要求循环只有一个出口块，出口块的前驱都在循环内，且该值支配这些前驱
+     */
+    private boolean canRewriteOutsideUses(LoopInfo.Loop loop, CFG cfg, DominatorTree domTree) {
+        List<LLVMBasicBlockRef> exits = loop.getExitBlocks();
+        for (LLVMUseRef use : outsideUses(loop)) {
+            LLVMValueRef user = LLVMGetUser(use);
+            if (IrUtils.isPhi(user) && exits.contains(LLVMGetInstructionParent(user))) continue;
+            if (exits.size() != 1) return false;
+            LLVMBasicBlockRef definedIn = LLVMGetInstructionParent(LLVMGetUsedValue(use));
+            for (LLVMBasicBlockRef pred : cfg.getPredecessors(exits.get(0))) {
+                if (!loop.contains(pred) || !domTree.dominates(definedIn, pred)) return false;
+            }
+        }
+        return true;
+    }
+
+    private void unswitch(LoopInfo.Loop loop, LLVMValueRef cond, CFG cfg) {
+        LLVMBasicBlockRef header = loop.getHeader();
+        LLVMBasicBlockRef preheader = loop.getPreheader();
+        List<LLVMBasicBlockRef> exits = loop.getExitBlocks();
+
+        // 循环外的普通使用先记下，复制之后再插入合并的 phi
+        List<LLVMValueRef> users = new ArrayList<>();
+        List<LLVMValueRef> usedValues = new ArrayList<>();
+        for (LLVMUseRef use : outsideUses(loop)) {
+            LLVMValueRef user = LLVMGetUser(use);
+            if (IrUtils.isPhi(user) && exits.contains(LLVMGetInstructionParent(user))) continue;
+            users.add(user);
+            usedValues.add(LLVMGetUsedValue(use));
+        }
+
+        // 1. 复制整个循环作为条件为假的版本，放在原循环之后
+        LLVMBasicBlockRef last = null;
+        for (LLVMBasicBlockRef bb : cfg.getBlocks()) {
+            if (loop.contains(bb)) last = bb;
+        }
+        Map<LLVMValueRef, LLVMValueRef> valueMap = new HashMap<>();
+        Map<LLVMBasicBlockRef, LLVMBasicBlockRef> blockMap = IrUtils.cloneBlocks(loop.getBlocks(), valueMap, last, "_us");
+
+        // 2. 出口块的 phi 补上来自副本的入边
+        for (LLVMBasicBlockRef exit : exits) {
+            for (LLVMValueRef phi : IrUtils.phisOf(exit)) {
+                int count = LLVMCountIncoming(phi);
+                for (int i = 0; i < count; i++) {
+                    LLVMBasicBlockRef block = LLVMGetIncomingBlock(phi, i);
+                    if (!loop.contains(block)) continue;
+                    LLVMValueRef value = LLVMGetIncomingValue(phi, i);
+                    IrUtils.addIncoming(phi, valueMap.getOrDefault(value, value), blockMap.get(block));
+                }
+            }
+        }
+
+        // 3. 其他使用在唯一的出口块中合并两个版本的值
+        Map<LLVMValueRef, LLVMValueRef> merged = new HashMap<>();
+        for (int u = 0; u < users.size(); u++) {
+            LLVMValueRef value = usedValues.get(u);
+            LLVMValueRef phi = merged.get(value);
+            if (phi == null) {
+                LLVMBasicBlockRef exit = exits.get(0);
+                LLVMPositionBuilderBefore(builderRef, LLVMGetFirstInstruction(exit));
+                phi = LLVMBuildPhi(builderRef, LLVMTypeOf(value), IrUtils.nameOf(value) + "_us_merge");
+                for (LLVMBasicBlockRef pred : new LinkedHashSet<>(cfg.getPredecessors(exit))) {
+                    IrUtils.addIncoming(phi, value, pred);
+                    IrUtils.addIncoming(phi, valueMap.get(value), blockMap.get(pred));
+                }
+                merged.put(value, phi);
+            }
+            LLVMValueRef user = users.get(u);
+            for (int i = 0; i < LLVMGetNumOperands(user); i++) {
+                if (LLVMGetOperand(user, i).equals(value)) LLVMSetOperand(user, i, phi);
+            }
+        }
+
+        // 4. 预头根据条件选择版本
+        LLVMValueRef preheaderTerminator = LLVMGetBasicBlockTerminator(preheader);
+        LLVMPositionBuilderBefore(builderRef, preheaderTerminator);
+        LLVMBuildCondBr(builderRef, cond, header, blockMap.get(header));
+        LLVMInstructionEraseFromParent(preheaderTerminator);
+
+        // 5. 两个版本中以该条件跳转的分支分别固定为真、假
+        for (LLVMBasicBlockRef bb : loop.getBlocks()) {
+            LLVMValueRef terminator = LLVMGetBasicBlockTerminator(bb);
+            if (LLVMGetInstructionOpcode(terminator) != LLVMBr || LLVMIsConditional(terminator) == 0
+                    || !LLVMGetCondition(terminator).equals(cond)) continue;
+            foldBranch(bb, true);
+            foldBranch(blockMap.get(bb), false);
+        }
+        // 不再执行的分支立即删除，否则下一次复制会把指向它们的 phi 入边带进副本
+        CFG folded = new CFG(LLVMGetBasicBlockParent(header));
+        List<LLVMBasicBlockRef> dead = new ArrayList<>();
+        for (LLVMBasicBlockRef bb : folded.getBlocks()) {
+            if (!folded.isReachable(bb)) dead.add(bb);
+        }
+        IrUtils.deleteBlocks(dead);
+
+        // 6. 两个版本各自补上预头，外层循环和副本中的其他条件可以在同一趟中继续外提
+        LLVMBasicBlockRef clonedHeader = blockMap.get(header);
+        IrUtils.splitPredecessors(header, Collections.singletonList(preheader), IrUtils.nameOf(LLVMBasicBlockAsValue(header)) + "_preheader");
+        IrUtils.splitPredecessors(clonedHeader, Collections.singletonList(preheader), IrUtils.nameOf(LLVMBasicBlockAsValue(clonedHeader)) + "_preheader");
+    }
+
+    private void foldBranch(LLVMBasicBlockRef block, boolean taken) {
+        LLVMValueRef terminator = LLVMGetBasicBlockTerminator(block);
+        LLVMBasicBlockRef target = LLVMGetSuccessor(terminator, taken ? 0 : 1);
+        LLVMBasicBlockRef other = LLVMGetSuccessor(terminator, taken ? 1 : 0);
+        if (!other.equals(target)) IrUtils.removeIncomingFrom(other, block);
+        LLVMPositionBuilderBefore(builderRef, terminator);
+        LLVMBuildBr(builderRef, target);
+        LLVMInstructionEraseFromParent(terminator);
+    }
+}
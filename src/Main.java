@@ -1,4 +1,5 @@
 import org.antlr.v4.runtime.*;
+import org.llvm4j.llvm4j.Module;
 
 import java.io.FileWriter;
 import java.io.IOException;
@@ -6,11 +7,36 @@ import java.io.PrintWriter;
 
 public class Main {
     public static void main(String[] args) throws IOException {
-        if (args.length != 2) {
-            System.err.println("Usage: java Main <input file> <output file>");
+        if (args.length < 2) {
+            System.err.println("Usage: java Main <input file> <output file> [-stats] [-unroll=<factor>] [-memoize]");
             System.exit(1);
         }
 
+        // 可选参数
+        boolean printStats = false; // -stats：输出各优化遍的统计信息
+        int unrollFactor = LoopUnroll.DEFAULT_FACTOR; // -unroll=N：循环部分展开的倍数（2 的幂，1 表示只做完全展开）
+        boolean memoize = false; // -memoize：为多次递归调用自身的纯函数加记忆化表
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].equals("-stats")) {
+                printStats = true;
+            } else if (args[i].equals("-memoize")) {
+                memoize = true;
+            } else if (args[i].startsWith("-unroll=")) {
+                try {
+                    unrollFactor = Integer.parseInt(args[i].substring("-unroll=".length()));
+                } catch (NumberFormatException e) {
+                    unrollFactor = -1;
+                }
+                if (unrollFactor < 1 || (unrollFactor & (unrollFactor - 1)) != 0) {
+                    System.err.println("Invalid unroll factor: " + args[i]);
+                    System.exit(1);
+                }
+            } else {
+                System.err.println("Unknown option: " + args[i]);
+                System.exit(1);
+            }
+        }
+
         String inputFile = args[0]; // SysY 源文件路径
         String outputFile = args[1]; // LLVM IR 输出文件路径
         CharStream input = CharStreams.fromFileName(inputFile); // 读取 SysY 代码
@@ -33,7 +59,14 @@ public class Main {
         MyVisitor visitor = new MyVisitor();
         visitor.visit(tree);
 
-        IrVisitor irVisitor = new IrVisitor(visitor.getModule());
+        // 优化遍与后端共享同一个分析管理器，CFG/支配树/循环信息只在 IR 被修改后才重新计算
+        AnalysisManager analyses = new AnalysisManager();
+        PassManager passManager = optimize(visitor.getModule(), analyses, unrollFactor, memoize);
+        if (printStats) {
+            passManager.printStatistics(System.err);
+        }
+
+        IrVisitor irVisitor = new IrVisitor(visitor.getModule(), analyses);
         IrTranslater translater = new IrTranslater(irVisitor);
         AsmBuilder asmBuilder = translater.getBuilder();
         asmBuilder.writeToFile(outputFile);
@@ -51,4 +84,81 @@ public class Main {
         }*/
     }
 
+    // 中端优化流水线
+    public static PassManager optimize(Module module, AnalysisManager analyses, int unrollFactor, boolean memoize) {
+        PassManager passManager = new PassManager(module, analyses);
+        // 只用常量下标访问的小局部数组拆成标量
+        passManager.add(new SROA());
+        // 将标量局部变量提升为 SSA 值，之后寄存器分配才能真正作用于它们
+        passManager.add(new Mem2Reg());
+        // 常量传播与不可达代码删除
+        passManager.add(new SCCP());
+        // 删除不可达块、穿透空块、合并直线块
+        passManager.add(new SimplifyCFG());
+        // 从不被写的全局变量替换为常量，之后不访问内存的函数才能被识别为纯函数
+        passManager.add(new GlobalOpt());
+        // 实参常量传入被调函数（必要时建立特化副本），再在函数内传播和清理
+        passManager.add(new IPConstProp());
+        passManager.add(new SCCP());
+        passManager.add(new SimplifyCFG());
+        // 多次递归调用自身的纯函数查表复用结果（可选）
+        if (memoize) {
+            passManager.add(new Memoize());
+        }
+        // 尾递归改为循环，变换后不再递归的函数也可以内联
+        passManager.add(new TailRecursionElim());
+        // 小函数内联到调用点，内联后实参常量再做一遍传播和清理
+        passManager.add(new Inliner());
+        // 删除内联后不再被调用的函数，以及函数中没有使用的形参和返回值
+        passManager.add(new DeadFunctionElim());
+        passManager.add(new SCCP());
+        passManager.add(new SimplifyCFG());
+        // 按已知位化简：! 与比较链的 zext 再比较直接使用原来的 i1，乘 2 的幂改为移位
+        passManager.add(new InstCombine());
+        // 消除冗余计算和冗余 load
+        passManager.add(new GVN());
+        passManager.add(new SimplifyCFG());
+        // 循环优化：先规范化出预头，再外提循环不变量
+        passManager.add(new LoopSimplify());
+        // 循环旋转：while 循环改为守卫加底部测试，旋转后重新规范化
+        passManager.add(new LoopRotate());
+        passManager.add(new SimplifyCFG());
+        passManager.add(new LoopSimplify());
+        passManager.add(new LICM());
+        // 循环中读写的全局标量改为预头装入、出口写回的临时变量，再由 mem2reg 提升为寄存器
+        passManager.add(new PromoteGlobals());
+        passManager.add(new Mem2Reg());
+        // 循环内不变的条件外提到循环外，每个分支方向一份循环，删掉不再执行的分支后重新规范化
+        passManager.add(new LoopUnswitch());
+        // 循环旋转生成的守卫比较两个常量时（内层循环的次数固定）在这里折叠掉，内层循环才成为外层循环体的必经部分
+        passManager.add(new SCCP());
+        passManager.add(new SimplifyCFG());
+        passManager.add(new LoopSimplify());
+        // 只计算递推量的循环直接算出退出值并删除
+        passManager.add(new IndVarSimplify());
+        // 按列遍历二维数组的循环嵌套交换内外层，内层循环沿连续内存前进
+        passManager.add(new LoopInterchange());
+        // 逐元素清零、复制数组的循环改为 memset/memcpy，必须在展开之前识别
+        passManager.add(new LoopIdiom());
+        // 根据值域（循环边界、常量、比较条件）把非负数的除法、取余改为移位、按位与，删除结果已知的比较
+        // 在展开之前执行，归纳变量的范围还能直接由循环条件得到
+        passManager.add(new CorrelatedValuePropagation());
+        // 计数循环展开，展开后的常量与冗余计算再做一遍清理
+        passManager.add(new LoopUnroll(unrollFactor));
+        passManager.add(new SCCP());
+        passManager.add(new SimplifyCFG());
+        // 完全展开后下标变成常量的局部数组再拆分一次
+        passManager.add(new SROA());
+        passManager.add(new Mem2Reg());
+        // 数组下标的地址计算改为循环中递增的指针
+        passManager.add(new LoopSimplify());
+        passManager.add(new LoopStrengthReduce());
+        // 展开和取余改写生成的按位与、移位再按已知位化简一次，删除冗余的掩码
+        passManager.add(new InstCombine());
+        passManager.add(new GVN());
+        passManager.add(new SimplifyCFG());
+        passManager.run();
+        return passManager;
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,288 @@
+import org.bytedeco.llvm.LLVM.*;
+
+import java.util.*;
+
+import static org.bytedeco.llvm.global.LLVM.*;
+
+/**
+ * mem2reg：把只通过 load/store 访问的标量 alloca 提升为 SSA 值
+ * 1. 从 AnalysisManager 取支配树和支配边界
+ * 2. 在每个 alloca 的定义块的迭代支配边界上插入 phi
+ * 3. 沿支配树先序遍历，把 load 替换为当前值，删除 store
+ */
+public class Mem2Reg extends FunctionPass {
+    private LLVMBuilderRef builderRef;
+
+    // 统计：被提升的 alloca 数量
+    private int promotedCount = 0;
+
+    // 当前函数的分析结果
+    private CFG cfg;
+    private DominatorTree domTree;
+
+    // 当前函数的提升信息
+    private List<LLVMValueRef> allocas = new ArrayList<>();
+    private Map<LLVMValueRef, Integer> allocaIndex = new HashMap<>();
+    // phi -> 对应的 alloca 编号
+    private Map<LLVMValueRef, Integer> phiAlloca = new HashMap<>();
+    // 基本块 -> 该块新插入的 phi 列表
+    private Map<LLVMBasicBlockRef, List<LLVMValueRef>> blockPhis = new HashMap<>();
+
+    @Override
+    public String getName() {
+        return "mem2reg";
+    }
+
+    public int getPromotedCount() {
+        return promotedCount;
+    }
+
+    @Override
+    public Map<String, Integer> getStatistics() {
+        Map<String, Integer> stats = new LinkedHashMap<>();
+        stats.put("提升的 alloca", promotedCount);
+        return stats;
+    }
+
+    @Override
+    public boolean runOnFunction(LLVMValueRef function, AnalysisManager analyses) {
+        collectPromotableAllocas(function);
+        if (allocas.isEmpty()) {
+            return false;
+        }
+
+        cfg = analyses.getCFG(function);
+        domTree = analyses.getDominatorTree(function);
+        builderRef = LLVMCreateBuilderInContext(LLVMGetModuleContext(LLVMGetGlobalParent(function)));
+        insertPhis(domTree.getFrontiers());
+
+        // 沿支配树重命名，初始值为 0（SysY 中未初始化的局部变量取值未定义，这里统一按 0 处理）
+        LLVMValueRef[] initial = new LLVMValueRef[allocas.size()];
+        for (int i = 0; i < allocas.size(); i++) {
+            initial[i] = LLVMConstInt(LLVMGetAllocatedType(allocas.get(i)), 0, 0);
+        }
+        rename(cfg.getEntry(), initial);
+        rewriteUnreachableBlocks(initial);
+
+        removeDeadPhis();
+        removeTrivialPhis();
+
+        for (LLVMValueRef alloca : allocas) {
+            LLVMInstructionEraseFromParent(alloca);
+        }
+        LLVMDisposeBuilder(builderRef);
+        promotedCount += allocas.size();
+        return true;
+    }
+
+    //辅助方法：收集可提升的 alloca（整数类型，且只作为 load 的地址或 store 的目标地址使用）
+    private void collectPromotableAllocas(LLVMValueRef function) {
+        allocas = new ArrayList<>();
+        allocaIndex = new HashMap<>();
+        phiAlloca = new HashMap<>();
+        blockPhis = new HashMap<>();
+
+        for (LLVMBasicBlockRef bb = LLVMGetFirstBasicBlock(function); bb != null; bb = LLVMGetNextBasicBlock(bb)) {
+            for (LLVMValueRef inst = LLVMGetFirstInstruction(bb); inst != null; inst = LLVMGetNextInstruction(inst)) {
+                if (LLVMGetInstructionOpcode(inst) == LLVMAlloca && isPromotable(inst)) {
+                    allocaIndex.put(inst, allocas.size());
+                    allocas.add(inst);
+                }
+            }
+        }
+    }
+
+    private boolean isPromotable(LLVMValueRef alloca) {
+        if (LLVMGetTypeKind(LLVMGetAllocatedType(alloca)) != LLVMIntegerTypeKind) {
+            return false;
+        }
+        for (LLVMUseRef use = LLVMGetFirstUse(alloca); use != null; use = LLVMGetNextUse(use)) {
+            LLVMValueRef user = LLVMGetUser(use);
+            int opcode = LLVMGetInstructionOpcode(user);
+            if (opcode == LLVMLoad) {
+                continue;
+            }
+            // store 时 alloca 只能是地址，不能是被存储的值
+            if (opcode == LLVMStore && !LLVMGetOperand(user, 0).equals(alloca)) {
+                continue;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    //辅助方法：在迭代支配边界上插入 phi
+    private void insertPhis(Map<LLVMBasicBlockRef, Set<LLVMBasicBlockRef>> frontiers) {
+        for (int i = 0; i < allocas.size(); i++) {
+            LLVMValueRef alloca = allocas.get(i);
+            String varName = LLVMGetValueName(alloca).getString();
+
+            Deque<LLVMBasicBlockRef> worklist = new ArrayDeque<>();
+            Set<LLVMBasicBlockRef> defBlocks = new HashSet<>();
+            for (LLVMUseRef use = LLVMGetFirstUse(alloca); use != null; use = LLVMGetNextUse(use)) {
+                LLVMValueRef user = LLVMGetUser(use);
+                LLVMBasicBlockRef bb = LLVMGetInstructionParent(user);
+                if (LLVMGetInstructionOpcode(user) == LLVMStore && cfg.isReachable(bb) && defBlocks.add(bb)) {
+                    worklist.add(bb);
+                }
+            }
+
+            Set<LLVMBasicBlockRef> hasPhi = new HashSet<>();
+            while (!worklist.isEmpty()) {
+                LLVMBasicBlockRef bb = worklist.poll();
+                for (LLVMBasicBlockRef frontier : frontiers.get(bb)) {
+                    if (!hasPhi.add(frontier)) continue;
+
+                    LLVMPositionBuilderBefore(builderRef, LLVMGetFirstInstruction(frontier));
+                    LLVMValueRef phi = LLVMBuildPhi(builderRef, LLVMGetAllocatedType(alloca), varName + "_phi");
+                    phiAlloca.put(phi, i);
+                    blockPhis.computeIfAbsent(frontier, k -> new ArrayList<>()).add(phi);
+
+                    if (defBlocks.add(frontier)) {
+                        worklist.add(frontier);
+                    }
+                }
+            }
+        }
+    }
+
+    //辅助方法：沿支配树先序遍历，维护每个 alloca 的当前值
+    private void rename(LLVMBasicBlockRef block, LLVMValueRef[] incoming) {
+        LLVMValueRef[] current = incoming.clone();
+
+        LLVMValueRef inst = LLVMGetFirstInstruction(block);
+        while (inst != null) {
+            LLVMValueRef next = LLVMGetNextInstruction(inst);
+            int opcode = LLVMGetInstructionOpcode(inst);
+
+            if (opcode == LLVMPHI && phiAlloca.containsKey(inst)) {
+                current[phiAlloca.get(inst)] = inst;
+            } else if (opcode == LLVMLoad) {
+                Integer index = allocaIndex.get(LLVMGetOperand(inst, 0));
+                if (index != null) {
+                    LLVMReplaceAllUsesWith(inst, current[index]);
+                    LLVMInstructionEraseFromParent(inst);
+                }
+            } else if (opcode == LLVMStore) {
+                Integer index = allocaIndex.get(LLVMGetOperand(inst, 1));
+                if (index != null) {
+                    current[index] = LLVMGetOperand(inst, 0);
+                    LLVMInstructionEraseFromParent(inst);
+                }
+            }
+            inst = next;
+        }
+
+        // 为后继块中的 phi 填入来自本块的值
+        for (LLVMBasicBlockRef succ : cfg.getSuccessors(block)) {
+            addPhiIncoming(succ, block, current);
+        }
+
+        for (LLVMBasicBlockRef child : domTree.getChildren(block)) {
+            rename(child, current);
+        }
+    }
+
+    //辅助方法：不可达块中的 load 直接取初始值，store 删除，并为其后继 phi 补齐入边
+    private void rewriteUnreachableBlocks(LLVMValueRef[] initial) {
+        for (LLVMBasicBlockRef bb : cfg.getBlocks()) {
+            if (cfg.isReachable(bb)) continue;
+
+            LLVMValueRef inst = LLVMGetFirstInstruction(bb);
+            while (inst != null) {
+                LLVMValueRef next = LLVMGetNextInstruction(inst);
+                int opcode = LLVMGetInstructionOpcode(inst);
+                if (opcode == LLVMLoad && allocaIndex.containsKey(LLVMGetOperand(inst, 0))) {
+                    LLVMReplaceAllUsesWith(inst, initial[allocaIndex.get(LLVMGetOperand(inst, 0))]);
+                    LLVMInstructionEraseFromParent(inst);
+                } else if (opcode == LLVMStore && allocaIndex.containsKey(LLVMGetOperand(inst, 1))) {
+                    LLVMInstructionEraseFromParent(inst);
+                }
+                inst = next;
+            }
+
+            for (LLVMBasicBlockRef succ : cfg.getSuccessors(bb)) {
+                addPhiIncoming(succ, bb, initial);
+            }
+        }
+    }
+
+    private void addPhiIncoming(LLVMBasicBlockRef block, LLVMBasicBlockRef pred, LLVMValueRef[] values) {
+        List<LLVMValueRef> phis = blockPhis.get(block);
+        if (phis == null) return;
+        for (LLVMValueRef phi : phis) {
+            LLVMValueRef[] incomingValues = {values[phiAlloca.get(phi)]};
+            LLVMBasicBlockRef[] incomingBlocks = {pred};
+            LLVMAddIncoming(phi, new org.bytedeco.javacpp.PointerPointer<>(incomingValues),
+                    new org.bytedeco.javacpp.PointerPointer<>(incomingBlocks), 1);
+        }
+    }
+
+    //辅助方法：删除只被其他无用 phi 使用的 phi（最小 SSA 会产生这类 phi）
+    private void removeDeadPhis() {
+        Set<LLVMValueRef> live = new HashSet<>();
+        Deque<LLVMValueRef> worklist = new ArrayDeque<>();
+        for (LLVMValueRef phi : phiAlloca.keySet()) {
+            for (LLVMUseRef use = LLVMGetFirstUse(phi); use != null; use = LLVMGetNextUse(use)) {
+                if (!phiAlloca.containsKey(LLVMGetUser(use))) {
+                    if (live.add(phi)) worklist.add(phi);
+                    break;
+                }
+            }
+        }
+        while (!worklist.isEmpty()) {
+            LLVMValueRef phi = worklist.poll();
+            for (int i = 0; i < LLVMCountIncoming(phi); i++) {
+                LLVMValueRef value = LLVMGetIncomingValue(phi, i);
+                if (phiAlloca.containsKey(value) && live.add(value)) {
+                    worklist.add(value);
+                }
+            }
+        }
+
+        List<LLVMValueRef> dead = new ArrayList<>();
+        for (LLVMValueRef phi : phiAlloca.keySet()) {
+            if (!live.contains(phi)) dead.add(phi);
+        }
+        for (LLVMValueRef phi : dead) {
+            LLVMReplaceAllUsesWith(phi, LLVMGetUndef(LLVMTypeOf(phi)));
+        }
+        for (LLVMValueRef phi : dead) {
+            forgetPhi(phi);
+            LLVMInstructionEraseFromParent(phi);
+        }
+    }
+
+    //辅助方法：所有入边值都相同（忽略自身）的 phi 直接用该值替换
+    private void removeTrivialPhis() {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (LLVMValueRef phi : new ArrayList<>(phiAlloca.keySet())) {
+                LLVMValueRef same = null;
+                boolean trivial = true;
+                for (int i = 0; i < LLVMCountIncoming(phi); i++) {
+                    LLVMValueRef value = LLVMGetIncomingValue(phi, i);
+                    if (value.equals(phi) || value.equals(same)) continue;
+                    if (same != null) {
+                        trivial = false;
+                        break;
+                    }
+                    same = value;
+                }
+                if (trivial && same != null) {
+                    LLVMReplaceAllUsesWith(phi, same);
+                    forgetPhi(phi);
+                    LLVMInstructionEraseFromParent(phi);
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    private void forgetPhi(LLVMValueRef phi) {
+        phiAlloca.remove(phi);
+        List<LLVMValueRef> phis = blockPhis.get(LLVMGetInstructionParent(phi));
+        if (phis != null) phis.remove(phi);
+    }
+}
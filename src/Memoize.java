@@ -0,0 +1,169 @@
+import org.bytedeco.javacpp.PointerPointer;
+import org.bytedeco.llvm.LLVM.*;
+
+import java.util.*;
+
+import static org.bytedeco.llvm.global.LLVM.*;
+
+/**
+ * 纯递归函数的自动记忆化：fib(n) 这类在函数体中多次调用自身的纯函数，调用次数随参数指数增长，
+ * 同一组参数的结果却可以复用。为这样的函数加一张编译期定长的表（放在 .bss，初值为 0）：
+ *   memo_check:  参数都在表的范围 [0, dim) 内时查表，否则直接计算
+ *   memo_lookup: valid[idx] != 0 时返回 memo[idx]
+ *   原函数体，所有 ret 改为跳到 memo_ret
+ *   memo_ret:    参数在表的范围内时写入 memo[idx] 和 valid[idx]，再返回
+ * 只处理一个或两个参数、函数体中至少两处调用自身、指令数不超过 MAX_FUNCTION_SIZE 的纯函数
+ * 需要用 -memoize 打开：表会占用数据段空间，对参数范围很大的函数也没有收益
+ */
+public class Memoize implements Pass {
+    // 单参数函数的表长，两个参数时每一维的长度；都是 2 的幂，范围检查只需一次 and
+    private static final int MEMO_SIZE_1 = 1024;
+    private static final int MEMO_DIM_2 = 64;
+    // 被记忆化的函数的指令数上限
+    private static final int MAX_FUNCTION_SIZE = 200;
+
+    private LLVMBuilderRef builderRef;
+    private LLVMTypeRef i32;
+
+    private int memoizedFunctions = 0;
+
+    @Override
+    public String getName() {
+        return "memoize";
+    }
+
+    @Override
+    public Map<String, Integer> getStatistics() {
+        Map<String, Integer> stats = new LinkedHashMap<>();
+        stats.put("记忆化的函数", memoizedFunctions);
+        return stats;
+    }
+
+    @Override
+    public boolean run(LLVMModuleRef module, AnalysisManager analyses) {
+        builderRef = LLVMCreateBuilderInContext(LLVMGetModuleContext(module));
+        i32 = LLVMInt32TypeInContext(LLVMGetModuleContext(module));
+        PurityAnalysis purity = new PurityAnalysis(module);
+
+        boolean changed = false;
+        for (LLVMValueRef func = LLVMGetFirstFunction(module); func != null; func = LLVMGetNextFunction(func)) {
+            if (!purity.isPure(func) || !shouldMemoize(func)) continue;
+            memoize(module, func);
+            analyses.invalidate(func);
+            memoizedFunctions++;
+            changed = true;
+        }
+        LLVMDisposeBuilder(builderRef);
+        return changed;
+    }
+
+    private boolean shouldMemoize(LLVMValueRef func) {
+        int params = LLVMCountParams(func);
+        if (params < 1 || params > 2) return false;
+        for (int i = 0; i < params; i++) {
+            if (LLVMGetIntTypeWidth(LLVMTypeOf(LLVMGetParam(func, i))) != 32) return false;
+        }
+        if (LLVMGetIntTypeWidth(LLVMGetReturnType(LLVMGetElementType(LLVMTypeOf(func)))) != 32) return false;
+
+        int size = 0;
+        int selfCalls = 0;
+        for (LLVMBasicBlockRef bb = LLVMGetFirstBasicBlock(func); bb != null; bb = LLVMGetNextBasicBlock(bb)) {
+            for (LLVMValueRef inst = LLVMGetFirstInstruction(bb); inst != null; inst = LLVMGetNextInstruction(inst)) {
+                size++;
+                if (LLVMGetInstructionOpcode(inst) == LLVMCall && LLVMGetCalledValue(inst).equals(func)) selfCalls++;
+            }
+        }
+        // 只调用自身一次的递归是线性的，记忆化只会多出查表的开销
+        return selfCalls >= 2 && size <= MAX_FUNCTION_SIZE;
+    }
+
+    private void memoize(LLVMModuleRef module, LLVMValueRef func) {
+        String name = IrUtils.nameOf(func);
+        LLVMContextRef context = LLVMGetModuleContext(module);
+        int params = LLVMCountParams(func);
+        int dim = params == 1 ? MEMO_SIZE_1 : MEMO_DIM_2;
+        int size = params == 1 ? MEMO_SIZE_1 : MEMO_DIM_2 * MEMO_DIM_2;
+        LLVMValueRef memo = addTable(module, name + "_memo", size);
+        LLVMValueRef valid = addTable(module, name + "_memo_valid", size);
+        LLVMValueRef first = LLVMGetParam(func, 0);
+        LLVMValueRef second = params == 2 ? LLVMGetParam(func, 1) : null;
+
+        LLVMBasicBlockRef body = LLVMGetEntryBasicBlock(func);
+        LLVMBasicBlockRef check = LLVMInsertBasicBlockInContext(context, body, "memo_check");
+        LLVMBasicBlockRef lookup = LLVMInsertBasicBlockInContext(context, body, "memo_lookup");
+        LLVMBasicBlockRef hit = LLVMInsertBasicBlockInContext(context, body, "memo_hit");
+
+        // 原函数的返回点收集起来，统一改为跳到 memo_ret
+        List<LLVMValueRef> returns = new ArrayList<>();
+        for (LLVMBasicBlockRef bb = body; bb != null; bb = LLVMGetNextBasicBlock(bb)) {
+            LLVMValueRef terminator = LLVMGetBasicBlockTerminator(bb);
+            if (LLVMGetInstructionOpcode(terminator) == LLVMRet) returns.add(terminator);
+        }
+
+        // 1. 范围检查：参数都在 [0, dim) 内当且仅当按位或之后高位全为 0
+        LLVMPositionBuilderAtEnd(builderRef, check);
+        LLVMValueRef bits = second == null ? first : LLVMBuildOr(builderRef, first, second, "memo_bits");
+        LLVMValueRef high = LLVMBuildAnd(builderRef, bits, LLVMConstInt(i32, -dim, 1), "memo_high");
+        LLVMValueRef inRange = LLVMBuildICmp(builderRef, LLVMIntEQ, high, LLVMConstInt(i32, 0, 0), "memo_in_range");
+        LLVMBuildCondBr(builderRef, inRange, lookup, body);
+
+        // 2. 查表
+        LLVMPositionBuilderAtEnd(builderRef, lookup);
+        LLVMValueRef index = first;
+        if (second != null) {
+            LLVMValueRef row = LLVMBuildShl(builderRef, first, LLVMConstInt(i32, Integer.numberOfTrailingZeros(dim), 0), "memo_row");
+            index = LLVMBuildOr(builderRef, row, second, "memo_idx");
+        }
+        LLVMValueRef validFlag = LLVMBuildLoad(builderRef, element(valid, index, "memo_valid_ptr"), "memo_valid");
+        LLVMValueRef isHit = LLVMBuildICmp(builderRef, LLVMIntNE, validFlag, LLVMConstInt(i32, 0, 0), "memo_is_hit");
+        LLVMBuildCondBr(builderRef, isHit, hit, body);
+
+        LLVMPositionBuilderAtEnd(builderRef, hit);
+        LLVMBuildRet(builderRef, LLVMBuildLoad(builderRef, element(memo, index, "memo_ptr"), "memo_value"));
+
+        // 3. 原入口处记下表下标，不在范围内时为 -1
+        LLVMPositionBuilderBefore(builderRef, LLVMGetFirstInstruction(body));
+        LLVMValueRef slot = LLVMBuildPhi(builderRef, i32, "memo_slot");
+        IrUtils.addIncoming(slot, LLVMConstInt(i32, -1, 1), check);
+        IrUtils.addIncoming(slot, index, lookup);
+
+        // 4. 返回前写表
+        LLVMBasicBlockRef ret = LLVMAppendBasicBlockInContext(context, func, "memo_ret");
+        LLVMBasicBlockRef store = LLVMAppendBasicBlockInContext(context, func, "memo_store");
+        LLVMBasicBlockRef done = LLVMAppendBasicBlockInContext(context, func, "memo_done");
+        LLVMPositionBuilderAtEnd(builderRef, ret);
+        LLVMValueRef result = LLVMBuildPhi(builderRef, i32, "memo_result");
+        for (LLVMValueRef r : returns) {
+            LLVMBasicBlockRef from = LLVMGetInstructionParent(r);
+            IrUtils.addIncoming(result, LLVMGetOperand(r, 0), from);
+            LLVMPositionBuilderBefore(builderRef, r);
+            LLVMBuildBr(builderRef, ret);
+            LLVMInstructionEraseFromParent(r);
+        }
+        LLVMPositionBuilderAtEnd(builderRef, ret);
+        LLVMValueRef skip = LLVMBuildICmp(builderRef, LLVMIntSLT, slot, LLVMConstInt(i32, 0, 0), "memo_skip");
+        LLVMBuildCondBr(builderRef, skip, done, store);
+
+        LLVMPositionBuilderAtEnd(builderRef, store);
+        LLVMBuildStore(builderRef, result, element(memo, slot, "memo_store_ptr"));
+        LLVMBuildStore(builderRef, LLVMConstInt(i32, 1, 0), element(valid, slot, "memo_valid_store_ptr"));
+        LLVMBuildRet(builderRef, result);
+
+        LLVMPositionBuilderAtEnd(builderRef, done);
+        LLVMBuildRet(builderRef, result);
+    }
+
+    //辅助方法：零初始化的 [size x i32] 全局数组，由后端放到 .bss
+    private LLVMValueRef addTable(LLVMModuleRef module, String name, int size) {
+        LLVMTypeRef type = LLVMArrayType(i32, size);
+        LLVMValueRef table = LLVMAddGlobal(module, type, name);
+        LLVMSetInitializer(table, LLVMConstNull(type));
+        LLVMSetLinkage(table, LLVMInternalLinkage);
+        return table;
+    }
+
+    private LLVMValueRef element(LLVMValueRef table, LLVMValueRef index, String name) {
+        LLVMValueRef[] indices = {LLVMConstInt(i32, 0, 0), index};
+        return LLVMBuildGEP2(builderRef, LLVMGetElementType(LLVMTypeOf(table)), table, new PointerPointer<>(indices), 2, name);
+    }
+}
@@ -1,6 +1,11 @@
 import kotlin.Pair;
 import kotlin.Unit;
+import org.antlr.v4.runtime.ParserRuleContext;
 import org.antlr.v4.runtime.tree.*;
+import org.bytedeco.javacpp.PointerPointer;
+import org.bytedeco.llvm.LLVM.LLVMBuilderRef;
+import org.bytedeco.llvm.LLVM.LLVMTypeRef;
+import org.bytedeco.llvm.LLVM.LLVMValueRef;
 import org.bytedeco.llvm.global.LLVM;
 import org.llvm4j.llvm4j.*;
 import org.llvm4j.llvm4j.Module;
@@ -34,6 +39,11 @@ public class MyVisitor extends SysYParserBaseVisitor<Value> {
     private final Module module;
     private final IRBuilder builder;
     private final Deque<Map<String, Value>> scopeStack = new LinkedList<>();
+    // 数组符号的各维长度（数组形参的第一维未知，记为 0）；const 数组另记展平后的初值，常量下标访问时直接取值
+    private final Map<Value, List<Integer>> arrayDims = new HashMap<>();
+    // 局部数组初值中省略的元素不超过这个数时逐个 store 0，否则先用 memset 整体清零
+    private static final int ZERO_STORE_LIMIT = 16;
+    private final Map<Value, long[]> constArrayValues = new HashMap<>();
 
     private boolean isConstantEvaluation = false;
     // 循环栈，用于 break 和 continue
@@ -134,7 +144,7 @@ public class MyVisitor extends SysYParserBaseVisitor<Value> {
         // 处理函数参数
         List<Type> paramTypes = ctx.funcFParams() != null ?
                 ctx.funcFParams().funcFParam().stream()
-                        .map(param -> context.getInt32Type())
+                        .map(this::paramType)
                         .collect(Collectors.toList()) : List.of();
         boolean isVariadic = false;
         FunctionType funcType = context.getFunctionType(returnType, paramTypes.toArray(new Type[0]), isVariadic);
@@ -174,8 +184,19 @@ public class MyVisitor extends SysYParserBaseVisitor<Value> {
                 throw new RuntimeException("Error: Parameter count mismatch at line " + ctx.getStart().getLine());
             }
             for (int i = 0; i < params.size(); i++) {
-                Value paramAlloc = visitFuncFParam(params.get(i));
                 Argument paramValue = func.getParameter(i).unwrap();
+                if (!params.get(i).L_BRACKT().isEmpty()) {
+                    // 数组形参不能被重新赋值，直接使用传入的指针，不经过 alloca
+                    String paramName = params.get(i).IDENT().getText();
+                    LLVM.LLVMSetValueName(paramValue.getRef(), paramName);
+                    List<Integer> dims = new ArrayList<>();
+                    dims.add(0);
+                    dims.addAll(evaluateDims(params.get(i).exp(), paramName));
+                    scopeStack.peek().put(paramName, paramValue);
+                    arrayDims.put(paramValue, dims);
+                    continue;
+                }
+                Value paramAlloc = visitFuncFParam(params.get(i));
                 builder.buildStore(paramAlloc, paramValue);
             }
         }
@@ -435,6 +456,9 @@ public class MyVisitor extends SysYParserBaseVisitor<Value> {
         // 处理赋值语句（lVal = exp;）
         if (ctx.lVal() != null && ctx.ASSIGN() != null) {
             Value lValPtr = visit(ctx.lVal());
+            if (lValPtr instanceof ConstantInt || constArrayValues.containsKey(lookupSymbol(ctx.lVal()))) {
+                throw new RuntimeException("Error: Cannot assign to constant '" + ctx.lVal().IDENT().getText() + "' at line " + ctx.getStart().getLine());
+            }
             Value rVal = visit(ctx.exp());
             builder.buildStore(lValPtr, rVal);
             return null;
@@ -520,10 +544,13 @@ public class MyVisitor extends SysYParserBaseVisitor<Value> {
         if (ctx.exp() != null) {
             return visit(ctx.exp());
         } else if (ctx.lVal() != null) {
+            Value ptr = visit(ctx.lVal());
+            if (ptr instanceof ConstantInt) {
+                return ptr;
+            }
             if (isConstantEvaluation) {
                 throw new RuntimeException("Error: lVal in constant expression at line " + ctx.getStart().getLine());
             }
-            Value ptr = visit(ctx.lVal());
             return builder.buildLoad(ptr, new Some<>("load_" + ctx.lVal().IDENT().getText()));
         } else if (ctx.number() != null) {
             return visit(ctx.number());
@@ -538,6 +565,11 @@ public class MyVisitor extends SysYParserBaseVisitor<Value> {
             if (ctx.L_PAREN() != null && ctx.exp().size() == 1 && ctx.R_PAREN() != null) {
                 return visit(ctx.exp(0));
             } else if (ctx.lVal() != null) {
+                // 只有常量（及常量数组用常量下标取的元素）可以出现在常量表达式中
+                Value value = visit(ctx.lVal());
+                if (value instanceof ConstantInt) {
+                    return value;
+                }
                 throw new RuntimeException("Error: lVal is not allowed in constant expression at line " + ctx.getStart().getLine());
             } else if (ctx.number() != null) {
                 return visit(ctx.number());
@@ -611,12 +643,16 @@ public class MyVisitor extends SysYParserBaseVisitor<Value> {
                 return visit(ctx.exp(0));
             } else if (ctx.lVal() != null) {
                 Value ptr = visit(ctx.lVal());
-                if (!(ptr instanceof AllocaInstruction || ptr instanceof GlobalVariable)) {
-                    throw new RuntimeException("Error: lVal does not resolve to a valid pointer at line " + ctx.getStart().getLine());
+                // 常量直接使用，不经过内存
+                if (ptr instanceof ConstantInt) {
+                    return ptr;
                 }
                 if (!ptr.getType().isPointerType()) {
                     throw new RuntimeException("Error: lVal type is not a pointer at line " + ctx.getStart().getLine());
                 }
+                if (LLVM.LLVMGetTypeKind(LLVM.LLVMGetElementType(ptr.getType().getRef())) != LLVM.LLVMIntegerTypeKind) {
+                    throw new RuntimeException("Error: Array '" + ctx.lVal().IDENT().getText() + "' used as a value at line " + ctx.getStart().getLine());
+                }
                 return builder.buildLoad(ptr, new Some<>("load_" + ctx.lVal().IDENT().getText()));
             } else if (ctx.number() != null) {
                 return visit(ctx.number());
@@ -627,8 +663,15 @@ public class MyVisitor extends SysYParserBaseVisitor<Value> {
                     throw new RuntimeException("Error: Undefined function '" + funcName + "' at line " + ctx.getStart().getLine());
                 }
                 Function func = funcOpt.unwrap();
-                List<Value> args = ctx.funcRParams() != null ?
-                        ctx.funcRParams().param().stream().map(param -> visit(param.exp())).collect(Collectors.toList()) : List.of();
+                List<Value> args = new ArrayList<>();
+                if (ctx.funcRParams() != null) {
+                    List<SysYParser.ParamContext> params = ctx.funcRParams().param();
+                    for (int i = 0; i < params.size(); i++) {
+                        boolean arrayParam = i < func.getParameterCount()
+                                && LLVM.LLVMGetTypeKind(LLVM.LLVMTypeOf(LLVM.LLVMGetParam(func.getRef(), i))) == LLVM.LLVMPointerTypeKind;
+                        args.add(arrayParam ? arrayArgument(params.get(i).exp()) : visit(params.get(i).exp()));
+                    }
+                }
                 if (args.size() != func.getParameterCount()) {
                     throw new RuntimeException("Error: Argument count mismatch for function '" + funcName + "' at line " + ctx.getStart().getLine());
                 }
@@ -994,6 +1037,64 @@ public class MyVisitor extends SysYParserBaseVisitor<Value> {
 
     @Override
     public Value visitLVal(SysYParser.LValContext ctx) {
+        String varName = ctx.IDENT().getText();
+        Value symbol = lookupSymbol(ctx);
+        if (ctx.exp().isEmpty()) {
+            return symbol;
+        }
+
+        List<Integer> dims = arrayDims.get(symbol);
+        if (dims == null || ctx.exp().size() > dims.size()) {
+            throw new RuntimeException("Error: Too many subscripts for '" + varName + "' at line " + ctx.getStart().getLine());
+        }
+        List<Value> indices = new ArrayList<>();
+        for (SysYParser.ExpContext exp : ctx.exp()) {
+            indices.add(visit(exp));
+        }
+
+        // const 数组用常量下标取到元素时，直接得到初值，不生成 load
+        long[] values = constArrayValues.get(symbol);
+        if (values != null && indices.size() == dims.size()) {
+            Integer flat = flatIndex(indices, dims);
+            if (flat != null) {
+                return context.getInt32Type().getConstant(values[flat], true);
+            }
+        }
+        if (isConstantEvaluation) {
+            throw new RuntimeException("Error: Non-constant subscript of '" + varName + "' in constant expression at line " + ctx.getStart().getLine());
+        }
+
+        // 所有下标放进一条 GEP，由后端把常量下标合成一个偏移；数组形参本身就是指针，第一个下标直接作用于它
+        List<LLVMValueRef> gepIndices = new ArrayList<>();
+        if (LLVM.LLVMIsAArgument(symbol.getRef()) == null) {
+            gepIndices.add(context.getInt32Type().getConstant(0, true).getRef());
+        }
+        for (Value index : indices) {
+            gepIndices.add(index.getRef());
+        }
+        return buildGep(symbol, gepIndices, "ptr_" + varName);
+    }
+
+    //辅助方法：实参传给数组形参时，数组（或部分下标得到的子数组）退化为指向首元素的指针
+    private Value arrayArgument(SysYParser.ExpContext exp) {
+        while (exp.lVal() == null && exp.exp().size() == 1 && exp.L_PAREN() != null) {
+            exp = exp.exp(0);
+        }
+        if (exp.lVal() == null) {
+            throw new RuntimeException("Error: Array argument expected at line " + exp.getStart().getLine());
+        }
+        Value ptr = visit(exp.lVal());
+        // 数组形参原样传递，它已经是指向首元素的指针
+        if (ptr instanceof ConstantInt || LLVM.LLVMIsAArgument(ptr.getRef()) != null
+                || LLVM.LLVMGetTypeKind(LLVM.LLVMGetElementType(ptr.getType().getRef())) != LLVM.LLVMArrayTypeKind) {
+            return ptr;
+        }
+        LLVMValueRef zero = context.getInt32Type().getConstant(0, true).getRef();
+        return buildGep(ptr, List.of(zero, zero), "decay_" + exp.lVal().IDENT().getText());
+    }
+
+    //辅助方法：按名字由内向外查找符号
+    private Value lookupSymbol(SysYParser.LValContext ctx) {
         String varName = ctx.IDENT().getText();
         for (Map<String, Value> scope : scopeStack) {
             if (scope.containsKey(varName)) {
@@ -1003,6 +1104,39 @@ public class MyVisitor extends SysYParserBaseVisitor<Value> {
         throw new RuntimeException("Error: Undefined variable " + varName + " at line " + ctx.getStart().getLine());
     }
 
+    //辅助方法：全是常量且不越界的下标展平成行主序的位置，否则返回 null
+    private Integer flatIndex(List<Value> indices, List<Integer> dims) {
+        int flat = 0;
+        for (int i = 0; i < indices.size(); i++) {
+            if (!(indices.get(i) instanceof ConstantInt)) return null;
+            long index = ((ConstantInt) indices.get(i)).getSignExtendedValue();
+            if (index < 0 || index >= dims.get(i)) return null;
+            flat = flat * dims.get(i) + (int) index;
+        }
+        return flat;
+    }
+
+    //辅助方法：getelementptr ptr, indices...
+    // 基址和下标都是常量时 LLVM 会把 GEP 折叠成常量表达式，而后端只翻译指令，
+    // 这时先用 freeze 占位建出 GEP 指令，再换回常量下标
+    private Value buildGep(Value ptr, List<LLVMValueRef> indices, String name) {
+        LLVMBuilderRef builderRef = builder.getRef();
+        LLVMTypeRef type = LLVM.LLVMGetElementType(ptr.getType().getRef());
+        LLVMValueRef[] operands = indices.toArray(new LLVMValueRef[0]);
+        int last = operands.length - 1;
+        boolean folds = LLVM.LLVMIsAConstant(ptr.getRef()) != null
+                && indices.stream().allMatch(index -> LLVM.LLVMIsAConstant(index) != null);
+        if (folds) {
+            operands[last] = LLVM.LLVMBuildFreeze(builderRef, indices.get(last), "");
+        }
+        LLVMValueRef gep = LLVM.LLVMBuildInBoundsGEP2(builderRef, type, ptr.getRef(), new PointerPointer<>(operands), operands.length, name);
+        if (folds) {
+            LLVM.LLVMSetOperand(gep, operands.length, indices.get(last));
+            LLVM.LLVMInstructionEraseFromParent(operands[last]);
+        }
+        return new Instruction(gep);
+    }
+
 
 
     @Override
@@ -1107,6 +1241,10 @@ public class MyVisitor extends SysYParserBaseVisitor<Value> {
         boolean isGlobal = scopeStack.size() == 1;
         String varName = ctx.IDENT().getText();
         Type varType = context.getInt32Type();
+        List<Integer> dims = evaluateDims(ctx.constExp(), varName);
+        if (!dims.isEmpty()) {
+            return defineArray(ctx, varName, dims, isGlobal);
+        }
 
         // 调试：输出变量定义信息
         // System.err.println("Debug: visitVarDef varName: " + varName + ", isGlobal: " + isGlobal +
@@ -1189,7 +1327,10 @@ public class MyVisitor extends SysYParserBaseVisitor<Value> {
     public Value visitConstDef(SysYParser.ConstDefContext ctx) {
         boolean isGlobal = scopeStack.size() == 1;
         String varName = ctx.IDENT().getText();
-        Type constType = context.getInt32Type();
+        List<Integer> dims = evaluateDims(ctx.constExp(), varName);
+        if (!dims.isEmpty()) {
+            return defineConstArray(ctx, varName, dims, isGlobal);
+        }
 
         // 调试：输出常量定义的上下文
         // System.err.println("Debug: visitConstDef varName: " + varName + ", isGlobal: " + isGlobal +
@@ -1229,22 +1370,212 @@ public class MyVisitor extends SysYParserBaseVisitor<Value> {
                     ") at line " + ctx.getStart().getLine());
         }
 
-        Constant initConstant = constInt;
+        // 常量标量不分配存储（局部常量不再 alloca + store，全局常量不再占 .data），使用处直接替换为值
+        scopeStack.peek().put(varName, constInt);
+        return constInt;
+    }
+
+    //辅助方法：常量数组的初值在编译期求出，放到只读的全局数组中（由后端放进 .rodata）
+    // 局部常量数组也一样，不在栈上逐个初始化；用常量下标访问的元素在 visitLVal 中直接折叠
+    private Value defineConstArray(SysYParser.ConstDefContext ctx, String varName, List<Integer> dims, boolean isGlobal) {
+        int size = product(dims, 0);
+        SysYParser.ExpContext[] leaves = new SysYParser.ExpContext[size];
+        flattenInitVal(ctx.constInitVal(), dims, 0, leaves, 0);
+
+        long[] values = new long[size];
+        boolean originalIsConstantEvaluation = isConstantEvaluation;
+        isConstantEvaluation = true;
+        for (int i = 0; i < size; i++) {
+            if (leaves[i] == null) continue;
+            Value value = visit(leaves[i]);
+            if (!(value instanceof ConstantInt)) {
+                throw new RuntimeException("Error: Constant array '" + varName + "' initializer must be an integer constant at line " + leaves[i].getStart().getLine());
+            }
+            values[i] = ((ConstantInt) value).getSignExtendedValue();
+        }
+        isConstantEvaluation = originalIsConstantEvaluation;
+
+        // 局部常量数组按 函数名_变量名 命名，与已有的全局变量重名时加序号
+        String globalName = varName;
+        if (!isGlobal) {
+            String base = currentFunction.getName() + "_" + varName;
+            globalName = base;
+            for (int n = 1; LLVM.LLVMGetNamedGlobal(module.getRef(), globalName) != null; n++) {
+                globalName = base + "_" + n;
+            }
+        }
+        GlobalVariable global = module.addGlobalVariable(globalName, new Type(arrayType(dims, 0)), Option.empty()).unwrap();
+        global.setImmutable(true);
+        global.setInitializer(new Constant(constantArray(values, dims, 0, 0)));
+        if (!isGlobal) {
+            LLVM.LLVMSetLinkage(global.getRef(), LLVM.LLVMInternalLinkage);
+        }
+        scopeStack.peek().put(varName, global);
+        arrayDims.put(global, dims);
+        constArrayValues.put(global, values);
+        return global;
+    }
+
+    //辅助方法：形参类型，int a[] / int a[][N] 是指向元素（行）的指针
+    private Type paramType(SysYParser.FuncFParamContext param) {
+        if (param.L_BRACKT().isEmpty()) {
+            return context.getInt32Type();
+        }
+        List<Integer> dims = evaluateDims(param.exp(), param.IDENT().getText());
+        return new Type(LLVM.LLVMPointerType(arrayType(dims, 0), 0));
+    }
+
+    //辅助方法：变量数组。全局数组的初值在编译期求出（没有初值或全为 0 时由后端放进 .bss）；
+    // 局部数组在栈上分配，有初值时先把省略的元素清零，再按行主序存入给出的初值
+    private Value defineArray(SysYParser.VarDefContext ctx, String varName, List<Integer> dims, boolean isGlobal) {
+        int size = product(dims, 0);
+        Type type = new Type(arrayType(dims, 0));
+        SysYParser.ExpContext[] leaves = new SysYParser.ExpContext[size];
+        if (ctx.initVal() != null) {
+            flattenInitVal(ctx.initVal(), dims, 0, leaves, 0);
+        }
 
         if (isGlobal) {
-            // 全局常量
-            GlobalVariable global = module.addGlobalVariable(varName, constType, Option.empty()).unwrap();
-            global.setImmutable(true);
-            global.setInitializer(initConstant);
+            long[] values = new long[size];
+            boolean originalIsConstantEvaluation = isConstantEvaluation;
+            isConstantEvaluation = true;
+            for (int i = 0; i < size; i++) {
+                if (leaves[i] == null) continue;
+                Value value = visit(leaves[i]);
+                if (!(value instanceof ConstantInt)) {
+                    throw new RuntimeException("Error: Global array '" + varName + "' initializer must be a constant at line " + leaves[i].getStart().getLine());
+                }
+                values[i] = ((ConstantInt) value).getSignExtendedValue();
+            }
+            isConstantEvaluation = originalIsConstantEvaluation;
+            GlobalVariable global = module.addGlobalVariable(varName, type, Option.empty()).unwrap();
+            global.setInitializer(new Constant(constantArray(values, dims, 0, 0)));
             scopeStack.peek().put(varName, global);
+            arrayDims.put(global, dims);
             return global;
-        } else {
-            // 局部常量
-            AllocaInstruction alloca = builder.buildAlloca(constType, new Some<>(varName));
-            builder.buildStore(alloca, initConstant);
-            scopeStack.peek().put(varName, alloca);
-            return alloca;
         }
+
+        AllocaInstruction array = builder.buildAlloca(type, new Some<>(varName));
+        scopeStack.peek().put(varName, array);
+        arrayDims.put(array, dims);
+        if (ctx.initVal() == null) {
+            return array;
+        }
+
+        int missing = (int) Arrays.stream(leaves).filter(Objects::isNull).count();
+        ConstantInt zero = context.getInt32Type().getConstant(0, true);
+        boolean zeroFilled = missing > ZERO_STORE_LIMIT;
+        if (zeroFilled) {
+            // 清零后只需存入显式给出的非零元素
+            IrUtils.buildMemset(builder.getRef(), array.getRef(), 0,
+                    context.getInt32Type().getConstant(size * 4L, false).getRef());
+        }
+        for (int i = 0; i < size; i++) {
+            if (leaves[i] == null && zeroFilled) continue;
+            Value value = leaves[i] == null ? zero : visit(leaves[i]);
+            if (zeroFilled && value instanceof ConstantInt && ((ConstantInt) value).getSignExtendedValue() == 0) continue;
+            builder.buildStore(buildGep(array, elementIndices(i, dims), "init_" + varName), value);
+        }
+        return array;
+    }
+
+    //辅助方法：行主序第 flat 个元素的 GEP 下标（0, i0, i1, ...）
+    private List<LLVMValueRef> elementIndices(int flat, List<Integer> dims) {
+        LinkedList<LLVMValueRef> indices = new LinkedList<>();
+        for (int level = dims.size() - 1; level >= 0; level--) {
+            indices.addFirst(context.getInt32Type().getConstant(flat % dims.get(level), true).getRef());
+            flat /= dims.get(level);
+        }
+        indices.addFirst(context.getInt32Type().getConstant(0, true).getRef());
+        return indices;
+    }
+
+    //辅助方法：求出各维长度（必须是正的常量表达式）
+    private List<Integer> evaluateDims(List<? extends ParserRuleContext> constExps, String varName) {
+        List<Integer> dims = new ArrayList<>();
+        boolean originalIsConstantEvaluation = isConstantEvaluation;
+        isConstantEvaluation = true;
+        for (ParserRuleContext constExp : constExps) {
+            Value length = visit(constExp);
+            if (!(length instanceof ConstantInt) || ((ConstantInt) length).getSignExtendedValue() <= 0) {
+                throw new RuntimeException("Error: Array '" + varName + "' dimension must be a positive constant at line " + constExp.getStart().getLine());
+            }
+            dims.add(Math.toIntExact(((ConstantInt) length).getSignExtendedValue()));
+        }
+        isConstantEvaluation = originalIsConstantEvaluation;
+        return dims;
+    }
+
+    private int product(List<Integer> dims, int from) {
+        int product = 1;
+        for (int i = from; i < dims.size(); i++) {
+            product *= dims.get(i);
+        }
+        return product;
+    }
+
+    //辅助方法：按 SysY 的规则把嵌套的初值列表展平到 leaves[start..]：
+    // 表达式依次填入；遇到子列表时，它初始化能整除当前位置的最高一维子数组，之后跳到该子数组末尾
+    // 没有给出的元素保持 null，即初值为 0
+    private void flattenInitVal(ParserRuleContext init, List<Integer> dims, int level, SysYParser.ExpContext[] leaves, int start) {
+        if (initLeaf(init) != null) {
+            throw new RuntimeException("Error: Array initializer must be a list at line " + init.getStart().getLine());
+        }
+        int pos = start;
+        int end = start + product(dims, level);
+        for (ParserRuleContext child : initChildren(init)) {
+            if (pos >= end) {
+                throw new RuntimeException("Error: Too many initializers at line " + child.getStart().getLine());
+            }
+            SysYParser.ExpContext leaf = initLeaf(child);
+            if (leaf != null) {
+                leaves[pos++] = leaf;
+                continue;
+            }
+            int sub = level + 1;
+            while (sub < dims.size() && (pos - start) % product(dims, sub) != 0) {
+                sub++;
+            }
+            if (sub >= dims.size()) {
+                throw new RuntimeException("Error: Nested initializer list does not start at a subarray boundary at line " + child.getStart().getLine());
+            }
+            flattenInitVal(child, dims, sub, leaves, pos);
+            pos += product(dims, sub);
+        }
+    }
+
+    private SysYParser.ExpContext initLeaf(ParserRuleContext init) {
+        if (init instanceof SysYParser.ConstInitValContext) {
+            SysYParser.ConstExpContext constExp = ((SysYParser.ConstInitValContext) init).constExp();
+            return constExp == null ? null : constExp.exp();
+        }
+        return ((SysYParser.InitValContext) init).exp();
+    }
+
+    private List<? extends ParserRuleContext> initChildren(ParserRuleContext init) {
+        if (init instanceof SysYParser.ConstInitValContext) {
+            return ((SysYParser.ConstInitValContext) init).constInitVal();
+        }
+        return ((SysYParser.InitValContext) init).initVal();
+    }
+
+    private LLVMTypeRef arrayType(List<Integer> dims, int level) {
+        if (level == dims.size()) {
+            return context.getInt32Type().getRef();
+        }
+        return LLVM.LLVMArrayType(arrayType(dims, level + 1), dims.get(level));
+    }
+
+    //辅助方法：展平的初值 values[offset..] 按 dims[level..] 的形状建成（嵌套的）常量数组
+    private LLVMValueRef constantArray(long[] values, List<Integer> dims, int level, int offset) {
+        int stride = product(dims, level + 1);
+        LLVMValueRef[] elements = new LLVMValueRef[dims.get(level)];
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = level + 1 == dims.size()
+                    ? context.getInt32Type().getConstant(values[offset + i], true).getRef()
+                    : constantArray(values, dims, level + 1, offset + i * stride);
+        }
+        return LLVM.LLVMConstArray(arrayType(dims, level + 1), new PointerPointer<>(elements), elements.length);
     }
 
 
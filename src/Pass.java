@@ -0,0 +1,20 @@
+import org.bytedeco.llvm.LLVM.LLVMModuleRef;
+
+import java.util.*;
+
+/**
+ * 优化遍接口：作用于整个模块，返回是否修改了 IR
+ * 修改了哪个函数就要让 AnalysisManager 作废哪个函数的分析结果
+ */
+public interface Pass {
+    String getName();
+
+    boolean run(LLVMModuleRef module, AnalysisManager analyses);
+
+    /**
+     * 统计信息：名称 -> 计数，按插入顺序输出
+     */
+    default Map<String, Integer> getStatistics() {
+        return Collections.emptyMap();
+    }
+}
@@ -0,0 +1,48 @@
+import org.bytedeco.llvm.LLVM.LLVMModuleRef;
+import org.llvm4j.llvm4j.Module;
+
+import java.io.PrintStream;
+import java.util.*;
+
+/**
+ * 按加入顺序依次执行优化遍，所有遍共享同一个分析管理器
+ */
+public class PassManager {
+    private final LLVMModuleRef moduleRef;
+    private final AnalysisManager analyses;
+    private final List<Pass> passes = new ArrayList<>();
+
+    public PassManager(Module module, AnalysisManager analyses) {
+        this.moduleRef = module.getRef();
+        this.analyses = analyses;
+    }
+
+    public PassManager add(Pass pass) {
+        passes.add(pass);
+        return this;
+    }
+
+    /**
+     * @return 是否有任何遍修改了 IR
+     */
+    public boolean run() {
+        boolean changed = false;
+        for (Pass pass : passes) {
+            changed |= pass.run(moduleRef, analyses);
+        }
+        return changed;
+    }
+
+    /**
+     * 输出各遍的统计信息（没有统计或计数都为 0 的遍不输出）
+     */
+    public void printStatistics(PrintStream out) {
+        for (Pass pass : passes) {
+            for (Map.Entry<String, Integer> entry : pass.getStatistics().entrySet()) {
+                if (entry.getValue() != 0) {
+                    out.printf("%-14s %8d  %s%n", pass.getName(), entry.getValue(), entry.getKey());
+                }
+            }
+        }
+    }
+}
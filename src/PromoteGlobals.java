@@ -0,0 +1,184 @@
+import org.bytedeco.llvm.LLVM.*;
+
+import java.util.*;
+
+import static org.bytedeco.llvm.global.LLVM.*;
+
+/**
+ * 循环中全局标量的寄存器提升：后端每次访问全局变量都要 la 加 lw/sw，
+ * 循环里反复读写全局计数器时全是访存
+ *   preheader: tmp = alloca（放在入口块）; store (load @g), tmp
+ *   循环内:    对 @g 的 load/store 改为对 tmp
+ *   出口块:    store (load tmp), @g
+ * 之后由 Mem2Reg 把 tmp 提升为 SSA 值，循环内只剩寄存器运算
+ *
+ * 要求循环内没有调用（被调函数可能读写 @g），其他 load/store 的地址不可能指向 @g；
+ * 只读不写的全局变量由 LICM 外提 load，这里只处理循环内有 store 的
+ * 出口块还有循环外的前驱时先拆出只从循环进入的出口块，写回只发生在离开循环时
+ * 由外向内处理，外层循环提升后内层循环也随之不再访问 @g
+ * 依赖 LoopSimplify 提供的预头
+ */
+public class PromoteGlobals extends FunctionPass {
+    private LLVMBuilderRef builderRef;
+
+    private int promotedGlobals = 0;
+    private int splitExits = 0;
+
+    @Override
+    public String getName() {
+        return "promote-globals";
+    }
+
+    @Override
+    public Map<String, Integer> getStatistics() {
+        Map<String, Integer> stats = new LinkedHashMap<>();
+        stats.put("提升的全局变量", promotedGlobals);
+        stats.put("拆分的出口块", splitExits);
+        return stats;
+    }
+
+    @Override
+    public boolean runOnFunction(LLVMValueRef function, AnalysisManager analyses) {
+        builderRef = LLVMCreateBuilderInContext(LLVMGetModuleContext(LLVMGetGlobalParent(function)));
+        boolean changed = false;
+        // 拆分出口块改变了 CFG，每次只处理一个循环，然后重新分析
+        while (promoteOne(function, analyses.getCFG(function), analyses.getLoopInfo(function))) {
+            analyses.invalidate(function);
+            changed = true;
+        }
+        LLVMDisposeBuilder(builderRef);
+        return changed;
+    }
+
+    private boolean promoteOne(LLVMValueRef function, CFG cfg, LoopInfo loopInfo) {
+        List<LoopInfo.Loop> loops = new ArrayList<>(loopInfo.getLoopsInnermostFirst());
+        Collections.reverse(loops);
+        for (LoopInfo.Loop loop : loops) {
+            if (loop.getPreheader() == null) continue;
+            List<LLVMValueRef> globals = findPromotableGlobals(loop);
+            if (globals.isEmpty()) continue;
+
+            List<LLVMBasicBlockRef> exits = dedicatedExits(loop, cfg);
+            for (LLVMValueRef global : globals) {
+                promote(function, loop, global, exits);
+                promotedGlobals++;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    //辅助方法：循环内被写过、且所有访问都是直接 load/store 的全局标量
+    private List<LLVMValueRef> findPromotableGlobals(LoopInfo.Loop loop) {
+        Set<LLVMValueRef> stored = new LinkedHashSet<>();
+        List<LLVMValueRef> otherPointers = new ArrayList<>();
+        for (LLVMBasicBlockRef bb : loop.getBlocks()) {
+            for (LLVMValueRef inst = LLVMGetFirstInstruction(bb); inst != null; inst = LLVMGetNextInstruction(inst)) {
+                int opcode = LLVMGetInstructionOpcode(inst);
+                if (opcode == LLVMCall) return Collections.emptyList();
+                if (opcode != LLVMLoad && opcode != LLVMStore) continue;
+                LLVMValueRef pointer = LLVMGetOperand(inst, opcode == LLVMLoad ? 0 : 1);
+                if (isScalarGlobal(pointer)) {
+                    if (opcode == LLVMStore) stored.add(pointer);
+                } else {
+                    otherPointers.add(pointer);
+                }
+            }
+        }
+
+        List<LLVMValueRef> globals = new ArrayList<>();
+        for (LLVMValueRef global : stored) {
+            boolean aliased = false;
+            for (LLVMValueRef pointer : otherPointers) {
+                if (AliasAnalysis.mayAlias(pointer, global)) {
+                    aliased = true;
+                    break;
+                }
+            }
+            if (!aliased && onlyLoadedOrStored(global, loop)) globals.add(global);
+        }
+        return globals;
+    }
+
+    private boolean isScalarGlobal(LLVMValueRef pointer) {
+        return LLVMIsAGlobalVariable(pointer) != null
+                && LLVMGetTypeKind(LLVMGetElementType(LLVMTypeOf(pointer))) == LLVMIntegerTypeKind;
+    }
+
+    // 循环内对全局变量的使用只能是 load 的地址或 store 的目标地址（不能被存储、作为实参等）
+    private boolean onlyLoadedOrStored(LLVMValueRef global, LoopInfo.Loop loop) {
+        for (LLVMUseRef use = LLVMGetFirstUse(global); use != null; use = LLVMGetNextUse(use)) {
+            LLVMValueRef user = LLVMGetUser(use);
+            if (LLVMIsAInstruction(user) == null || !loop.contains(LLVMGetInstructionParent(user))) continue;
+            int opcode = LLVMGetInstructionOpcode(user);
+            if (opcode == LLVMLoad) continue;
+            if (opcode == LLVMStore && !LLVMGetOperand(user, 0).equals(global)) continue;
+            return false;
+        }
+        return true;
+    }
+
+    //辅助方法：出口块的前驱都在循环内；否则把来自循环的边拆到一个新块上
+    private List<LLVMBasicBlockRef> dedicatedExits(LoopInfo.Loop loop, CFG cfg) {
+        List<LLVMBasicBlockRef> exits = new ArrayList<>();
+        for (LLVMBasicBlockRef exit : loop.getExitBlocks()) {
+            List<LLVMBasicBlockRef> inside = new ArrayList<>();
+            boolean dedicated = true;
+            for (LLVMBasicBlockRef pred : cfg.getPredecessors(exit)) {
+                if (loop.contains(pred)) {
+                    if (!inside.contains(pred)) inside.add(pred);
+                } else {
+                    dedicated = false;
+                }
+            }
+            if (dedicated) {
+                exits.add(exit);
+            } else {
+                String name = IrUtils.nameOf(LLVMBasicBlockAsValue(exit));
+                LLVMBasicBlockRef split = IrUtils.splitPredecessors(exit, inside, name + "_promote");
+                // 新块紧跟在布局最靠后的循环内前驱之后，不要放到出口块前面（出口块可能排在循环之前）
+                LLVMMoveBasicBlockAfter(split, lastInLayout(inside, cfg));
+                exits.add(split);
+                splitExits++;
+            }
+        }
+        return exits;
+    }
+
+    //辅助方法：blocks 中按布局顺序排在最后的块
+    private LLVMBasicBlockRef lastInLayout(List<LLVMBasicBlockRef> blocks, CFG cfg) {
+        LLVMBasicBlockRef last = blocks.get(0);
+        for (LLVMBasicBlockRef bb : blocks) {
+            if (cfg.getBlocks().indexOf(bb) > cfg.getBlocks().indexOf(last)) last = bb;
+        }
+        return last;
+    }
+
+    private void promote(LLVMValueRef function, LoopInfo.Loop loop, LLVMValueRef global, List<LLVMBasicBlockRef> exits) {
+        String name = IrUtils.nameOf(global);
+        LLVMTypeRef type = LLVMGetElementType(LLVMTypeOf(global));
+
+        // 1. 入口块中分配临时变量，预头中装入全局变量的当前值
+        LLVMBasicBlockRef entry = LLVMGetEntryBasicBlock(function);
+        LLVMPositionBuilderBefore(builderRef, LLVMGetFirstInstruction(entry));
+        LLVMValueRef temp = LLVMBuildAlloca(builderRef, type, name + "_promoted");
+        LLVMPositionBuilderBefore(builderRef, LLVMGetBasicBlockTerminator(loop.getPreheader()));
+        LLVMBuildStore(builderRef, LLVMBuildLoad(builderRef, global, name + "_init"), temp);
+
+        // 2. 循环内的访问改为访问临时变量
+        List<LLVMValueRef> users = new ArrayList<>();
+        for (LLVMUseRef use = LLVMGetFirstUse(global); use != null; use = LLVMGetNextUse(use)) {
+            LLVMValueRef user = LLVMGetUser(use);
+            if (LLVMIsAInstruction(user) != null && loop.contains(LLVMGetInstructionParent(user))) users.add(user);
+        }
+        for (LLVMValueRef user : users) {
+            LLVMSetOperand(user, LLVMGetInstructionOpcode(user) == LLVMLoad ? 0 : 1, temp);
+        }
+
+        // 3. 离开循环时写回
+        for (LLVMBasicBlockRef exit : exits) {
+            LLVMPositionBuilderBefore(builderRef, IrUtils.firstNonPhi(exit));
+            LLVMBuildStore(builderRef, LLVMBuildLoad(builderRef, temp, name + "_final"), global);
+        }
+    }
+}
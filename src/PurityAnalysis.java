@@ -0,0 +1,64 @@
+import org.bytedeco.llvm.LLVM.*;
+
+import java.util.*;
+
+import static org.bytedeco.llvm.global.LLVM.*;
+
+/**
+ * 过程间纯函数分析：结果只取决于整数实参的函数
+ * 纯函数不读写任何内存（没有 load/store/alloca），参数和返回值都是整数，
+ * 只调用模块内同样是纯函数的函数（外部声明的库函数有输入输出，不是纯函数）
+ *
+ * 先假设所有候选函数都是纯函数，再反复剔除调用了非纯函数的函数直到不动点，
+ * 这样互相递归的纯函数也能被识别
+ */
+public class PurityAnalysis {
+    private final Set<LLVMValueRef> pure = new HashSet<>();
+
+    public PurityAnalysis(LLVMModuleRef module) {
+        Map<LLVMValueRef, List<LLVMValueRef>> callees = new HashMap<>();
+        for (LLVMValueRef func = LLVMGetFirstFunction(module); func != null; func = LLVMGetNextFunction(func)) {
+            List<LLVMValueRef> called = new ArrayList<>();
+            if (isCandidate(func, called)) {
+                pure.add(func);
+                callees.put(func, called);
+            }
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = pure.removeIf(func -> !pure.containsAll(callees.get(func)));
+        }
+    }
+
+    public boolean isPure(LLVMValueRef function) {
+        return pure.contains(function);
+    }
+
+    //辅助方法：函数本身不访问内存、参数和返回值都是整数；called 收集它调用的函数
+    private static boolean isCandidate(LLVMValueRef func, List<LLVMValueRef> called) {
+        if (LLVMCountBasicBlocks(func) == 0) return false;
+        LLVMTypeRef functionType = LLVMGetElementType(LLVMTypeOf(func));
+        if (LLVMGetTypeKind(LLVMGetReturnType(functionType)) != LLVMIntegerTypeKind) return false;
+        for (int i = 0; i < LLVMCountParams(func); i++) {
+            if (LLVMGetTypeKind(LLVMTypeOf(LLVMGetParam(func, i))) != LLVMIntegerTypeKind) return false;
+        }
+        for (LLVMBasicBlockRef bb = LLVMGetFirstBasicBlock(func); bb != null; bb = LLVMGetNextBasicBlock(bb)) {
+            for (LLVMValueRef inst = LLVMGetFirstInstruction(bb); inst != null; inst = LLVMGetNextInstruction(inst)) {
+                switch (LLVMGetInstructionOpcode(inst)) {
+                    case LLVMLoad:
+                    case LLVMStore:
+                    case LLVMAlloca:
+                        return false;
+                    case LLVMCall:
+                        LLVMValueRef callee = LLVMGetCalledValue(inst);
+                        if (LLVMIsAFunction(callee) == null) return false;
+                        called.add(callee);
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,462 @@
+import org.bytedeco.llvm.LLVM.*;
+
+import java.util.*;
+
+import static org.bytedeco.llvm.global.LLVM.*;
+
+/**
+ * 稀疏条件常量传播（Wegman-Zadeck）
+ * 格：未知（尚未求值） < 常量 < 不确定
+ * 只沿可执行边传播，因此能同时发现常量、确定的分支方向和不可达的基本块
+ * 局部变量的 store/load 已由 mem2reg 变成 SSA 值，常量经过 phi 传播即相当于经过了 store
+ */
+public class SCCP extends FunctionPass {
+    // 格值：出现在 constants 中为常量，出现在 overdefined 中为不确定，都不在为未知
+    private Map<LLVMValueRef, Long> constants;
+    private Set<LLVMValueRef> overdefined;
+
+    private Set<LLVMBasicBlockRef> executableBlocks;
+    private Map<LLVMBasicBlockRef, Set<LLVMBasicBlockRef>> executableEdges;
+    private Deque<LLVMBasicBlockRef> blockWorklist;
+    private Deque<LLVMValueRef> instWorklist;
+
+    // 统计
+    private int foldedInstructions = 0;
+    private int foldedBranches = 0;
+    private int removedBlocks = 0;
+
+    @Override
+    public String getName() {
+        return "sccp";
+    }
+
+    public int getFoldedInstructions() {
+        return foldedInstructions;
+    }
+
+    public int getFoldedBranches() {
+        return foldedBranches;
+    }
+
+    public int getRemovedBlocks() {
+        return removedBlocks;
+    }
+
+    @Override
+    public Map<String, Integer> getStatistics() {
+        Map<String, Integer> stats = new LinkedHashMap<>();
+        stats.put("折叠为常量的指令", foldedInstructions);
+        stats.put("确定方向的条件跳转", foldedBranches);
+        stats.put("删除的不可达块", removedBlocks);
+        return stats;
+    }
+
+    @Override
+    public boolean runOnFunction(LLVMValueRef function, AnalysisManager analyses) {
+        CFG cfg = analyses.getCFG(function);
+        constants = new HashMap<>();
+        overdefined = new HashSet<>();
+        executableBlocks = new HashSet<>();
+        executableEdges = new HashMap<>();
+        blockWorklist = new ArrayDeque<>();
+        instWorklist = new ArrayDeque<>();
+
+        executableBlocks.add(cfg.getEntry());
+        blockWorklist.add(cfg.getEntry());
+        while (!blockWorklist.isEmpty() || !instWorklist.isEmpty()) {
+            while (!instWorklist.isEmpty()) {
+                LLVMValueRef inst = instWorklist.poll();
+                if (executableBlocks.contains(LLVMGetInstructionParent(inst))) {
+                    visitInstruction(inst);
+                }
+            }
+            while (!blockWorklist.isEmpty()) {
+                LLVMBasicBlockRef bb = blockWorklist.poll();
+                for (LLVMValueRef inst = LLVMGetFirstInstruction(bb); inst != null; inst = LLVMGetNextInstruction(inst)) {
+                    visitInstruction(inst);
+                }
+            }
+        }
+
+        return rewrite(cfg);
+    }
+
+    /*********************************************************************************/
+    // 求值
+
+    private void visitInstruction(LLVMValueRef inst) {
+        int opcode = LLVMGetInstructionOpcode(inst);
+        if (opcode == LLVMBr || opcode == LLVMSwitch) {
+            visitTerminator(inst, opcode);
+            return;
+        }
+        if (opcode == LLVMGetElementPtr) {
+            pushUsers(inst); // 下标求值后重新检查从这个地址的 load
+            return;
+        }
+        if (LLVMGetTypeKind(LLVMTypeOf(inst)) != LLVMIntegerTypeKind) {
+            return; // 不产生整数值的指令（store/ret/指针运算等）不参与传播
+        }
+        if (overdefined.contains(inst)) {
+            return;
+        }
+
+        Long result;
+        boolean known = true;
+        if (opcode == LLVMPHI) {
+            result = null;
+            known = false;
+            LLVMBasicBlockRef bb = LLVMGetInstructionParent(inst);
+            for (int i = 0; i < LLVMCountIncoming(inst); i++) {
+                if (!isEdgeExecutable(LLVMGetIncomingBlock(inst, i), bb)) continue;
+                LLVMValueRef value = LLVMGetIncomingValue(inst, i);
+                if (isOverdefined(value)) {
+                    markOverdefined(inst);
+                    return;
+                }
+                Long constant = constantOf(value);
+                if (constant == null) continue;
+                if (known && !constant.equals(result)) {
+                    markOverdefined(inst);
+                    return;
+                }
+                result = constant;
+                known = true;
+            }
+        } else {
+            // 任一操作数不确定则结果不确定（select 除外，条件确定时只看被选中的一侧）
+            if (opcode == LLVMSelect) {
+                LLVMValueRef cond = LLVMGetOperand(inst, 0);
+                if (isOverdefined(cond)) {
+                    Long t = constantOf(LLVMGetOperand(inst, 1));
+                    Long f = constantOf(LLVMGetOperand(inst, 2));
+                    if (isOverdefined(LLVMGetOperand(inst, 1)) || isOverdefined(LLVMGetOperand(inst, 2))
+                            || (t != null && f != null && !t.equals(f))) {
+                        markOverdefined(inst);
+                        return;
+                    }
+                    if (t == null || f == null) return;
+                    result = t;
+                } else {
+                    Long c = constantOf(cond);
+                    if (c == null) return;
+                    LLVMValueRef chosen = LLVMGetOperand(inst, c != 0 ? 1 : 2);
+                    if (isOverdefined(chosen)) {
+                        markOverdefined(inst);
+                        return;
+                    }
+                    result = constantOf(chosen);
+                    if (result == null) return;
+                }
+            } else if (opcode == LLVMLoad) {
+                // 从只读全局数组的常量偏移处读取，结果就是初值中对应的元素
+                LLVMValueRef pointer = LLVMGetOperand(inst, 0);
+                LLVMValueRef base = AliasAnalysis.baseObject(pointer);
+                if (LLVMIsAGlobalVariable(base) == null || LLVMIsGlobalConstant(base) == 0 || hasOverdefinedIndex(pointer)) {
+                    markOverdefined(inst);
+                    return;
+                }
+                Long offset = constantOffset(pointer);
+                if (offset == null) return; // 等下标求值后再来
+                result = constantLoad(base, offset, LLVMGetIntTypeWidth(LLVMTypeOf(inst)));
+                if (result == null) {
+                    markOverdefined(inst);
+                    return;
+                }
+            } else {
+                int operandNum = LLVMGetNumOperands(inst);
+                long[] values = new long[operandNum];
+                for (int i = 0; i < operandNum; i++) {
+                    LLVMValueRef operand = LLVMGetOperand(inst, i);
+                    if (isOverdefined(operand)) {
+                        markOverdefined(inst);
+                        return;
+                    }
+                    Long constant = constantOf(operand);
+                    if (constant == null) return; // 等操作数求值后再来
+                    values[i] = constant;
+                }
+                result = fold(inst, opcode, values);
+                if (result == null) {
+                    markOverdefined(inst);
+                    return;
+                }
+            }
+        }
+
+        if (known) {
+            markConstant(inst, result);
+        }
+    }
+
+    private void visitTerminator(LLVMValueRef inst, int opcode) {
+        LLVMBasicBlockRef bb = LLVMGetInstructionParent(inst);
+        if (opcode == LLVMBr && LLVMIsConditional(inst) != 0) {
+            LLVMValueRef cond = LLVMGetCondition(inst);
+            if (isOverdefined(cond)) {
+                markEdgeExecutable(bb, LLVMGetSuccessor(inst, 0));
+                markEdgeExecutable(bb, LLVMGetSuccessor(inst, 1));
+            } else {
+                Long constant = constantOf(cond);
+                if (constant != null) {
+                    markEdgeExecutable(bb, LLVMGetSuccessor(inst, constant != 0 ? 0 : 1));
+                }
+            }
+            return;
+        }
+        // 无条件跳转；switch 按所有目标都可达处理
+        for (int i = 0; i < LLVMGetNumSuccessors(inst); i++) {
+            markEdgeExecutable(bb, LLVMGetSuccessor(inst, i));
+        }
+    }
+
+    //辅助方法：对纯整数指令做常量折叠，无法折叠（除零、移位越界、未知指令）时返回 null
+    private Long fold(LLVMValueRef inst, int opcode, long[] v) {
+        int width = LLVMGetIntTypeWidth(LLVMTypeOf(inst));
+        switch (opcode) {
+            case LLVMAdd: return IrUtils.normalize(v[0] + v[1], width);
+            case LLVMSub: return IrUtils.normalize(v[0] - v[1], width);
+            case LLVMMul: return IrUtils.normalize(v[0] * v[1], width);
+            case LLVMSDiv:
+                if (v[1] == 0 || (v[1] == -1 && v[0] == IrUtils.normalize(1L << (width - 1), width))) return null;
+                return IrUtils.normalize(v[0] / v[1], width);
+            case LLVMSRem:
+                if (v[1] == 0 || (v[1] == -1 && v[0] == IrUtils.normalize(1L << (width - 1), width))) return null;
+                return IrUtils.normalize(v[0] % v[1], width);
+            case LLVMAnd: return v[0] & v[1];
+            case LLVMOr: return v[0] | v[1];
+            case LLVMXor: return v[0] ^ v[1];
+            case LLVMShl:
+                if (v[1] < 0 || v[1] >= width) return null;
+                return IrUtils.normalize(v[0] << v[1], width);
+            case LLVMLShr:
+                if (v[1] < 0 || v[1] >= width) return null;
+                return IrUtils.normalize(unsigned(v[0], width) >>> v[1], width);
+            case LLVMAShr:
+                if (v[1] < 0 || v[1] >= width) return null;
+                return v[0] >> v[1];
+            case LLVMICmp:
+                return evaluateICmp(LLVMGetICmpPredicate(inst), v[0], v[1],
+                        LLVMGetIntTypeWidth(LLVMTypeOf(LLVMGetOperand(inst, 0)))) ? -1L : 0L;
+            case LLVMZExt:
+                return IrUtils.normalize(unsigned(v[0], LLVMGetIntTypeWidth(LLVMTypeOf(LLVMGetOperand(inst, 0)))), width);
+            case LLVMSExt:
+                return v[0];
+            case LLVMTrunc:
+                return IrUtils.normalize(v[0], width);
+            default:
+                return null;
+        }
+    }
+
+    private boolean evaluateICmp(int predicate, long a, long b, int width) {
+        long ua = unsigned(a, width);
+        long ub = unsigned(b, width);
+        switch (predicate) {
+            case LLVMIntEQ: return a == b;
+            case LLVMIntNE: return a != b;
+            case LLVMIntSGT: return a > b;
+            case LLVMIntSGE: return a >= b;
+            case LLVMIntSLT: return a < b;
+            case LLVMIntSLE: return a <= b;
+            case LLVMIntUGT: return Long.compareUnsigned(ua, ub) > 0;
+            case LLVMIntUGE: return Long.compareUnsigned(ua, ub) >= 0;
+            case LLVMIntULT: return Long.compareUnsigned(ua, ub) < 0;
+            case LLVMIntULE: return Long.compareUnsigned(ua, ub) <= 0;
+            default: return false;
+        }
+    }
+
+    private static long unsigned(long value, int width) {
+        return width >= 64 ? value : value & ((1L << width) - 1);
+    }
+
+    /*********************************************************************************/
+    // 格操作
+
+    private boolean hasOverdefinedIndex(LLVMValueRef pointer) {
+        for (; LLVMIsAGetElementPtrInst(pointer) != null; pointer = LLVMGetOperand(pointer, 0)) {
+            for (int i = 1; i < LLVMGetNumOperands(pointer); i++) {
+                if (isOverdefined(LLVMGetOperand(pointer, i))) return true;
+            }
+        }
+        return false;
+    }
+
+    //辅助方法：按格值求 GEP 链的字节偏移（同 AliasAnalysis.constantOffset），有下标尚未求值时返回 null
+    private Long constantOffset(LLVMValueRef pointer) {
+        long offset = 0;
+        for (; LLVMIsAGetElementPtrInst(pointer) != null; pointer = LLVMGetOperand(pointer, 0)) {
+            LLVMValueRef base = LLVMGetOperand(pointer, 0);
+            LLVMTargetDataRef layout = LLVMGetModuleDataLayout(LLVMGetGlobalParent(AliasAnalysis.baseObject(base)));
+            LLVMTypeRef type = LLVMGetElementType(LLVMTypeOf(base));
+            for (int i = 1; i < LLVMGetNumOperands(pointer); i++) {
+                Long index = constantOf(LLVMGetOperand(pointer, i));
+                if (index == null) return null;
+                if (i > 1) {
+                    type = LLVMGetElementType(type);
+                }
+                offset += index * LLVMABISizeOfType(layout, type);
+            }
+        }
+        return offset;
+    }
+
+    //辅助方法：常量全局变量 global 的初值中字节偏移 offset 处的整数
+    private Long constantLoad(LLVMValueRef global, long offset, int width) {
+        LLVMValueRef constant = LLVMGetInitializer(global);
+        if (constant == null) return null;
+        LLVMTargetDataRef layout = LLVMGetModuleDataLayout(LLVMGetGlobalParent(global));
+        if (offset < 0 || offset >= LLVMABISizeOfType(layout, LLVMTypeOf(constant))) return null;
+        // 逐层进入数组，直到偏移处的整数
+        while (LLVMGetTypeKind(LLVMTypeOf(constant)) == LLVMArrayTypeKind) {
+            if (LLVMIsNull(constant) != 0) return 0L;
+            long elementSize = LLVMABISizeOfType(layout, LLVMGetElementType(LLVMTypeOf(constant)));
+            int index = (int) (offset / elementSize);
+            offset %= elementSize;
+            constant = LLVMIsAConstantDataSequential(constant) != null
+                    ? LLVMGetElementAsConstant(constant, index) : LLVMGetOperand(constant, index);
+        }
+        if (LLVMIsAConstantInt(constant) == null || offset != 0 || LLVMGetIntTypeWidth(LLVMTypeOf(constant)) != width) return null;
+        return IrUtils.normalize(LLVMConstIntGetSExtValue(constant), width);
+    }
+
+    private Long constantOf(LLVMValueRef value) {
+        if (LLVMIsAConstantInt(value) != null) {
+            return IrUtils.normalize(LLVMConstIntGetSExtValue(value), LLVMGetIntTypeWidth(LLVMTypeOf(value)));
+        }
+        return constants.get(value);
+    }
+
+    private boolean isOverdefined(LLVMValueRef value) {
+        if (LLVMIsAConstantInt(value) != null) return false;
+        if (LLVMIsAInstruction(value) == null) return true; // 参数、全局变量、undef 等
+        if (LLVMGetTypeKind(LLVMTypeOf(value)) != LLVMIntegerTypeKind) return true; // 指针等不参与传播
+        return overdefined.contains(value);
+    }
+
+    private void markConstant(LLVMValueRef inst, long value) {
+        Long old = constants.put(inst, value);
+        if (old == null) {
+            pushUsers(inst);
+        }
+    }
+
+    private void markOverdefined(LLVMValueRef inst) {
+        constants.remove(inst);
+        if (overdefined.add(inst)) {
+            pushUsers(inst);
+        }
+    }
+
+    private void pushUsers(LLVMValueRef value) {
+        for (LLVMUseRef use = LLVMGetFirstUse(value); use != null; use = LLVMGetNextUse(use)) {
+            instWorklist.add(LLVMGetUser(use));
+        }
+    }
+
+    private boolean isEdgeExecutable(LLVMBasicBlockRef from, LLVMBasicBlockRef to) {
+        Set<LLVMBasicBlockRef> targets = executableEdges.get(from);
+        return targets != null && targets.contains(to);
+    }
+
+    private void markEdgeExecutable(LLVMBasicBlockRef from, LLVMBasicBlockRef to) {
+        if (!executableEdges.computeIfAbsent(from, k -> new HashSet<>()).add(to)) {
+            return;
+        }
+        if (executableBlocks.add(to)) {
+            blockWorklist.add(to);
+        } else {
+            // 新的入边可能改变 phi 的值
+            for (LLVMValueRef phi : IrUtils.phisOf(to)) {
+                instWorklist.add(phi);
+            }
+        }
+    }
+
+    /*********************************************************************************/
+    // 改写
+
+    private boolean rewrite(CFG cfg) {
+        boolean changed = false;
+
+        // 1. 用常量替换值确定的指令
+        List<LLVMValueRef> foldedAddresses = new ArrayList<>();
+        for (LLVMBasicBlockRef bb : cfg.getBlocks()) {
+            if (!executableBlocks.contains(bb)) continue;
+            LLVMValueRef inst = LLVMGetFirstInstruction(bb);
+            while (inst != null) {
+                LLVMValueRef next = LLVMGetNextInstruction(inst);
+                Long value = constants.get(inst);
+                if (value != null && IrUtils.isRemovableIfUnused(inst)) {
+                    if (LLVMGetInstructionOpcode(inst) == LLVMLoad) foldedAddresses.add(LLVMGetOperand(inst, 0));
+                    LLVMReplaceAllUsesWith(inst, LLVMConstInt(LLVMTypeOf(inst), value, 1));
+                    LLVMInstructionEraseFromParent(inst);
+                    foldedInstructions++;
+                    changed = true;
+                }
+                inst = next;
+            }
+        }
+        // 折叠掉的 load 不再使用的地址计算一并删除
+        Set<LLVMValueRef> erasedAddresses = new HashSet<>();
+        for (LLVMValueRef pointer : foldedAddresses) {
+            while (!erasedAddresses.contains(pointer) && LLVMIsAGetElementPtrInst(pointer) != null && LLVMGetFirstUse(pointer) == null) {
+                LLVMValueRef base = LLVMGetOperand(pointer, 0);
+                erasedAddresses.add(pointer);
+                LLVMInstructionEraseFromParent(pointer);
+                pointer = base;
+            }
+        }
+
+        // 2. 只有一条出边可执行的条件跳转改为无条件跳转
+        LLVMBuilderRef builder = LLVMCreateBuilderInContext(LLVMGetModuleContext(LLVMGetGlobalParent(cfg.getFunction())));
+        for (LLVMBasicBlockRef bb : cfg.getBlocks()) {
+            if (!executableBlocks.contains(bb)) continue;
+            LLVMValueRef terminator = LLVMGetBasicBlockTerminator(bb);
+            if (LLVMGetInstructionOpcode(terminator) != LLVMBr || LLVMIsConditional(terminator) == 0) continue;
+            LLVMBasicBlockRef trueBlock = LLVMGetSuccessor(terminator, 0);
+            LLVMBasicBlockRef falseBlock = LLVMGetSuccessor(terminator, 1);
+            boolean trueLive = isEdgeExecutable(bb, trueBlock);
+            boolean falseLive = isEdgeExecutable(bb, falseBlock);
+            if (trueLive == falseLive || trueBlock.equals(falseBlock)) continue;
+
+            LLVMBasicBlockRef taken = trueLive ? trueBlock : falseBlock;
+            LLVMBasicBlockRef notTaken = trueLive ? falseBlock : trueBlock;
+            LLVMPositionBuilderBefore(builder, terminator);
+            LLVMBuildBr(builder, taken);
+            LLVMInstructionEraseFromParent(terminator);
+            if (executableBlocks.contains(notTaken)) {
+                IrUtils.removeIncomingFrom(notTaken, bb);
+            }
+            foldedBranches++;
+            changed = true;
+        }
+        LLVMDisposeBuilder(builder);
+
+        // 3. 删除不可达块
+        List<LLVMBasicBlockRef> dead = new ArrayList<>();
+        for (LLVMBasicBlockRef bb : cfg.getBlocks()) {
+            if (!executableBlocks.contains(bb)) dead.add(bb);
+        }
+        if (!dead.isEmpty()) {
+            IrUtils.deleteBlocks(dead);
+            removedBlocks += dead.size();
+            changed = true;
+        }
+
+        // 4. 删边后只剩一种入边值的 phi 直接替换
+        if (changed) {
+            for (LLVMBasicBlockRef bb = LLVMGetFirstBasicBlock(cfg.getFunction()); bb != null; bb = LLVMGetNextBasicBlock(bb)) {
+                for (LLVMValueRef phi : IrUtils.phisOf(bb)) {
+                    LLVMValueRef same = IrUtils.uniqueIncoming(phi);
+                    if (same != null) {
+                        LLVMReplaceAllUsesWith(phi, same);
+                        LLVMInstructionEraseFromParent(phi);
+                    }
+                }
+            }
+        }
+        return changed;
+    }
+}
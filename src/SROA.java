@@ -0,0 +1,168 @@
+import org.bytedeco.llvm.LLVM.*;
+
+import java.util.*;
+
+import static org.bytedeco.llvm.global.LLVM.*;
+
+/**
+ * 局部数组的标量替换：元素不多、且只用常量下标访问的局部数组，拆成每个元素一个标量 alloca，
+ * 之后由 Mem2Reg 提升为 SSA 值，寄存器分配可以把它们放在寄存器里，不再经过栈上的数组
+ *   %a = alloca [4 x i32]                           %a_e0 = alloca i32   %a_e2 = alloca i32
+ *   %p = getelementptr %a, 0, 2; store 7, %p   ->   store 7, %a_e2
+ * 数组的所有使用都必须是（经过若干层 GEP 的）load/store 地址或常量长度的 memset 目的地址，并且偏移量是常量；
+ * memset 改为对覆盖到的每个元素各 store 一次。被传给函数、按变量下标访问的数组保持不变。多维数组按展平后的偏移拆分
+ * 完全展开循环后下标常常变成常量，因此在 LoopUnroll 之后再执行一次
+ */
+public class SROA extends FunctionPass {
+    // 拆分的数组元素个数上限
+    private static final int MAX_ELEMENTS = 32;
+    private static final int ELEMENT_SIZE = 4;
+
+    private LLVMBuilderRef builderRef;
+
+    private int splitArrays = 0;
+    private int createdScalars = 0;
+
+    @Override
+    public String getName() {
+        return "sroa";
+    }
+
+    @Override
+    public Map<String, Integer> getStatistics() {
+        Map<String, Integer> stats = new LinkedHashMap<>();
+        stats.put("拆分的数组", splitArrays);
+        stats.put("产生的标量", createdScalars);
+        return stats;
+    }
+
+    @Override
+    public boolean runOnFunction(LLVMValueRef function, AnalysisManager analyses) {
+        List<LLVMValueRef> arrays = new ArrayList<>();
+        for (LLVMBasicBlockRef bb = LLVMGetFirstBasicBlock(function); bb != null; bb = LLVMGetNextBasicBlock(bb)) {
+            for (LLVMValueRef inst = LLVMGetFirstInstruction(bb); inst != null; inst = LLVMGetNextInstruction(inst)) {
+                if (LLVMGetInstructionOpcode(inst) == LLVMAlloca && isSmallArray(LLVMGetAllocatedType(inst))) arrays.add(inst);
+            }
+        }
+        if (arrays.isEmpty()) return false;
+
+        builderRef = LLVMCreateBuilderInContext(LLVMGetModuleContext(LLVMGetGlobalParent(function)));
+        boolean changed = false;
+        for (LLVMValueRef array : arrays) {
+            changed |= split(function, array);
+        }
+        LLVMDisposeBuilder(builderRef);
+        return changed;
+    }
+
+    private boolean isSmallArray(LLVMTypeRef type) {
+        if (LLVMGetTypeKind(type) != LLVMArrayTypeKind || elementCount(type) > MAX_ELEMENTS) return false;
+        while (LLVMGetTypeKind(type) == LLVMArrayTypeKind) type = LLVMGetElementType(type);
+        return LLVMGetTypeKind(type) == LLVMIntegerTypeKind && LLVMGetIntTypeWidth(type) == 32;
+    }
+
+    // 多维数组展平后的元素个数
+    private long elementCount(LLVMTypeRef type) {
+        long elements = 1;
+        while (LLVMGetTypeKind(type) == LLVMArrayTypeKind) {
+            elements *= LLVMGetArrayLength(type);
+            type = LLVMGetElementType(type);
+        }
+        return elements;
+    }
+
+    private boolean split(LLVMValueRef function, LLVMValueRef array) {
+        // 1. 收集所有访问及其元素下标，中间的 GEP 按使用的先后记录，删除时倒序
+        List<LLVMValueRef> accesses = new ArrayList<>();
+        List<LLVMValueRef> geps = new ArrayList<>();
+        if (!collectAccesses(array, accesses, geps)) return false;
+        long elements = elementCount(LLVMGetAllocatedType(array));
+        Map<LLVMValueRef, Long> indexOf = new HashMap<>();
+        for (LLVMValueRef access : accesses) {
+            Long offset = AliasAnalysis.constantOffset(pointerOf(access));
+            long size = accessSize(access);
+            if (offset == null || offset % ELEMENT_SIZE != 0 || size % ELEMENT_SIZE != 0 || offset < 0
+                    || (offset + size) / ELEMENT_SIZE > elements) return false;
+            indexOf.put(access, offset / ELEMENT_SIZE);
+        }
+
+        // 2. 每个用到的元素一个标量 alloca，放在入口块开头
+        String name = IrUtils.nameOf(array).isEmpty() ? "arr" : IrUtils.nameOf(array);
+        LLVMTypeRef i32 = LLVMInt32TypeInContext(LLVMGetModuleContext(LLVMGetGlobalParent(function)));
+        Map<Long, LLVMValueRef> scalars = new TreeMap<>();
+        LLVMPositionBuilderBefore(builderRef, LLVMGetFirstInstruction(LLVMGetEntryBasicBlock(function)));
+        for (LLVMValueRef access : accesses) {
+            long first = indexOf.get(access);
+            for (long index = first; index < first + accessSize(access) / ELEMENT_SIZE; index++) {
+                if (!scalars.containsKey(index)) {
+                    scalars.put(index, LLVMBuildAlloca(builderRef, i32, name + "_e" + index));
+                    createdScalars++;
+                }
+            }
+        }
+        for (LLVMValueRef access : accesses) {
+            long first = indexOf.get(access);
+            int opcode = LLVMGetInstructionOpcode(access);
+            if (opcode != LLVMCall) {
+                LLVMSetOperand(access, opcode == LLVMLoad ? 0 : 1, scalars.get(first));
+                continue;
+            }
+            // memset 的每个字节相同，覆盖的每个元素存入该字节重复 4 次的字
+            long fillByte = LLVMConstIntGetZExtValue(LLVMGetOperand(access, 1)) & 0xff;
+            LLVMValueRef word = LLVMConstInt(i32, fillByte * 0x01010101L, 0);
+            LLVMPositionBuilderBefore(builderRef, access);
+            for (long index = first; index < first + accessSize(access) / ELEMENT_SIZE; index++) {
+                LLVMBuildStore(builderRef, word, scalars.get(index));
+            }
+            LLVMInstructionEraseFromParent(access);
+        }
+
+        // 3. 删除不再使用的 GEP 和数组本身
+        for (int i = geps.size() - 1; i >= 0; i--) {
+            LLVMInstructionEraseFromParent(geps.get(i));
+        }
+        LLVMInstructionEraseFromParent(array);
+        splitArrays++;
+        return true;
+    }
+
+    //辅助方法：pointer 的所有使用都是 GEP、load 地址、store 地址（不能是被存储的值）或 memset 目的地址
+    private boolean collectAccesses(LLVMValueRef pointer, List<LLVMValueRef> accesses, List<LLVMValueRef> geps) {
+        for (LLVMUseRef use = LLVMGetFirstUse(pointer); use != null; use = LLVMGetNextUse(use)) {
+            LLVMValueRef user = LLVMGetUser(use);
+            switch (LLVMGetInstructionOpcode(user)) {
+                case LLVMGetElementPtr:
+                    if (!LLVMGetOperand(user, 0).equals(pointer)) return false;
+                    geps.add(user);
+                    if (!collectAccesses(user, accesses, geps)) return false;
+                    break;
+                case LLVMLoad:
+                    if (LLVMGetIntTypeWidth(LLVMTypeOf(user)) != 32) return false;
+                    accesses.add(user);
+                    break;
+                case LLVMStore:
+                    if (LLVMGetOperand(user, 0).equals(pointer)) return false;
+                    accesses.add(user);
+                    break;
+                case LLVMCall:
+                    if (!IrUtils.isIntrinsicCall(user, "llvm.memset") || !LLVMGetOperand(user, 0).equals(pointer)
+                            || LLVMIsAConstantInt(LLVMGetOperand(user, 2)) == null) return false;
+                    accesses.add(user);
+                    break;
+                default:
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    private LLVMValueRef pointerOf(LLVMValueRef access) {
+        return LLVMGetOperand(access, LLVMGetInstructionOpcode(access) == LLVMStore ? 1 : 0);
+    }
+
+    // 访问的字节数：load/store 一个元素，memset 为其长度
+    private long accessSize(LLVMValueRef access) {
+        if (LLVMGetInstructionOpcode(access) != LLVMCall) return ELEMENT_SIZE;
+        return LLVMConstIntGetSExtValue(LLVMGetOperand(access, 2));
+    }
+}
@@ -0,0 +1,421 @@
+import org.bytedeco.llvm.LLVM.*;
+
+import java.util.*;
+
+import static org.bytedeco.llvm.global.LLVM.*;
+
+/**
+ * 标量演化分析：把循环中的整数值表示为加法递推（add-recurrence）
+ *   {c0, +, c1, +, c2, ...}：第 k 次迭代（从 0 开始）的值为 c0 + c1*C(k,1) + c2*C(k,2) + ...
+ * 系数是循环不变量上的多项式（Poly）。循环头 phi 的值每次迭代增加一个递推式 X 时，
+ * phi = {start, +, X}，例如 i = {0, +, 1}，s += i 时 s = {0, +, 0, +, 1}
+ * 支持 add/sub/mul/常量左移，次数不超过 MAX_DEGREE；其他指令和循环内的分支合并不建模
+ *
+ * 另外根据回边块的退出条件求循环头的执行次数，以及在预头中展开求值所需的指令
+ * 所有运算都按 32 位整数的回绕语义进行，与原循环逐次计算的结果一致
+ */
+public class ScalarEvolution {
+    // 递推式的最高次数：C(k,3) 的除法可以用 3 的模逆元精确计算，更高次需要除以 4 的倍数，无法精确计算
+    public static final int MAX_DEGREE = 3;
+    // 3 在模 2^32 下的逆元，用于精确除以 3
+    private static final long INVERSE_OF_3 = 0xAAAAAAABL;
+
+    private final LoopInfo.Loop loop;
+    private final CFG cfg;
+    private final Map<LLVMValueRef, AddRec> phiRecs = new HashMap<>();
+    private final Set<LLVMValueRef> failedPhis = new HashSet<>();
+    // 正在求解的循环头 phi，求解期间当作符号出现在自身的递推中
+    private final Set<LLVMValueRef> solving = new HashSet<>();
+
+    public ScalarEvolution(LoopInfo.Loop loop, CFG cfg) {
+        this.loop = loop;
+        this.cfg = cfg;
+    }
+
+    /**
+     * 循环不变量上的整数系数多项式：单项式（按地址排序的符号列表）-> 系数
+     */
+    public static final class Poly {
+        private final Map<List<LLVMValueRef>, Long> terms = new HashMap<>();
+
+        public static Poly constant(long value) {
+            Poly poly = new Poly();
+            poly.addTerm(Collections.emptyList(), value);
+            return poly;
+        }
+
+        public static Poly symbol(LLVMValueRef value) {
+            Poly poly = new Poly();
+            poly.addTerm(Collections.singletonList(value), 1);
+            return poly;
+        }
+
+        private void addTerm(List<LLVMValueRef> monomial, long coefficient) {
+            long sum = IrUtils.normalize(terms.getOrDefault(monomial, 0L) + coefficient, 32);
+            if (sum == 0) {
+                terms.remove(monomial);
+            } else {
+                terms.put(monomial, sum);
+            }
+        }
+
+        public Poly add(Poly other) {
+            Poly result = new Poly();
+            terms.forEach(result::addTerm);
+            other.terms.forEach(result::addTerm);
+            return result;
+        }
+
+        public Poly scale(long factor) {
+            Poly result = new Poly();
+            terms.forEach((monomial, c) -> result.addTerm(monomial, c * factor));
+            return result;
+        }
+
+        public Poly mul(Poly other) {
+            Poly result = new Poly();
+            for (Map.Entry<List<LLVMValueRef>, Long> a : terms.entrySet()) {
+                for (Map.Entry<List<LLVMValueRef>, Long> b : other.terms.entrySet()) {
+                    List<LLVMValueRef> monomial = new ArrayList<>(a.getKey());
+                    monomial.addAll(b.getKey());
+                    monomial.sort(Comparator.comparingLong(LLVMValueRef::address));
+                    result.addTerm(monomial, IrUtils.normalize(a.getValue() * b.getValue(), 32));
+                }
+            }
+            return result;
+        }
+
+        // 去掉单项式 symbol（系数为 1）；不存在时返回 null
+        Poly without(LLVMValueRef symbol) {
+            List<LLVMValueRef> monomial = Collections.singletonList(symbol);
+            if (terms.getOrDefault(monomial, 0L) != 1) return null;
+            Poly result = new Poly();
+            terms.forEach(result::addTerm);
+            result.terms.remove(monomial);
+            return result;
+        }
+
+        boolean mentions(Collection<LLVMValueRef> symbols) {
+            for (List<LLVMValueRef> monomial : terms.keySet()) {
+                for (LLVMValueRef symbol : monomial) {
+                    if (symbols.contains(symbol)) return true;
+                }
+            }
+            return false;
+        }
+
+        public boolean isZero() {
+            return terms.isEmpty();
+        }
+
+        public Long asConstant() {
+            if (terms.isEmpty()) return 0L;
+            if (terms.size() == 1 && terms.containsKey(Collections.<LLVMValueRef>emptyList())) {
+                return terms.get(Collections.<LLVMValueRef>emptyList());
+            }
+            return null;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Poly && terms.equals(((Poly) o).terms);
+        }
+
+        @Override
+        public int hashCode() {
+            return terms.hashCode();
+        }
+    }
+
+    /**
+     * 加法递推 {c0, +, c1, ...}，系数按二项式基 C(k, j) 给出，末尾的 0 系数去掉
+     */
+    public static final class AddRec {
+        private final List<Poly> coefficients;
+
+        AddRec(List<Poly> coefficients) {
+            List<Poly> trimmed = new ArrayList<>(coefficients);
+            while (trimmed.size() > 1 && trimmed.get(trimmed.size() - 1).isZero()) {
+                trimmed.remove(trimmed.size() - 1);
+            }
+            if (trimmed.isEmpty()) trimmed.add(Poly.constant(0));
+            this.coefficients = trimmed;
+        }
+
+        static AddRec invariant(Poly value) {
+            return new AddRec(Collections.singletonList(value));
+        }
+
+        public Poly get(int j) {
+            return j < coefficients.size() ? coefficients.get(j) : Poly.constant(0);
+        }
+
+        public int degree() {
+            return coefficients.size() - 1;
+        }
+
+        AddRec add(AddRec other) {
+            List<Poly> sum = new ArrayList<>();
+            for (int j = 0; j <= Math.max(degree(), other.degree()); j++) {
+                sum.add(get(j).add(other.get(j)));
+            }
+            return new AddRec(sum);
+        }
+
+        AddRec scale(long factor) {
+            List<Poly> scaled = new ArrayList<>();
+            for (Poly c : coefficients) scaled.add(c.scale(factor));
+            return new AddRec(scaled);
+        }
+
+        /**
+         * 乘积：C(k,i) * C(k,j) = sum_{l=max(i,j)}^{i+j} l! / ((l-i)! (l-j)! (i+j-l)!) * C(k,l)
+         * 次数超过 MAX_DEGREE 时返回 null
+         */
+        AddRec mul(AddRec other) {
+            if (degree() + other.degree() > MAX_DEGREE) return null;
+            List<Poly> product = new ArrayList<>();
+            for (int l = 0; l <= degree() + other.degree(); l++) product.add(Poly.constant(0));
+            for (int i = 0; i <= degree(); i++) {
+                for (int j = 0; j <= other.degree(); j++) {
+                    Poly term = get(i).mul(other.get(j));
+                    for (int l = Math.max(i, j); l <= i + j; l++) {
+                        long factor = factorial(l) / (factorial(l - i) * factorial(l - j) * factorial(i + j - l));
+                        product.set(l, product.get(l).add(term.scale(factor)));
+                    }
+                }
+            }
+            return new AddRec(product);
+        }
+
+        boolean mentions(Collection<LLVMValueRef> symbols) {
+            for (Poly c : coefficients) {
+                if (c.mentions(symbols)) return true;
+            }
+            return false;
+        }
+
+        private static long factorial(int n) {
+            long result = 1;
+            for (int i = 2; i <= n; i++) result *= i;
+            return result;
+        }
+    }
+
+    /**
+     * value 在第 k 次迭代的加法递推，无法建模时返回 null
+     */
+    public AddRec getAddRec(LLVMValueRef value) {
+        if (LLVMIsAConstantInt(value) != null) {
+            return AddRec.invariant(Poly.constant(LLVMConstIntGetSExtValue(value)));
+        }
+        if (LLVMGetTypeKind(LLVMTypeOf(value)) != LLVMIntegerTypeKind || LLVMGetIntTypeWidth(LLVMTypeOf(value)) != 32) {
+            return null;
+        }
+        if (LLVMIsAArgument(value) != null || solving.contains(value)) {
+            return AddRec.invariant(Poly.symbol(value));
+        }
+        if (LLVMIsAInstruction(value) == null) return null;
+        if (!loop.contains(LLVMGetInstructionParent(value))) {
+            return AddRec.invariant(Poly.symbol(value));
+        }
+
+        switch (LLVMGetInstructionOpcode(value)) {
+            case LLVMPHI:
+                return LLVMGetInstructionParent(value).equals(loop.getHeader()) ? solvePhi(value) : null;
+            case LLVMAdd:
+            case LLVMSub:
+            case LLVMMul: {
+                AddRec lhs = getAddRec(LLVMGetOperand(value, 0));
+                AddRec rhs = lhs == null ? null : getAddRec(LLVMGetOperand(value, 1));
+                if (rhs == null) return null;
+                int opcode = LLVMGetInstructionOpcode(value);
+                if (opcode == LLVMAdd) return lhs.add(rhs);
+                if (opcode == LLVMSub) return lhs.add(rhs.scale(-1));
+                return lhs.mul(rhs);
+            }
+            case LLVMShl: {
+                LLVMValueRef amount = LLVMGetOperand(value, 1);
+                if (LLVMIsAConstantInt(amount) == null) return null;
+                long shift = LLVMConstIntGetSExtValue(amount);
+                AddRec lhs = shift >= 0 && shift < 32 ? getAddRec(LLVMGetOperand(value, 0)) : null;
+                return lhs == null ? null : lhs.scale(1L << shift);
+            }
+            default:
+                return null;
+        }
+    }
+
+    //辅助方法：循环头 phi = {start, +, next - phi}，next - phi 中不能再出现 phi 自身和其他正在求解的 phi
+    private AddRec solvePhi(LLVMValueRef phi) {
+        if (phiRecs.containsKey(phi)) return phiRecs.get(phi);
+        if (failedPhis.contains(phi)) return null;
+        LLVMBasicBlockRef preheader = loop.getPreheader();
+        if (preheader == null || loop.getLatches().size() != 1 || LLVMCountIncoming(phi) != 2) return null;
+        LLVMValueRef start = IrUtils.incomingFor(phi, preheader);
+        LLVMValueRef next = IrUtils.incomingFor(phi, loop.getLatches().get(0));
+        AddRec startRec = start == null ? null : getAddRec(start);
+        if (startRec == null || next == null) return null;
+
+        solving.add(phi);
+        AddRec nextRec = getAddRec(next);
+        solving.remove(phi);
+
+        AddRec result = null;
+        Poly first = nextRec == null ? null : nextRec.get(0).without(phi);
+        if (first != null) {
+            List<Poly> step = new ArrayList<>(nextRec.coefficients);
+            step.set(0, first);
+            AddRec stepRec = new AddRec(step);
+            Set<LLVMValueRef> forbidden = new HashSet<>(solving);
+            forbidden.add(phi);
+            if (!stepRec.mentions(forbidden) && stepRec.degree() + 1 <= MAX_DEGREE) {
+                List<Poly> coefficients = new ArrayList<>();
+                coefficients.add(startRec.get(0));
+                coefficients.addAll(stepRec.coefficients);
+                result = new AddRec(coefficients);
+            }
+        }
+        // 只有不依赖其他正在求解的 phi 时结果才与求解顺序无关，可以缓存
+        if (result != null) {
+            phiRecs.put(phi, result);
+        } else if (solving.isEmpty()) {
+            failedPhis.add(phi);
+        }
+        return result;
+    }
+
+    /**
+     * 循环头的执行次数（至少为 1），要求回边块是唯一的退出块，以 icmp X, B 决定是否继续：
+     * X = {x0, +, ±1}，B 为循环不变量；slt/sgt 需要循环前有守卫保证第一次比较前未越界（或都是常量），
+     * ne 不需要守卫。无法确定时返回 null
+     */
+    public Poly getTripCount() {
+        LLVMBasicBlockRef header = loop.getHeader();
+        if (loop.getPreheader() == null || loop.getLatches().size() != 1) return null;
+        LLVMBasicBlockRef latch = loop.getLatches().get(0);
+        List<LLVMBasicBlockRef> exiting = loop.getExitingBlocks();
+        if (exiting.size() != 1 || !exiting.get(0).equals(latch)) return null;
+        LLVMValueRef terminator = LLVMGetBasicBlockTerminator(latch);
+        if (LLVMGetInstructionOpcode(terminator) != LLVMBr || LLVMIsConditional(terminator) == 0) return null;
+        LLVMValueRef cond = LLVMGetCondition(terminator);
+        if (LLVMIsAICmpInst(cond) == null) return null;
+
+        int predicate = LLVMGetICmpPredicate(cond);
+        if (!LLVMGetSuccessor(terminator, 0).equals(header)) predicate = IrUtils.invertPredicate(predicate);
+        AddRec lhs = getAddRec(LLVMGetOperand(cond, 0));
+        AddRec rhs = getAddRec(LLVMGetOperand(cond, 1));
+        if (lhs == null || rhs == null) return null;
+        if (lhs.degree() == 0 && rhs.degree() == 1) {
+            AddRec t = lhs;
+            lhs = rhs;
+            rhs = t;
+            predicate = IrUtils.swapPredicate(predicate);
+        }
+        if (lhs.degree() != 1 || rhs.degree() != 0) return null;
+        Long step = lhs.get(1).asConstant();
+        if (step == null || (step != 1 && step != -1)) return null;
+        Poly first = lhs.get(0);
+        Poly bound = rhs.get(0);
+
+        // 常量：直接求第一次不满足条件的迭代
+        Long firstValue = first.asConstant();
+        Long boundValue = bound.asConstant();
+        if (firstValue != null && boundValue != null) {
+            long distance = step * (boundValue - firstValue);
+            switch (predicate) {
+                case LLVMIntSLT: case LLVMIntSGT:
+                    if (predicate == (step > 0 ? LLVMIntSLT : LLVMIntSGT)) return Poly.constant(Math.max(distance, 0) + 1);
+                    return null;
+                case LLVMIntSLE: case LLVMIntSGE:
+                    if (predicate == (step > 0 ? LLVMIntSLE : LLVMIntSGE)) return Poly.constant(Math.max(distance + 1, 0) + 1);
+                    return null;
+                case LLVMIntNE:
+                    return distance >= 0 ? Poly.constant(distance + 1) : null;
+                default:
+                    return null;
+            }
+        }
+
+        // 第 k 次迭代的比较为 x0 + step*k pred B：严格比较在 k = step*(B - x0) 时第一次不满足，非严格比较再晚一次
+        Poly distance = bound.add(first.scale(-1)).scale(step);
+        if (predicate == LLVMIntNE) return distance.add(Poly.constant(1));
+        boolean strict = predicate == (step > 0 ? LLVMIntSLT : LLVMIntSGT);
+        if (!strict && predicate != (step > 0 ? LLVMIntSLE : LLVMIntSGE)) return null;
+        // 守卫保证 x0 - step pred B，即第一次比较之前没有越过边界
+        if (!isGuarded(first.add(Poly.constant(-step)), bound, predicate)) return null;
+        return distance.add(Poly.constant(strict ? 1 : 2));
+    }
+
+    //辅助方法：预头唯一的前驱以 init pred bound 为条件进入预头（LoopRotate 生成的守卫）
+    private boolean isGuarded(Poly init, Poly bound, int predicate) {
+        LLVMBasicBlockRef preheader = loop.getPreheader();
+        List<LLVMBasicBlockRef> preds = cfg.getPredecessors(preheader);
+        if (preds.size() != 1) return false;
+        LLVMValueRef guard = LLVMGetBasicBlockTerminator(preds.get(0));
+        if (LLVMGetInstructionOpcode(guard) != LLVMBr || LLVMIsConditional(guard) == 0) return false;
+        if (LLVMGetSuccessor(guard, 0).equals(LLVMGetSuccessor(guard, 1))) return false;
+        LLVMValueRef cond = LLVMGetCondition(guard);
+        if (LLVMIsAICmpInst(cond) == null) return false;
+        int guardPredicate = LLVMGetICmpPredicate(cond);
+        if (!LLVMGetSuccessor(guard, 0).equals(preheader)) guardPredicate = IrUtils.invertPredicate(guardPredicate);
+        AddRec lhs = getAddRec(LLVMGetOperand(cond, 0));
+        AddRec rhs = getAddRec(LLVMGetOperand(cond, 1));
+        if (lhs == null || rhs == null || lhs.degree() != 0 || rhs.degree() != 0) return false;
+        return (guardPredicate == predicate && lhs.get(0).equals(init) && rhs.get(0).equals(bound))
+                || (guardPredicate == IrUtils.swapPredicate(predicate) && lhs.get(0).equals(bound) && rhs.get(0).equals(init));
+    }
+
+    /**
+     * 在 builder 的位置生成多项式的值
+     */
+    public static LLVMValueRef expand(LLVMBuilderRef builder, Poly poly, String name) {
+        LLVMTypeRef i32 = LLVMInt32TypeInContext(LLVMGetTypeContext(LLVMTypeOf(LLVMBasicBlockAsValue(LLVMGetInsertBlock(builder)))));
+        LLVMValueRef sum = null;
+        List<List<LLVMValueRef>> monomials = new ArrayList<>(poly.terms.keySet());
+        monomials.sort(Comparator.comparingInt(List::size));
+        for (List<LLVMValueRef> monomial : monomials) {
+            long coefficient = poly.terms.get(monomial);
+            LLVMValueRef term = monomial.isEmpty() ? LLVMConstInt(i32, coefficient, 1) : null;
+            for (LLVMValueRef symbol : monomial) {
+                term = term == null ? symbol : LLVMBuildMul(builder, term, symbol, name + "_mul");
+            }
+            if (!monomial.isEmpty() && coefficient != 1) {
+                term = LLVMBuildMul(builder, term, LLVMConstInt(i32, coefficient, 1), name + "_mul");
+            }
+            sum = sum == null ? term : LLVMBuildAdd(builder, sum, term, name + "_add");
+        }
+        return sum == null ? LLVMConstInt(i32, 0, 0) : sum;
+    }
+
+    /**
+     * 在 builder 的位置生成递推式在第 iteration 次迭代时的值：sum c_j * C(iteration, j)
+     * C(m,2) 先把 m、m-1 中的偶数除以 2 再相乘，C(m,3) = C(m,2)*(m-2) 乘以 3 的模逆元，都是精确的
+     */
+    public static LLVMValueRef expandAt(LLVMBuilderRef builder, AddRec rec, LLVMValueRef iteration, String name) {
+        LLVMTypeRef i32 = LLVMTypeOf(iteration);
+        LLVMValueRef result = rec.get(0).isZero() ? null : expand(builder, rec.get(0), name);
+        LLVMValueRef binomial = iteration;
+        for (int j = 1; j <= rec.degree(); j++) {
+            if (j == 2) {
+                LLVMValueRef odd = LLVMBuildAnd(builder, iteration, LLVMConstInt(i32, 1, 0), name + "_odd");
+                LLVMValueRef even = LLVMBuildSub(builder, iteration, odd, name + "_even");
+                LLVMValueRef half = LLVMBuildLShr(builder, even, LLVMConstInt(i32, 1, 0), name + "_half");
+                // m 与 m-1 中除去偶数的另一个：m + (m - 1) - even
+                LLVMValueRef other = LLVMBuildSub(builder, LLVMBuildAdd(builder, iteration, odd, name + "_other_add"),
+                        LLVMConstInt(i32, 1, 0), name + "_other");
+                binomial = LLVMBuildMul(builder, half, other, name + "_c2");
+            } else if (j == 3) {
+                LLVMValueRef third = LLVMBuildSub(builder, iteration, LLVMConstInt(i32, 2, 0), name + "_m2");
+                LLVMValueRef product = LLVMBuildMul(builder, binomial, third, name + "_c3_mul");
+                binomial = LLVMBuildMul(builder, product, LLVMConstInt(i32, INVERSE_OF_3, 0), name + "_c3");
+            }
+            Poly c = rec.get(j);
+            if (c.isZero()) continue;
+            LLVMValueRef term = c.equals(Poly.constant(1)) ? binomial
+                    : LLVMBuildMul(builder, expand(builder, c, name), binomial, name + "_term");
+            result = result == null ? term : LLVMBuildAdd(builder, result, term, name + "_sum");
+        }
+        return result == null ? LLVMConstInt(i32, 0, 0) : result;
+    }
+}
@@ -0,0 +1,197 @@
+import org.bytedeco.llvm.LLVM.*;
+
+import java.util.*;
+
+import static org.bytedeco.llvm.global.LLVM.*;
+
+/**
+ * CFG 化简，反复执行直到不再变化：
+ * 1. 删除从入口不可达的块（break/continue/return 之后的死代码）
+ * 2. 两个目标相同或条件为常量的条件跳转改为无条件跳转
+ * 3. 只含一条无条件跳转的空块：把前驱直接连到它的目标（跳转链穿透）
+ * 4. 合并直线相连的块对：A 无条件跳到 B 且 B 只有 A 一个前驱
+ * 5. 删除所有入边值都相同的 phi
+ */
+public class SimplifyCFG extends FunctionPass {
+    private LLVMBuilderRef builderRef;
+
+    // 统计
+    private int removedUnreachable = 0;
+    private int foldedBranches = 0;
+    private int threadedBlocks = 0;
+    private int mergedBlocks = 0;
+    private int removedPhis = 0;
+
+    @Override
+    public String getName() {
+        return "simplifycfg";
+    }
+
+    @Override
+    public Map<String, Integer> getStatistics() {
+        Map<String, Integer> stats = new LinkedHashMap<>();
+        stats.put("删除的不可达块", removedUnreachable);
+        stats.put("化简的条件跳转", foldedBranches);
+        stats.put("穿透的空块", threadedBlocks);
+        stats.put("合并的块", mergedBlocks);
+        stats.put("删除的冗余 phi", removedPhis);
+        return stats;
+    }
+
+    @Override
+    public boolean runOnFunction(LLVMValueRef function, AnalysisManager analyses) {
+        builderRef = LLVMCreateBuilderInContext(LLVMGetModuleContext(LLVMGetGlobalParent(function)));
+        boolean changed = false;
+        boolean iterationChanged = true;
+        while (iterationChanged) {
+            // 每一步都会改变 CFG，本遍内部直接重新构建，结束后由 FunctionPass 统一作废缓存
+            iterationChanged = removeUnreachableBlocks(new CFG(function));
+            iterationChanged |= foldBranches(new CFG(function));
+            iterationChanged |= threadEmptyBlocks(new CFG(function));
+            iterationChanged |= mergeBlocks(new CFG(function));
+            iterationChanged |= removeRedundantPhis(function);
+            changed |= iterationChanged;
+        }
+        LLVMDisposeBuilder(builderRef);
+        return changed;
+    }
+
+    private boolean removeUnreachableBlocks(CFG cfg) {
+        List<LLVMBasicBlockRef> dead = new ArrayList<>();
+        for (LLVMBasicBlockRef bb : cfg.getBlocks()) {
+            if (!cfg.isReachable(bb)) dead.add(bb);
+        }
+        if (dead.isEmpty()) return false;
+        IrUtils.deleteBlocks(dead);
+        removedUnreachable += dead.size();
+        return true;
+    }
+
+    private boolean foldBranches(CFG cfg) {
+        boolean changed = false;
+        for (LLVMBasicBlockRef bb : cfg.getReversePostOrder()) {
+            LLVMValueRef terminator = LLVMGetBasicBlockTerminator(bb);
+            if (LLVMGetInstructionOpcode(terminator) != LLVMBr || LLVMIsConditional(terminator) == 0) continue;
+
+            LLVMValueRef cond = LLVMGetCondition(terminator);
+            LLVMBasicBlockRef trueBlock = LLVMGetSuccessor(terminator, 0);
+            LLVMBasicBlockRef falseBlock = LLVMGetSuccessor(terminator, 1);
+            LLVMBasicBlockRef taken;
+            if (trueBlock.equals(falseBlock)) {
+                taken = trueBlock;
+                // 同一目标的两条边变成一条，phi 去掉一个重复入边
+                IrUtils.removeIncomingFrom(taken, bb);
+            } else if (LLVMIsAConstantInt(cond) != null) {
+                taken = LLVMConstIntGetZExtValue(cond) != 0 ? trueBlock : falseBlock;
+                IrUtils.removeIncomingFrom(taken.equals(trueBlock) ? falseBlock : trueBlock, bb);
+            } else {
+                continue;
+            }
+            LLVMPositionBuilderBefore(builderRef, terminator);
+            LLVMBuildBr(builderRef, taken);
+            LLVMInstructionEraseFromParent(terminator);
+            foldedBranches++;
+            changed = true;
+        }
+        return changed;
+    }
+
+    //辅助方法：空块 B（无 phi，只有一条跳到 C 的 br）的前驱直接跳到 C
+    private boolean threadEmptyBlocks(CFG cfg) {
+        for (LLVMBasicBlockRef bb : cfg.getBlocks()) {
+            if (bb.equals(cfg.getEntry())) continue;
+            LLVMValueRef first = LLVMGetFirstInstruction(bb);
+            if (!first.equals(LLVMGetBasicBlockTerminator(bb))
+                    || LLVMGetInstructionOpcode(first) != LLVMBr || LLVMIsConditional(first) != 0) continue;
+            LLVMBasicBlockRef target = LLVMGetSuccessor(first, 0);
+            if (target.equals(bb)) continue; // 空的死循环
+
+            boolean changed = false;
+            boolean targetHasPhi = !IrUtils.phisOf(target).isEmpty();
+            List<LLVMBasicBlockRef> targetPreds = cfg.getPredecessors(target);
+            for (LLVMBasicBlockRef pred : new LinkedHashSet<>(cfg.getPredecessors(bb))) {
+                // 前驱已经直接连到 C 时，C 的 phi 会对同一前驱出现两个可能不同的入边值
+                if (targetHasPhi && targetPreds.contains(pred)) continue;
+
+                LLVMValueRef predTerminator = LLVMGetBasicBlockTerminator(pred);
+                int edges = 0;
+                for (int i = 0; i < LLVMGetNumSuccessors(predTerminator); i++) {
+                    if (LLVMGetSuccessor(predTerminator, i).equals(bb)) {
+                        LLVMSetSuccessor(predTerminator, i, target);
+                        edges++;
+                    }
+                }
+                // B 中没有定义任何值，phi 在 B 边上的值在 B 的前驱末尾同样可用
+                for (LLVMValueRef phi : IrUtils.phisOf(target)) {
+                    LLVMValueRef value = IrUtils.incomingFor(phi, bb);
+                    for (int i = 0; i < edges; i++) {
+                        IrUtils.addIncoming(phi, value, pred);
+                    }
+                }
+                changed = true;
+            }
+            if (changed) {
+                // B 失去全部前驱后由下一轮的不可达块删除处理（同时摘掉它在 C 中的入边）
+                threadedBlocks++;
+                return true; // CFG 已变化，重新构建后再继续
+            }
+        }
+        return false;
+    }
+
+    //辅助方法：A 无条件跳到 B 且 B 只有 A 一个前驱时，把 B 的指令搬到 A 末尾
+    private boolean mergeBlocks(CFG cfg) {
+        for (LLVMBasicBlockRef bb : cfg.getReversePostOrder()) {
+            LLVMValueRef terminator = LLVMGetBasicBlockTerminator(bb);
+            if (LLVMGetInstructionOpcode(terminator) != LLVMBr || LLVMIsConditional(terminator) != 0) continue;
+            LLVMBasicBlockRef succ = LLVMGetSuccessor(terminator, 0);
+            if (succ.equals(bb) || succ.equals(cfg.getEntry()) || cfg.getPredecessors(succ).size() != 1) continue;
+
+            // 只有一个前驱的块中的 phi 都是平凡的
+            for (LLVMValueRef phi : IrUtils.phisOf(succ)) {
+                LLVMReplaceAllUsesWith(phi, LLVMGetIncomingValue(phi, 0));
+                LLVMInstructionEraseFromParent(phi);
+            }
+            LLVMInstructionEraseFromParent(terminator);
+            LLVMValueRef inst = LLVMGetFirstInstruction(succ);
+            while (inst != null) {
+                LLVMValueRef next = LLVMGetNextInstruction(inst);
+                IrUtils.moveToEnd(builderRef, inst, bb);
+                inst = next;
+            }
+            for (LLVMBasicBlockRef after : successorsOf(bb)) {
+                IrUtils.replaceIncomingBlock(after, succ, bb);
+            }
+            LLVMDeleteBasicBlock(succ);
+            mergedBlocks++;
+            return true; // CFG 已变化，重新构建后再继续
+        }
+        return false;
+    }
+
+    private boolean removeRedundantPhis(LLVMValueRef function) {
+        boolean changed = false;
+        for (LLVMBasicBlockRef bb = LLVMGetFirstBasicBlock(function); bb != null; bb = LLVMGetNextBasicBlock(bb)) {
+            for (LLVMValueRef phi : IrUtils.phisOf(bb)) {
+                LLVMValueRef same = IrUtils.uniqueIncoming(phi);
+                if (same != null) {
+                    LLVMReplaceAllUsesWith(phi, same);
+                    LLVMInstructionEraseFromParent(phi);
+                    removedPhis++;
+                    changed = true;
+                }
+            }
+        }
+        return changed;
+    }
+
+    private static List<LLVMBasicBlockRef> successorsOf(LLVMBasicBlockRef block) {
+        List<LLVMBasicBlockRef> successors = new ArrayList<>();
+        LLVMValueRef terminator = LLVMGetBasicBlockTerminator(block);
+        for (int i = 0; i < LLVMGetNumSuccessors(terminator); i++) {
+            LLVMBasicBlockRef succ = LLVMGetSuccessor(terminator, i);
+            if (!successors.contains(succ)) successors.add(succ);
+        }
+        return successors;
+    }
+}
@@ -0,0 +1,210 @@
+import org.bytedeco.llvm.LLVM.*;
+
+import java.util.*;
+
+import static org.bytedeco.llvm.global.LLVM.*;
+
+/**
+ * 尾递归消除：函数在返回前调用自身时，把调用改为跳回函数开头，递归变成循环，不再每层建立栈帧
+ *   entry:  ...                     变为   entry_tre: br entry
+ *   B:      r = call f(x'); ret r          entry:     x = phi [x0, entry_tre], [x', B]  ...
+ *                                          B:         br entry
+ *
+ * 累加器形式 ret n + f(n - 1) / ret n * f(n - 1) 的加法和乘法满足结合律与交换律，用累加器 phi 保存已经
+ * 算出的部分：初值为单位元，每次尾递归时 acc' = acc op n，其他返回点返回 acc op 原返回值
+ *
+ * 其他尾调用（调用后直接返回调用结果）标记为 tail，后端有调用约定后可以直接跳转复用调用方的栈帧；
+ * 函数中有 alloca 时实参可能指向调用方的栈，不做变换也不标记
+ */
+public class TailRecursionElim extends FunctionPass {
+    private LLVMBuilderRef builderRef;
+
+    private int eliminatedCalls = 0;
+    private int accumulatorCalls = 0;
+    private int markedTailCalls = 0;
+
+    @Override
+    public String getName() {
+        return "tailcallelim";
+    }
+
+    @Override
+    public Map<String, Integer> getStatistics() {
+        Map<String, Integer> stats = new LinkedHashMap<>();
+        stats.put("消除的尾递归", eliminatedCalls);
+        stats.put("其中使用累加器", accumulatorCalls);
+        stats.put("标记的尾调用", markedTailCalls);
+        return stats;
+    }
+
+    /**
+     * 一个可以改为跳转的递归调用：call 之后紧跟 ret，或者紧跟一条以 call 结果为操作数的累加运算再 ret
+     */
+    private static class TailSite {
+        final LLVMValueRef call;
+        final LLVMValueRef accumulate; // 累加运算，没有时为 null
+
+        TailSite(LLVMValueRef call, LLVMValueRef accumulate) {
+            this.call = call;
+            this.accumulate = accumulate;
+        }
+
+        // 累加运算中 call 结果之外的另一个操作数（形参替换为 phi 之后再取）
+        LLVMValueRef operand() {
+            LLVMValueRef lhs = LLVMGetOperand(accumulate, 0);
+            return lhs.equals(call) ? LLVMGetOperand(accumulate, 1) : lhs;
+        }
+    }
+
+    @Override
+    public boolean runOnFunction(LLVMValueRef function, AnalysisManager analyses) {
+        if (hasAlloca(function)) return false;
+        builderRef = LLVMCreateBuilderInContext(LLVMGetModuleContext(LLVMGetGlobalParent(function)));
+
+        List<TailSite> sites = new ArrayList<>();
+        int accumulateOpcode = 0;
+        boolean changed = false;
+        for (LLVMBasicBlockRef bb = LLVMGetFirstBasicBlock(function); bb != null; bb = LLVMGetNextBasicBlock(bb)) {
+            TailSite site = findTailSite(bb);
+            if (site == null) continue;
+            LLVMValueRef callee = LLVMGetCalledValue(site.call);
+            if (!callee.equals(function)) {
+                // 调用其他函数的尾调用只做标记
+                if (site.accumulate == null && LLVMIsTailCall(site.call) == 0) {
+                    LLVMSetTailCall(site.call, 1);
+                    markedTailCalls++;
+                    changed = true;
+                }
+                continue;
+            }
+            // 整个函数只能使用同一种累加运算
+            if (site.accumulate != null) {
+                int opcode = LLVMGetInstructionOpcode(site.accumulate);
+                if (accumulateOpcode != 0 && accumulateOpcode != opcode) continue;
+                accumulateOpcode = opcode;
+            }
+            sites.add(site);
+        }
+        if (!sites.isEmpty()) {
+            eliminate(function, sites, accumulateOpcode);
+            changed = true;
+        }
+        LLVMDisposeBuilder(builderRef);
+        return changed;
+    }
+
+    private boolean hasAlloca(LLVMValueRef function) {
+        for (LLVMBasicBlockRef bb = LLVMGetFirstBasicBlock(function); bb != null; bb = LLVMGetNextBasicBlock(bb)) {
+            for (LLVMValueRef inst = LLVMGetFirstInstruction(bb); inst != null; inst = LLVMGetNextInstruction(inst)) {
+                if (LLVMGetInstructionOpcode(inst) == LLVMAlloca) return true;
+            }
+        }
+        return false;
+    }
+
+    private TailSite findTailSite(LLVMBasicBlockRef bb) {
+        LLVMValueRef ret = LLVMGetBasicBlockTerminator(bb);
+        if (ret == null || LLVMGetInstructionOpcode(ret) != LLVMRet) return null;
+        LLVMValueRef prev = LLVMGetPreviousInstruction(ret);
+        if (prev == null) return null;
+
+        // call; ret call  或  call; ret void
+        if (LLVMGetInstructionOpcode(prev) == LLVMCall) {
+            boolean returnsCall = LLVMGetNumOperands(ret) == 0 || LLVMGetOperand(ret, 0).equals(prev);
+            return returnsCall && onlyUsedBy(prev, ret) ? new TailSite(prev, null) : null;
+        }
+
+        // call; acc = call op v; ret acc
+        int opcode = LLVMGetInstructionOpcode(prev);
+        if (opcode != LLVMAdd && opcode != LLVMMul) return null;
+        if (LLVMGetNumOperands(ret) == 0 || !LLVMGetOperand(ret, 0).equals(prev) || !onlyUsedBy(prev, ret)) return null;
+        LLVMValueRef call = LLVMGetPreviousInstruction(prev);
+        if (call == null || LLVMGetInstructionOpcode(call) != LLVMCall || !onlyUsedBy(call, prev)) return null;
+        // acc = call op call 不是累加形式
+        if (LLVMGetOperand(prev, 0).equals(LLVMGetOperand(prev, 1))) return null;
+        return new TailSite(call, prev);
+    }
+
+    private boolean onlyUsedBy(LLVMValueRef value, LLVMValueRef user) {
+        for (LLVMUseRef use = LLVMGetFirstUse(value); use != null; use = LLVMGetNextUse(use)) {
+            if (!LLVMGetUser(use).equals(user)) return false;
+        }
+        return true;
+    }
+
+    private void eliminate(LLVMValueRef function, List<TailSite> sites, int accumulateOpcode) {
+        LLVMBasicBlockRef header = LLVMGetEntryBasicBlock(function);
+        String headerName = IrUtils.nameOf(LLVMBasicBlockAsValue(header));
+        LLVMContextRef context = LLVMGetModuleContext(LLVMGetGlobalParent(function));
+        LLVMTypeRef i32 = LLVMInt32TypeInContext(context);
+
+        // 1. 新的入口块只跳到原入口，原入口成为循环头
+        LLVMBasicBlockRef entry = LLVMInsertBasicBlockInContext(context, header, headerName + "_tre");
+        LLVMPositionBuilderAtEnd(builderRef, entry);
+        LLVMBuildBr(builderRef, header);
+
+        // 2. 每个形参对应一个 phi，函数内对形参的使用都改为使用 phi
+        List<LLVMValueRef> paramPhis = new ArrayList<>();
+        for (int i = 0; i < LLVMCountParams(function); i++) {
+            LLVMValueRef param = LLVMGetParam(function, i);
+            String name = IrUtils.nameOf(param).isEmpty() ? "param" + i : IrUtils.nameOf(param);
+            LLVMPositionBuilderBefore(builderRef, LLVMGetFirstInstruction(header));
+            LLVMValueRef phi = LLVMBuildPhi(builderRef, LLVMTypeOf(param), name + "_tre");
+            LLVMReplaceAllUsesWith(param, phi);
+            IrUtils.addIncoming(phi, param, entry);
+            paramPhis.add(phi);
+        }
+
+        // 3. 累加器 phi，初值为单位元
+        LLVMValueRef acc = null;
+        if (accumulateOpcode != 0) {
+            LLVMPositionBuilderBefore(builderRef, IrUtils.firstNonPhi(header));
+            acc = LLVMBuildPhi(builderRef, i32, "acc_tre");
+            IrUtils.addIncoming(acc, LLVMConstInt(i32, accumulateOpcode == LLVMAdd ? 0 : 1, 0), entry);
+        }
+
+        // 4. 其他返回点返回 acc op 原返回值（在改写尾递归之前做，新加的 ret 不会被误改）
+        if (acc != null) {
+            Set<LLVMBasicBlockRef> siteBlocks = new HashSet<>();
+            for (TailSite site : sites) siteBlocks.add(LLVMGetInstructionParent(site.call));
+            for (LLVMBasicBlockRef bb = LLVMGetFirstBasicBlock(function); bb != null; bb = LLVMGetNextBasicBlock(bb)) {
+                LLVMValueRef ret = LLVMGetBasicBlockTerminator(bb);
+                if (siteBlocks.contains(bb) || LLVMGetInstructionOpcode(ret) != LLVMRet) continue;
+                LLVMValueRef value = LLVMGetOperand(ret, 0);
+                // 递归出口通常直接返回单位元（return 0 / return 1），此时直接返回 acc
+                if (value.equals(LLVMGetIncomingValue(acc, 0))) {
+                    LLVMSetOperand(ret, 0, acc);
+                    continue;
+                }
+                LLVMPositionBuilderBefore(builderRef, ret);
+                LLVMSetOperand(ret, 0, accumulate(accumulateOpcode, acc, value, "ret_acc"));
+            }
+        }
+
+        // 5. 尾递归改为跳回循环头，实参成为形参 phi 的入边
+        for (TailSite site : sites) {
+            LLVMBasicBlockRef block = LLVMGetInstructionParent(site.call);
+            LLVMValueRef ret = LLVMGetBasicBlockTerminator(block);
+            LLVMPositionBuilderBefore(builderRef, ret);
+            for (int i = 0; i < paramPhis.size(); i++) {
+                IrUtils.addIncoming(paramPhis.get(i), LLVMGetOperand(site.call, i), block);
+            }
+            if (acc != null) {
+                LLVMValueRef next = site.accumulate == null ? acc : accumulate(accumulateOpcode, acc, site.operand(), "acc_tre_next");
+                IrUtils.addIncoming(acc, next, block);
+            }
+            LLVMBuildBr(builderRef, header);
+            LLVMInstructionEraseFromParent(ret);
+            if (site.accumulate != null) {
+                LLVMInstructionEraseFromParent(site.accumulate);
+                accumulatorCalls++;
+            }
+            LLVMInstructionEraseFromParent(site.call);
+            eliminatedCalls++;
+        }
+    }
+
+    private LLVMValueRef accumulate(int opcode, LLVMValueRef acc, LLVMValueRef value, String name) {
+        return opcode == LLVMAdd ? LLVMBuildAdd(builderRef, acc, value, name) : LLVMBuildMul(builderRef, acc, value, name);
+    }
+}
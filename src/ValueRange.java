@@ -0,0 +1,370 @@
+import org.bytedeco.llvm.LLVM.*;
+
+import java.util.*;
+
+import static org.bytedeco.llvm.global.LLVM.*;
+
+/**
+ * 值域分析：为函数中每个 i32 值求一个有符号区间 [lo, hi]（按 32 位回绕语义，可能越界的运算得到全集）
+ * 常量是单点区间，参数、load 等未知来源是全集，算术与位运算按区间运算传播，phi 取各入边的并集
+ *
+ * 条件跳转在两条出边上分别约束被比较的值：某个块只有一个前驱且从 icmp 条件跳转的一条边进入时，
+ * 它支配的所有块都满足该比较（getRangeAt 沿支配树向上收集这些约束）；phi 的入边同样带上该边的约束，
+ * 因此循环头的归纳变量在回边上受到退出条件的限制，例如 i = phi [0, 预头], [i + 1, 回边] 且 i + 1 < 60 时 i ∈ [0, 59]
+ *
+ * 循环头 phi 的区间反复扩大时加宽到比较中出现的常量附近（阈值），保证迭代终止且不越过循环边界
+ * 只覆盖从入口可达的块
+ */
+public class ValueRange {
+    private static final long MIN = Integer.MIN_VALUE;
+    private static final long MAX = Integer.MAX_VALUE;
+    // phi 的区间变化超过这个次数后开始加宽
+    private static final int WIDEN_AFTER = 2;
+
+    /**
+     * 有符号区间 [lo, hi]，lo > hi 表示空集（不可达的路径）
+     */
+    public static final class Range {
+        public static final Range FULL = new Range(MIN, MAX);
+        public static final Range EMPTY = new Range(1, 0);
+
+        public final long lo;
+        public final long hi;
+
+        private Range(long lo, long hi) {
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        // 越过 32 位范围的结果可能回绕，只能是全集
+        public static Range of(long lo, long hi) {
+            if (lo > hi) return EMPTY;
+            if (lo < MIN || hi > MAX) return FULL;
+            return new Range(lo, hi);
+        }
+
+        public static Range constant(long value) {
+            return new Range(value, value);
+        }
+
+        public boolean isEmpty() {
+            return lo > hi;
+        }
+
+        public boolean isConstant() {
+            return lo == hi;
+        }
+
+        public boolean isNonNegative() {
+            return !isEmpty() && lo >= 0;
+        }
+
+        public Range union(Range other) {
+            if (isEmpty()) return other;
+            if (other.isEmpty()) return this;
+            return new Range(Math.min(lo, other.lo), Math.max(hi, other.hi));
+        }
+
+        public Range intersect(Range other) {
+            if (isEmpty() || other.isEmpty()) return EMPTY;
+            long newLo = Math.max(lo, other.lo);
+            long newHi = Math.min(hi, other.hi);
+            return newLo > newHi ? EMPTY : new Range(newLo, newHi);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Range)) return false;
+            Range other = (Range) o;
+            return (isEmpty() && other.isEmpty()) || (lo == other.lo && hi == other.hi);
+        }
+
+        @Override
+        public int hashCode() {
+            return isEmpty() ? 0 : Long.hashCode(lo * 31 + hi);
+        }
+
+        @Override
+        public String toString() {
+            return isEmpty() ? "[]" : "[" + lo + ", " + hi + "]";
+        }
+    }
+
+    private final CFG cfg;
+    private final DominatorTree domTree;
+    private final Map<LLVMValueRef, Range> ranges = new HashMap<>();
+    private final Map<LLVMValueRef, Integer> phiChanges = new HashMap<>();
+    private final TreeSet<Long> thresholds = new TreeSet<>();
+
+    public ValueRange(CFG cfg, DominatorTree domTree) {
+        this.cfg = cfg;
+        this.domTree = domTree;
+        collectThresholds();
+
+        // 按逆后序迭代到不动点：非 phi 指令的操作数总在它之前求出，phi 的区间只增不减
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (LLVMBasicBlockRef bb : cfg.getReversePostOrder()) {
+                for (LLVMValueRef inst = LLVMGetFirstInstruction(bb); inst != null; inst = LLVMGetNextInstruction(inst)) {
+                    if (!isTracked(inst)) continue;
+                    Range old = ranges.get(inst);
+                    Range range = transfer(inst);
+                    if (old != null && IrUtils.isPhi(inst)) {
+                        range = range.union(old);
+                        if (!range.equals(old) && phiChanges.merge(inst, 1, Integer::sum) > WIDEN_AFTER) {
+                            range = widen(old, range);
+                        }
+                    }
+                    if (!range.equals(old)) {
+                        ranges.put(inst, range);
+                        changed = true;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * value 在定义处的区间，不是 i32 的值返回全集
+     */
+    public Range getRange(LLVMValueRef value) {
+        if (LLVMIsAConstantInt(value) != null) return Range.constant(LLVMConstIntGetSExtValue(value));
+        if (!isTracked(value)) return Range.FULL;
+        Range range = ranges.get(value);
+        return range == null ? Range.EMPTY : range; // 尚未求值（或不可达）
+    }
+
+    /**
+     * value 在 block 中使用时的区间：加上支配 block 的条件跳转边上的约束
+     */
+    public Range getRangeAt(LLVMValueRef value, LLVMBasicBlockRef block) {
+        Range range = getRange(value);
+        if (LLVMIsAConstantInt(value) != null || !cfg.isReachable(block)) return range;
+        for (LLVMBasicBlockRef bb = block; ; bb = domTree.getIdom(bb)) {
+            List<LLVMBasicBlockRef> preds = cfg.getPredecessors(bb);
+            if (preds.size() == 1) {
+                range = constrainOnEdge(value, range, preds.get(0), bb);
+            }
+            if (bb.equals(cfg.getEntry())) break;
+        }
+        return range;
+    }
+
+    /**
+     * 比较 a pred b 的结果：区间决定了结果时返回它，否则返回 null
+     */
+    public static Boolean evaluate(int predicate, Range a, Range b) {
+        if (a.isEmpty() || b.isEmpty()) return null;
+        switch (predicate) {
+            case LLVMIntEQ:
+                if (a.isConstant() && b.isConstant() && a.lo == b.lo) return true;
+                return a.intersect(b).isEmpty() ? false : null;
+            case LLVMIntNE: {
+                Boolean equal = evaluate(LLVMIntEQ, a, b);
+                return equal == null ? null : !equal;
+            }
+            case LLVMIntSLT:
+                if (a.hi < b.lo) return true;
+                return a.lo >= b.hi ? false : null;
+            case LLVMIntSLE:
+                if (a.hi <= b.lo) return true;
+                return a.lo > b.hi ? false : null;
+            case LLVMIntSGT:
+            case LLVMIntSGE:
+                return evaluate(IrUtils.swapPredicate(predicate), b, a);
+            default:
+                // 无符号比较：两边都非负时与有符号比较相同
+                if (!a.isNonNegative() || !b.isNonNegative()) return null;
+                return evaluate(signedVersion(predicate), a, b);
+        }
+    }
+
+    private static int signedVersion(int predicate) {
+        switch (predicate) {
+            case LLVMIntULT: return LLVMIntSLT;
+            case LLVMIntULE: return LLVMIntSLE;
+            case LLVMIntUGT: return LLVMIntSGT;
+            default: return LLVMIntSGE;
+        }
+    }
+
+    private boolean isTracked(LLVMValueRef value) {
+        if (LLVMIsAInstruction(value) == null) return false;
+        LLVMTypeRef type = LLVMTypeOf(value);
+        return LLVMGetTypeKind(type) == LLVMIntegerTypeKind && LLVMGetIntTypeWidth(type) == 32
+                && cfg.isReachable(LLVMGetInstructionParent(value));
+    }
+
+    //辅助方法：加宽阈值为比较中出现的常量 c 及 c ± 1，再加上 32 位的边界
+    private void collectThresholds() {
+        thresholds.addAll(Arrays.asList(MIN, MIN + 1, -1L, 0L, 1L, MAX - 1, MAX));
+        for (LLVMBasicBlockRef bb : cfg.getReversePostOrder()) {
+            for (LLVMValueRef inst = LLVMGetFirstInstruction(bb); inst != null; inst = LLVMGetNextInstruction(inst)) {
+                if (LLVMGetInstructionOpcode(inst) != LLVMICmp) continue;
+                for (int i = 0; i < 2; i++) {
+                    LLVMValueRef operand = LLVMGetOperand(inst, i);
+                    if (LLVMIsAConstantInt(operand) == null) continue;
+                    long c = LLVMConstIntGetSExtValue(operand);
+                    for (long t = c - 1; t <= c + 1; t++) {
+                        if (t >= MIN && t <= MAX) thresholds.add(t);
+                    }
+                }
+            }
+        }
+    }
+
+    private Range widen(Range old, Range range) {
+        long lo = range.lo < old.lo ? thresholds.floor(range.lo) : old.lo;
+        long hi = range.hi > old.hi ? thresholds.ceiling(range.hi) : old.hi;
+        return Range.of(lo, hi);
+    }
+
+    private Range transfer(LLVMValueRef inst) {
+        int opcode = LLVMGetInstructionOpcode(inst);
+        if (opcode == LLVMPHI) {
+            Range range = Range.EMPTY;
+            for (int i = 0; i < LLVMCountIncoming(inst); i++) {
+                LLVMBasicBlockRef pred = LLVMGetIncomingBlock(inst, i);
+                if (!cfg.isReachable(pred)) continue;
+                LLVMValueRef incoming = LLVMGetIncomingValue(inst, i);
+                Range edge = constrainOnEdge(incoming, getRangeAt(incoming, pred), pred, LLVMGetInstructionParent(inst));
+                range = range.union(edge);
+            }
+            return range;
+        }
+        switch (opcode) {
+            case LLVMZExt: {
+                int width = LLVMGetIntTypeWidth(LLVMTypeOf(LLVMGetOperand(inst, 0)));
+                return width >= 32 ? Range.FULL : Range.of(0, (1L << width) - 1);
+            }
+            case LLVMSExt: {
+                int width = LLVMGetIntTypeWidth(LLVMTypeOf(LLVMGetOperand(inst, 0)));
+                return width >= 32 ? Range.FULL : Range.of(-(1L << (width - 1)), (1L << (width - 1)) - 1);
+            }
+            case LLVMSelect:
+                return getRange(LLVMGetOperand(inst, 1)).union(getRange(LLVMGetOperand(inst, 2)));
+            case LLVMAdd:
+            case LLVMSub:
+            case LLVMMul:
+            case LLVMSDiv:
+            case LLVMSRem:
+            case LLVMAnd:
+            case LLVMOr:
+            case LLVMXor:
+            case LLVMShl:
+            case LLVMLShr:
+            case LLVMAShr:
+                break;
+            default:
+                return Range.FULL;
+        }
+        Range a = getRange(LLVMGetOperand(inst, 0));
+        Range b = getRange(LLVMGetOperand(inst, 1));
+        if (a.isEmpty() || b.isEmpty()) return Range.EMPTY;
+        switch (opcode) {
+            case LLVMAdd:
+                return Range.of(a.lo + b.lo, a.hi + b.hi);
+            case LLVMSub:
+                return Range.of(a.lo - b.hi, a.hi - b.lo);
+            case LLVMMul: {
+                long p1 = a.lo * b.lo, p2 = a.lo * b.hi, p3 = a.hi * b.lo, p4 = a.hi * b.hi;
+                return Range.of(Math.min(Math.min(p1, p2), Math.min(p3, p4)), Math.max(Math.max(p1, p2), Math.max(p3, p4)));
+            }
+            case LLVMSDiv:
+                return divide(a, b);
+            case LLVMSRem:
+                return remainder(a, b);
+            case LLVMAnd:
+                // 与上一个非负数，结果不超过它
+                if (a.isNonNegative() && b.isNonNegative()) return Range.of(0, Math.min(a.hi, b.hi));
+                if (a.isNonNegative()) return Range.of(0, a.hi);
+                if (b.isNonNegative()) return Range.of(0, b.hi);
+                return Range.FULL;
+            case LLVMOr:
+            case LLVMXor:
+                // 两个非负数按位运算不超过较大者所占的位数
+                if (!a.isNonNegative() || !b.isNonNegative()) return Range.FULL;
+                return Range.of(0, Long.highestOneBit(Math.max(Math.max(a.hi, b.hi), 1)) * 2 - 1);
+            default:
+                return shift(opcode, a, b);
+        }
+    }
+
+    private Range divide(Range a, Range b) {
+        if (b.isConstant() && b.lo != 0 && b.lo != -1) {
+            return b.lo > 0 ? Range.of(a.lo / b.lo, a.hi / b.lo) : Range.of(a.hi / b.lo, a.lo / b.lo);
+        }
+        if (a.isNonNegative() && b.lo > 0) return Range.of(a.lo / b.hi, a.hi / b.lo);
+        // |a / b| <= |a|
+        long magnitude = Math.max(Math.abs(a.lo), Math.abs(a.hi));
+        return Range.of(-magnitude, Math.min(magnitude, MAX));
+    }
+
+    // 余数的绝对值小于除数的绝对值，符号与被除数相同
+    private Range remainder(Range a, Range b) {
+        long limit = Math.max(Math.abs(b.lo), Math.abs(b.hi)) - 1;
+        long lo = a.lo >= 0 ? 0 : Math.max(a.lo, -limit);
+        long hi = a.hi <= 0 ? 0 : Math.min(a.hi, limit);
+        return Range.of(lo, hi);
+    }
+
+    private Range shift(int opcode, Range a, Range b) {
+        if (!b.isConstant() || b.lo < 0 || b.lo >= 32) return Range.FULL;
+        int amount = (int) b.lo;
+        switch (opcode) {
+            case LLVMShl:
+                return Range.of(a.lo * (1L << amount), a.hi * (1L << amount));
+            case LLVMAShr:
+                return Range.of(a.lo >> amount, a.hi >> amount);
+            default:
+                if (a.isNonNegative()) return Range.of(a.lo >> amount, a.hi >> amount);
+                return amount == 0 ? a : Range.of(0, 0xFFFFFFFFL >>> amount);
+        }
+    }
+
+    /**
+     * 沿 pred -> block 这条边进入时 value 满足的约束：pred 以 icmp 条件跳转且两个目标不同，
+     * value 是比较的一个操作数时，按走的是真边还是假边收窄 range
+     */
+    private Range constrainOnEdge(LLVMValueRef value, Range range, LLVMBasicBlockRef pred, LLVMBasicBlockRef block) {
+        LLVMValueRef terminator = LLVMGetBasicBlockTerminator(pred);
+        if (terminator == null || LLVMGetInstructionOpcode(terminator) != LLVMBr || LLVMIsConditional(terminator) == 0) return range;
+        LLVMBasicBlockRef onTrue = LLVMGetSuccessor(terminator, 0);
+        LLVMBasicBlockRef onFalse = LLVMGetSuccessor(terminator, 1);
+        if (onTrue.equals(onFalse)) return range;
+        LLVMValueRef cond = LLVMGetCondition(terminator);
+        if (LLVMIsAICmpInst(cond) == null) return range;
+        int predicate = LLVMGetICmpPredicate(cond);
+        if (block.equals(onFalse)) predicate = IrUtils.invertPredicate(predicate);
+        if (LLVMGetOperand(cond, 0).equals(value)) {
+            return refine(range, predicate, getRange(LLVMGetOperand(cond, 1)));
+        }
+        if (LLVMGetOperand(cond, 1).equals(value)) {
+            return refine(range, IrUtils.swapPredicate(predicate), getRange(LLVMGetOperand(cond, 0)));
+        }
+        return range;
+    }
+
+    //辅助方法：x ∈ range 且 x pred b（b 取值于 bound 中的某个值）时 x 的区间
+    private Range refine(Range range, int predicate, Range bound) {
+        if (bound.isEmpty()) return Range.EMPTY;
+        switch (predicate) {
+            case LLVMIntEQ: return range.intersect(bound);
+            case LLVMIntNE:
+                // 不等于一个常量只能去掉区间的端点
+                if (!bound.isConstant() || range.isEmpty()) return range;
+                if (range.lo == bound.lo) return Range.of(range.lo + 1, range.hi);
+                if (range.hi == bound.lo) return Range.of(range.lo, range.hi - 1);
+                return range;
+            case LLVMIntSLT: return range.intersect(Range.of(MIN, bound.hi - 1));
+            case LLVMIntSLE: return range.intersect(Range.of(MIN, bound.hi));
+            case LLVMIntSGT: return range.intersect(Range.of(bound.lo + 1, MAX));
+            case LLVMIntSGE: return range.intersect(Range.of(bound.lo, MAX));
+            // 与非负数做无符号小于比较，x 也一定非负
+            case LLVMIntULT: return bound.isNonNegative() ? range.intersect(Range.of(0, bound.hi - 1)) : range;
+            case LLVMIntULE: return bound.isNonNegative() ? range.intersect(Range.of(0, bound.hi)) : range;
+            default: return range;
+        }
+    }
+}